@@ -0,0 +1,33 @@
+package fi.wegar.balancepad;
+
+import android.app.Application;
+
+/**
+ * Starts opening the database as soon as the process starts, before the first activity is
+ * created, and times the start up to the first page of the list.
+ */
+public class BalanceApplication extends Application {
+
+	private static final Metrics.Timer STARTUP_TIMER = Metrics.timer("startupToFirstPage");
+
+	// System.nanoTime() when the process started, 0 once the start has been recorded
+	private static long sStartNanos;
+
+	@Override
+	public void onCreate() {
+		super.onCreate();
+		sStartNanos = System.nanoTime();
+		SharedDatabase.prepare(this);
+	}
+
+	/**
+	 * Records the time from the start of the process to the first page of the list, once per
+	 * process. Called on the main thread.
+	 */
+	static void firstPageShown() {
+		if (sStartNanos != 0 && Metrics.isEnabled()) {
+			STARTUP_TIMER.stop(sStartNanos);
+		}
+		sStartNanos = 0;
+	}
+}
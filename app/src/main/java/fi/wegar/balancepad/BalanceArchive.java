@@ -0,0 +1,280 @@
+package fi.wegar.balancepad;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Schema of the archive, a cold table that old entries are moved to so that the balance table
+ * and its indexes only hold recent history. An archived entry keeps its rowId. Triggers on the
+ * archive add its entries to the currency and month totals and to the search index, so moving
+ * an entry in either direction leaves every total unchanged and the totals go on summing up the
+ * archived months. Entries marked deleted are never archived, and archived entries are not
+ * changed in place: they are moved back to the balance table first.
+ *
+ * Queries of the entries only read the archive when the dates they ask for reach into the
+ * archive of their ledger, see {@link #overlaps(SQLiteDatabase, long, long, long)} and
+ * {@link #newestDate(SQLiteDatabase, long)}.
+ */
+final class BalanceArchive {
+
+	static final String TABLE = "balance_archive";
+
+	/**
+	 * Value of {@link #newestDate(SQLiteDatabase)} while nothing has been archived
+	 */
+	static final long EMPTY = Long.MIN_VALUE;
+
+	private static final String TABLE_CREATE =
+		"create table " + TABLE + " (_id integer primary key, "
+		+ "description text not null, amount integer not null, "
+		+ "currency_id integer not null references " + CurrencyCache.TABLE + " (_id), "
+		+ "event_date long not null, category_id integer references " + Categories.TABLE + " (_id), "
+		+ "ledger_id integer not null default " + Ledgers.DEFAULT_LEDGER + " references " + Ledgers.TABLE + " (_id), "
+		+ "uid text);";
+
+	// looks up an archived entry by its global id for replication
+	private static final String UID_INDEX_CREATE = "create unique index balance_archive_uid_idx on " + TABLE + " (uid);";
+
+	// the indexes of the archive before there were ledgers, replaced by LEDGER_INDEXES_CREATE
+	private static final String[] INDEX_NAMES_BEFORE_LEDGERS = new String[] {
+		"balance_archive_event_date_idx", "balance_archive_category_date_idx", "balance_archive_currency_date_idx"
+	};
+
+	// the indexes of the list and of the filtered queries, as on the balance table
+	private static final String[] LEDGER_INDEXES_CREATE = new String[] {
+		"create index balance_archive_ledger_date_idx on " + TABLE + " (ledger_id, event_date);",
+		"create index balance_archive_ledger_category_date_idx on " + TABLE + " (ledger_id, category_id, event_date);",
+		"create index balance_archive_ledger_currency_date_idx on " + TABLE + " (ledger_id, currency_id, event_date);"
+	};
+
+	private static final String[] TRIGGERS_CREATE = new String[] {
+		"create trigger balance_archive_insert after insert on " + TABLE + " begin "
+			+ BalanceTotals.ADD_NEW
+			+ BalanceSearch.INDEX_NEW + " end;",
+		"create trigger balance_archive_delete after delete on " + TABLE + " begin "
+			+ BalanceTotals.REMOVE_OLD
+			+ "delete from " + BalanceSearch.FTS_TABLE + " where docid = old._id; end;"
+	};
+
+	private static final String[] TRIGGER_NAMES = new String[] {
+		"balance_archive_insert", "balance_archive_delete"
+	};
+
+	private static final String COLUMNS = "_id, description, amount, currency_id, event_date, category_id, ledger_id, uid";
+
+	/**
+	 * Entries on their way between the tables. A row leaves one table before it enters the
+	 * other, so the triggers never see an entry in both and the search index never has its
+	 * docid twice.
+	 */
+	private static final String MOVE_TABLE = "temp.balance_move";
+
+	private static final String MOVE_TABLE_CREATE =
+		"create table if not exists " + MOVE_TABLE + " (_id integer primary key, "
+		+ "description text, amount integer, currency_id integer, event_date long, category_id integer, "
+		+ "ledger_id integer, uid text);";
+
+	/**
+	 * The oldest entries of the ledger given by the first argument dated before the second argument,
+	 * at most the third argument of them
+	 */
+	private static final String OLDEST = "_id in (select _id from " + BalanceDbAdapter.DATABASE_TABLE
+		+ " where ledger_id = ? and event_date < ? and " + BalanceDbAdapter.NOT_DELETED
+		+ " order by event_date, _id limit ?)";
+
+	private BalanceArchive() {
+	}
+
+	/**
+	 * Creates the archive and its triggers. The search index and the total tables are written
+	 * by the triggers but need not exist yet.
+	 */
+	static void create(SQLiteDatabase db) {
+		db.execSQL(TABLE_CREATE);
+		for (String index : LEDGER_INDEXES_CREATE) {
+			db.execSQL(index);
+		}
+		db.execSQL(UID_INDEX_CREATE);
+		createTriggers(db);
+	}
+
+	/**
+	 * Creates the triggers that count the archived entries and index them for search
+	 */
+	static void createTriggers(SQLiteDatabase db) {
+		for (String trigger : TRIGGERS_CREATE) {
+			db.execSQL(trigger);
+		}
+	}
+
+	/**
+	 * Drops the triggers of the archive, for emptying it without uncounting its entries one by one
+	 */
+	static void dropTriggers(SQLiteDatabase db) {
+		for (String trigger : TRIGGER_NAMES) {
+			db.execSQL("drop trigger if exists " + trigger);
+		}
+	}
+
+	/**
+	 * Adds the global id column to an archive created before there were global ids and gives
+	 * every archived entry its id
+	 */
+	static void addUids(SQLiteDatabase db) {
+		db.execSQL("alter table " + TABLE + " add column uid text");
+		db.execSQL("update " + TABLE + " set uid = " + ChangeJournal.NEW_UID);
+		db.execSQL(UID_INDEX_CREATE);
+	}
+
+	/**
+	 * Adds the category column to an archive created before categories existed. The indexes of
+	 * the filtered queries come with the ledgers, see {@link #addLedgers(SQLiteDatabase)}.
+	 */
+	static void addCategories(SQLiteDatabase db) {
+		db.execSQL("alter table " + TABLE + " add column category_id integer references "
+				+ Categories.TABLE + " (_id)");
+	}
+
+	/**
+	 * Adds the ledger column to an archive created before there were ledgers, replaces its
+	 * indexes with those led by the ledger and creates the triggers again for the totals of
+	 * the ledgers
+	 */
+	static void addLedgers(SQLiteDatabase db) {
+		for (String index : INDEX_NAMES_BEFORE_LEDGERS) {
+			db.execSQL("drop index if exists " + index);
+		}
+		db.execSQL("alter table " + TABLE + " add column ledger_id integer not null default "
+				+ Ledgers.DEFAULT_LEDGER + " references " + Ledgers.TABLE + " (_id)");
+		for (String index : LEDGER_INDEXES_CREATE) {
+			db.execSQL(index);
+		}
+		dropTriggers(db);
+		createTriggers(db);
+	}
+
+	/**
+	 * Moves up to limit of the oldest entries dated before the given time to the archive, in one
+	 * transaction. Each ledger is read from its own range of the ledger and date index, the
+	 * ledgers in turn until limit entries have been moved.
+	 *
+	 * @param before only entries with an earlier event date are moved, in milliseconds
+	 * @return number of entries moved
+	 */
+	static int archive(SQLiteDatabase db, long before, int limit) {
+		db.beginTransaction();
+		Cursor ledgers = db.query(Ledgers.TABLE, new String[] {"_id"}, null, null, null, null, null);
+		try {
+			int moved = 0;
+			while (moved < limit && ledgers.moveToNext()) {
+				moved += move(db, BalanceDbAdapter.DATABASE_TABLE, TABLE, OLDEST, new String[] {
+						ledgers.getString(0), Long.toString(before), Integer.toString(limit - moved)});
+			}
+			db.setTransactionSuccessful();
+			return moved;
+		} finally {
+			ledgers.close();
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Moves archived entries back to the balance table. Call within the transaction that goes
+	 * on to change them.
+	 *
+	 * @param selection selects the entries by rowId
+	 * @return number of entries moved
+	 */
+	static int restore(SQLiteDatabase db, String selection, String[] args) {
+		return move(db, TABLE, BalanceDbAdapter.DATABASE_TABLE, selection, args);
+	}
+
+	/**
+	 * Moves the selected rows from one table to the other through {@link #MOVE_TABLE}. The
+	 * delete and the insert fire the triggers of the two tables, which cancel out.
+	 */
+	private static int move(SQLiteDatabase db, String from, String to, String selection, String[] args) {
+		db.execSQL(MOVE_TABLE_CREATE);
+		db.execSQL("insert into " + MOVE_TABLE + " (" + COLUMNS + ") select " + COLUMNS + " from " + from
+				+ " where " + selection, args == null ? new String[0] : args);
+		int moved = db.delete(from, "_id in (select _id from " + MOVE_TABLE + ")", null);
+		db.execSQL("insert into " + to + " (" + COLUMNS + ") select " + COLUMNS + " from " + MOVE_TABLE);
+		db.execSQL("delete from " + MOVE_TABLE);
+		return moved;
+	}
+
+	/**
+	 * @return the event date of the newest archived entry of the ledger, or {@link #EMPTY}
+	 */
+	static long newestDate(SQLiteDatabase db, long ledgerId) {
+		// answered from the end of the range of the ledger in the ledger and date index
+		Cursor c = db.rawQuery("select max(event_date) from " + TABLE + " where ledger_id = ?",
+				new String[] {Long.toString(ledgerId)});
+		try {
+			return c.moveToFirst() && !c.isNull(0) ? c.getLong(0) : EMPTY;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * @return true if any archived entry of the ledger has fromDate <= event_date < toDate
+	 */
+	static boolean overlaps(SQLiteDatabase db, long ledgerId, long fromDate, long toDate) {
+		Cursor c = db.rawQuery("select 1 from " + TABLE + " where ledger_id = ? and event_date >= ? "
+				+ "and event_date < ? limit 1",
+				new String[] {Long.toString(ledgerId), Long.toString(fromDate), Long.toString(toDate)});
+		try {
+			return c.getCount() > 0;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Builds a query over the entries of both tables. With an order, SQLite merges the two
+	 * ordered halves, each read from its own index.
+	 *
+	 * @param columns columns present in both tables, including those of the order
+	 * @param selection selection of the balance table, including {@link BalanceDbAdapter#NOT_DELETED}
+	 * @param archiveSelection selection of the archive taking the same arguments, or null for all
+	 * @param orderBy the order, or null
+	 * @param limit the limit, or null
+	 * @return the query, taking the arguments of the selection twice, see {@link #unionArgs(String[])}
+	 */
+	static String unionQuery(String[] columns, String selection, String archiveSelection, String orderBy,
+			String limit) {
+		StringBuilder select = new StringBuilder(128);
+		for (int i = 0; i < columns.length; i++) {
+			select.append(i == 0 ? "select " : ", ").append(columns[i]);
+		}
+
+		StringBuilder query = new StringBuilder(256);
+		query.append(select).append(" from ").append(BalanceDbAdapter.DATABASE_TABLE)
+			.append(" where ").append(selection)
+			.append(" union all ").append(select).append(" from ").append(TABLE);
+		if (archiveSelection != null) {
+			query.append(" where ").append(archiveSelection);
+		}
+		if (orderBy != null) {
+			query.append(" order by ").append(orderBy);
+		}
+		if (limit != null) {
+			query.append(" limit ").append(limit);
+		}
+		return query.toString();
+	}
+
+	/**
+	 * @return the arguments for a query built by {@link #unionQuery}, the given ones twice
+	 */
+	static String[] unionArgs(String[] args) {
+		if (args == null) {
+			return null;
+		}
+		String[] both = new String[args.length * 2];
+		System.arraycopy(args, 0, both, 0, args.length);
+		System.arraycopy(args, 0, both, args.length, args.length);
+		return both;
+	}
+}
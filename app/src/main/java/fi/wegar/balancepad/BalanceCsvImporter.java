@@ -0,0 +1,199 @@
+package fi.wegar.balancepad;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Bulk importer for balance entries stored as CSV. Each record holds the description, amount,
+ * currency code and event date (yyyy-MM-dd) of one entry. The entries go to the ledger the
+ * adapter is on.
+ *
+ * The file is streamed one record at a time and inserted through a single compiled statement.
+ * Rows are committed in transactions of a configurable number of rows, so a failure only
+ * rolls back the rows of the chunk being written.
+ */
+public class BalanceCsvImporter {
+
+	/**
+	 * Number of rows committed per transaction when no chunk size is set
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+	/**
+	 * Receives progress and per-row error reports while an import runs
+	 */
+	public interface Listener {
+
+		/**
+		 * Called after each committed chunk
+		 *
+		 * @param rowsImported number of rows imported so far
+		 * @param rowsFailed number of rows rejected so far
+		 */
+		void onProgress(int rowsImported, int rowsFailed);
+
+		/**
+		 * Called for every row that could not be imported
+		 *
+		 * @param lineNumber line on which the rejected record starts
+		 * @param reason human readable description of the problem
+		 */
+		void onRowError(int lineNumber, String reason);
+	}
+
+	private static final String INSERT_SQL = "insert into " + BalanceDbAdapter.DATABASE_TABLE
+			+ " (" + BalanceDbAdapter.KEY_DESCRIPTION
+			+ ", " + BalanceDbAdapter.KEY_AMOUNT + ", " + BalanceDbAdapter.KEY_CURRENCY_ID
+			+ ", " + BalanceDbAdapter.KEY_EVENT_DATE + ", " + BalanceDbAdapter.KEY_LEDGER_ID
+			+ ") values (?, ?, ?, ?, ?)";
+
+	private final BalanceDbAdapter mDbHelper;
+	private int mChunkSize = DEFAULT_CHUNK_SIZE;
+	private boolean mSkipHeader;
+	private char mSeparator = ',';
+	private Listener mListener;
+
+	// the importer is not meant to be shared between threads
+	private final CsvEntryParser mParser = new CsvEntryParser();
+	// ids of the currencies seen during the current import, see CurrencyCache.idOf
+	private final HashMap<String, Integer> mCurrencyIds = new HashMap<String, Integer>();
+
+	/**
+	 * @param dbHelper an opened database adapter to import into
+	 */
+	public BalanceCsvImporter(BalanceDbAdapter dbHelper) {
+		mDbHelper = dbHelper;
+	}
+
+	/**
+	 * @param chunkSize number of rows to commit per transaction
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunkSize must be positive");
+		}
+		mChunkSize = chunkSize;
+	}
+
+	/**
+	 * @param skipHeader true if the first record holds column names and should be ignored
+	 */
+	public void setSkipHeader(boolean skipHeader) {
+		mSkipHeader = skipHeader;
+	}
+
+	/**
+	 * @param separator the field separator, ',' by default
+	 */
+	public void setSeparator(char separator) {
+		mSeparator = separator;
+	}
+
+	/**
+	 * @param listener receives progress and error reports, may be null
+	 */
+	public void setListener(Listener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * Imports all records from the given source. Rows that fail validation are reported to
+	 * the listener and skipped. If reading fails, the chunks committed before the failure are kept.
+	 *
+	 * @param in the CSV source, it is read through an internal buffer
+	 * @return number of rows imported
+	 * @throws IOException if reading the source fails
+	 */
+	public int importCsv(Reader in) throws IOException {
+		SQLiteDatabase db = mDbHelper.getDatabase();
+		SQLiteStatement insert = db.compileStatement(INSERT_SQL);
+		// the same for every row, the binding is kept from one insert to the next
+		insert.bindLong(5, mDbHelper.getLedger());
+		mCurrencyIds.clear();
+
+		CsvReader reader = new CsvReader(in, mSeparator);
+		List<String> fields = new ArrayList<String>(CsvEntryParser.FIELD_COUNT);
+
+		int imported = 0;
+		int failed = 0;
+		int inChunk = 0;
+		boolean skip = mSkipHeader;
+
+		db.beginTransaction();
+		try {
+			while (reader.readRecord(fields)) {
+				if (skip) {
+					skip = false;
+					continue;
+				}
+				// ignore blank lines
+				if (fields.size() == 1 && fields.get(0).trim().length() == 0) {
+					continue;
+				}
+
+				String error = bindRow(insert, fields);
+				if (error == null && insert.executeInsert() < 0) {
+					error = "Insert failed";
+				}
+
+				if (error != null) {
+					failed++;
+					if (mListener != null) {
+						mListener.onRowError(reader.getRecordLineNumber(), error);
+					}
+					continue;
+				}
+
+				imported++;
+				if (++inChunk >= mChunkSize) {
+					db.setTransactionSuccessful();
+					db.endTransaction();
+					inChunk = 0;
+					if (mListener != null) {
+						mListener.onProgress(imported, failed);
+					}
+					db.beginTransaction();
+				}
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+			insert.close();
+		}
+
+		if (mListener != null) {
+			mListener.onProgress(imported, failed);
+		}
+		return imported;
+	}
+
+	/**
+	 * Validates a record and binds it to the insert statement
+	 *
+	 * @return null if the row was bound, otherwise the reason it was rejected
+	 */
+	private String bindRow(SQLiteStatement insert, List<String> fields) {
+		String error = mParser.parse(fields);
+		if (error != null) {
+			return error;
+		}
+
+		Integer currencyId = mCurrencyIds.get(mParser.currency);
+		if (currencyId == null) {
+			currencyId = mDbHelper.currencyId(mParser.currency);
+			mCurrencyIds.put(mParser.currency, currencyId);
+		}
+
+		insert.bindString(1, mParser.description);
+		insert.bindLong(2, mParser.amount);
+		insert.bindLong(3, currencyId);
+		insert.bindLong(4, mParser.eventDate);
+		return null;
+	}
+}
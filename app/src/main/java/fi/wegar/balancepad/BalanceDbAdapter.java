@@ -0,0 +1,1573 @@
+package fi.wegar.balancepad;
+
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.Date;
+import java.util.List;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Simple balance database access helper class. Defines the basic CRUD operations
+ * for the Balance Pad application, and gives the ability to list all entries as well as
+ * retrieve or modify a specific entry.
+ */
+public class BalanceDbAdapter {
+
+    public static final String KEY_DESCRIPTION = "description";
+    public static final String KEY_AMOUNT = "amount";
+    public static final String KEY_CURRENCY = "currency";
+    /**
+     * Id of the entry currency in the currency table, see {@link CurrencyCache}
+     */
+    public static final String KEY_CURRENCY_ID = "currency_id";
+    public static final String KEY_EVENT_DATE = "event_date";
+    /**
+     * Id of the entry category in the category table, null for entries without a category
+     */
+    public static final String KEY_CATEGORY_ID = "category_id";
+    /**
+     * Name of the entry category, see {@link Categories}
+     */
+    public static final String KEY_CATEGORY = "category";
+    /**
+     * Id of the ledger of the entry in the ledger table, see {@link Ledgers}
+     */
+    public static final String KEY_LEDGER_ID = "ledger_id";
+    public static final String KEY_ROWID = "_id";
+    /**
+     * Global id of the entry, a UUID that stays the same on every replica, see {@link ChangeJournal}
+     */
+    public static final String KEY_UID = "uid";
+    /**
+     * Time in milliseconds when the entry was deleted, 0 for entries that are not deleted
+     */
+    public static final String KEY_DELETED = "deleted";
+
+    /**
+     * Selection of the entries that have not been deleted. Deleted entries stay in the table
+     * until they are purged, so every query of the entries has to include this. The column is
+     * not indexed, an index would match nearly every row; the unary plus keeps SQLite from ever
+     * trading the index walk of the list for one with a scan and a sort.
+     */
+    static final String NOT_DELETED = "+" + KEY_DELETED + " = 0";
+
+    /**
+     * Number of entries fetched per page when the caller does not specify a page size
+     */
+    public static final int DEFAULT_PAGE_SIZE = 50;
+
+    private static final String TAG = "BalanceDbAdapter";
+    private DatabaseHelper mDbHelper;
+    private SQLiteDatabase mDb;
+    private EntryStatements mStatements;
+
+    /**
+     * Column definitions of the balance table as of version 5. Amounts are stored as a whole
+     * number of minor units of the entry currency, see {@link Amounts}.
+     */
+    private static final String BALANCE_COLUMNS_V5 =
+    	" (_id integer primary key autoincrement, "
+        + "description text not null, amount integer not null, currency text not null, " +
+        		"event_date long not null";
+
+    /**
+     * Column definitions of the balance table as of version 8. The currency is stored as the id
+     * of its row in the currency table, which keeps the rows and the indexes that include it small.
+     */
+    private static final String BALANCE_COLUMNS_V8 =
+    	" (_id integer primary key autoincrement, "
+        + "description text not null, amount integer not null, "
+        + "currency_id integer not null references " + CurrencyCache.TABLE + " (_id), "
+        + "event_date long not null, deleted integer not null default 0";
+
+    /**
+     * Column definitions of the balance table, version 8 with the category, the ledger and the
+     * global id of the entry
+     */
+    private static final String BALANCE_COLUMNS = BALANCE_COLUMNS_V8
+        + ", category_id integer references " + Categories.TABLE + " (_id), "
+        + "ledger_id integer not null default " + Ledgers.DEFAULT_LEDGER + " references " + Ledgers.TABLE + " (_id), "
+        + "uid text);";
+
+    /**
+     * Index of the global ids, which replicated changes look the entries up by
+     */
+    private static final String UID_INDEX_CREATE = "create unique index balance_uid_idx on balance (uid);";
+
+    /**
+     * Database creation sql statement
+     */
+    private static final String DATABASE_CREATE = "create table balance" + BALANCE_COLUMNS;
+
+    /**
+     * Number of entries marked deleted or restored per statement
+     */
+    private static final int DELETE_CHUNK_SIZE = 500;
+
+    /**
+     * Number of rows copied per statement when the balance table is rebuilt during an upgrade
+     */
+    private static final int MIGRATION_CHUNK_SIZE = 5000;
+
+    /**
+     * Index used for listing the entries by date, newest first, until there were ledgers
+     */
+    private static final String EVENT_DATE_INDEX_CREATE =
+    	"create index balance_event_date_idx on balance (event_date);";
+
+    /**
+     * Indexes of the list and of the filtered queries, each led by the ledger. The ledger and an
+     * equality on the category or the currency, followed by the date range and the order of the
+     * list, are a single range of one of these, and SQLite appends the rowid to every index entry
+     * so they also cover the (event_date, _id) ordering used for paging. A query of one ledger
+     * never reads the index entries of another.
+     */
+    private static final String[] LEDGER_INDEXES_CREATE = new String[] {
+    	"create index balance_ledger_date_idx on balance (ledger_id, event_date);",
+    	"create index balance_ledger_category_date_idx on balance (ledger_id, category_id, event_date);",
+    	"create index balance_ledger_currency_date_idx on balance (ledger_id, currency_id, event_date);"
+    };
+
+    private static final String[] ENTRY_COLUMNS = new String[] {KEY_ROWID, KEY_DESCRIPTION,
+            KEY_AMOUNT, KEY_CURRENCY_ID, KEY_EVENT_DATE, KEY_CATEGORY_ID};
+
+    // a single entry is read with the name of its category
+    private static final String[] FETCH_COLUMNS = new String[] {KEY_ROWID, KEY_DESCRIPTION,
+            KEY_AMOUNT, KEY_CURRENCY_ID, KEY_EVENT_DATE, KEY_CATEGORY_ID, Categories.NAME_OF_ENTRY};
+
+    private static final String PAGE_ORDER = KEY_EVENT_DATE + " DESC, " + KEY_ROWID + " DESC";
+
+    // the first term of every query of the entries of the current ledger
+    private static final String IN_LEDGER = KEY_LEDGER_ID + " = ?";
+
+    // selects an entry by its global id, see applyChange
+    private static final String BY_UID = KEY_UID + " = ?";
+
+    // the currency id of a change that is skipped, see applyChanges
+    private static final int NO_CURRENCY = -1;
+
+    /**
+     * Seeks past the last row of the previous page. The leading range term lets SQLite use
+     * the event_date index instead of scanning, the second term breaks ties on the same date.
+     */
+    static final String PAGE_SEEK = KEY_EVENT_DATE + " <= ? AND (" + KEY_EVENT_DATE
+    		+ " < ? OR " + KEY_ROWID + " < ?)";
+
+    /**
+     * Seeks to the newest entry dated before a time, the first entry of the month before it
+     */
+    static final String MONTH_SEEK = KEY_EVENT_DATE + " < ?";
+
+    // timings of the public operations, see Metrics
+    private static final Metrics.Timer OPEN_TIMER = Metrics.timer("open");
+    private static final Metrics.Timer CREATE_TIMER = Metrics.timer("createEntry");
+    private static final Metrics.Timer UPDATE_TIMER = Metrics.timer("updateEntry");
+    private static final Metrics.Timer DELETE_TIMER = Metrics.timer("deleteEntries");
+    private static final Metrics.Timer RESTORE_TIMER = Metrics.timer("restoreEntries");
+    private static final Metrics.Timer PURGE_TIMER = Metrics.timer("purgeDeletedEntries");
+    private static final Metrics.Timer FETCH_TIMER = Metrics.timer("fetchEntry");
+    private static final Metrics.Timer PAGE_TIMER = Metrics.timer("fetchEntriesPage");
+    private static final Metrics.Timer PAGE_AFTER_TIMER = Metrics.timer("fetchEntriesPageAfter");
+    private static final Metrics.Timer PAGE_BEFORE_TIMER = Metrics.timer("fetchEntriesPageBefore");
+    private static final Metrics.Timer SEARCH_TIMER = Metrics.timer("searchEntries");
+    private static final Metrics.Timer CURRENCY_TOTALS_TIMER = Metrics.timer("fetchCurrencyTotals");
+    private static final Metrics.Timer MONTH_TOTALS_TIMER = Metrics.timer("fetchMonthTotals");
+    private static final Metrics.Timer MONTH_TOTAL_TIMER = Metrics.timer("getMonthTotal");
+    private static final Metrics.Timer REBUILD_TOTALS_TIMER = Metrics.timer("rebuildTotals");
+    private static final Metrics.Timer VERIFY_TOTALS_TIMER = Metrics.timer("verifyTotals");
+    private static final Metrics.Timer CREATE_RECURRENCE_TIMER = Metrics.timer("createRecurrence");
+    private static final Metrics.Timer MATERIALISE_TIMER = Metrics.timer("materialiseRecurrences");
+    private static final Metrics.Timer ARCHIVE_TIMER = Metrics.timer("archiveEntries");
+    private static final Metrics.Timer FILTER_TOTALS_TIMER = Metrics.timer("fetchFilterTotals");
+    private static final Metrics.Timer MONTH_COUNTS_TIMER = Metrics.timer("fetchMonthCounts");
+    private static final Metrics.Timer MONTH_CURRENCY_TOTALS_TIMER = Metrics.timer("fetchMonthCurrencyTotals");
+    private static final Metrics.Timer LEDGERS_TIMER = Metrics.timer("fetchLedgers");
+    private static final Metrics.Timer FETCH_CHANGES_TIMER = Metrics.timer("fetchChanges");
+    private static final Metrics.Timer APPLY_CHANGES_TIMER = Metrics.timer("applyChanges");
+    private static final Metrics.Timer COMPACT_JOURNAL_TIMER = Metrics.timer("compactJournal");
+
+    static final String DATABASE_NAME = "balance_db";
+    static final String DATABASE_TABLE = "balance";
+    private static final int DATABASE_VERSION = 17;
+
+    /**
+     * Size of the page cache of the connection, see {@link DatabaseHelper#onOpen(SQLiteDatabase)}.
+     * Enough for the indexes a batch of recurring or archived entries writes to; SQLite only
+     * allocates the pages as they are read, so a small ledger uses less.
+     */
+    private static final int PAGE_CACHE_BYTES = 8 * 1024 * 1024;
+
+    private final Context mCtx;
+
+    // the ledger that entries are read from and written to
+    private long mLedgerId = Ledgers.DEFAULT_LEDGER;
+
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+
+        private final Context mContext;
+
+        DatabaseHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+            mContext = context;
+            if (Build.VERSION.SDK_INT >= 16) {
+                // from the first statement on, so an upgrade is written to the log too
+                setWriteAheadLoggingEnabled(true);
+            }
+        }
+
+        /**
+         * Tunes the connection for the workload of the app: short transactions from one thread
+         * and reads of index ranges. With write-ahead logging a commit appends to the log instead
+         * of rewriting the pages through a rollback journal, and in synchronous mode NORMAL it
+         * does not wait for the disk; a crash of the app still loses nothing, a power loss at most
+         * the last transactions. SQLite before Android 3.0 has no write-ahead log and keeps its
+         * defaults. The page cache is given in bytes, as the page size differs between devices.
+         */
+        @Override
+        public void onOpen(SQLiteDatabase db) {
+            if (db.isReadOnly()) {
+                return;
+            }
+            boolean writeAheadLog;
+            if (Build.VERSION.SDK_INT >= 16) {
+                writeAheadLog = db.isWriteAheadLoggingEnabled();
+            } else if (Build.VERSION.SDK_INT >= 11) {
+                writeAheadLog = db.enableWriteAheadLogging();
+            } else {
+                writeAheadLog = false;
+            }
+            // with a rollback journal NORMAL could corrupt the database on a power loss
+            if (writeAheadLog) {
+                db.execSQL("pragma synchronous = normal");
+            }
+            db.execSQL("pragma cache_size = " + PAGE_CACHE_BYTES / db.getPageSize());
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+
+            db.execSQL(CurrencyCache.TABLE_CREATE);
+            db.execSQL(Categories.TABLE_CREATE);
+            Ledgers.create(db, mContext.getString(R.string.default_ledger));
+            db.execSQL(DATABASE_CREATE);
+            for (String index : LEDGER_INDEXES_CREATE) {
+                db.execSQL(index);
+            }
+            db.execSQL(UID_INDEX_CREATE);
+            BalanceTotals.create(db);
+            BalanceArchive.create(db);
+            BalanceSearch.create(db);
+            RecurrenceScheduler.create(db);
+            ChangeJournal.create(db);
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            Log.w(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
+
+            // the totals are computed once, after the table has its final columns
+            boolean rebuildTotals = false;
+
+            if (oldVersion < 2) {
+                Log.w(TAG, "Adding the currency column with default value EUR");
+                db.execSQL("ALTER TABLE balance ADD COLUMN currency TEXT NOT NULL DEFAULT 'EUR'");
+            }
+
+            if (oldVersion < 3) {
+                Log.w(TAG, "Adding the event_date index");
+                db.execSQL(EVENT_DATE_INDEX_CREATE);
+            }
+
+            if (oldVersion < 4) {
+                Log.w(TAG, "Adding the currency and month totals");
+                rebuildTotals = true;
+            }
+
+            if (oldVersion < 5) {
+                Log.w(TAG, "Converting amounts to minor units");
+                migrateAmountsToMinorUnits(db);
+                rebuildTotals = true;
+            }
+
+            // the description search index comes with its ledger column below
+
+            if (oldVersion < 7) {
+                Log.w(TAG, "Adding the deleted column");
+                db.execSQL("ALTER TABLE balance ADD COLUMN deleted INTEGER NOT NULL DEFAULT 0");
+                rebuildTotals = true;
+            }
+
+            if (oldVersion < 8) {
+                Log.w(TAG, "Moving the currencies to the currency table");
+                migrateCurrenciesToIds(db);
+                rebuildTotals = true;
+            }
+
+            if (oldVersion < 9) {
+                Log.w(TAG, "Adding the recurring entries");
+                RecurrenceScheduler.create(db);
+            }
+
+            if (oldVersion < 10) {
+                Log.w(TAG, "Adding the archive");
+                BalanceArchive.create(db);
+            }
+
+            if (oldVersion < 11) {
+                Log.w(TAG, "Adding the categories");
+                db.execSQL(Categories.TABLE_CREATE);
+                // the indexes of the filters come with the ledgers below
+                db.execSQL("ALTER TABLE balance ADD COLUMN category_id INTEGER REFERENCES "
+                        + Categories.TABLE + " (_id)");
+                // an archive created by the upgrade above already has the column
+                if (oldVersion >= 10) {
+                    BalanceArchive.addCategories(db);
+                }
+            }
+
+            if (oldVersion < 12) {
+                Log.w(TAG, "Adding the ledgers and leading the indexes with them");
+                Ledgers.create(db, mContext.getString(R.string.default_ledger));
+                db.execSQL("DROP INDEX IF EXISTS balance_event_date_idx");
+                db.execSQL("DROP INDEX IF EXISTS balance_category_date_idx");
+                db.execSQL("DROP INDEX IF EXISTS balance_currency_date_idx");
+                db.execSQL("ALTER TABLE balance ADD COLUMN ledger_id INTEGER NOT NULL DEFAULT "
+                        + Ledgers.DEFAULT_LEDGER + " REFERENCES " + Ledgers.TABLE + " (_id)");
+                for (String index : LEDGER_INDEXES_CREATE) {
+                    db.execSQL(index);
+                }
+                // tables created by the upgrades above already have the column
+                if (oldVersion >= 9) {
+                    RecurrenceScheduler.addLedgers(db);
+                }
+                if (oldVersion >= 10) {
+                    BalanceArchive.addLedgers(db);
+                }
+                rebuildTotals = true;
+            }
+
+            // the change journal comes with the global ids below
+
+            if (oldVersion < 14) {
+                Log.w(TAG, "Dropping the deleted index");
+                db.execSQL("DROP INDEX IF EXISTS balance_deleted_idx");
+            }
+
+            if (oldVersion < 15) {
+                Log.w(TAG, "Indexing the descriptions by ledger");
+                BalanceSearch.drop(db);
+                BalanceSearch.create(db);
+                // the archive triggers index the ledger of the entries they move
+                BalanceArchive.dropTriggers(db);
+                BalanceArchive.createTriggers(db);
+            }
+
+            if (oldVersion < 16) {
+                Log.w(TAG, "Giving the entries global ids for the change journal");
+                db.execSQL("ALTER TABLE balance ADD COLUMN uid TEXT");
+                db.execSQL("UPDATE balance SET uid = " + ChangeJournal.NEW_UID);
+                db.execSQL(UID_INDEX_CREATE);
+                // an archive created by the upgrade above already has the column
+                if (oldVersion >= 10) {
+                    BalanceArchive.addUids(db);
+                }
+                if (oldVersion >= 13) {
+                    ChangeJournal.addUids(db);
+                } else {
+                    ChangeJournal.create(db);
+                }
+            }
+
+            // a journal created by the upgrade above already has the checked seq
+            if (oldVersion < 17 && oldVersion >= 13) {
+                Log.w(TAG, "Keeping one journal row per entry");
+                ChangeJournal.addChecked(db);
+            }
+
+            if (rebuildTotals) {
+                BalanceTotals.drop(db);
+                BalanceTotals.create(db);
+                BalanceTotals.rebuild(db);
+            }
+        }
+
+        /**
+         * Rebuilds the balance table with integer amounts. SQLite cannot change the type of a
+         * column, so the rows are copied to a new table in chunks of rowIds, scaling each amount
+         * by the fraction digits of its currency, and the new table then replaces the old one.
+         * The totals are recomputed by the caller.
+         */
+        private void migrateAmountsToMinorUnits(SQLiteDatabase db) {
+            db.execSQL("create table balance_new" + BALANCE_COLUMNS_V5 + ");");
+
+            // one CASE over the distinct currencies, so each row is converted by a single statement
+            StringBuilder scale = new StringBuilder("case currency");
+            Cursor currencies = db.rawQuery("select distinct currency from balance", null);
+            try {
+                while (currencies.moveToNext()) {
+                    String code = currencies.getString(0);
+                    scale.append(" when ").append(DatabaseUtils.sqlEscapeString(code))
+                        .append(" then ").append(Amounts.scale(Amounts.fractionDigits(code)));
+                }
+            } finally {
+                currencies.close();
+            }
+            scale.append(" else 100 end");
+
+            String copy = "insert into balance_new (_id, description, amount, currency, event_date) "
+                + "select _id, description, cast(round(amount * " + scale + ") as integer), currency, "
+                + "event_date from balance where _id > ? and _id <= ?";
+
+            long maxId = DatabaseUtils.longForQuery(db, "select ifnull(max(_id), 0) from balance", null);
+            for (long start = 0; start < maxId; start += MIGRATION_CHUNK_SIZE) {
+                db.execSQL(copy, new Object[] {start, start + MIGRATION_CHUNK_SIZE});
+            }
+
+            db.execSQL("drop table balance");
+            db.execSQL("alter table balance_new rename to balance");
+            db.execSQL(EVENT_DATE_INDEX_CREATE);
+        }
+
+        /**
+         * Rebuilds the balance table with the currency codes replaced by ids into the new currency
+         * table. The rows are copied in chunks of rowIds as in {@link #migrateAmountsToMinorUnits}.
+         * The totals are recomputed by the caller.
+         */
+        private void migrateCurrenciesToIds(SQLiteDatabase db) {
+            db.execSQL(CurrencyCache.TABLE_CREATE);
+
+            Cursor currencies = db.rawQuery("select distinct currency from balance", null);
+            try {
+                while (currencies.moveToNext()) {
+                    CurrencyCache.insert(db, currencies.getString(0));
+                }
+            } finally {
+                currencies.close();
+            }
+
+            db.execSQL("create table balance_new" + BALANCE_COLUMNS_V8 + ");");
+
+            String copy = "insert into balance_new (_id, description, amount, currency_id, event_date, deleted) "
+                + "select b._id, b.description, b.amount, c._id, b.event_date, b.deleted from balance b "
+                + "join " + CurrencyCache.TABLE + " c on c.code = b.currency where b._id > ? and b._id <= ?";
+
+            long maxId = DatabaseUtils.longForQuery(db, "select ifnull(max(_id), 0) from balance", null);
+            for (long start = 0; start < maxId; start += MIGRATION_CHUNK_SIZE) {
+                db.execSQL(copy, new Object[] {start, start + MIGRATION_CHUNK_SIZE});
+            }
+
+            // dropping the table also drops its indexes and the triggers of the search index,
+            // which is created again once the table has its ledgers
+            db.execSQL("drop table balance");
+            db.execSQL("alter table balance_new rename to balance");
+            db.execSQL(EVENT_DATE_INDEX_CREATE);
+        }
+    }
+
+    /**
+     * Constructor - takes the context to allow the database to be
+     * opened/created
+     * 
+     * @param ctx the Context within which to work
+     */
+    public BalanceDbAdapter(Context ctx) {
+        this.mCtx = ctx;
+    }
+
+    /**
+     * Open the notes database. If it cannot be opened, try to create a new
+     * instance of the database. If it cannot be created, throw an exception to
+     * signal the failure
+     * 
+     * @return this (self reference, allowing this to be chained in an
+     *         initialization call)
+     * @throws SQLException if the database could be neither opened or created
+     */
+    public BalanceDbAdapter open() throws SQLException {
+        Metrics.setEnabled(Preferences.isMetricsEnabled(mCtx));
+        long start = Metrics.start();
+    	// make sure only one mDbHelper is ever created
+        mDbHelper = (mDbHelper == null) ? new DatabaseHelper(mCtx) : mDbHelper;
+        mDb = mDbHelper.getWritableDatabase();
+        CurrencyCache.load(mDb);
+        if (mStatements == null) {
+            mStatements = new EntryStatements(mDb, FETCH_COLUMNS);
+        }
+        // the ledger chosen last time, unless it has gone with a restore
+        long ledgerId = Preferences.getLedger(mCtx);
+        mLedgerId = Ledgers.exists(mDb, ledgerId) ? ledgerId : Ledgers.DEFAULT_LEDGER;
+        OPEN_TIMER.stop(start);
+        return this;
+    }
+
+    public void close() {
+        if (mStatements != null) {
+            mStatements.close();
+            mStatements = null;
+        }
+        mDbHelper.close();
+    }
+
+    /**
+     * @return true between {@link #open()} and {@link #close()}
+     */
+    boolean isOpen() {
+        return mDb != null && mDb.isOpen();
+    }
+
+    /**
+     * Gives the bulk operations of this package direct access to the opened database
+     * 
+     * @return the database opened by {@link #open()}
+     */
+    SQLiteDatabase getDatabase() {
+        return mDb;
+    }
+
+    /**
+     * Switches to another ledger. The entries, totals and months read afterwards are those of
+     * the ledger and new entries and recurrences are written to it. Every query of the entries
+     * reads a range of indexes led by the ledger, so nothing has to be loaded or computed for the
+     * switch and the size of the other ledgers does not matter.
+     * 
+     * @param ledgerId id of the ledger, see {@link #fetchLedgers()}
+     */
+    public void setLedger(long ledgerId) {
+        mLedgerId = ledgerId;
+    }
+
+    /**
+     * @return id of the ledger that is read and written
+     */
+    public long getLedger() {
+        return mLedgerId;
+    }
+
+    /**
+     * Return a Cursor over the ledgers
+     * 
+     * @return Cursor with the _id and name columns, ordered by name
+     */
+    public Cursor fetchLedgers() {
+
+        long start = Metrics.start();
+        return timed(LEDGERS_TIMER, start, mDb.query(Ledgers.TABLE, new String[] {KEY_ROWID, Ledgers.KEY_NAME},
+                null, null, null, null, Ledgers.KEY_NAME));
+    }
+
+    /**
+     * Return the id of the ledger with the given name, adding the ledger if there is none. Does
+     * not switch to it.
+     * 
+     * @param name the ledger name, not blank
+     * @return the ledger id
+     */
+    public long createLedger(String name) {
+
+        return Ledgers.idOf(mDb, name);
+    }
+
+    /**
+     * Records the time taken by a query. SQLite runs a query when its cursor is first read, so
+     * while timings are recorded the cursor is read here and its row count recorded with the time.
+     * 
+     * @param start the value returned by {@link Metrics#start()} before the query
+     * @return the cursor
+     */
+    private static Cursor timed(Metrics.Timer timer, long start, Cursor c) {
+        if (start != 0) {
+            timer.stop(start, c.getCount());
+        }
+        return c;
+    }
+
+
+    /**
+     * Create a new balance entry using the description. If the note is
+     * successfully created return the new rowId for that note, otherwise return
+     * a -1 to indicate failure.
+     * 
+     * @param description the description of the balance entry
+     * @param amount the amount that the balance entry cost, in minor units of the currency
+     * @param currency the currency of the balance entry
+     * @param eventDate the date that the transaction happened
+     * @return rowId or -1 if failed
+     */
+    public long createEntry(String description, long amount, String currency, Date eventDate) {
+
+        return createEntry(description, amount, currency, eventDate, null);
+    }
+
+    /**
+     * Create a new balance entry in a category
+     * 
+     * @param category name of the category, added if there is none by that name yet; null
+     *        or blank for no category
+     * @return rowId or -1 if failed
+     * @see #createEntry(String, long, String, Date)
+     */
+    public long createEntry(String description, long amount, String currency, Date eventDate, String category) {
+
+        return createEntry(description, amount, currency, eventDate.getTime(), category);
+    }
+
+    /**
+     * Create a new balance entry, without allocating for the date
+     * 
+     * @param eventDate the date that the transaction happened, in milliseconds
+     * @return rowId or -1 if failed
+     * @see #createEntry(String, long, String, Date, String)
+     */
+    long createEntry(String description, long amount, String currency, long eventDate, String category) {
+
+        long start = Metrics.start();
+        long rowId = mStatements.insert(description, amount, currencyId(currency), eventDate,
+                Categories.idOf(mDb, category), mLedgerId);
+        CREATE_TIMER.stop(start, 1);
+        return rowId;
+    }
+
+    /**
+     * Delete the balance entry with the given rowId
+     * 
+     * @param rowId id of entry to delete
+     * @return true if deleted, false otherwise
+     * @see #deleteEntries(long[])
+     */
+    public boolean deleteEntry(long rowId) {
+
+        long start = Metrics.start();
+        int deleted;
+        mDb.beginTransaction();
+        try {
+            deleted = mStatements.markDeleted(rowId, System.currentTimeMillis());
+            // an archived entry is moved back to the balance table to be deleted there
+            if (deleted == 0 && BalanceArchive.restore(mDb, EntryStatements.BY_ROWID,
+                    new String[] {Long.toString(rowId)}) > 0) {
+                deleted = mStatements.markDeleted(rowId, System.currentTimeMillis());
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        DELETE_TIMER.stop(start, deleted);
+        return deleted > 0;
+    }
+
+    /**
+     * Delete the balance entries with the given rowIds in one transaction. The entries are only
+     * marked deleted, so they disappear from every query and from the totals but can still be
+     * brought back with {@link #restoreEntries(long[])} until they are purged with
+     * {@link #purgeDeletedEntries(long, int)}.
+     * 
+     * @param rowIds ids of the entries to delete
+     * @return number of entries deleted
+     */
+    public int deleteEntries(long[] rowIds) {
+
+        ContentValues values = new ContentValues();
+        values.put(KEY_DELETED, System.currentTimeMillis());
+        long start = Metrics.start();
+        int deleted = setDeleted(rowIds, values, NOT_DELETED, true);
+        DELETE_TIMER.stop(start, deleted);
+        return deleted;
+    }
+
+    /**
+     * Bring back entries deleted with {@link #deleteEntries(long[])} that have not been purged yet
+     * 
+     * @param rowIds ids of the entries to restore
+     * @return number of entries restored
+     */
+    public int restoreEntries(long[] rowIds) {
+
+        ContentValues values = new ContentValues();
+        values.put(KEY_DELETED, 0);
+        long start = Metrics.start();
+        int restored = setDeleted(rowIds, values, KEY_DELETED + " != 0", false);
+        RESTORE_TIMER.stop(start, restored);
+        return restored;
+    }
+
+    /**
+     * Writes the deleted column of the given entries, binding the ids in chunks so that one
+     * statement covers many entries
+     * 
+     * @param unarchive true to first move the archived ones among the entries back to the balance table
+     */
+    private int setDeleted(long[] rowIds, ContentValues values, String condition, boolean unarchive) {
+        int changed = 0;
+        mDb.beginTransaction();
+        try {
+            for (int start = 0; start < rowIds.length; start += DELETE_CHUNK_SIZE) {
+                int size = Math.min(DELETE_CHUNK_SIZE, rowIds.length - start);
+                StringBuilder ids = new StringBuilder(16 + size * 2);
+                ids.append(KEY_ROWID).append(" IN (");
+                String[] args = new String[size];
+                for (int i = 0; i < size; i++) {
+                    ids.append(i == 0 ? "?" : ",?");
+                    args[i] = Long.toString(rowIds[start + i]);
+                }
+                ids.append(')');
+                if (unarchive) {
+                    BalanceArchive.restore(mDb, ids.toString(), args);
+                }
+                changed += mDb.update(DATABASE_TABLE, values, condition + " AND " + ids, args);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return changed;
+    }
+
+    /**
+     * Physically remove up to limit entries that were deleted before the given time. Meant to
+     * be called repeatedly in the background until it returns less than limit, so that no single
+     * call holds the database for long. The deleted column has no index, so a call reads the table
+     * until it has found limit entries; that is paid once per purge rather than by every write.
+     * 
+     * @param deletedBefore only entries deleted before this time, in milliseconds, are removed
+     * @param limit maximum number of entries to remove
+     * @return number of entries removed
+     */
+    public int purgeDeletedEntries(long deletedBefore, int limit) {
+
+        long start = Metrics.start();
+        int purged = mDb.delete(DATABASE_TABLE, KEY_ROWID + " IN (SELECT " + KEY_ROWID + " FROM "
+                + DATABASE_TABLE + " WHERE " + KEY_DELETED + " > 0 AND " + KEY_DELETED
+                + " < ? LIMIT ?)", new String[] {Long.toString(deletedBefore), Integer.toString(limit)});
+        PURGE_TIMER.stop(start, purged);
+        return purged;
+    }
+
+    /**
+     * Return a Cursor over the first page of entries, newest first. Use
+     * {@link #fetchEntriesPageAfter(long, long, int)} with the date and rowId of the
+     * last row of this page to continue.
+     * 
+     * @param pageSize maximum number of entries to return
+     * @return Cursor over at most pageSize entries
+     */
+    public Cursor fetchEntriesPage(int pageSize) {
+
+        return fetchEntriesPage(null, pageSize);
+    }
+
+    /**
+     * Return a Cursor over the first page of the entries that match a filter, newest first
+     * 
+     * @param filter the filter, or null for all entries
+     * @param pageSize maximum number of entries to return
+     * @return Cursor over at most pageSize entries
+     * @see #fetchEntriesPage(int)
+     */
+    public Cursor fetchEntriesPage(EntryFilter filter, int pageSize) {
+
+        long start = Metrics.start();
+        return timed(PAGE_TIMER, start, fetchPage(filter, null, null, pageSize));
+    }
+
+    /**
+     * Return a Cursor over the page of entries following the given row, newest first.
+     * The page is located by seeking on (event_date, _id) so the cost does not depend on
+     * how many pages have already been read.
+     * 
+     * @param lastEventDate event date of the last row of the previous page
+     * @param lastRowId rowId of the last row of the previous page
+     * @param pageSize maximum number of entries to return
+     * @return Cursor over at most pageSize entries
+     */
+    public Cursor fetchEntriesPageAfter(long lastEventDate, long lastRowId, int pageSize) {
+
+        return fetchEntriesPageAfter(null, lastEventDate, lastRowId, pageSize);
+    }
+
+    /**
+     * Return a Cursor over the page of the entries that match a filter following the given row,
+     * newest first
+     * 
+     * @param filter the filter, or null for all entries
+     * @see #fetchEntriesPageAfter(long, long, int)
+     */
+    public Cursor fetchEntriesPageAfter(EntryFilter filter, long lastEventDate, long lastRowId, int pageSize) {
+
+        String date = Long.toString(lastEventDate);
+        long start = Metrics.start();
+        return timed(PAGE_AFTER_TIMER, start, fetchPage(filter, PAGE_SEEK, new String[] {date, date,
+                Long.toString(lastRowId)}, pageSize));
+    }
+
+    /**
+     * Return a Cursor over the page of the entries that match a filter dated before the given
+     * time, newest first. With the end of a month this is the page starting at the first entry
+     * of the month, found by a single seek in the index of the ledger, so the fast scroller can
+     * jump to a month without the entries of the months in between.
+     * 
+     * @param filter the filter, or null for all entries
+     * @param before the time in milliseconds, the first moment after a month
+     * @param pageSize maximum number of entries to return
+     * @return Cursor over at most pageSize entries
+     */
+    public Cursor fetchEntriesPageBefore(EntryFilter filter, long before, int pageSize) {
+
+        long start = Metrics.start();
+        return timed(PAGE_BEFORE_TIMER, start, fetchPage(filter, MONTH_SEEK, new String[] {Long.toString(before)},
+                pageSize));
+    }
+
+    /**
+     * Reads a page from the balance table, and again from both tables if the page reaches back
+     * to the newest archived entry of the ledger. Until the list is scrolled that far back, the
+     * archive costs one lookup at the end of the range of the ledger in its index per page.
+     * 
+     * @param seek {@link #PAGE_SEEK} or {@link #MONTH_SEEK}, or null for the first page
+     * @param seekArgs the arguments of the seek
+     */
+    private Cursor fetchPage(EntryFilter filter, String seek, String[] seekArgs, int pageSize) {
+
+        List<String> args = new ArrayList<String>();
+        Cursor page = mDb.rawQuery(pageQuery(mLedgerId, filter, seek, seekArgs, false, pageSize, args),
+                toArray(args));
+        long newestArchived = BalanceArchive.newestDate(mDb, mLedgerId);
+        if (newestArchived == BalanceArchive.EMPTY
+                || (filter != null && newestArchived < filter.getFromDate())
+                || (page.getCount() == pageSize && page.moveToLast() && page.getLong(4) > newestArchived)) {
+            page.moveToPosition(-1);
+            return page;
+        }
+        page.close();
+        args.clear();
+        return mDb.rawQuery(pageQuery(mLedgerId, filter, seek, seekArgs, true, pageSize, args), toArray(args));
+    }
+
+    /**
+     * Builds the query of a page of entries
+     * 
+     * @param ledgerId the ledger of the entries
+     * @param filter the filter, or null for all entries
+     * @param seek {@link #PAGE_SEEK} past the previous page, {@link #MONTH_SEEK} to a month, or
+     *        null for the first page
+     * @param seekArgs arguments of the seek
+     * @param archived true to read the archive as well
+     * @param args receives the arguments of the query
+     * @return the query
+     */
+    static String pageQuery(long ledgerId, EntryFilter filter, String seek, String[] seekArgs, boolean archived,
+            int pageSize, List<String> args) {
+
+        List<String> selectionArgs = new ArrayList<String>();
+        String selection = ledgerSelection(ledgerId, filter != null ? filter : new EntryFilter(), seek, seekArgs,
+                selectionArgs);
+        String limit = Integer.toString(pageSize);
+
+        args.addAll(selectionArgs);
+        if (!archived) {
+            return SQLiteQueryBuilder.buildQueryString(false, DATABASE_TABLE, ENTRY_COLUMNS,
+                    selection + " AND " + NOT_DELETED, null, null, PAGE_ORDER, limit);
+        }
+        // the archive holds no deleted entries
+        args.addAll(selectionArgs);
+        return BalanceArchive.unionQuery(ENTRY_COLUMNS, selection + " AND " + NOT_DELETED, selection,
+                PAGE_ORDER, limit);
+    }
+
+    /**
+     * Builds the selection of the entries of a ledger that match a filter, followed by the given terms
+     * 
+     * @param args receives the arguments of the selection
+     * @see EntryFilter#selection(String, String[], List)
+     */
+    private static String ledgerSelection(long ledgerId, EntryFilter filter, String terms, String[] termArgs,
+            List<String> args) {
+
+        args.add(Long.toString(ledgerId));
+        if (filter.isEmpty() && terms == null) {
+            return IN_LEDGER;
+        }
+        return IN_LEDGER + " AND " + filter.selection(terms, termArgs, args);
+    }
+
+    /**
+     * Return a Cursor over the total of the entries of the ledger that match a filter, per
+     * currency. The entries are summed from the index range of the filter; an empty filter is
+     * answered from the stored totals.
+     * 
+     * @param filter the filter
+     * @return Cursor with the currency, total and entry_count columns, ordered by currency
+     */
+    public Cursor fetchFilterTotals(EntryFilter filter) {
+
+        if (filter.isEmpty()) {
+            return fetchCurrencyTotals();
+        }
+        long start = Metrics.start();
+        boolean archived = BalanceArchive.overlaps(mDb, mLedgerId, filter.getFromDate(), filter.getToDate());
+        List<String> args = new ArrayList<String>();
+        return timed(FILTER_TOTALS_TIMER, start, mDb.rawQuery(filterTotalsQuery(mLedgerId, filter, archived, args),
+                toArray(args)));
+    }
+
+    /**
+     * Builds the query of {@link #fetchFilterTotals(EntryFilter)}
+     * 
+     * @param ledgerId the ledger of the entries
+     * @param archived true to sum the archive as well
+     * @param args receives the arguments of the query
+     * @return the query
+     */
+    static String filterTotalsQuery(long ledgerId, EntryFilter filter, boolean archived, List<String> args) {
+
+        List<String> selectionArgs = new ArrayList<String>();
+        String selection = ledgerSelection(ledgerId, filter, null, null, selectionArgs);
+        String[] columns = new String[] {KEY_CURRENCY_ID, KEY_AMOUNT};
+
+        String entries;
+        args.addAll(selectionArgs);
+        if (archived) {
+            args.addAll(selectionArgs);
+            entries = BalanceArchive.unionQuery(columns, selection + " AND " + NOT_DELETED, selection, null, null);
+        } else {
+            entries = SQLiteQueryBuilder.buildQueryString(false, DATABASE_TABLE, columns,
+                    selection + " AND " + NOT_DELETED, null, null, null, null);
+        }
+
+        // summed per currency first, so the currency table is only joined to the few totals; the
+        // group is an expression so that a date range is read from the event_date index rather
+        // than the whole currency index walked for its order
+        return "select c." + CurrencyCache.KEY_CODE + " as " + KEY_CURRENCY + ", t." + BalanceTotals.KEY_TOTAL
+                + ", t." + BalanceTotals.KEY_ENTRY_COUNT + " from (select " + KEY_CURRENCY_ID + ", sum("
+                + KEY_AMOUNT + ") as " + BalanceTotals.KEY_TOTAL + ", count(*) as " + BalanceTotals.KEY_ENTRY_COUNT
+                + " from (" + entries + ") group by +" + KEY_CURRENCY_ID + ") t join " + CurrencyCache.TABLE
+                + " c on c._id = t." + KEY_CURRENCY_ID + " order by c." + CurrencyCache.KEY_CODE;
+    }
+
+    /**
+     * Return a Cursor over the number of entries of the ledger that match a filter in each month,
+     * newest month first, the sections of the list. Without a filter, or with only a currency, the counts are
+     * read from the stored month totals; otherwise the entries are counted from the index range
+     * of the filter in one grouped query.
+     * 
+     * @param filter the filter, or null for all entries
+     * @return Cursor with the month (yyyy-MM) and entry_count columns, months without entries left out
+     */
+    public Cursor fetchMonthCounts(EntryFilter filter) {
+
+        long start = Metrics.start();
+        String ledger = Long.toString(mLedgerId);
+        if (filter == null || filter.isEmpty()) {
+            return timed(MONTH_COUNTS_TIMER, start, mDb.rawQuery("select " + BalanceTotals.KEY_MONTH + ", sum("
+                    + BalanceTotals.KEY_ENTRY_COUNT + ") as " + BalanceTotals.KEY_ENTRY_COUNT + " from "
+                    + BalanceTotals.MONTH_TOTAL_TABLE + " where " + IN_LEDGER + " group by " + BalanceTotals.KEY_MONTH
+                    + " order by " + BalanceTotals.KEY_MONTH + " desc", new String[] {ledger}));
+        }
+        if (filter.getCategory() == EntryFilter.ANY_CATEGORY && !filter.hasDateRange()) {
+            return timed(MONTH_COUNTS_TIMER, start, mDb.query(BalanceTotals.MONTH_TOTAL_TABLE,
+                    new String[] {BalanceTotals.KEY_MONTH, BalanceTotals.KEY_ENTRY_COUNT},
+                    IN_LEDGER + " AND " + KEY_CURRENCY_ID + " = ?",
+                    new String[] {ledger, Integer.toString(CurrencyCache.cachedId(filter.getCurrency()))}, null, null,
+                    BalanceTotals.KEY_MONTH + " DESC"));
+        }
+        boolean archived = BalanceArchive.overlaps(mDb, mLedgerId, filter.getFromDate(), filter.getToDate());
+        List<String> args = new ArrayList<String>();
+        return timed(MONTH_COUNTS_TIMER, start, mDb.rawQuery(monthCountsQuery(mLedgerId, filter, archived, args),
+                toArray(args)));
+    }
+
+    /**
+     * Builds the grouped query of {@link #fetchMonthCounts(EntryFilter)}
+     * 
+     * @param ledgerId the ledger of the entries
+     * @param archived true to count the archive as well
+     * @param args receives the arguments of the query
+     * @return the query
+     */
+    static String monthCountsQuery(long ledgerId, EntryFilter filter, boolean archived, List<String> args) {
+
+        List<String> selectionArgs = new ArrayList<String>();
+        String selection = ledgerSelection(ledgerId, filter, null, null, selectionArgs);
+        String[] columns = new String[] {KEY_EVENT_DATE};
+
+        String entries;
+        args.addAll(selectionArgs);
+        if (archived) {
+            args.addAll(selectionArgs);
+            entries = BalanceArchive.unionQuery(columns, selection + " AND " + NOT_DELETED, selection, null, null);
+        } else {
+            entries = SQLiteQueryBuilder.buildQueryString(false, DATABASE_TABLE, columns,
+                    selection + " AND " + NOT_DELETED, null, null, null, null);
+        }
+        return "select " + BalanceTotals.MONTH_OF_ROW + " as " + BalanceTotals.KEY_MONTH + ", count(*) as "
+                + BalanceTotals.KEY_ENTRY_COUNT + " from (" + entries + ") group by " + BalanceTotals.KEY_MONTH
+                + " order by " + BalanceTotals.KEY_MONTH + " desc";
+    }
+
+    /**
+     * Return a Cursor over the totals of the entries of the ledger that match a filter in each
+     * month and currency, oldest month first, for converting them at the rates of their months.
+     * Like {@link #fetchMonthCounts(EntryFilter)}, the totals are read from the stored month
+     * totals when the filter allows.
+     * 
+     * @param filter the filter, or null for all entries
+     * @return Cursor with the month (yyyy-MM), currency and total columns
+     */
+    public Cursor fetchMonthCurrencyTotals(EntryFilter filter) {
+
+        long start = Metrics.start();
+        List<String> args = new ArrayList<String>();
+        String totals;
+        if (filter == null || filter.isEmpty()
+                || (filter.getCategory() == EntryFilter.ANY_CATEGORY && !filter.hasDateRange())) {
+            args.add(Long.toString(mLedgerId));
+            String selection = IN_LEDGER;
+            if (filter != null && filter.getCurrency() != null) {
+                selection += " AND " + KEY_CURRENCY_ID + " = ?";
+                args.add(Integer.toString(CurrencyCache.cachedId(filter.getCurrency())));
+            }
+            totals = SQLiteQueryBuilder.buildQueryString(false, BalanceTotals.MONTH_TOTAL_TABLE, new String[] {
+                    BalanceTotals.KEY_MONTH, KEY_CURRENCY_ID, BalanceTotals.KEY_TOTAL}, selection, null, null, null,
+                    null);
+        } else {
+            boolean archived = BalanceArchive.overlaps(mDb, mLedgerId, filter.getFromDate(), filter.getToDate());
+            totals = monthCurrencyTotalsQuery(mLedgerId, filter, archived, args);
+        }
+        return timed(MONTH_CURRENCY_TOTALS_TIMER, start, mDb.rawQuery("select t." + BalanceTotals.KEY_MONTH + ", c."
+                + CurrencyCache.KEY_CODE + " as " + KEY_CURRENCY + ", t." + BalanceTotals.KEY_TOTAL + " from ("
+                + totals + ") t join " + CurrencyCache.TABLE + " c on c._id = t." + KEY_CURRENCY_ID + " order by t."
+                + BalanceTotals.KEY_MONTH, toArray(args)));
+    }
+
+    /**
+     * Builds the grouped totals of {@link #fetchMonthCurrencyTotals(EntryFilter)} for a filter
+     * that the stored month totals cannot answer
+     * 
+     * @param ledgerId the ledger of the entries
+     * @param archived true to sum the archive as well
+     * @param args receives the arguments of the query
+     * @return the query, with the month, currency_id and total columns
+     */
+    static String monthCurrencyTotalsQuery(long ledgerId, EntryFilter filter, boolean archived, List<String> args) {
+
+        List<String> selectionArgs = new ArrayList<String>();
+        String selection = ledgerSelection(ledgerId, filter, null, null, selectionArgs);
+        String[] columns = new String[] {KEY_EVENT_DATE, KEY_CURRENCY_ID, KEY_AMOUNT};
+
+        String entries;
+        args.addAll(selectionArgs);
+        if (archived) {
+            args.addAll(selectionArgs);
+            entries = BalanceArchive.unionQuery(columns, selection + " AND " + NOT_DELETED, selection, null, null);
+        } else {
+            entries = SQLiteQueryBuilder.buildQueryString(false, DATABASE_TABLE, columns,
+                    selection + " AND " + NOT_DELETED, null, null, null, null);
+        }
+        return "select " + BalanceTotals.MONTH_OF_ROW + " as " + BalanceTotals.KEY_MONTH + ", " + KEY_CURRENCY_ID
+                + ", sum(" + KEY_AMOUNT + ") as " + BalanceTotals.KEY_TOTAL + " from (" + entries + ") group by "
+                + BalanceTotals.KEY_MONTH + ", " + KEY_CURRENCY_ID;
+    }
+
+    /**
+     * Return a Cursor over the categories
+     * 
+     * @return Cursor with the _id and name columns, ordered by name
+     */
+    public Cursor fetchCategories() {
+
+        return mDb.query(Categories.TABLE, new String[] {KEY_ROWID, Categories.KEY_NAME}, null, null,
+                null, null, Categories.KEY_NAME);
+    }
+
+    private static String[] toArray(List<String> args) {
+        return args.toArray(new String[args.size()]);
+    }
+
+    /**
+     * Return a Cursor over the first page of the entries of the ledger whose description contains
+     * words starting with each of the words in the query, newest first. Uses the full text index, so
+     * the cost does not grow with the size of the table. Use
+     * {@link #searchEntriesAfter(String, long, long, int)} with the date and rowId of the last row
+     * of this page to continue.
+     * 
+     * @param query the text typed by the user
+     * @param limit maximum number of entries to return
+     * @return Cursor over the matching entries, empty if the query contains no words
+     */
+    public Cursor searchEntries(String query, int limit) {
+
+        String match = BalanceSearch.toMatchQuery(query, mLedgerId);
+        if (match == null) {
+            return mDb.query(DATABASE_TABLE, ENTRY_COLUMNS, "0", null, null, null, null);
+        }
+        long start = Metrics.start();
+        return timed(SEARCH_TIMER, start, mDb.rawQuery(BalanceSearch.SEARCH_QUERY, new String[] {match,
+                Integer.toString(limit)}));
+    }
+
+    /**
+     * Return a Cursor over the page of the entries matching a search following the given row,
+     * newest first. Like {@link #fetchEntriesPageAfter(long, long, int)}, the page is located by
+     * seeking on (event_date, _id), so no matches read before are skipped over again.
+     * 
+     * @param query the text typed by the user
+     * @param lastEventDate event date of the last row of the previous page
+     * @param lastRowId rowId of the last row of the previous page
+     * @param limit maximum number of entries to return
+     * @return Cursor over the matching entries, empty if the query contains no words
+     */
+    public Cursor searchEntriesAfter(String query, long lastEventDate, long lastRowId, int limit) {
+
+        String match = BalanceSearch.toMatchQuery(query, mLedgerId);
+        if (match == null) {
+            return mDb.query(DATABASE_TABLE, ENTRY_COLUMNS, "0", null, null, null, null);
+        }
+        String date = Long.toString(lastEventDate);
+        long start = Metrics.start();
+        return timed(SEARCH_TIMER, start, mDb.rawQuery(BalanceSearch.SEARCH_AFTER_QUERY, new String[] {match,
+                date, date, Long.toString(lastRowId), Integer.toString(limit)}));
+    }
+
+    /**
+     * Return a Cursor positioned at the note that matches the given rowId
+     * 
+     * @param rowId id of entry to retrieve
+     * @return Cursor positioned to matching entry, if found and not deleted
+     * @throws SQLException if note could not be found/retrieved
+     */
+    public Cursor fetchEntry(long rowId) throws SQLException {
+
+        long start = Metrics.start();
+        // an entry is in the balance table or the archive, both are looked up by rowId
+        Cursor mCursor = mStatements.fetch(rowId);
+        timed(FETCH_TIMER, start, mCursor);
+        if (mCursor != null) {
+            mCursor.moveToFirst();
+        }
+        return mCursor;
+
+    }
+
+    /**
+     * Read the entry that matches the given rowId
+     * 
+     * @param rowId id of entry to retrieve
+     * @return the entry, or null if there is no entry with that rowId or it has been deleted
+     */
+    BalanceEntry readEntry(long rowId) {
+
+        Cursor c = fetchEntry(rowId);
+        try {
+            return c.getCount() > 0 ? BalanceEntry.fromCursor(c) : null;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Update the balance entry using the details provided. The entry to be updated is
+     * specified using the rowId, and it is altered to use the description, amount and 
+     * event date passed in
+     * 
+     * @param rowId id of entry to update
+     * @param description value to set entry description to
+     * @param amount value to set entry amount to, in minor units of the currency
+     * @param currency Currency to set for the entry
+     * @param eventDate value to set entry eventDate to
+     * @return true if the entry was successfully updated, false otherwise
+     */
+    public boolean updateEntry(long rowId, String description, long amount, String currency, Date eventDate) {
+
+        return updateEntry(rowId, description, amount, currency, eventDate.getTime());
+    }
+
+    /**
+     * Update the balance entry, without allocating for the date
+     * 
+     * @param eventDate value to set entry eventDate to, in milliseconds
+     * @return true if the entry was successfully updated, false otherwise
+     * @see #updateEntry(long, String, long, String, Date)
+     */
+    boolean updateEntry(long rowId, String description, long amount, String currency, long eventDate) {
+
+        int currencyId = currencyId(currency);
+        long start = Metrics.start();
+        int updated;
+        mDb.beginTransaction();
+        try {
+            updated = mStatements.update(rowId, description, amount, currencyId, eventDate);
+            if (updated == 0 && BalanceArchive.restore(mDb, EntryStatements.BY_ROWID,
+                    new String[] {Long.toString(rowId)}) > 0) {
+                updated = mStatements.update(rowId, description, amount, currencyId, eventDate);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        UPDATE_TIMER.stop(start, updated);
+        return updated > 0;
+    }
+
+    /**
+     * Update only the given columns of the balance entry. Columns that are not written
+     * do not fire the triggers that depend on them.
+     * 
+     * @param rowId id of entry to update
+     * @param values the columns to change and their new values, the currency may be given
+     *        as its code in {@link #KEY_CURRENCY}
+     * @return true if the entry was successfully updated, false otherwise
+     */
+    boolean updateEntry(long rowId, ContentValues values) {
+
+        if (values.containsKey(KEY_CURRENCY)) {
+            values = new ContentValues(values);
+            values.put(KEY_CURRENCY_ID, currencyId(values.getAsString(KEY_CURRENCY)));
+            values.remove(KEY_CURRENCY);
+        }
+        if (values.containsKey(KEY_CATEGORY)) {
+            values = new ContentValues(values);
+            putCategory(values, values.getAsString(KEY_CATEGORY));
+            values.remove(KEY_CATEGORY);
+        }
+        // the same text for every entry, so the statement is cached like the compiled ones
+        String[] whereArgs = new String[] {Long.toString(rowId)};
+        long start = Metrics.start();
+        int updated;
+        mDb.beginTransaction();
+        try {
+            updated = mDb.update(DATABASE_TABLE, values, EntryStatements.BY_ROWID, whereArgs);
+            // an archived entry is moved back to the balance table before it changes
+            if (updated == 0 && BalanceArchive.restore(mDb, EntryStatements.BY_ROWID, whereArgs) > 0) {
+                updated = mDb.update(DATABASE_TABLE, values, EntryStatements.BY_ROWID, whereArgs);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        UPDATE_TIMER.stop(start, updated);
+        return updated > 0;
+    }
+
+    /**
+     * Make an entry recur. The entry itself, already created, is the first occurrence; the
+     * following ones are created by {@link #materialiseRecurrences(long, int)} once they are due.
+     * 
+     * @param description description of the entries
+     * @param amount amount of the entries, in minor units of the currency
+     * @param currency currency of the entries
+     * @param frequency one of {@link Recurrence#DAILY}, {@link Recurrence#WEEKLY},
+     *        {@link Recurrence#MONTHLY} or {@link Recurrence#YEARLY}
+     * @param startDate event date of the first occurrence
+     * @param endDate no occurrences are created after this date, 0 for no end
+     * @return rowId of the recurrence or -1 if failed
+     */
+    public long createRecurrence(String description, long amount, String currency, int frequency,
+            long startDate, long endDate) {
+
+        long start = Metrics.start();
+        long rowId = RecurrenceScheduler.insert(mDb, description, amount, currencyId(currency), frequency,
+                startDate, endDate, mLedgerId);
+        CREATE_RECURRENCE_TIMER.stop(start, 1);
+        return rowId;
+    }
+
+    /**
+     * Create the entries of the recurrences that have become due, in one transaction. Meant to be
+     * called repeatedly in the background until it returns less than limit, after being closed
+     * for months the app then catches up a batch at a time. Calling it again at the same time
+     * creates nothing.
+     * 
+     * @param now occurrences dated after this time, in milliseconds, are not created yet
+     * @param limit maximum number of entries to create
+     * @return number of entries created
+     */
+    public int materialiseRecurrences(long now, int limit) {
+
+        long start = Metrics.start();
+        int created = RecurrenceScheduler.materialise(mDb, now, limit);
+        MATERIALISE_TIMER.stop(start, created);
+        return created;
+    }
+
+    /**
+     * Move up to limit of the oldest entries of every ledger dated before the given time to the
+     * archive, in one transaction. Archived entries are still listed, searched, counted in the totals and can be
+     * changed, but no longer weigh on the queries of recent entries. Meant to be called
+     * repeatedly in the background until it returns less than limit.
+     * 
+     * @param before only entries with an earlier event date are archived, in milliseconds
+     * @param limit maximum number of entries to archive
+     * @return number of entries archived
+     */
+    public int archiveEntries(long before, int limit) {
+
+        long start = Metrics.start();
+        int archived = BalanceArchive.archive(mDb, before, limit);
+        ARCHIVE_TIMER.stop(start, archived);
+        return archived;
+    }
+
+    /**
+     * Sets the category_id column to the category with the given name, adding the category if needed
+     */
+    private void putCategory(ContentValues values, String category) {
+        long categoryId = Categories.idOf(mDb, category);
+        if (categoryId > 0) {
+            values.put(KEY_CATEGORY_ID, categoryId);
+        } else {
+            values.putNull(KEY_CATEGORY_ID);
+        }
+    }
+
+    /**
+     * Return the id of a currency in the currency table, adding the currency if needed
+     * 
+     * @param currency the currency code
+     * @return the value stored in the currency_id column for the currency
+     */
+    int currencyId(String currency) {
+
+        return CurrencyCache.idOf(mDb, currency);
+    }
+
+    /**
+     * Return a Cursor over the current balance of the ledger in every currency that has entries.
+     * The totals are maintained per ledger as entries are written, so this does not scan the
+     * entries.
+     * 
+     * @return Cursor with the currency, total and entry_count columns, ordered by currency
+     */
+    public Cursor fetchCurrencyTotals() {
+
+        long start = Metrics.start();
+        return timed(CURRENCY_TOTALS_TIMER, start, mDb.rawQuery("select c." + CurrencyCache.KEY_CODE + " as " + KEY_CURRENCY + ", t."
+                + BalanceTotals.KEY_TOTAL + ", t." + BalanceTotals.KEY_ENTRY_COUNT + " from "
+                + BalanceTotals.TOTAL_TABLE + " t join " + CurrencyCache.TABLE + " c on c._id = t."
+                + KEY_CURRENCY_ID + " where t." + IN_LEDGER + " order by c." + CurrencyCache.KEY_CODE,
+                new String[] {Long.toString(mLedgerId)}));
+    }
+
+    /**
+     * Return a Cursor over the monthly totals of the ledger in one currency, newest month first
+     * 
+     * @param currency the currency code
+     * @return Cursor with the month (yyyy-MM), total and entry_count columns
+     */
+    public Cursor fetchMonthTotals(String currency) {
+
+        long start = Metrics.start();
+        return timed(MONTH_TOTALS_TIMER, start, mDb.query(BalanceTotals.MONTH_TOTAL_TABLE,
+                new String[] {BalanceTotals.KEY_MONTH, BalanceTotals.KEY_TOTAL, BalanceTotals.KEY_ENTRY_COUNT},
+                IN_LEDGER + " AND " + KEY_CURRENCY_ID + " = ?", new String[] {Long.toString(mLedgerId),
+                Integer.toString(CurrencyCache.cachedId(currency))}, null, null, BalanceTotals.KEY_MONTH + " DESC"));
+    }
+
+    /**
+     * Return the total of the entries of the ledger in a currency during one month
+     * 
+     * @param currency the currency code
+     * @param year the year, for example 2025
+     * @param month the month, 1 to 12
+     * @return the total in minor units of the currency, 0 if there are no entries
+     */
+    public long getMonthTotal(String currency, int year, int month) {
+
+        long start = Metrics.start();
+        Cursor c = mDb.query(BalanceTotals.MONTH_TOTAL_TABLE, new String[] {BalanceTotals.KEY_TOTAL},
+                IN_LEDGER + " AND " + KEY_CURRENCY_ID + " = ? AND " + BalanceTotals.KEY_MONTH + " = ?",
+                new String[] {Long.toString(mLedgerId), Integer.toString(CurrencyCache.cachedId(currency)),
+                BalanceTotals.monthKey(year, month)}, null, null, null);
+        try {
+            return c.moveToFirst() ? c.getLong(0) : 0;
+        } finally {
+            c.close();
+            MONTH_TOTAL_TIMER.stop(start, 1);
+        }
+    }
+
+    /**
+     * Recompute the currency and month totals of every ledger from the entries. Only needed if the totals
+     * have been found to be wrong, see {@link #verifyTotals()}.
+     */
+    public void rebuildTotals() {
+        long start = Metrics.start();
+        BalanceTotals.rebuild(mDb);
+        REBUILD_TOTALS_TIMER.stop(start);
+    }
+
+    /**
+     * Check the stored currency and month totals against the entries. This scans the
+     * whole balance table and the archive.
+     * 
+     * @return true if the stored totals are correct
+     */
+    public boolean verifyTotals() {
+        long start = Metrics.start();
+        boolean correct = BalanceTotals.verify(mDb);
+        VERIFY_TOTALS_TIMER.stop(start);
+        return correct;
+    }
+
+    /**
+     * Return a Cursor over the changes to the entries of every ledger after a sync token, oldest
+     * first. Only the latest change of an entry is returned, with the current values of the
+     * entry, so a replica reading batch after batch until it gets less than limit ends up with the
+     * entries as they are. The seq column of the last row is the token to continue after.
+     * 
+     * With a token of 0 every entry that has not been deleted is returned, including those
+     * that came from a replica. A replica holding a token below {@link #getJournalFloor()} may
+     * have missed deletes and has to start over from 0, dropping the entries it is not sent.
+     * 
+     * @param token 0 or the seq of the last change read before
+     * @param limit maximum number of changes to return
+     * @return Cursor with the seq, uid, changed_at, description, amount, currency, event_date,
+     *         category, ledger and deleted columns, see {@link EntryChange#fromCursor(Cursor)}
+     */
+    public Cursor fetchChanges(long token, int limit) {
+
+        long start = Metrics.start();
+        return timed(FETCH_CHANGES_TIMER, start, mDb.rawQuery(ChangeJournal.CHANGES_AFTER, new String[] {
+                Long.toString(token), token == 0 ? "1" : "0", Integer.toString(limit)}));
+    }
+
+    /**
+     * @return the lowest sync token that {@link #fetchChanges(long, int)} can continue after,
+     *         apart from 0
+     */
+    public long getJournalFloor() {
+
+        return ChangeJournal.floor(mDb);
+    }
+
+    /**
+     * Apply changes read from a replica, in one transaction. Of two changes of the same entry
+     * the later one wins: a change is applied only if it was made after the latest change of
+     * the entry here, and on a tie the entry here is kept. Applied changes are journaled with
+     * their time at the replica and are not returned by {@link #fetchChanges(long, int)} unless
+     * it starts over from 0.
+     * 
+     * A change whose currency is not an ISO 4217 code is skipped, as the editor and the import
+     * never store one, and is not counted as applied.
+     * 
+     * @param changes the changes, of any ledgers, the ledgers and categories are added if needed
+     * @return number of changes applied
+     */
+    public int applyChanges(List<EntryChange> changes) {
+
+        // the currencies are checked and looked up before the transaction, see CurrencyCache#idOf
+        int[] currencyIds = new int[changes.size()];
+        for (int i = 0; i < currencyIds.length; i++) {
+            EntryChange change = changes.get(i);
+            if (change.deleted) {
+                continue;
+            }
+            if (isCurrencyCode(change.currency)) {
+                currencyIds[i] = currencyId(change.currency);
+            } else {
+                Log.w(TAG, "Skipping the change of entry " + change.uid + " in unknown currency " + change.currency);
+                currencyIds[i] = NO_CURRENCY;
+            }
+        }
+
+        long start = Metrics.start();
+        int applied = 0;
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < currencyIds.length; i++) {
+                if (currencyIds[i] != NO_CURRENCY && applyChange(changes.get(i), currencyIds[i])) {
+                    applied++;
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        APPLY_CHANGES_TIMER.stop(start, applied);
+        return applied;
+    }
+
+    /**
+     * @return true if code is an ISO 4217 currency code, as the import checks them
+     */
+    private static boolean isCurrencyCode(String code) {
+        if (code == null) {
+            return false;
+        }
+        try {
+            Currency.getInstance(code);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes a change from a replica over the entry with the same global id unless the entry
+     * has changed since
+     * 
+     * @return true if the change was applied
+     */
+    private boolean applyChange(EntryChange change, int currencyId) {
+        String[] whereArgs = new String[] {change.uid};
+        Cursor latest = mDb.rawQuery(ChangeJournal.LATEST_OF_ENTRY, whereArgs);
+        try {
+            if (latest.moveToFirst() && latest.getLong(0) >= change.changedAt) {
+                return false;
+            }
+        } finally {
+            latest.close();
+        }
+
+        // an archived entry is moved back to the balance table before it changes
+        BalanceArchive.restore(mDb, BY_UID, whereArgs);
+        if (change.deleted) {
+            ContentValues values = new ContentValues();
+            values.put(KEY_DELETED, System.currentTimeMillis());
+            mDb.update(DATABASE_TABLE, values, BY_UID + " AND " + NOT_DELETED, whereArgs);
+        } else {
+            ContentValues values = new ContentValues();
+            values.put(KEY_DESCRIPTION, change.description);
+            values.put(KEY_AMOUNT, change.amount);
+            values.put(KEY_CURRENCY_ID, currencyId);
+            values.put(KEY_EVENT_DATE, change.eventDate);
+            putCategory(values, change.category);
+            values.put(KEY_LEDGER_ID, change.ledger == null ? Ledgers.DEFAULT_LEDGER : Ledgers.idOf(mDb, change.ledger));
+            values.put(KEY_DELETED, 0);
+            // an entry deleted here is brought back, one purged or never seen is added with a rowId of its own
+            if (mDb.update(DATABASE_TABLE, values, BY_UID, whereArgs) == 0) {
+                values.put(KEY_UID, change.uid);
+                mDb.insertOrThrow(DATABASE_TABLE, null, values);
+            }
+        }
+        ChangeJournal.recordRemote(mDb, change.uid, change.changedAt);
+        return true;
+    }
+
+    /**
+     * Check up to limit rows of the change journal not checked before, in one transaction,
+     * removing the changes of purged entries made before the given time, which raises the
+     * floor. The journal keeps one row per entry as it is written, so this only removes the
+     * deletes of entries that are gone, and each row is checked about once. Meant to be called
+     * repeatedly in the background until it returns less than limit.
+     * 
+     * @param purgedBefore the deletes of purged entries are kept for replicas until this time,
+     *        in milliseconds
+     * @param limit maximum number of rows to check
+     * @return number of rows checked
+     */
+    public int compactJournal(long purgedBefore, int limit) {
+
+        long start = Metrics.start();
+        int checked = ChangeJournal.compact(mDb, purgedBefore, limit);
+        COMPACT_JOURNAL_TIMER.stop(start, checked);
+        return checked;
+    }
+}
@@ -0,0 +1,68 @@
+package fi.wegar.balancepad;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+/**
+ * Values of one balance entry, read from a row of the balance table or entered in the editor
+ */
+class BalanceEntry {
+
+	final long rowId;
+	final String description;
+	final long amount;
+	final String currency;
+	final long eventDate;
+	// name of the category, null for none
+	final String category;
+
+	BalanceEntry(long rowId, String description, long amount, String currency, long eventDate, String category) {
+		this.rowId = rowId;
+		this.description = description;
+		this.amount = amount;
+		this.currency = currency;
+		this.eventDate = eventDate;
+		this.category = category;
+	}
+
+	/**
+	 * Reads the entry at the current position of a cursor with the columns of
+	 * {@link BalanceDbAdapter#fetchEntry(long)}
+	 */
+	static BalanceEntry fromCursor(Cursor c) {
+		return new BalanceEntry(
+				c.getLong( c.getColumnIndexOrThrow(BalanceDbAdapter.KEY_ROWID) ),
+				c.getString( c.getColumnIndexOrThrow(BalanceDbAdapter.KEY_DESCRIPTION) ),
+				c.getLong( c.getColumnIndexOrThrow(BalanceDbAdapter.KEY_AMOUNT) ),
+				CurrencyCache.code( c.getInt( c.getColumnIndexOrThrow(BalanceDbAdapter.KEY_CURRENCY_ID) ) ),
+				c.getLong( c.getColumnIndexOrThrow(BalanceDbAdapter.KEY_EVENT_DATE) ),
+				c.getString( c.getColumnIndexOrThrow(BalanceDbAdapter.KEY_CATEGORY) ));
+	}
+
+	/**
+	 * Returns the columns whose values differ from those of an earlier version of the entry
+	 *
+	 * @param previous the earlier version, or null if there is none
+	 * @return the changed columns and their new values, empty if nothing changed
+	 */
+	ContentValues changedValues(BalanceEntry previous) {
+		ContentValues changed = new ContentValues();
+		if (previous == null || !description.equals(previous.description)) {
+			changed.put(BalanceDbAdapter.KEY_DESCRIPTION, description);
+		}
+		if (previous == null || amount != previous.amount) {
+			changed.put(BalanceDbAdapter.KEY_AMOUNT, amount);
+		}
+		if (previous == null || !currency.equals(previous.currency)) {
+			changed.put(BalanceDbAdapter.KEY_CURRENCY, currency);
+		}
+		if (previous == null || eventDate != previous.eventDate) {
+			changed.put(BalanceDbAdapter.KEY_EVENT_DATE, eventDate);
+		}
+		if (previous == null ? category != null
+				: (category == null ? previous.category != null : !category.equals(previous.category))) {
+			changed.put(BalanceDbAdapter.KEY_CATEGORY, category);
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,503 @@
+package fi.wegar.balancepad;
+
+import java.text.DateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.Future;
+
+import android.app.Activity;
+import android.app.DatePickerDialog;
+import android.app.Dialog;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.text.InputType;
+import android.view.KeyEvent;
+import android.view.View;
+import android.widget.ArrayAdapter;
+import android.widget.AutoCompleteTextView;
+import android.widget.Button;
+import android.widget.DatePicker;
+import android.widget.EditText;
+import android.widget.Spinner;
+
+public class BalanceEntryEdit extends Activity {
+
+	/**
+	 * Result extra telling the caller whether the saved entry may have moved in the date
+	 * ordered list, because it is new or its date changed
+	 */
+	public static final String EXTRA_REORDERED = "reordered";
+
+	// taken from SharedDatabase in onCreate and released in onDestroy
+	private Future<BalanceDbAdapter> mDatabase;
+	private EditText mDescriptionText;
+	private EditText mDateText;
+	private EditText mAmountText;
+	private Spinner mAmountCurrency;
+	private AutoCompleteTextView mCategoryText;
+	private Spinner mRepeat;
+	private Button mRepeatUntil;
+	
+	private int mYear;
+	private int mMonth;
+	private int mDay;
+	
+	private Boolean doSaveState;
+	
+	private Long mRowId;
+	
+	// only new entries can be made to recur
+	private boolean mNewEntry;
+	
+	// last date on which a recurring entry may occur, 0 for no end
+	private long mRepeatEndDate;
+	
+	// writes the changes, created once the entry has been loaded and kept across configuration changes
+	private EntrySaver mSaver;
+	
+	// event date of the entry as last saved, used to tell if it moved in the list
+	private long mSavedEventDate;
+	
+	// reused when the date fields are turned into an event date
+	private final Calendar mCalendar = Calendar.getInstance();
+	
+	static final int DATE_DIALOG_ID = 2;
+	static final int UNTIL_DIALOG_ID = 3;
+	
+	private static final String STATE_YEAR = "year";
+	private static final String STATE_MONTH = "month";
+	private static final String STATE_DAY = "day";
+	private static final String STATE_REPEAT_END = "repeatEnd";
+	
+	// the callback received when the user "sets" the date in the dialog
+	private DatePickerDialog.OnDateSetListener mDateSetListener =
+				new DatePickerDialog.OnDateSetListener() {
+
+					public void onDateSet(DatePicker view, int year, 
+								int monthOfYear, int dayOfMonth) {
+								mYear = year;
+								mMonth = monthOfYear;
+								mDay = dayOfMonth;
+								updateDateText();
+					}
+				};	
+	
+	private DatePickerDialog.OnDateSetListener mUntilSetListener =
+				new DatePickerDialog.OnDateSetListener() {
+
+					public void onDateSet(DatePicker view, int year, 
+								int monthOfYear, int dayOfMonth) {
+								mCalendar.clear();
+								mCalendar.set(year, monthOfYear, dayOfMonth);
+								mRepeatEndDate = mCalendar.getTimeInMillis();
+								updateRepeatUntilText();
+					}
+				};
+	
+	/**
+	 * creates the view and populates the fields with default values. 
+	 * 
+	 * First method to be called during life-cycle
+	 */
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.balance_entry_edit);
+        setTitle(R.string.edit_entry);
+        
+        // after a configuration change the saver of the previous instance carries on
+        mSaver = (EntrySaver) getLastNonConfigurationInstance();
+        mDatabase = SharedDatabase.acquire(this);
+
+        mDescriptionText = (EditText) findViewById(R.id.description);
+        mDateText = (EditText) findViewById(R.id.event_date);
+        mAmountText = (EditText) findViewById(R.id.amount);
+        mAmountCurrency = (Spinner) findViewById(R.id.currency);
+        mCategoryText = (AutoCompleteTextView) findViewById(R.id.category);
+        mRepeat = (Spinner) findViewById(R.id.repeat);
+        mRepeatUntil = (Button) findViewById(R.id.repeat_until);
+        
+        // populate the currency spinner with values
+        Spinner spinner = (Spinner) findViewById(R.id.currency);
+        ArrayAdapter<CharSequence> adapter = ArrayAdapter.createFromResource(
+        		this, R.array.currencies_array, android.R.layout.simple_spinner_item);
+        		adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        		spinner.setAdapter(adapter);        
+        
+        loadCategories();
+
+        Button addButton = (Button) findViewById(R.id.save);
+
+        mRowId = (savedInstanceState == null) ? null : (Long) savedInstanceState.getSerializable(BalanceDbAdapter.KEY_ROWID);
+    	if (mRowId == null) {
+    		Bundle extras = getIntent().getExtras();
+    		mRowId = extras != null ? extras.getLong(BalanceDbAdapter.KEY_ROWID) : null;
+    	}
+    	
+    	if (savedInstanceState != null) {
+    		// the text fields restore themselves, only the date parts need restoring
+    		mYear = savedInstanceState.getInt(STATE_YEAR);
+    		mMonth = savedInstanceState.getInt(STATE_MONTH);
+    		mDay = savedInstanceState.getInt(STATE_DAY);
+    		mRepeatEndDate = savedInstanceState.getLong(STATE_REPEAT_END);
+    	}
+    	
+    	mNewEntry = !getIntent().hasExtra(BalanceDbAdapter.KEY_ROWID);
+    	if (mNewEntry) {
+    		findViewById(R.id.repeat_row).setVisibility(View.VISIBLE);
+    		updateRepeatUntilText();
+    		mRepeatUntil.setOnClickListener(new View.OnClickListener() {
+    			public void onClick(View v) {
+    				showDialog(UNTIL_DIALOG_ID);
+    			}
+    		});
+    	}
+    	
+    	if (mSaver == null) {
+    		populateFields(savedInstanceState == null);
+    	}
+    	
+        addButton.setOnClickListener(new View.OnClickListener() {
+
+            public void onClick(View view) {
+            	// save now, so the result can tell the list which row changed
+            	saveState();
+            	saveRecurrence();
+            	doSaveState = false;
+            	
+            	Intent result = new Intent();
+            	if (mSaver != null) {
+            		// a new entry may still be waiting to be written, its rowId is then unknown
+            		long rowId = mSaver.getRowId();
+            		if (rowId >= 0) {
+            			result.putExtra(BalanceDbAdapter.KEY_ROWID, rowId);
+            		}
+            		BalanceEntry loaded = mSaver.getLoaded();
+            		result.putExtra(EXTRA_REORDERED, loaded == null || loaded.eventDate != mSavedEventDate);
+            	}
+                setResult(RESULT_OK, result);
+                finish();
+            }
+
+        });
+        
+        
+        Button cancelButton = (Button) findViewById(R.id.cancel);
+        
+        cancelButton.setOnClickListener(new View.OnClickListener() {
+			
+			@Override
+			public void onClick(View v) {
+				
+				doSaveState = false;
+				
+				setResult(RESULT_CANCELED);
+				finish();
+			}
+		});
+        
+        // add a click listener to the date, make sure soft keyboard is not shown
+        mDateText.setInputType(InputType.TYPE_NULL);
+        mDateText.setOnClickListener( new View.OnClickListener() {
+	        		public void onClick(View v) {
+	        			showDialog(DATE_DIALOG_ID);
+        		}
+        	});        
+        
+    }
+    
+    private void updateDateText()
+    {
+    	mDateText.setText(new StringBuilder()
+							.append(mYear).append("-")
+							.append(mMonth + 1).append("-")							
+							.append(mDay).append(" ") ); 	
+    }
+    
+    private void updateRepeatUntilText()
+    {
+    	if (mRepeatEndDate == 0) {
+    		mRepeatUntil.setText(R.string.repeat_no_end);
+    	} else {
+    		mRepeatUntil.setText(getString(R.string.repeat_until,
+    				DateFormat.getDateInstance().format(new Date(mRepeatEndDate))));
+    	}
+    }
+    
+    /**
+     * Adds default values to the fields, or if we're editing an old entry, the values from the database.
+     * An existing entry is read in the background, and saving is only possible once it has been read.
+     * 
+     * @param showValues false if the fields already hold restored values that must be kept
+     */
+    private void populateFields(final boolean showValues)
+    {
+    	if(mRowId != null)
+    	{
+    		// We're editing an exising entry, so fetch the data and populate fields using it
+    		final long rowId = mRowId;
+    		DbWorker.execute(new DbWorker.Task<BalanceEntry>() {
+    			@Override
+    			protected BalanceEntry doInBackground() {
+    				return db().readEntry(rowId);
+    			}
+    			
+    			@Override
+    			protected void onComplete(BalanceEntry entry) {
+    				if (entry == null || isFinishing()) {
+    					return;
+    				}
+    				mSaver = new EntrySaver(BalanceEntryEdit.this, mDatabase, entry);
+    				if (showValues) {
+    					showEntry(entry);
+    				}
+    			}
+    		});
+    	}
+    	else
+    	{
+    		mSaver = new EntrySaver(this, mDatabase, null);
+    		if (!showValues) {
+    			return;
+    		}
+    		
+    		// this is a new entry, so use default values
+    		mCalendar.setTimeInMillis(System.currentTimeMillis());
+    		mYear = mCalendar.get(Calendar.YEAR);
+    		mMonth = mCalendar.get(Calendar.MONTH);
+    		mDay = mCalendar.get(Calendar.DATE);
+    		
+    		
+    		SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences( getApplicationContext() );
+    		
+    		String code = settings.getString(Preferences.KEY_DEFAULT_CURRENCY_PREFERENCE, "EUR");
+    			
+    		setCurrencySelection(code);
+    		updateDateText();
+    	}
+    }
+    
+    /**
+     * Offers the names of the existing categories as completions of the category field
+     */
+    private void loadCategories()
+    {
+    	DbWorker.execute(new DbWorker.Task<String[]>() {
+    		@Override
+    		protected String[] doInBackground() {
+    			Cursor c = db().fetchCategories();
+    			try {
+    				String[] names = new String[c.getCount()];
+    				for (int i = 0; c.moveToNext(); i++) {
+    					names[i] = c.getString(1);
+    				}
+    				return names;
+    			} finally {
+    				c.close();
+    			}
+    		}
+    		
+    		@Override
+    		protected void onComplete(String[] names) {
+    			if (!isFinishing()) {
+    				mCategoryText.setAdapter(new ArrayAdapter<String>(BalanceEntryEdit.this,
+    						android.R.layout.simple_dropdown_item_1line, names));
+    			}
+    		}
+    	});
+    }
+    
+    /**
+     * Fills the fields with the values of a loaded entry
+     */
+    private void showEntry(BalanceEntry entry)
+    {
+    	mCalendar.setTimeInMillis(entry.eventDate);
+    	mYear = mCalendar.get(Calendar.YEAR);
+    	mMonth = mCalendar.get(Calendar.MONTH);
+    	mDay = mCalendar.get(Calendar.DATE);
+    	
+    	mDescriptionText.setText( entry.description );
+    	mAmountText.setText( Amounts.toPlainString(entry.amount, entry.currency) );
+    	setCurrencySelection(entry.currency);
+    	mCategoryText.setText( entry.category != null ? entry.category : "" );
+    	
+    	updateDateText();
+    }
+    
+    /**
+     * Sets the selection of the currency spinner to the value defined in code
+     * @param code The Currency code that the spinner should be set to
+     */
+    private void setCurrencySelection(String code) {
+		ArrayAdapter<String> spAdapter = (ArrayAdapter<String>) mAmountCurrency.getAdapter();
+		int itemPos = spAdapter.getPosition( code );
+		mAmountCurrency.setSelection(itemPos);;
+    }
+	
+    /**
+     * Keeps the row id and date for a recreated activity. Nothing is written here, onPause
+     * always follows and saves the entry.
+     */
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+	    super.onSaveInstanceState(outState);
+	    if (mSaver != null && mSaver.getRowId() >= 0) {
+	    	mRowId = mSaver.getRowId();
+	    }
+	    outState.putSerializable(BalanceDbAdapter.KEY_ROWID, mRowId);
+	    outState.putInt(STATE_YEAR, mYear);
+	    outState.putInt(STATE_MONTH, mMonth);
+	    outState.putInt(STATE_DAY, mDay);
+	    outState.putLong(STATE_REPEAT_END, mRepeatEndDate);
+    }    
+    
+    /**
+     * Hands the saver to the activity recreated after a configuration change, so that pending
+     * writes, and the rowId of a new entry, carry over
+     */
+    @Override
+    public Object onRetainNonConfigurationInstance() {
+    	return mSaver;
+    }
+    
+    
+    /**
+     * Second method to be called during life cycle
+     */
+    @Override
+    protected void onStart()
+    {
+    	super.onStart();
+    	doSaveState = true;
+    }
+    
+    /**
+     * Third method to be called. The activity can loop between this and onPause if the Activity ends up in the background
+     */
+    @Override
+    protected void onResume() {
+    	super.onResume();
+    	// the fields still hold the loaded or edited values, so nothing is re-read here
+    }
+    
+    
+    /**
+     * fourth method to be called. First to be called when exiting activity. 
+     * The activity can loop between this and onResume if the Activity ends up in the background
+     */
+    @Override
+    protected void onPause() {
+    	super.onPause();
+    	saveState();
+    }
+    
+    /**
+     * Last method to be called. The writes queued by saveState run before the database can be closed.
+     */
+    @Override
+    protected void onDestroy() {
+    	super.onDestroy();
+    	SharedDatabase.release();
+    }
+    
+    /**
+     * @return the shared database, only called on the database thread, where it is already open
+     */
+    private BalanceDbAdapter db() {
+    	return SharedDatabase.await(mDatabase);
+    }
+    
+    /**
+     * Hands the current field values to the saver, which writes them in the background if they
+     * differ from the values saved before
+     */
+    private void saveState() {
+    	
+    	// save the state if the user hasn't clicked cancel explicitly, and the entry has been loaded
+    	if(doSaveState && mSaver != null)
+    	{
+	    	String description = mDescriptionText.getText().toString();
+	    	
+	    	String currency = (String) mAmountCurrency.getSelectedItem();
+	    	
+	    	long amount = readAmount(currency);
+
+	    	// the date fields are kept in sync with the picker, so there is no text to parse
+	    	mCalendar.clear();
+	    	mCalendar.set(mYear, mMonth, mDay);
+	    	mSavedEventDate = mCalendar.getTimeInMillis();
+	    	
+	    	String category = mCategoryText.getText().toString().trim();
+	    	
+	    	mSaver.save(description, amount, currency, mSavedEventDate, category.length() > 0 ? category : null);
+    	}
+    }
+    
+    /**
+     * Makes a new entry recur if a frequency was chosen. The entry just saved is the first
+     * occurrence; the rule is queued behind its write.
+     */
+    private void saveRecurrence() {
+    	final int frequency = mRepeat.getSelectedItemPosition();
+    	if (!mNewEntry || frequency == Recurrence.NONE || mSaver == null) {
+    		return;
+    	}
+    	
+    	final String description = mDescriptionText.getText().toString();
+    	final String currency = (String) mAmountCurrency.getSelectedItem();
+    	final long amount = readAmount(currency);
+    	final long startDate = mSavedEventDate;
+    	final long endDate = mRepeatEndDate;
+    	DbWorker.execute(new DbWorker.Task<Long>() {
+    		@Override
+    		protected Long doInBackground() {
+    			return db().createRecurrence(description, amount, currency, frequency, startDate, endDate);
+    		}
+    	});
+    }
+    
+    /**
+     * @return the amount typed by the user in minor units of the currency, 0 if there is none
+     */
+    private long readAmount(String currency) {
+    	String text = mAmountText.getText().toString();
+    	return text.length() > 0 ? Amounts.parse(text, currency) : 0;
+    }
+    
+    @Override
+    public boolean onKeyUp(int keyCode, KeyEvent event) {
+    	if (keyCode == KeyEvent.KEYCODE_BACK) {
+    		// user pressed back so treat as cancel
+    		doSaveState = false;
+    	}
+    	return super.onKeyUp(keyCode, event);
+    }    
+    
+    @Override
+    protected Dialog onCreateDialog(int id) {
+    	switch (id) {
+    	case DATE_DIALOG_ID:
+    		return new DatePickerDialog(this,
+    				mDateSetListener,
+    				mYear, mMonth, mDay);
+    	case UNTIL_DIALOG_ID:
+    		// opens on the entry date, the neutral button removes the end
+    		DatePickerDialog until = new DatePickerDialog(this, mUntilSetListener, mYear, mMonth, mDay);
+    		until.setButton(DialogInterface.BUTTON_NEUTRAL, getString(R.string.repeat_no_end),
+    				new DialogInterface.OnClickListener() {
+    					public void onClick(DialogInterface dialog, int which) {
+    						mRepeatEndDate = 0;
+    						updateRepeatUntilText();
+    					}
+    				});
+    		return until;
+    	}
+    	return null;
+    }    
+    
+}
@@ -0,0 +1,246 @@
+package fi.wegar.balancepad;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Calendar;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Writes the balance entries of the ledger the adapter is on to an output stream as CSV or
+ * JSON. The table is read in chunks
+ * of a bounded number of rows, oldest first, and every row is written straight to a buffered
+ * writer, so memory use does not grow with the number of entries.
+ *
+ * The CSV output uses the same columns as {@link BalanceCsvImporter} and can be imported again.
+ */
+public class BalanceExporter {
+
+	public enum Format { CSV, JSON }
+
+	/**
+	 * Number of rows read per query when no chunk size is set
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 500;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final String[] EXPORT_COLUMNS = new String[] {BalanceDbAdapter.KEY_ROWID,
+			BalanceDbAdapter.KEY_DESCRIPTION, BalanceDbAdapter.KEY_AMOUNT,
+			BalanceDbAdapter.KEY_CURRENCY_ID, BalanceDbAdapter.KEY_EVENT_DATE};
+
+	private static final String EXPORT_ORDER = BalanceDbAdapter.KEY_EVENT_DATE + " ASC, "
+			+ BalanceDbAdapter.KEY_ROWID + " ASC";
+
+	// the archive holds no deleted entries
+	private static final String ARCHIVE_RANGE = BalanceDbAdapter.KEY_LEDGER_ID + " = ? AND "
+			+ BalanceDbAdapter.KEY_EVENT_DATE + " >= ? AND " + BalanceDbAdapter.KEY_EVENT_DATE + " < ?";
+	private static final String RANGE = ARCHIVE_RANGE + " AND " + BalanceDbAdapter.NOT_DELETED;
+
+	// continues after the last row of the previous chunk, see BalanceDbAdapter.PAGE_SEEK
+	private static final String SEEK = " AND " + BalanceDbAdapter.KEY_EVENT_DATE
+			+ " >= ? AND (" + BalanceDbAdapter.KEY_EVENT_DATE + " > ? OR "
+			+ BalanceDbAdapter.KEY_ROWID + " > ?)";
+	private static final String RANGE_SEEK = RANGE + SEEK;
+	private static final String ARCHIVE_RANGE_SEEK = ARCHIVE_RANGE + SEEK;
+
+	private final BalanceDbAdapter mDbHelper;
+	private int mChunkSize = DEFAULT_CHUNK_SIZE;
+	private final Calendar mCalendar = Calendar.getInstance();
+
+	/**
+	 * @param dbHelper an opened database adapter to export from
+	 */
+	public BalanceExporter(BalanceDbAdapter dbHelper) {
+		mDbHelper = dbHelper;
+	}
+
+	/**
+	 * @param chunkSize maximum number of rows read per query
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunkSize must be positive");
+		}
+		mChunkSize = chunkSize;
+	}
+
+	/**
+	 * Exports all entries
+	 *
+	 * @see #export(OutputStream, Format, long, long)
+	 */
+	public int export(OutputStream out, Format format) throws IOException {
+		return export(out, format, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Exports the entries with fromDate <= event_date < toDate as UTF-8 text. The stream is
+	 * flushed but not closed.
+	 *
+	 * @param out the stream to write to
+	 * @param format the output format
+	 * @param fromDate first event date to include, in milliseconds
+	 * @param toDate event date to stop at, in milliseconds
+	 * @return number of entries written
+	 * @throws IOException if writing fails
+	 */
+	public int export(OutputStream out, Format format, long fromDate, long toDate) throws IOException {
+		SQLiteDatabase db = mDbHelper.getDatabase();
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), BUFFER_SIZE);
+
+		long ledgerId = mDbHelper.getLedger();
+		String ledger = Long.toString(ledgerId);
+		String from = Long.toString(fromDate);
+		String to = Long.toString(toDate);
+		String limit = Integer.toString(mChunkSize);
+		// the archive is only read if it holds entries in the range
+		boolean archived = BalanceArchive.overlaps(db, ledgerId, fromDate, toDate);
+
+		if (format == Format.JSON) {
+			writer.write('[');
+		}
+
+		int written = 0;
+		long lastEventDate = 0;
+		long lastRowId = 0;
+		boolean more = true;
+
+		while (more) {
+			Cursor chunk;
+			if (written == 0) {
+				chunk = query(db, archived, RANGE, ARCHIVE_RANGE, new String[] {ledger, from, to}, limit);
+			} else {
+				String date = Long.toString(lastEventDate);
+				chunk = query(db, archived, RANGE_SEEK, ARCHIVE_RANGE_SEEK,
+						new String[] {ledger, from, to, date, date, Long.toString(lastRowId)}, limit);
+			}
+
+			try {
+				while (chunk.moveToNext()) {
+					lastRowId = chunk.getLong(0);
+					lastEventDate = chunk.getLong(4);
+
+					if (format == Format.JSON) {
+						writeJsonRow(writer, chunk, written > 0);
+					} else {
+						writeCsvRow(writer, chunk);
+					}
+					written++;
+				}
+				more = chunk.getCount() >= mChunkSize;
+			} finally {
+				chunk.close();
+			}
+		}
+
+		if (format == Format.JSON) {
+			writer.write(']');
+		}
+		writer.flush();
+		return written;
+	}
+
+	/**
+	 * Reads a chunk from the balance table, or from both tables if the archive is included
+	 */
+	private static Cursor query(SQLiteDatabase db, boolean archived, String selection,
+			String archiveSelection, String[] args, String limit) {
+		if (!archived) {
+			return db.query(BalanceDbAdapter.DATABASE_TABLE, EXPORT_COLUMNS, selection, args,
+					null, null, EXPORT_ORDER, limit);
+		}
+		return db.rawQuery(BalanceArchive.unionQuery(EXPORT_COLUMNS, selection, archiveSelection,
+				EXPORT_ORDER, limit), BalanceArchive.unionArgs(args));
+	}
+
+	private void writeCsvRow(Writer out, Cursor row) throws IOException {
+		String currency = CurrencyCache.code(row.getInt(3));
+		writeCsvField(out, row.getString(1));
+		out.write(',');
+		out.write(Amounts.toPlainString(row.getLong(2), currency));
+		out.write(',');
+		writeCsvField(out, currency);
+		out.write(',');
+		IsoDates.write(out, row.getLong(4), mCalendar);
+		out.write('\n');
+	}
+
+	private static void writeCsvField(Writer out, String value) throws IOException {
+		boolean quote = false;
+		for (int i = 0; i < value.length() && !quote; i++) {
+			char c = value.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+
+		if (!quote) {
+			out.write(value);
+			return;
+		}
+
+		out.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"') {
+				out.write('"');
+			}
+			out.write(c);
+		}
+		out.write('"');
+	}
+
+	private void writeJsonRow(Writer out, Cursor row, boolean separator) throws IOException {
+		if (separator) {
+			out.write(',');
+		}
+		out.write("\n{\"id\":");
+		out.write(Long.toString(row.getLong(0)));
+		out.write(",\"description\":");
+		writeJsonString(out, row.getString(1));
+		String currency = CurrencyCache.code(row.getInt(3));
+		out.write(",\"amount\":");
+		out.write(Amounts.toPlainString(row.getLong(2), currency));
+		out.write(",\"currency\":");
+		writeJsonString(out, currency);
+		out.write(",\"event_date\":\"");
+		IsoDates.write(out, row.getLong(4), mCalendar);
+		out.write("\"}");
+	}
+
+	private static void writeJsonString(Writer out, String value) throws IOException {
+		out.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"':
+					out.write("\\\"");
+					break;
+				case '\\':
+					out.write("\\\\");
+					break;
+				case '\n':
+					out.write("\\n");
+					break;
+				case '\r':
+					out.write("\\r");
+					break;
+				case '\t':
+					out.write("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						out.write("\\u00");
+						out.write(Character.forDigit(c >> 4, 16));
+						out.write(Character.forDigit(c & 0xf, 16));
+					} else {
+						out.write(c);
+					}
+			}
+		}
+		out.write('"');
+	}
+}
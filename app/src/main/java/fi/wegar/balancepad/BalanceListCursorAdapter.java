@@ -0,0 +1,255 @@
+package fi.wegar.balancepad;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.CheckBox;
+import android.widget.CursorAdapter;
+import android.widget.SectionIndexer;
+import android.widget.TextView;
+
+public class BalanceListCursorAdapter extends CursorAdapter implements SectionIndexer {
+
+	/**
+	 * Views of one list row, looked up once when the row is inflated
+	 */
+	private static class ViewHolder {
+		TextView date;
+		TextView amount;
+		TextView description;
+		TextView converted;
+		CheckBox selected;
+	}
+
+	private static final Metrics.Timer BIND_TIMER = Metrics.timer("bindView");
+
+	private LayoutInflater mInflater;
+	private final EntryFormatter mFormatter = new EntryFormatter();
+
+	// entries changed since the cursor was loaded, shown instead of the cursor values
+	private final HashMap<Long, BalanceEntry> mChangedRows = new HashMap<Long, BalanceEntry>();
+
+	// rowIds of the entries checked while selecting, null when not selecting
+	private HashSet<Long> mSelected;
+
+	// when set, amounts in other currencies are also shown converted to the home currency
+	private ExchangeRates mRates;
+	private String mHomeCurrency;
+
+	// the months of the list for the fast scroller, for all entries and not just the loaded ones
+	private MonthSections mSections = MonthSections.NONE;
+
+	// column indices of the current cursor
+	private int mIdColumn;
+	private int mDateColumn;
+	private int mAmountColumn;
+	private int mCurrencyColumn;
+	private int mDescriptionColumn;
+
+	BalanceListCursorAdapter(Context context, Cursor c) {
+			super(context, c);
+
+			mInflater = LayoutInflater.from(context);
+			resolveColumns(c);
+	}
+
+	/**
+	 * Replaces the cursor and looks up the column indices of the new one
+	 */
+	@Override
+	public void changeCursor(Cursor cursor) {
+		mChangedRows.clear();
+		resolveColumns(cursor);
+		super.changeCursor(cursor);
+	}
+
+	/**
+	 * Replaces the cursor with one that holds the rows of the current cursor followed by more
+	 * rows, keeping the rows changed through {@link #updateRow(BalanceEntry)}
+	 */
+	void changeCursorKeepingChanges(Cursor cursor) {
+		resolveColumns(cursor);
+		super.changeCursor(cursor);
+	}
+
+	/**
+	 * Shows the new values of an entry without re-querying the list. Only valid while the
+	 * change does not move the entry to another position in the list.
+	 *
+	 * @param entry the updated entry
+	 */
+	void updateRow(BalanceEntry entry) {
+		mChangedRows.put(entry.rowId, entry);
+		notifyDataSetChanged();
+	}
+
+	/**
+	 * Shows each amount that is not in the home currency also converted to it, at the rate
+	 * of the entry date
+	 *
+	 * @param rates the exchange rates, or null to show the amounts only in their own currency
+	 * @param homeCurrency the currency to convert to
+	 */
+	void setConversion(ExchangeRates rates, String homeCurrency) {
+		mRates = rates;
+		mHomeCurrency = homeCurrency;
+		notifyDataSetChanged();
+	}
+
+	/**
+	 * Starts or ends selecting entries. While selecting every row shows a check box, and the
+	 * selection is kept when more pages are loaded.
+	 *
+	 * @param selecting true to start selecting with no entry selected, false to end selecting
+	 */
+	void setSelecting(boolean selecting) {
+		mSelected = selecting ? new HashSet<Long>() : null;
+		notifyDataSetChanged();
+	}
+
+	boolean isSelecting() {
+		return mSelected != null;
+	}
+
+	/**
+	 * Selects an entry that is not selected and the other way around
+	 *
+	 * @param rowId id of the entry
+	 */
+	void toggleSelected(long rowId) {
+		if (!mSelected.remove(rowId)) {
+			mSelected.add(rowId);
+		}
+		notifyDataSetChanged();
+	}
+
+	int getSelectedCount() {
+		return mSelected == null ? 0 : mSelected.size();
+	}
+
+	/**
+	 * @return the rowIds of the selected entries
+	 */
+	long[] getSelectedIds() {
+		long[] ids = new long[getSelectedCount()];
+		if (mSelected != null) {
+			int i = 0;
+			for (Long id : mSelected) {
+				ids[i++] = id;
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * @param sections the months of the list, {@link MonthSections#NONE} for a list that is not
+	 *        in date order
+	 */
+	void setSections(MonthSections sections) {
+		mSections = sections;
+		notifyDataSetChanged();
+	}
+
+	@Override
+	public Object[] getSections() {
+		return mSections.labels();
+	}
+
+	/**
+	 * Returns the position of a month without reading the cursor. The list has a row for every
+	 * entry once the months are known, so the position exists even if its page is not loaded.
+	 */
+	@Override
+	public int getPositionForSection(int section) {
+		return Math.min(mSections.positionOf(section), Math.max(0, getCount() - 1));
+	}
+
+	@Override
+	public int getSectionForPosition(int position) {
+		return mSections.sectionOf(position);
+	}
+
+	private void resolveColumns(Cursor cursor) {
+		if (cursor == null) {
+			return;
+		}
+		mIdColumn = cursor.getColumnIndexOrThrow(BalanceDbAdapter.KEY_ROWID);
+		mDateColumn = cursor.getColumnIndexOrThrow(BalanceDbAdapter.KEY_EVENT_DATE);
+		mAmountColumn = cursor.getColumnIndexOrThrow(BalanceDbAdapter.KEY_AMOUNT);
+		mCurrencyColumn = cursor.getColumnIndexOrThrow(BalanceDbAdapter.KEY_CURRENCY_ID);
+		mDescriptionColumn = cursor.getColumnIndexOrThrow(BalanceDbAdapter.KEY_DESCRIPTION);
+	}
+
+	@Override
+	public void bindView(View view, Context context, Cursor cursor) {
+		long start = Metrics.start();
+		bindRow((ViewHolder) view.getTag(), cursor);
+		BIND_TIMER.stop(start, 1);
+	}
+
+	private void bindRow(ViewHolder holder, Cursor cursor) {
+		if (cursor.isNull(mIdColumn)) {
+			// a placeholder, shown empty until its page is loaded
+			holder.date.setText(null);
+			holder.amount.setText(null);
+			holder.description.setText(null);
+			holder.converted.setVisibility(View.GONE);
+			holder.selected.setVisibility(View.GONE);
+			return;
+		}
+
+		if (mSelected != null) {
+			holder.selected.setChecked(mSelected.contains(cursor.getLong(mIdColumn)));
+			holder.selected.setVisibility(View.VISIBLE);
+		} else {
+			holder.selected.setVisibility(View.GONE);
+		}
+
+		if (!mChangedRows.isEmpty()) {
+			BalanceEntry changed = mChangedRows.get(cursor.getLong(mIdColumn));
+			if (changed != null) {
+				bindEntry(holder, changed.eventDate, changed.amount, changed.currency, changed.description);
+				return;
+			}
+		}
+
+		bindEntry(holder, cursor.getLong(mDateColumn), cursor.getLong(mAmountColumn),
+				CurrencyCache.code(cursor.getInt(mCurrencyColumn)), cursor.getString(mDescriptionColumn));
+	}
+
+	private void bindEntry(ViewHolder holder, long eventDate, long amount, String currency, String description) {
+		holder.date.setText( mFormatter.formatDate(eventDate) );
+		holder.amount.setText( mFormatter.formatAmount(amount, currency) );
+		holder.description.setText( description );
+
+		if (mRates != null && !currency.equals(mHomeCurrency) && mRates.hasRates(currency)
+				&& mRates.hasRates(mHomeCurrency)) {
+			long converted = mRates.convert(amount, currency, mHomeCurrency, eventDate);
+			holder.converted.setText( mFormatter.formatAmount(converted, mHomeCurrency) );
+			holder.converted.setVisibility(View.VISIBLE);
+		} else {
+			holder.converted.setVisibility(View.GONE);
+		}
+	}
+
+	@Override
+	public View newView(Context context, Cursor cursor, ViewGroup parent) {
+		 View view = mInflater.inflate(R.layout.entries_row, parent, false);
+
+		 ViewHolder holder = new ViewHolder();
+		 holder.date = (TextView) view.findViewById(R.id.event_date);
+		 holder.amount = (TextView) view.findViewById(R.id.amount);
+		 holder.description = (TextView) view.findViewById(R.id.description);
+		 holder.converted = (TextView) view.findViewById(R.id.converted_amount);
+		 holder.selected = (CheckBox) view.findViewById(R.id.selected);
+		 view.setTag(holder);
+
+		 return view;
+	}
+
+}
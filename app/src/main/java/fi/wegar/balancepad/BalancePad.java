@@ -0,0 +1,1279 @@
+package fi.wegar.balancepad;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
+
+import android.app.AlertDialog;
+import android.app.ListActivity;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Handler;
+import android.preference.PreferenceManager;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.Log;
+import android.view.ContextMenu;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ContextMenu.ContextMenuInfo;
+import android.widget.AbsListView;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.Spinner;
+import android.widget.TextView;
+import android.widget.AdapterView.AdapterContextMenuInfo;
+
+public class BalancePad extends ListActivity implements AbsListView.OnScrollListener {
+	
+	private static final String TAG = "BalancePad";
+	
+	private static final int ACTIVITY_SETTINGS=0;
+    private static final int ACTIVITY_CREATE = ACTIVITY_SETTINGS+1;
+    private static final int ACTIVITY_EDIT = ACTIVITY_SETTINGS+2;
+    
+    private static final int INSERT_ID = Menu.FIRST;
+    private static final int DELETE_ID = Menu.FIRST + 1;
+    private static final int EDIT_ID = Menu.FIRST + 2;
+    private static final int SELECT_ID = Menu.FIRST + 3;
+    
+    // start loading the next page when this many rows are left below the visible ones
+    private static final int PAGE_PREFETCH_ROWS = 10;
+    
+    // wait this long after the last keystroke before searching
+    private static final long SEARCH_DELAY_MILLIS = 300;
+    
+    // deleted entries can be brought back for this long
+    private static final long UNDO_DELAY_MILLIS = 5000;
+    
+    // number of deleted entries removed from the database per statement when purging
+    private static final int PURGE_BATCH_SIZE = 200;
+    
+    // number of due recurring entries created per transaction
+    private static final int RECURRENCE_BATCH_SIZE = 500;
+    
+    // number of old entries moved to the archive per transaction
+    private static final int ARCHIVE_BATCH_SIZE = 500;
+    
+    // number of rows removed from the change journal per transaction
+    private static final int COMPACT_BATCH_SIZE = 500;
+    
+    // replicas that have not synced for this long may have to start over once entries are purged
+    private static final long JOURNAL_DELETES_KEPT_MILLIS = 90L * 24 * 60 * 60 * 1000;
+    
+    private static final String STATE_DELETED_IDS = "deletedIds";
+
+	// the shared database, opened in the background; tasks queued with DbWorker run after the open
+	private Future<BalanceDbAdapter> mDatabase;
+	private BalanceListCursorAdapter mAdapter;
+	private EntryPageCursor mEntries;
+	private TextView mBalanceText;
+	private EditText mSearchText;
+	private View mSelectionBar;
+	private TextView mSelectionText;
+	private View mUndoBar;
+	private TextView mUndoText;
+	private Spinner mCategoryFilter;
+	private Spinner mCurrencyFilter;
+	private Spinner mPeriodFilter;
+	private Spinner mLedgerSwitcher;
+	
+	// ids of the categories in the category filter, after the first item for all categories
+	private long[] mCategoryIds = new long[0];
+	
+	// ids of the ledgers in the ledger switcher, followed by the item that adds a ledger
+	private long[] mLedgerIds = new long[0];
+	
+	// the ledger whose entries are listed
+	private long mLedgerId;
+	
+	// the entries listed when no search has been typed, null for all of them
+	private EntryFilter mFilter;
+	
+	// the entries of the latest delete, while it can be undone
+	private long[] mDeletedIds;
+	
+	// the search typed by the user, null when all entries are listed
+	private String mSearchQuery;
+	
+	private final Handler mHandler = new Handler();
+	
+	private final Runnable mSearchRunnable = new Runnable() {
+		@Override
+		public void run() {
+			String query = mSearchText.getText().toString().trim();
+			mSearchQuery = query.length() > 0 ? query : null;
+			loadFirstPage();
+		}
+	};
+	
+	private final AdapterView.OnItemSelectedListener mFilterListener = new AdapterView.OnItemSelectedListener() {
+		@Override
+		public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+			applyFilter();
+		}
+		
+		@Override
+		public void onNothingSelected(AdapterView<?> parent) {
+			applyFilter();
+		}
+	};
+	
+	private final AdapterView.OnItemSelectedListener mLedgerListener = new AdapterView.OnItemSelectedListener() {
+		@Override
+		public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+			if (position < mLedgerIds.length) {
+				switchLedger(mLedgerIds[position]);
+			} else {
+				askLedgerName();
+			}
+		}
+		
+		@Override
+		public void onNothingSelected(AdapterView<?> parent) {
+		}
+	};
+	
+	private final Runnable mUndoTimeoutRunnable = new Runnable() {
+		@Override
+		public void run() {
+			hideUndo();
+			purgeDeletedEntries();
+		}
+	};
+	
+	// incremented whenever the list is reloaded, so results of older queries can be dropped
+	private int mListGeneration;
+	private boolean mLoadingPage;
+	
+	// the months of the entries selected by the filter, null until counted after a change
+	private MonthSections mSections;
+	
+	/**
+	 * The balance of all entries converted to the home currency, with the rates used
+	 */
+	private static class BalanceSummary {
+		ExchangeRates rates;
+		String homeCurrency;
+		String text;
+	}
+	
+	/**
+	 * Removes deleted entries from the database in bounded batches. Each batch queues the next
+	 * one behind the tasks already waiting, so a large purge does not hold up the list.
+	 */
+	private static class PurgeTask extends DbWorker.Task<Integer> {
+		
+		private final Future<BalanceDbAdapter> mDb;
+		private final long mDeletedBefore;
+		
+		PurgeTask(Future<BalanceDbAdapter> db, long deletedBefore) {
+			mDb = db;
+			mDeletedBefore = deletedBefore;
+		}
+		
+		@Override
+		protected Integer doInBackground() {
+			BalanceDbAdapter db = SharedDatabase.await(mDb);
+			if (!db.isOpen()) {
+				// closed after the activity went away, the purge goes on when the list is next opened
+				return 0;
+			}
+			int purged = db.purgeDeletedEntries(mDeletedBefore, PURGE_BATCH_SIZE);
+			if (purged == PURGE_BATCH_SIZE) {
+				DbWorker.execute(new PurgeTask(mDb, mDeletedBefore));
+			}
+			return purged;
+		}
+	}
+	
+	/**
+	 * Moves the entries older than the archive age to the archive in bounded batches like the
+	 * purge. The list needs no reload, it reads archived entries as before.
+	 */
+	private static class ArchiveTask extends DbWorker.Task<Integer> {
+		
+		private final Future<BalanceDbAdapter> mDb;
+		private final long mBefore;
+		
+		ArchiveTask(Future<BalanceDbAdapter> db, long before) {
+			mDb = db;
+			mBefore = before;
+		}
+		
+		@Override
+		protected Integer doInBackground() {
+			BalanceDbAdapter db = SharedDatabase.await(mDb);
+			if (!db.isOpen()) {
+				return 0;
+			}
+			int archived = db.archiveEntries(mBefore, ARCHIVE_BATCH_SIZE);
+			if (archived == ARCHIVE_BATCH_SIZE) {
+				DbWorker.execute(new ArchiveTask(mDb, mBefore));
+			}
+			return archived;
+		}
+	}
+	
+	/**
+	 * Removes the expired deletes of purged entries from the change journal in bounded batches
+	 * like the purge
+	 */
+	private static class CompactJournalTask extends DbWorker.Task<Integer> {
+		
+		private final Future<BalanceDbAdapter> mDb;
+		private final long mPurgedBefore;
+		
+		CompactJournalTask(Future<BalanceDbAdapter> db, long purgedBefore) {
+			mDb = db;
+			mPurgedBefore = purgedBefore;
+		}
+		
+		@Override
+		protected Integer doInBackground() {
+			BalanceDbAdapter db = SharedDatabase.await(mDb);
+			if (!db.isOpen()) {
+				return 0;
+			}
+			int compacted = db.compactJournal(mPurgedBefore, COMPACT_BATCH_SIZE);
+			if (compacted == COMPACT_BATCH_SIZE) {
+				DbWorker.execute(new CompactJournalTask(mDb, mPurgedBefore));
+			}
+			return compacted;
+		}
+	}
+	
+	/**
+	 * Creates the entries of the recurrences that have become due, a batch at a time like the
+	 * purge, and reloads the list once entries have been created
+	 */
+	private class RecurrenceTask extends DbWorker.Task<Integer> {
+		
+		private final long mNow;
+		
+		RecurrenceTask(long now) {
+			mNow = now;
+		}
+		
+		@Override
+		protected Integer doInBackground() {
+			BalanceDbAdapter db = db();
+			if (!db.isOpen()) {
+				return 0;
+			}
+			int created = db.materialiseRecurrences(mNow, RECURRENCE_BATCH_SIZE);
+			if (created == RECURRENCE_BATCH_SIZE) {
+				DbWorker.execute(new RecurrenceTask(mNow));
+			}
+			return created;
+		}
+		
+		@Override
+		protected void onComplete(Integer created) {
+			if (created > 0 && !isFinishing()) {
+				populateList();
+			}
+		}
+	}
+	
+	/**
+	 * Queries a page of entries on the database thread and hands it to the list on the main
+	 * thread. The page is closed instead if the list was reloaded or the activity destroyed
+	 * while the query ran.
+	 */
+	private abstract class PageTask extends DbWorker.Task<Cursor> {
+		
+		private final int mGeneration = mListGeneration;
+		
+		protected abstract Cursor query();
+		
+		protected abstract void showPage(Cursor page);
+		
+		@Override
+		protected final Cursor doInBackground() {
+			Cursor page = query();
+			// fill the cursor window here rather than on the first bind
+			page.getCount();
+			return page;
+		}
+		
+		@Override
+		protected final void onComplete(Cursor page) {
+			if (mGeneration != mListGeneration) {
+				page.close();
+				return;
+			}
+			mLoadingPage = false;
+			showPage(page);
+		}
+		
+		/**
+		 * Lets the next scroll try the page again rather than leaving the list stuck loading
+		 */
+		@Override
+		protected final void onFailed(RuntimeException e) {
+			Log.e(TAG, "Loading a page of entries failed", e);
+			if (mGeneration == mListGeneration) {
+				mLoadingPage = false;
+			}
+		}
+	}
+	
+    /** Called when the activity is first created. Sets up the view and takes the shared database, which opens in the background */
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.balance_entries_list);
+        
+        mBalanceText = (TextView) findViewById(R.id.balance_total);
+        mSearchText = (EditText) findViewById(R.id.search);
+        mSelectionBar = findViewById(R.id.selection_bar);
+        mSelectionText = (TextView) findViewById(R.id.selection_count);
+        mUndoBar = findViewById(R.id.undo_bar);
+        mUndoText = (TextView) findViewById(R.id.undo_text);
+        mCategoryFilter = (Spinner) findViewById(R.id.filter_category);
+        mCurrencyFilter = (Spinner) findViewById(R.id.filter_currency);
+        mPeriodFilter = (Spinner) findViewById(R.id.filter_period);
+        mLedgerSwitcher = (Spinner) findViewById(R.id.ledger);
+        
+        String[] currencies = getResources().getStringArray(R.array.currencies_array);
+        String[] currencyItems = new String[currencies.length + 1];
+        currencyItems[0] = getString(R.string.filter_any_currency);
+        System.arraycopy(currencies, 0, currencyItems, 1, currencies.length);
+        mCurrencyFilter.setAdapter(filterAdapter(currencyItems));
+        showCategories(new String[0], mCategoryIds);
+        mCategoryFilter.setOnItemSelectedListener(mFilterListener);
+        mCurrencyFilter.setOnItemSelectedListener(mFilterListener);
+        mPeriodFilter.setOnItemSelectedListener(mFilterListener);
+        mLedgerId = Preferences.getLedger(this);
+        mLedgerSwitcher.setOnItemSelectedListener(mLedgerListener);
+        
+        findViewById(R.id.delete_selected).setOnClickListener(new View.OnClickListener() {
+        	@Override
+        	public void onClick(View v) {
+        		long[] ids = mAdapter.getSelectedIds();
+        		endSelection();
+        		if (ids.length > 0) {
+        			deleteEntries(ids);
+        		}
+        	}
+        });
+        findViewById(R.id.cancel_selection).setOnClickListener(new View.OnClickListener() {
+        	@Override
+        	public void onClick(View v) {
+        		endSelection();
+        	}
+        });
+        findViewById(R.id.undo).setOnClickListener(new View.OnClickListener() {
+        	@Override
+        	public void onClick(View v) {
+        		undoDelete();
+        	}
+        });
+        
+        // search once the user pauses typing rather than on every keystroke
+        mSearchText.addTextChangedListener(new TextWatcher() {
+        	@Override
+        	public void afterTextChanged(Editable s) {
+        		mHandler.removeCallbacks(mSearchRunnable);
+        		mHandler.postDelayed(mSearchRunnable, SEARCH_DELAY_MILLIS);
+        	}
+        	
+        	@Override
+        	public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        	}
+        	
+        	@Override
+        	public void onTextChanged(CharSequence s, int start, int before, int count) {
+        	}
+        });
+        
+        registerForContextMenu(getListView());
+        getListView().setOnScrollListener(this);
+        
+        mDatabase = SharedDatabase.acquire(this);
+        
+        mAdapter = new BalanceListCursorAdapter(this, null);
+        setListAdapter(mAdapter);
+        
+        populateList();
+        loadLedgers();
+        
+        long[] deletedIds = (savedInstanceState == null) ? null : savedInstanceState.getLongArray(STATE_DELETED_IDS);
+        if (deletedIds != null) {
+        	// the delete can still be undone, the purge waits for the undo to time out again
+        	showUndo(deletedIds);
+        } else {
+        	// entries deleted in an earlier session can no longer be brought back
+        	purgeDeletedEntries();
+        }
+    }
+    
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+    	super.onSaveInstanceState(outState);
+    	if (mDeletedIds != null) {
+    		outState.putLongArray(STATE_DELETED_IDS, mDeletedIds);
+    	}
+    }
+    
+    @Override
+    public void onResume() {
+    	super.onResume();
+    	// recurring entries that became due while the app was away
+    	DbWorker.execute(new RecurrenceTask(System.currentTimeMillis()));
+    	archiveOldEntries();
+    	DbWorker.execute(new CompactJournalTask(mDatabase, System.currentTimeMillis() - JOURNAL_DELETES_KEPT_MILLIS));
+    	// the editor may have added categories
+    	loadCategories();
+    }
+    
+    private ArrayAdapter<String> filterAdapter(String[] items)
+    {
+    	ArrayAdapter<String> adapter = new ArrayAdapter<String>(this, android.R.layout.simple_spinner_item, items);
+    	adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+    	return adapter;
+    }
+    
+    /**
+     * Reads the categories for the category filter in the background
+     */
+    private void loadCategories()
+    {
+    	DbWorker.execute(new DbWorker.Task<Cursor>() {
+    		@Override
+    		protected Cursor doInBackground() {
+    			Cursor c = db().fetchCategories();
+    			c.getCount();
+    			return c;
+    		}
+    		
+    		@Override
+    		protected void onComplete(Cursor c) {
+    			try {
+    				String[] names = new String[c.getCount()];
+    				long[] ids = new long[c.getCount()];
+    				for (int i = 0; c.moveToNext(); i++) {
+    					ids[i] = c.getLong(0);
+    					names[i] = c.getString(1);
+    				}
+    				if (!isFinishing()) {
+    					showCategories(names, ids);
+    				}
+    			} finally {
+    				c.close();
+    			}
+    		}
+    	});
+    }
+    
+    /**
+     * Fills the category filter, keeping the selected category selected
+     */
+    private void showCategories(String[] names, long[] ids)
+    {
+    	long selected = selectedCategory();
+    	String[] items = new String[names.length + 1];
+    	items[0] = getString(R.string.filter_any_category);
+    	System.arraycopy(names, 0, items, 1, names.length);
+    	
+    	mCategoryIds = ids;
+    	mCategoryFilter.setAdapter(filterAdapter(items));
+    	for (int i = 0; i < ids.length; i++) {
+    		if (ids[i] == selected) {
+    			mCategoryFilter.setSelection(i + 1);
+    		}
+    	}
+    }
+    
+    /**
+     * @return the id of the category selected in the filter, or {@link EntryFilter#ANY_CATEGORY}
+     */
+    private long selectedCategory()
+    {
+    	int position = mCategoryFilter.getSelectedItemPosition();
+    	return position > 0 && position <= mCategoryIds.length ? mCategoryIds[position - 1] : EntryFilter.ANY_CATEGORY;
+    }
+    
+    /**
+     * Reads the ledgers for the ledger switcher in the background
+     */
+    private void loadLedgers()
+    {
+    	DbWorker.execute(new DbWorker.Task<Cursor>() {
+    		@Override
+    		protected Cursor doInBackground() {
+    			Cursor c = db().fetchLedgers();
+    			c.getCount();
+    			return c;
+    		}
+    		
+    		@Override
+    		protected void onComplete(Cursor c) {
+    			try {
+    				String[] items = new String[c.getCount() + 1];
+    				long[] ids = new long[c.getCount()];
+    				for (int i = 0; c.moveToNext(); i++) {
+    					ids[i] = c.getLong(0);
+    					items[i] = c.getString(1);
+    				}
+    				items[ids.length] = getString(R.string.new_ledger);
+    				if (!isFinishing()) {
+    					mLedgerIds = ids;
+    					mLedgerSwitcher.setAdapter(filterAdapter(items));
+    					showLedger();
+    				}
+    			} finally {
+    				c.close();
+    			}
+    		}
+    	});
+    }
+    
+    /**
+     * Selects the listed ledger in the ledger switcher
+     */
+    private void showLedger()
+    {
+    	for (int i = 0; i < mLedgerIds.length; i++) {
+    		if (mLedgerIds[i] == mLedgerId) {
+    			mLedgerSwitcher.setSelection(i);
+    		}
+    	}
+    }
+    
+    /**
+     * Lists the entries of another ledger and remembers it for the next start. The adapter is
+     * switched on the database thread, ahead of the queries of the new list.
+     */
+    private void switchLedger(final long ledgerId)
+    {
+    	if (ledgerId == mLedgerId) {
+    		return;
+    	}
+    	mLedgerId = ledgerId;
+    	DbWorker.execute(new DbWorker.Task<Void>() {
+    		@Override
+    		protected Void doInBackground() {
+    			db().setLedger(ledgerId);
+    			Preferences.setLedger(BalancePad.this, ledgerId);
+    			return null;
+    		}
+    	});
+    	populateList();
+    }
+    
+    /**
+     * Asks for the name of a new ledger and switches to it, or goes back to the listed ledger
+     */
+    private void askLedgerName()
+    {
+    	final EditText name = new EditText(this);
+    	name.setHint(R.string.ledger_name_hint);
+    	name.setSingleLine(true);
+    	
+    	DialogInterface.OnClickListener listener = new DialogInterface.OnClickListener() {
+    		@Override
+    		public void onClick(DialogInterface dialog, int which) {
+    			String text = name.getText().toString().trim();
+    			if (which == DialogInterface.BUTTON_POSITIVE && text.length() > 0) {
+    				createLedger(text);
+    			} else {
+    				showLedger();
+    			}
+    		}
+    	};
+    	new AlertDialog.Builder(this)
+    		.setTitle(R.string.new_ledger)
+    		.setView(name)
+    		.setPositiveButton(android.R.string.ok, listener)
+    		.setNegativeButton(R.string.cancel, listener)
+    		.setOnCancelListener(new DialogInterface.OnCancelListener() {
+    			@Override
+    			public void onCancel(DialogInterface dialog) {
+    				showLedger();
+    			}
+    		})
+    		.show();
+    }
+    
+    /**
+     * Adds a ledger in the background, or finds the one of that name, and switches to it
+     */
+    private void createLedger(final String name)
+    {
+    	DbWorker.execute(new DbWorker.Task<Long>() {
+    		@Override
+    		protected Long doInBackground() {
+    			return db().createLedger(name);
+    		}
+    		
+    		@Override
+    		protected void onComplete(Long ledgerId) {
+    			if (!isFinishing()) {
+    				switchLedger(ledgerId);
+    				loadLedgers();
+    			}
+    		}
+    	});
+    }
+    
+    /**
+     * Lists the entries selected by the filter controls, unless the selection is unchanged
+     */
+    private void applyFilter()
+    {
+    	EntryFilter filter = new EntryFilter().setCategory(selectedCategory());
+    	int currency = mCurrencyFilter.getSelectedItemPosition();
+    	if (currency > 0) {
+    		filter.setCurrency((String) mCurrencyFilter.getItemAtPosition(currency));
+    	}
+    	setPeriod(filter, mPeriodFilter.getSelectedItemPosition(), Calendar.getInstance());
+    	
+    	if (filter.isEmpty()) {
+    		filter = null;
+    	}
+    	if (filter == null ? mFilter == null : filter.equals(mFilter)) {
+    		return;
+    	}
+    	mFilter = filter;
+    	populateList();
+    }
+    
+    /**
+     * Sets the date range of a filter to one of the periods of the period filter: all time,
+     * this month, last month, this quarter, last quarter, this year or last year
+     * 
+     * @param calendar set to the current time, changed by this method
+     */
+    private static void setPeriod(EntryFilter filter, int period, Calendar calendar)
+    {
+    	if (period <= 0) {
+    		return;
+    	}
+    	int field;
+    	int length;
+    	if (period <= 2) {
+    		field = Calendar.MONTH;
+    		length = 1;
+    	} else if (period <= 4) {
+    		field = Calendar.MONTH;
+    		length = 3;
+    	} else {
+    		field = Calendar.YEAR;
+    		length = 1;
+    	}
+    	
+    	int month = calendar.get(Calendar.MONTH);
+    	calendar.set(Calendar.DAY_OF_MONTH, 1);
+    	calendar.set(Calendar.HOUR_OF_DAY, 0);
+    	calendar.set(Calendar.MINUTE, 0);
+    	calendar.set(Calendar.SECOND, 0);
+    	calendar.set(Calendar.MILLISECOND, 0);
+    	if (length == 3) {
+    		calendar.set(Calendar.MONTH, month - month % 3);
+    	} else if (field == Calendar.YEAR) {
+    		calendar.set(Calendar.MONTH, Calendar.JANUARY);
+    	}
+    	// the even positions are the previous period
+    	if (period % 2 == 0) {
+    		calendar.add(field, -length);
+    	}
+    	long from = calendar.getTimeInMillis();
+    	calendar.add(field, length);
+    	filter.setDateRange(from, calendar.getTimeInMillis());
+    }
+    
+    /**
+     * Moves the entries older than the age chosen in the settings to the archive in the
+     * background. Whole months are archived, so the cut is at the start of a month.
+     */
+    private void archiveOldEntries()
+    {
+    	int months = Preferences.getArchiveAfterMonths(this);
+    	if (months <= 0) {
+    		return;
+    	}
+    	Calendar cutoff = Calendar.getInstance();
+    	cutoff.set(Calendar.DAY_OF_MONTH, 1);
+    	cutoff.set(Calendar.HOUR_OF_DAY, 0);
+    	cutoff.set(Calendar.MINUTE, 0);
+    	cutoff.set(Calendar.SECOND, 0);
+    	cutoff.set(Calendar.MILLISECOND, 0);
+    	cutoff.add(Calendar.MONTH, -months);
+    	DbWorker.execute(new ArchiveTask(mDatabase, cutoff.getTimeInMillis()));
+    }
+    
+    @Override
+    public void onPause() {
+    	super.onPause();
+    }
+    
+    @Override
+    protected void onDestroy() {
+    	super.onDestroy();
+    	mHandler.removeCallbacks(mSearchRunnable);
+    	mHandler.removeCallbacks(mUndoTimeoutRunnable);
+    	// drop the results of queries still running and close the entries cursor
+    	mListGeneration++;
+    	mAdapter.changeCursor(null);
+    	SharedDatabase.release();
+    }
+    
+    /**
+     * @return the shared database, only called on the database thread, where it is already open
+     */
+    private BalanceDbAdapter db()
+    {
+    	return SharedDatabase.await(mDatabase);
+    }
+    
+    /**
+     * Populates the list with the first page of balance entries from the database and
+     * refreshes the balance. The queries run in the background, further pages are loaded
+     * as the user scrolls towards the end of the list. Called whenever the entries or the
+     * filter change, so the months of the list are counted again.
+     */
+    private void populateList()
+    {
+    	mSections = null;
+    	loadFirstPage();
+    	refreshBalance();
+    }
+    
+    /**
+     * Replaces the list with the first page of entries, or of search results when a search
+     * has been typed
+     */
+    private void loadFirstPage()
+    {
+    	mListGeneration++;
+    	mLoadingPage = true;
+    	final String search = mSearchQuery;
+    	final EntryFilter filter = mFilter;
+    	
+    	DbWorker.execute(new PageTask() {
+    		@Override
+    		protected Cursor query() {
+    			if (search != null) {
+    				return db().searchEntries(search, BalanceDbAdapter.DEFAULT_PAGE_SIZE);
+    			}
+    			return db().fetchEntriesPage(filter, BalanceDbAdapter.DEFAULT_PAGE_SIZE);
+    		}
+    		
+    		@Override
+    		protected void showPage(Cursor page) {
+    			// the months are counted for the filter, not for a search
+    			MonthSections sections = search == null && mSections != null ? mSections : MonthSections.NONE;
+    			mEntries = new EntryPageCursor(page, BalanceDbAdapter.DEFAULT_PAGE_SIZE,
+    					sections != MonthSections.NONE ? sections.count() : -1);
+    			mAdapter.changeCursor(mEntries);
+    			mAdapter.setSections(sections);
+    			BalanceApplication.firstPageShown();
+    		}
+    	});
+    	if (search == null && mSections == null) {
+    		loadSections();
+    	}
+    }
+    
+    /**
+     * Counts the entries of each month of the list in the background for the fast scroller.
+     * The sections are kept until the entries or the filter change.
+     */
+    private void loadSections()
+    {
+    	final int generation = mListGeneration;
+    	final EntryFilter filter = mFilter;
+    	
+    	DbWorker.execute(new DbWorker.Task<MonthSections>() {
+    		@Override
+    		protected MonthSections doInBackground() {
+    			return MonthSections.read(db().fetchMonthCounts(filter));
+    		}
+    		
+    		@Override
+    		protected void onComplete(MonthSections sections) {
+    			if (generation != mListGeneration) {
+    				return;
+    			}
+    			mSections = sections;
+    			if (mEntries != null) {
+    				// a row for every entry, so the fast scroller can go to any month
+    				mEntries = mEntries.withTotal(sections.count());
+    				mAdapter.changeCursorKeepingChanges(mEntries);
+    			}
+    			mAdapter.setSections(sections);
+    		}
+    	});
+    }
+    
+    /**
+     * Recomputes the balance shown above the list in the background, of the entries selected
+     * by the filter. The totals of every month and currency are converted to the default
+     * currency at the rates of their months, totals in currencies without rates are listed
+     * separately. Also passes the rates on to the list.
+     */
+    private void refreshBalance()
+    {
+    	final SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences( getApplicationContext() );
+    	final EntryFilter filter = mFilter;
+    	
+    	DbWorker.execute(new DbWorker.Task<BalanceSummary>() {
+    		@Override
+    		protected BalanceSummary doInBackground() {
+    			BalanceSummary summary = new BalanceSummary();
+    			summary.rates = ExchangeRates.getInstance();
+    			summary.homeCurrency = settings.getString(Preferences.KEY_DEFAULT_CURRENCY_PREFERENCE, "EUR");
+    			
+    			EntryFormatter formatter = new EntryFormatter();
+    			Calendar calendar = Calendar.getInstance();
+    			
+    			// the convertible totals as columns, the currencies dictionary encoded, and the
+    			// totals of the other currencies summed per currency
+    			int size = 0;
+    			long[] amounts;
+    			long[] dates;
+    			int[] currencyIds;
+    			ArrayList<String> currencies = new ArrayList<String>();
+    			TreeMap<String, Long> others = new TreeMap<String, Long>();
+    			
+    			Cursor totals = db().fetchMonthCurrencyTotals(filter);
+    			try {
+    				if (totals.getCount() == 0) {
+    					return summary;
+    				}
+    				amounts = new long[totals.getCount()];
+    				dates = new long[amounts.length];
+    				currencyIds = new int[amounts.length];
+    				while (totals.moveToNext()) {
+    					String currency = totals.getString(1);
+    					long total = totals.getLong(2);
+    					
+    					if (currency.equals(summary.homeCurrency) || (summary.rates != null
+    							&& summary.rates.hasRates(currency) && summary.rates.hasRates(summary.homeCurrency))) {
+    						int id = currencies.indexOf(currency);
+    						if (id < 0) {
+    							id = currencies.size();
+    							currencies.add(currency);
+    						}
+    						amounts[size] = total;
+    						// the middle of the month stands for the rates of its entries
+    						dates[size] = IsoDates.parse(totals.getString(0) + "-15", calendar);
+    						currencyIds[size] = id;
+    						size++;
+    					} else {
+    						Long other = others.get(currency);
+    						others.put(currency, other == null ? total : other + total);
+    					}
+    				}
+    			} finally {
+    				totals.close();
+    			}
+    			
+    			if (summary.rates != null && summary.rates.hasRates(summary.homeCurrency)) {
+    				summary.rates.convertAll(amounts, dates, currencyIds, size,
+    						currencies.toArray(new String[currencies.size()]), summary.homeCurrency, amounts);
+    			}
+    			long converted = 0;
+    			for (int i = 0; i < size; i++) {
+    				converted += amounts[i];
+    			}
+    			StringBuilder text = new StringBuilder(formatter.formatAmount(converted, summary.homeCurrency));
+    			for (Map.Entry<String, Long> other : others.entrySet()) {
+    				text.append(" + ").append(formatter.formatAmount(other.getValue(), other.getKey()));
+    			}
+    			summary.text = getString(R.string.balance_total, text);
+    			return summary;
+    		}
+    		
+    		@Override
+    		protected void onComplete(BalanceSummary summary) {
+    			mAdapter.setConversion(summary.rates, summary.homeCurrency);
+    			if (summary.text != null) {
+    				mBalanceText.setText(summary.text);
+    				mBalanceText.setVisibility(View.VISIBLE);
+    			} else {
+    				mBalanceText.setVisibility(View.GONE);
+    			}
+    		}
+    	});
+    }
+    
+    /**
+     * Appends the next page of balance entries to the list, if there are any left
+     */
+    private void loadNextPage()
+    {
+    	if (mLoadingPage || mEntries == null || !mEntries.hasMore()) {
+    		return;
+    	}
+    	
+    	mLoadingPage = true;
+    	final String search = mSearchQuery;
+    	final EntryFilter filter = mFilter;
+    	final long lastEventDate = mEntries.getLastEventDate();
+    	final long lastRowId = mEntries.getLastRowId();
+    	final int rows = BalanceDbAdapter.DEFAULT_PAGE_SIZE;
+    	
+    	DbWorker.execute(new PageTask() {
+    		@Override
+    		protected Cursor query() {
+    			if (search != null) {
+    				return db().searchEntriesAfter(search, lastEventDate, lastRowId, rows);
+    			}
+    			return db().fetchEntriesPageAfter(filter, lastEventDate, lastRowId, rows);
+    		}
+    		
+    		@Override
+    		protected void showPage(Cursor page) {
+    			mEntries = mEntries.append(page, rows);
+    			mAdapter.changeCursorKeepingChanges(mEntries);
+    		}
+    	});
+    }
+    
+    /**
+     * Loads the page of the first placeholder among the given rows and the rows below them,
+     * once the list has a row for every entry
+     * 
+     * @param from the first visible position
+     * @param to the position after the last visible one
+     */
+    private void loadMissing(int from, int to)
+    {
+    	if (mLoadingPage || mEntries == null) {
+    		return;
+    	}
+    	int position = mEntries.firstMissing(from, to + PAGE_PREFETCH_ROWS);
+    	if (position < 0) {
+    		return;
+    	}
+    	
+    	mLoadingPage = true;
+    	final EntryFilter filter = mFilter;
+    	final EntryPageCursor.Seek seek = mEntries.seekFor(position, mSections, BalanceDbAdapter.DEFAULT_PAGE_SIZE);
+    	
+    	DbWorker.execute(new PageTask() {
+    		@Override
+    		protected Cursor query() {
+    			if (seek.month) {
+    				return db().fetchEntriesPageBefore(filter, seek.eventDate, seek.limit);
+    			}
+    			return db().fetchEntriesPageAfter(filter, seek.eventDate, seek.rowId, seek.limit);
+    		}
+    		
+    		@Override
+    		protected void showPage(Cursor page) {
+    			if (page.getCount() < seek.limit) {
+    				// the entries changed since the months were counted
+    				page.close();
+    				populateList();
+    				return;
+    			}
+    			mEntries = mEntries.insert(seek.position, page);
+    			mAdapter.changeCursorKeepingChanges(mEntries);
+    			// the page may not have reached the end of the screen
+    			ListView list = getListView();
+    			loadMissing(list.getFirstVisiblePosition(), list.getLastVisiblePosition() + 1);
+    		}
+    	});
+    }
+    
+    /**
+     * Re-reads a single entry in the background and shows its new values in place
+     * 
+     * @param rowId id of the changed entry
+     */
+    private void refreshEntry(final long rowId)
+    {
+    	final int generation = mListGeneration;
+    	
+    	DbWorker.execute(new DbWorker.Task<BalanceEntry>() {
+    		@Override
+    		protected BalanceEntry doInBackground() {
+    			return db().readEntry(rowId);
+    		}
+    		
+    		@Override
+    		protected void onComplete(BalanceEntry entry) {
+    			if (generation != mListGeneration) {
+    				return;
+    			}
+    			if (entry != null) {
+    				mAdapter.updateRow(entry);
+    				refreshBalance();
+    			} else {
+    				populateList();
+    			}
+    		}
+    	});
+    }
+    
+    /**
+     * Deletes entries in the background, reloads the list once they are gone and offers to
+     * undo the delete for a while
+     * 
+     * @param rowIds ids of the entries to delete
+     */
+    private void deleteEntries(final long[] rowIds)
+    {
+    	DbWorker.execute(new DbWorker.Task<Integer>() {
+    		@Override
+    		protected Integer doInBackground() {
+    			return db().deleteEntries(rowIds);
+    		}
+    	});
+    	// queued after the delete, so the reloaded list no longer has the entries
+    	populateList();
+    	showUndo(rowIds);
+    }
+    
+    /**
+     * Shows the undo bar for the given deleted entries. Only the latest delete can be undone.
+     */
+    private void showUndo(long[] rowIds)
+    {
+    	mDeletedIds = rowIds;
+    	mUndoText.setText(getString(R.string.entries_deleted, rowIds.length));
+    	mUndoBar.setVisibility(View.VISIBLE);
+    	mHandler.removeCallbacks(mUndoTimeoutRunnable);
+    	mHandler.postDelayed(mUndoTimeoutRunnable, UNDO_DELAY_MILLIS);
+    }
+    
+    private void hideUndo()
+    {
+    	mDeletedIds = null;
+    	mUndoBar.setVisibility(View.GONE);
+    }
+    
+    /**
+     * Brings back the entries of the latest delete and reloads the list
+     */
+    private void undoDelete()
+    {
+    	final long[] rowIds = mDeletedIds;
+    	mHandler.removeCallbacks(mUndoTimeoutRunnable);
+    	hideUndo();
+    	if (rowIds == null) {
+    		return;
+    	}
+    	
+    	DbWorker.execute(new DbWorker.Task<Integer>() {
+    		@Override
+    		protected Integer doInBackground() {
+    			return db().restoreEntries(rowIds);
+    		}
+    	});
+    	populateList();
+    }
+    
+    /**
+     * Removes the entries deleted so far from the database in the background. Only called when
+     * no delete can be undone anymore.
+     */
+    private void purgeDeletedEntries()
+    {
+    	DbWorker.execute(new PurgeTask(mDatabase, System.currentTimeMillis()));
+    }
+    
+    /**
+     * Starts selecting entries for deleting them together, with the given entry selected
+     * 
+     * @param rowId id of the first selected entry
+     */
+    private void startSelection(long rowId)
+    {
+    	mAdapter.setSelecting(true);
+    	mAdapter.toggleSelected(rowId);
+    	mSelectionBar.setVisibility(View.VISIBLE);
+    	updateSelectionCount();
+    }
+    
+    private void endSelection()
+    {
+    	mAdapter.setSelecting(false);
+    	mSelectionBar.setVisibility(View.GONE);
+    }
+    
+    private void updateSelectionCount()
+    {
+    	mSelectionText.setText(getString(R.string.selection_count, mAdapter.getSelectedCount()));
+    }
+    
+    /**
+     * Ends selecting entries instead of leaving the list
+     */
+    @Override
+    public void onBackPressed() {
+    	if (mAdapter.isSelecting()) {
+    		endSelection();
+    	} else {
+    		super.onBackPressed();
+    	}
+    }
+    
+    /**
+     * Called while the list scrolls. Loads the page of any placeholder coming into view, or
+     * while the number of entries is not known, the next page when the end of the loaded
+     * entries comes close.
+     */
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+    	if (mEntries != null && mEntries.hasTotal()) {
+    		loadMissing(firstVisibleItem, firstVisibleItem + visibleItemCount);
+    	} else if (totalItemCount > 0 && firstVisibleItem + visibleItemCount >= totalItemCount - PAGE_PREFETCH_ROWS) {
+    		loadNextPage();
+    	}
+    }
+    
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+    }
+    
+    /**
+     * Creates the menu that is displayed when the user presses the menu button on the device
+     */
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+    	MenuInflater inflater = getMenuInflater();
+    	inflater.inflate(R.menu.main_menu, menu);
+    	return true;
+    }    
+
+    /**
+     * Called when the user selects one of the items in the options menu
+     */
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+    	// Handle item selection
+    	switch ( item.getItemId() ) {
+	    	case R.id.menu_add:
+	    		createEntry();
+	    		return true;
+	    	case R.id.menu_settings:
+	    		openSettings();
+	    		return true;
+	    	default:
+	    		return super.onOptionsItemSelected(item);
+    	}
+    }    
+
+    /**
+     * Creates a context menu for the list items
+     */
+    @Override
+    public void onCreateContextMenu(ContextMenu menu, View v,
+            ContextMenuInfo menuInfo) {
+        super.onCreateContextMenu(menu, v, menuInfo);
+        if (((AdapterContextMenuInfo) menuInfo).id == EntryPageCursor.PLACEHOLDER_ID) {
+        	// the entry is not loaded yet
+        	return;
+        }
+        menu.add(0, INSERT_ID, 0, R.string.menu_insert);
+        menu.add(0, EDIT_ID, 1, R.string.edit_entry);
+        menu.add(0, DELETE_ID, 2, R.string.menu_delete);
+        menu.add(0, SELECT_ID, 3, R.string.select_entries);
+    }
+
+    /**
+     * Called when the user selects one of the menu items from the list item context menu
+     */
+    @Override
+    public boolean onContextItemSelected(MenuItem item) {
+    	
+    	AdapterContextMenuInfo info = (AdapterContextMenuInfo) item.getMenuInfo();
+    	
+        switch(item.getItemId()) {
+	        case INSERT_ID:
+	        	createEntry();
+	            return true;
+            case DELETE_ID:
+                deleteEntries(new long[] {info.id});
+                return true;
+            case SELECT_ID:
+                startSelection(info.id);
+                return true;
+            case EDIT_ID:
+                Intent i = new Intent(this, BalanceEntryEdit.class);
+                i.putExtra(BalanceDbAdapter.KEY_ROWID, info.id);
+                startActivityForResult(i, ACTIVITY_EDIT);
+            	return true;
+        }
+        return super.onContextItemSelected(item);
+    }    
+    
+    /**
+     * Starts a intent for adding a balance entry
+     */
+    private void createEntry() {
+        Intent i = new Intent(this, BalanceEntryEdit.class);
+        startActivityForResult(i, ACTIVITY_CREATE);
+    }
+    
+    /**
+     * Starts a intent for modifying application preferences
+     */
+    private void openSettings() {
+    	Intent i = new Intent(this, Preferences.class);
+    	startActivityForResult(i, ACTIVITY_SETTINGS);
+    }
+    
+    /**
+     * Refreshes the list after an entry has been saved. Cancelled edits change nothing, and an
+     * edit that keeps the entry in place only refreshes that one row.
+     */
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent intent) {
+        super.onActivityResult(requestCode, resultCode, intent);
+        
+        if (requestCode == ACTIVITY_SETTINGS) {
+        	// the default currency may have changed
+        	refreshBalance();
+        	return;
+        }
+        if (resultCode != RESULT_OK) {
+        	return;
+        }
+        
+        long rowId = (intent == null) ? -1 : intent.getLongExtra(BalanceDbAdapter.KEY_ROWID, -1);
+        if (rowId < 0 || intent.getBooleanExtra(BalanceEntryEdit.EXTRA_REORDERED, true)) {
+        	populateList();
+        } else {
+        	refreshEntry(rowId);
+        }
+    }
+    
+    
+    /**
+     * Called when the user clicks one of the items in the list of entries. Opens the Edit view for that item,
+     * or while selecting entries selects or unselects it.
+     */
+    @Override
+    protected void onListItemClick(ListView l, View v, int position, long id) {
+        super.onListItemClick(l, v, position, id);
+        if (id == EntryPageCursor.PLACEHOLDER_ID) {
+        	return;
+        }
+        if (mAdapter.isSelecting()) {
+        	mAdapter.toggleSelected(id);
+        	updateSelectionCount();
+        	return;
+        }
+        Intent i = new Intent(this, BalanceEntryEdit.class);
+        i.putExtra(BalanceDbAdapter.KEY_ROWID, id);
+        startActivityForResult(i, ACTIVITY_EDIT);
+    }
+    
+    
+}
\ No newline at end of file
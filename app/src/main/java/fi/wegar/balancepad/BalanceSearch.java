@@ -0,0 +1,164 @@
+package fi.wegar.balancepad;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Schema of the full text index over the entry descriptions. The FTS table uses the rowId of
+ * the entry as its docid and is kept in sync by triggers on the balance table and on the
+ * archive. Deleted entries stay indexed until they are purged, the search query skips them.
+ * Each entry also has a token for its ledger in the ledger column, so a search matches
+ * within one ledger.
+ */
+final class BalanceSearch {
+
+	static final String FTS_TABLE = "balance_fts";
+
+	private static final String FTS_CREATE =
+		"create virtual table " + FTS_TABLE + " using fts3(description, ledger);";
+
+	// the token of a ledger is the word ledger followed by its id, which the tokenizer keeps whole
+	private static final String LEDGER_TOKEN = "ledger";
+
+	/**
+	 * Indexes the new row of an entry, in the body of an insert trigger
+	 */
+	static final String INDEX_NEW = "insert into " + FTS_TABLE + " (docid, description, ledger) values "
+		+ "(new._id, new.description, '" + LEDGER_TOKEN + "' || new.ledger_id);";
+
+	private static final String[] TRIGGERS_CREATE = new String[] {
+		"create trigger balance_fts_insert after insert on balance begin " + INDEX_NEW + " end;",
+		"create trigger balance_fts_delete after delete on balance begin "
+			+ "delete from " + FTS_TABLE + " where docid = old._id; end;",
+		"create trigger balance_fts_update after update of description, ledger_id on balance begin "
+			+ "update " + FTS_TABLE + " set description = new.description, ledger = '" + LEDGER_TOKEN
+			+ "' || new.ledger_id where docid = new._id; end;"
+	};
+
+	/**
+	 * Indexes an entry, taking its rowId, description and the token of its ledger, for writes
+	 * made while the triggers are dropped
+	 *
+	 * @see #ledgerToken(long)
+	 */
+	static final String INDEX_INSERT = "insert into " + FTS_TABLE + " (docid, description, ledger) values (?, ?, ?)";
+
+	private static final String[] TRIGGER_NAMES = new String[] {
+		"balance_fts_insert", "balance_fts_delete", "balance_fts_update"
+	};
+
+	// the date of the entry, which is in either the balance table or the archive
+	private static final String EVENT_DATE = "ifnull(b.event_date, a.event_date)";
+
+	/**
+	 * Search query over the index joined with the entries, newest first like the list. An entry
+	 * is in either the balance table or the archive, both are looked up by the docid. The match
+	 * from {@link #toMatchQuery(String, long)} holds the ledger, so only the entries of the ledger
+	 * are looked up; takes the match and the limit.
+	 */
+	static final String SEARCH_QUERY = searchQuery("");
+
+	/**
+	 * {@link #SEARCH_QUERY} continued after the last row of the previous page by seeking on
+	 * (event_date, _id) rather than skipping the rows read before; takes the match, the date,
+	 * the date again and the rowId of that row, and the limit
+	 */
+	static final String SEARCH_AFTER_QUERY = searchQuery("and (" + EVENT_DATE + " < cast(? as integer) or ("
+		+ EVENT_DATE + " = cast(? as integer) and " + FTS_TABLE + ".docid < ?)) ");
+
+	private BalanceSearch() {
+	}
+
+	private static String searchQuery(String seek) {
+		return "select " + FTS_TABLE + ".docid as _id, ifnull(b.description, a.description) as description, "
+			+ "ifnull(b.amount, a.amount) as amount, ifnull(b.currency_id, a.currency_id) as currency_id, "
+			+ EVENT_DATE + " as event_date from " + FTS_TABLE
+			+ " left join balance b on b._id = " + FTS_TABLE + ".docid left join " + BalanceArchive.TABLE
+			+ " a on a._id = " + FTS_TABLE + ".docid where " + FTS_TABLE + " match ? "
+			+ "and (b.deleted = 0 or a._id is not null) "
+			+ seek + "order by event_date desc, _id desc limit ?";
+	}
+
+	/**
+	 * Creates the index and its triggers and indexes the existing entries, archived or not
+	 */
+	static void create(SQLiteDatabase db) {
+		db.execSQL(FTS_CREATE);
+		createTriggers(db);
+		db.execSQL("insert into " + FTS_TABLE + " (docid, description, ledger) select _id, description, '"
+			+ LEDGER_TOKEN + "' || ledger_id from balance");
+		db.execSQL("insert into " + FTS_TABLE + " (docid, description, ledger) select _id, description, '"
+			+ LEDGER_TOKEN + "' || ledger_id from " + BalanceArchive.TABLE);
+	}
+
+	/**
+	 * Drops the index and its triggers, for an index to be created again with a new schema
+	 */
+	static void drop(SQLiteDatabase db) {
+		dropTriggers(db);
+		db.execSQL("drop table if exists " + FTS_TABLE);
+	}
+
+	/**
+	 * Creates the triggers that keep the index in sync, needed again whenever the balance
+	 * table has been rebuilt
+	 */
+	static void createTriggers(SQLiteDatabase db) {
+		for (String trigger : TRIGGERS_CREATE) {
+			db.execSQL(trigger);
+		}
+	}
+
+	/**
+	 * Drops the triggers that keep the index in sync, for writes that index the entries
+	 * themselves
+	 */
+	static void dropTriggers(SQLiteDatabase db) {
+		for (String trigger : TRIGGER_NAMES) {
+			db.execSQL("drop trigger if exists " + trigger);
+		}
+	}
+
+	/**
+	 * @return the token of a ledger in the ledger column of the index
+	 */
+	static String ledgerToken(long ledgerId) {
+		return LEDGER_TOKEN + ledgerId;
+	}
+
+	/**
+	 * Turns text typed by the user into an FTS query that matches the entries of a ledger whose
+	 * description contains words starting with each of the typed words
+	 *
+	 * @param text the search text
+	 * @param ledgerId the ledger to search
+	 * @return the MATCH expression, or null if the text holds no words
+	 */
+	static String toMatchQuery(String text, long ledgerId) {
+		StringBuilder query = new StringBuilder(text.length() + 48);
+		boolean inWord = false;
+
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (Character.isLetterOrDigit(c)) {
+				if (!inWord) {
+					query.append(query.length() > 0 ? " description:" : "description:");
+				}
+				query.append(c);
+				inWord = true;
+			} else if (inWord) {
+				// FTS operators and punctuation end the word
+				query.append('*');
+				inWord = false;
+			}
+		}
+		if (inWord) {
+			query.append('*');
+		}
+		if (query.length() == 0) {
+			return null;
+		}
+
+		// the ledger narrows the lookup itself rather than the rows found
+		return query.append(" ledger:").append(ledgerToken(ledgerId)).toString();
+	}
+}
@@ -0,0 +1,217 @@
+package fi.wegar.balancepad;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Schema and maintenance of the running totals kept next to the balance table. One table holds
+ * the total per ledger and currency, the other the total per ledger, currency and month, so the
+ * balance of a ledger is read from its own rows whatever the size of the others. Both are kept up to date
+ * by triggers on the balance table, so every write path, including bulk imports, maintains them.
+ * Entries marked deleted are not counted: marking an entry deleted subtracts it, restoring it
+ * adds it back, and purging it changes nothing. Archived entries are counted through triggers on
+ * the archive, see {@link BalanceArchive}.
+ */
+final class BalanceTotals {
+
+	static final String TOTAL_TABLE = "balance_total";
+	static final String MONTH_TOTAL_TABLE = "balance_month_total";
+
+	static final String KEY_MONTH = "month";
+	static final String KEY_TOTAL = "total";
+	static final String KEY_ENTRY_COUNT = "entry_count";
+
+	/**
+	 * Month of an event date as yyyy-MM in the local time zone, the same form that
+	 * {@link #monthKey(int, int)} produces
+	 */
+	private static final String MONTH_OF_NEW = "strftime('%Y-%m', new.event_date / 1000, 'unixepoch', 'localtime')";
+	private static final String MONTH_OF_OLD = "strftime('%Y-%m', old.event_date / 1000, 'unixepoch', 'localtime')";
+	static final String MONTH_OF_ROW = "strftime('%Y-%m', event_date / 1000, 'unixepoch', 'localtime')";
+
+	private static final String TOTAL_CREATE =
+		"create table " + TOTAL_TABLE + " (ledger_id integer not null, currency_id integer not null, "
+		+ "total integer not null default 0, entry_count integer not null default 0, "
+		+ "primary key (ledger_id, currency_id));";
+
+	private static final String MONTH_TOTAL_CREATE =
+		"create table " + MONTH_TOTAL_TABLE + " (ledger_id integer not null, currency_id integer not null, "
+		+ "month text not null, total integer not null default 0, entry_count integer not null default 0, "
+		+ "primary key (ledger_id, currency_id, month));";
+
+	// trigger bodies that count the new row and uncount the old one, shared with the archive
+	static final String ADD_NEW =
+		"insert or ignore into " + TOTAL_TABLE + " (ledger_id, currency_id) values (new.ledger_id, new.currency_id); "
+		+ "update " + TOTAL_TABLE + " set total = total + new.amount, entry_count = entry_count + 1 "
+		+ "where ledger_id = new.ledger_id and currency_id = new.currency_id; "
+		+ "insert or ignore into " + MONTH_TOTAL_TABLE + " (ledger_id, currency_id, month) "
+		+ "values (new.ledger_id, new.currency_id, " + MONTH_OF_NEW + "); "
+		+ "update " + MONTH_TOTAL_TABLE + " set total = total + new.amount, entry_count = entry_count + 1 "
+		+ "where ledger_id = new.ledger_id and currency_id = new.currency_id and month = " + MONTH_OF_NEW + "; ";
+
+	static final String REMOVE_OLD =
+		"update " + TOTAL_TABLE + " set total = total - old.amount, entry_count = entry_count - 1 "
+		+ "where ledger_id = old.ledger_id and currency_id = old.currency_id; "
+		+ "delete from " + TOTAL_TABLE + " where ledger_id = old.ledger_id and currency_id = old.currency_id "
+		+ "and entry_count = 0; "
+		+ "update " + MONTH_TOTAL_TABLE + " set total = total - old.amount, entry_count = entry_count - 1 "
+		+ "where ledger_id = old.ledger_id and currency_id = old.currency_id and month = " + MONTH_OF_OLD + "; "
+		+ "delete from " + MONTH_TOTAL_TABLE + " where ledger_id = old.ledger_id and currency_id = old.currency_id "
+		+ "and month = " + MONTH_OF_OLD + " and entry_count = 0; ";
+
+	private static final String UPDATE_OF = "after update of amount, currency_id, event_date, deleted, ledger_id on balance";
+
+	private static final String[] TRIGGERS_CREATE = new String[] {
+		"create trigger balance_totals_insert after insert on balance when new.deleted = 0 begin "
+			+ ADD_NEW + "end;",
+		"create trigger balance_totals_delete after delete on balance when old.deleted = 0 begin "
+			+ REMOVE_OLD + "end;",
+		// an update is split in two so that each half only runs for an entry that is counted
+		"create trigger balance_totals_update_old " + UPDATE_OF + " when old.deleted = 0 begin "
+			+ REMOVE_OLD + "end;",
+		"create trigger balance_totals_update_new " + UPDATE_OF + " when new.deleted = 0 begin "
+			+ ADD_NEW + "end;"
+	};
+
+	private static final String[] TRIGGER_NAMES = new String[] {
+		"balance_totals_insert", "balance_totals_delete", "balance_totals_update_old",
+		"balance_totals_update_new",
+		// replaced by the two update triggers above in version 7
+		"balance_totals_update"
+	};
+
+	// the entries that are counted, in both tables
+	private static final String COUNTED = " (select ledger_id, currency_id, amount, event_date from balance "
+		+ "where deleted = 0 union all select ledger_id, currency_id, amount, event_date from "
+		+ BalanceArchive.TABLE + ")";
+
+	private BalanceTotals() {
+	}
+
+	/**
+	 * Creates the total tables and the triggers that maintain them. The tables are left empty,
+	 * call {@link #rebuild(SQLiteDatabase)} when the balance table already holds entries.
+	 */
+	static void create(SQLiteDatabase db) {
+		db.execSQL(TOTAL_CREATE);
+		db.execSQL(MONTH_TOTAL_CREATE);
+		createTriggers(db);
+	}
+
+	/**
+	 * Creates the triggers that maintain the totals, needed again whenever the balance table
+	 * has been rebuilt
+	 */
+	static void createTriggers(SQLiteDatabase db) {
+		for (String trigger : TRIGGERS_CREATE) {
+			db.execSQL(trigger);
+		}
+	}
+
+	/**
+	 * Drops the triggers that maintain the totals, including those of earlier versions
+	 */
+	static void dropTriggers(SQLiteDatabase db) {
+		for (String trigger : TRIGGER_NAMES) {
+			db.execSQL("drop trigger if exists " + trigger);
+		}
+	}
+
+	/**
+	 * Drops the total tables and their triggers, if they exist
+	 */
+	static void drop(SQLiteDatabase db) {
+		dropTriggers(db);
+		db.execSQL("drop table if exists " + TOTAL_TABLE);
+		db.execSQL("drop table if exists " + MONTH_TOTAL_TABLE);
+	}
+
+	/**
+	 * Adds entries to the totals of their ledger, currency and month, for writes made while the
+	 * triggers are dropped
+	 *
+	 * @param month the month of the entries, see {@link #monthKey(int, int)}
+	 * @param total sum of the amounts of the entries
+	 * @param count number of entries
+	 */
+	static void add(SQLiteDatabase db, long ledgerId, long currencyId, String month, long total, long count) {
+		db.execSQL("insert or ignore into " + TOTAL_TABLE + " (ledger_id, currency_id) values (?, ?)",
+				new Object[] {ledgerId, currencyId});
+		db.execSQL("update " + TOTAL_TABLE + " set total = total + ?, entry_count = entry_count + ? "
+				+ "where ledger_id = ? and currency_id = ?", new Object[] {total, count, ledgerId, currencyId});
+		db.execSQL("insert or ignore into " + MONTH_TOTAL_TABLE + " (ledger_id, currency_id, month) values (?, ?, ?)",
+				new Object[] {ledgerId, currencyId, month});
+		db.execSQL("update " + MONTH_TOTAL_TABLE + " set total = total + ?, entry_count = entry_count + ? "
+				+ "where ledger_id = ? and currency_id = ? and month = ?",
+				new Object[] {total, count, ledgerId, currencyId, month});
+	}
+
+	/**
+	 * Recomputes both total tables from the balance table and the archive in one transaction
+	 */
+	static void rebuild(SQLiteDatabase db) {
+		db.beginTransaction();
+		try {
+			db.execSQL("delete from " + TOTAL_TABLE);
+			db.execSQL("delete from " + MONTH_TOTAL_TABLE);
+			db.execSQL("insert into " + TOTAL_TABLE + " (ledger_id, currency_id, total, entry_count) "
+					+ "select ledger_id, currency_id, sum(amount), count(*) from" + COUNTED
+					+ " group by ledger_id, currency_id");
+			db.execSQL("insert into " + MONTH_TOTAL_TABLE + " (ledger_id, currency_id, month, total, entry_count) "
+					+ "select ledger_id, currency_id, " + MONTH_OF_ROW + ", sum(amount), count(*) from" + COUNTED
+					+ " group by ledger_id, currency_id, " + MONTH_OF_ROW);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Compares the stored totals with totals recomputed from the balance table and the archive
+	 *
+	 * @return true if every stored total matches
+	 */
+	static boolean verify(SQLiteDatabase db) {
+		// totals missing or wrong, and totals left over for currencies that have no entries
+		long mismatches = count(db, "select count(*) from (select ledger_id, currency_id, sum(amount) as s, "
+				+ "count(*) as c from" + COUNTED + " group by ledger_id, currency_id) r left join " + TOTAL_TABLE
+				+ " t on t.ledger_id = r.ledger_id and t.currency_id = r.currency_id "
+				+ "where t.currency_id is null or t.total != r.s or t.entry_count != r.c")
+			+ count(db, "select count(*) from " + TOTAL_TABLE + " t left join (select distinct ledger_id, currency_id "
+				+ "from" + COUNTED + ") r on r.ledger_id = t.ledger_id and r.currency_id = t.currency_id "
+				+ "where r.currency_id is null");
+
+		mismatches += count(db, "select count(*) from (select ledger_id, currency_id, " + MONTH_OF_ROW + " as m, "
+				+ "sum(amount) as s, count(*) as c from" + COUNTED + " group by ledger_id, currency_id, m) r left join "
+				+ MONTH_TOTAL_TABLE + " t on t.ledger_id = r.ledger_id and t.currency_id = r.currency_id "
+				+ "and t.month = r.m where t.currency_id is null or t.total != r.s or t.entry_count != r.c")
+			+ count(db, "select count(*) from " + MONTH_TOTAL_TABLE + " t left join (select distinct ledger_id, "
+				+ "currency_id, " + MONTH_OF_ROW + " as m from" + COUNTED + ") r on r.ledger_id = t.ledger_id "
+				+ "and r.currency_id = t.currency_id and r.m = t.month where r.currency_id is null");
+
+		return mismatches == 0;
+	}
+
+	/**
+	 * @param year the year, for example 2025
+	 * @param month the month, 1 to 12
+	 * @return the key used for the month column
+	 */
+	static String monthKey(int year, int month) {
+		StringBuilder key = new StringBuilder(7);
+		key.append(year).append('-');
+		if (month < 10) {
+			key.append('0');
+		}
+		return key.append(month).toString();
+	}
+
+	private static long count(SQLiteDatabase db, String sql) {
+		Cursor c = db.rawQuery(sql, null);
+		try {
+			return c.moveToFirst() ? c.getLong(0) : 0;
+		} finally {
+			c.close();
+		}
+	}
+}
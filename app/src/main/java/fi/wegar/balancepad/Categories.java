@@ -0,0 +1,56 @@
+package fi.wegar.balancepad;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Schema of the category table. Categories are created by naming them on an entry; the
+ * balance table references them by id, null for an entry without a category. Names are
+ * compared without regard to case, so "Groceries" and "groceries" are one category.
+ */
+final class Categories {
+
+	static final String TABLE = "category";
+
+	static final String KEY_NAME = "name";
+
+	static final String TABLE_CREATE = "create table " + TABLE + " (_id integer primary key, "
+		+ "name text not null unique collate nocase);";
+
+	/**
+	 * Column with the category name of an entry, for queries of the balance table and the archive
+	 */
+	static final String NAME_OF_ENTRY = "(select " + KEY_NAME + " from " + TABLE + " where _id = "
+		+ BalanceDbAdapter.KEY_CATEGORY_ID + ") as " + BalanceDbAdapter.KEY_CATEGORY;
+
+	private Categories() {
+	}
+
+	/**
+	 * Returns the id of the category with the given name, adding the category if there is none
+	 *
+	 * @param name the category name, null or blank for no category
+	 * @return the category id, or 0 for no category
+	 */
+	static long idOf(SQLiteDatabase db, String name) {
+		if (name == null || name.trim().length() == 0) {
+			return 0;
+		}
+		name = name.trim();
+
+		Cursor c = db.query(TABLE, new String[] {"_id"}, KEY_NAME + " = ?", new String[] {name},
+				null, null, null);
+		try {
+			if (c.moveToFirst()) {
+				return c.getLong(0);
+			}
+		} finally {
+			c.close();
+		}
+
+		ContentValues values = new ContentValues();
+		values.put(KEY_NAME, name);
+		return db.insertOrThrow(TABLE, null, values);
+	}
+}
@@ -0,0 +1,244 @@
+package fi.wegar.balancepad;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Schema of the change journal, the record of the writes to the entries that a replica needs to
+ * catch up. Triggers on the balance table replace the row of an entry with one with a new
+ * sequence number and the time of the write whenever the entry is added, changed, deleted or
+ * restored, so every write path is journaled as the totals are and the journal holds one row
+ * per entry. The sequence number of a row is the sync token of the change: {@link #CHANGES_AFTER}
+ * reads the changes after a token with the current values of the entries.
+ *
+ * The rows of purged entries stay as their deletes until {@link #compact(SQLiteDatabase, long, int)}
+ * removes those purged long ago, which raises the floor: changes after a token below it may miss
+ * deletes, and the replica has to start over from 0. Compaction goes through the journal in seq
+ * order and keeps the seq it has checked up to, so each row is looked at about once.
+ *
+ * Entries are identified by their global id, a UUID that the insert trigger gives every new
+ * entry and that a replica keeps, as rowIds are only unique within one database and are reused
+ * after a purge. Changes applied from a replica are journaled with the time of the change there
+ * and marked remote, so they are not sent back.
+ */
+final class ChangeJournal {
+
+	static final String TABLE = "change_journal";
+	static final String FLOOR_TABLE = "change_journal_floor";
+
+	static final String KEY_SEQ = "seq";
+	static final String KEY_ENTRY_UID = "entry_uid";
+	static final String KEY_CHANGED_AT = "changed_at";
+	static final String KEY_REMOTE = "remote";
+
+	// the time of the write in milliseconds, the wall clock like System.currentTimeMillis()
+	private static final String NOW = "cast((julianday('now') - 2440587.5) * 86400000 as integer)";
+
+	/**
+	 * A new random UUID, version 4, for the global id of an entry
+	 */
+	static final String NEW_UID = "lower(hex(randomblob(4)) || '-' || hex(randomblob(2)) || '-4' "
+		+ "|| substr(hex(randomblob(2)), 2) || '-' || substr('89ab', 1 + (abs(random()) % 4), 1) "
+		+ "|| substr(hex(randomblob(2)), 2) || '-' || hex(randomblob(6)))";
+
+	// autoincrement so that the sequence numbers of compacted rows are never handed out again
+	private static final String TABLE_CREATE = "create table " + TABLE + " (seq integer primary key autoincrement, "
+		+ "entry_uid text not null, changed_at integer not null, remote integer not null default 0);";
+
+	// finds the latest change of an entry for the stream, the apply and the compaction
+	private static final String ENTRY_INDEX_CREATE =
+		"create index change_journal_entry_uid_idx on " + TABLE + " (entry_uid, seq);";
+
+	// the index of the journal before the global ids
+	private static final String ENTRY_ID_INDEX = "change_journal_entry_idx";
+
+	// the floor, and the seq up to which compaction has checked the rows
+	private static final String FLOOR_CREATE = "create table " + FLOOR_TABLE + " (seq integer not null, "
+		+ "checked integer not null default 0);";
+
+	private static final String RECORD = "delete from " + TABLE + " where entry_uid = new.uid; "
+		+ "insert into " + TABLE + " (entry_uid, changed_at) values (new.uid, " + NOW + "); ";
+
+	private static final String[] TRIGGERS_CREATE = new String[] {
+		// an entry from a replica or the archive has its id, a new one is given its id before it is journaled
+		"create trigger change_journal_insert after insert on balance begin "
+			+ "update balance set uid = " + NEW_UID + " where _id = new._id and uid is null; "
+			+ "delete from " + TABLE + " where entry_uid = (select uid from balance where _id = new._id); "
+			+ "insert into " + TABLE + " (entry_uid, changed_at) select uid, " + NOW
+			+ " from balance where _id = new._id; end;",
+		"create trigger change_journal_update after update of description, amount, currency_id, event_date, "
+			+ "category_id, deleted, ledger_id on balance begin " + RECORD + "end;"
+	};
+
+	private static final String[] TRIGGER_NAMES = new String[] {
+		"change_journal_insert", "change_journal_update"
+	};
+
+	/**
+	 * The latest change of every entry changed after a token, oldest first, with the values of
+	 * the entry or deleted set if it has been deleted or purged. Takes the token, 1 to include
+	 * the changes applied from a replica or else 0, and the number of changes as arguments.
+	 */
+	static final String CHANGES_AFTER =
+		"select j.seq, j.entry_uid as uid, j.changed_at, "
+		+ "ifnull(b.description, a.description) as description, ifnull(b.amount, a.amount) as amount, "
+		+ "c." + CurrencyCache.KEY_CODE + " as currency, ifnull(b.event_date, a.event_date) as event_date, "
+		+ "g." + Categories.KEY_NAME + " as category, l." + Ledgers.KEY_NAME + " as ledger, "
+		+ "(ifnull(b.deleted, 0) != 0 or (b._id is null and a._id is null)) as deleted "
+		+ "from " + TABLE + " j left join balance b on b.uid = j.entry_uid "
+		+ "left join " + BalanceArchive.TABLE + " a on a.uid = j.entry_uid "
+		+ "left join " + CurrencyCache.TABLE + " c on c._id = ifnull(b.currency_id, a.currency_id) "
+		+ "left join " + Categories.TABLE + " g on g._id = ifnull(b.category_id, a.category_id) "
+		+ "left join " + Ledgers.TABLE + " l on l._id = ifnull(b.ledger_id, a.ledger_id) "
+		+ "where j.seq > ? and j.remote <= ? order by j.seq limit ?";
+
+	/**
+	 * The time of the latest change of an entry, taking its global id
+	 */
+	static final String LATEST_OF_ENTRY = "select changed_at from " + TABLE + " where entry_uid = ?";
+
+	// the rows after the checked seq given as the first argument with the entries they are of,
+	// if still there, at most the second argument of them
+	private static final String AFTER_CHECKED = "select j.seq, j.changed_at, ifnull(b._id, a._id) as entry, "
+		+ "ifnull(b.deleted, 0) as deleted from " + TABLE + " j left join balance b on b.uid = j.entry_uid "
+		+ "left join " + BalanceArchive.TABLE + " a on a.uid = j.entry_uid where j.seq > ? order by j.seq limit ?";
+
+	private ChangeJournal() {
+	}
+
+	/**
+	 * Creates the journal and its triggers, with a change for every entry there already is
+	 */
+	static void create(SQLiteDatabase db) {
+		db.execSQL(TABLE_CREATE);
+		db.execSQL(ENTRY_INDEX_CREATE);
+		db.execSQL(FLOOR_CREATE);
+		db.execSQL("insert into " + FLOOR_TABLE + " (seq) values (0)");
+		journalEntries(db);
+		createTriggers(db);
+	}
+
+	/**
+	 * Replaces a journal of entries identified by rowId with one of their global ids, which the
+	 * entries must have been given. The changes journaled so far name the entries by rowId, so
+	 * they are dropped and the floor is raised past them: replicas start over and get every
+	 * entry with its global id.
+	 */
+	static void addUids(SQLiteDatabase db) {
+		long floor = DatabaseUtils.longForQuery(db, "select 1 + ifnull((select seq from sqlite_sequence "
+				+ "where name = '" + TABLE + "'), (select seq from " + FLOOR_TABLE + "))", null);
+		dropTriggers(db);
+		db.execSQL("drop index if exists " + ENTRY_ID_INDEX);
+		db.execSQL("drop table " + TABLE);
+		db.execSQL(TABLE_CREATE);
+		db.execSQL(ENTRY_INDEX_CREATE);
+		// the sequence numbers go on from the floor rather than starting over below it
+		db.execSQL("insert into sqlite_sequence (name, seq) values (?, ?)", new Object[] {TABLE, floor});
+		db.execSQL("update " + FLOOR_TABLE + " set seq = ?", new Object[] {floor});
+		journalEntries(db);
+		createTriggers(db);
+	}
+
+	/**
+	 * Journals a change for every entry there is, archived or not
+	 */
+	private static void journalEntries(SQLiteDatabase db) {
+		db.execSQL("insert into " + TABLE + " (entry_uid, changed_at) select uid, " + NOW
+				+ " from balance where deleted = 0 union all select uid, " + NOW + " from " + BalanceArchive.TABLE);
+	}
+
+	static void createTriggers(SQLiteDatabase db) {
+		for (String trigger : TRIGGERS_CREATE) {
+			db.execSQL(trigger);
+		}
+	}
+
+	/**
+	 * Drops the triggers that journal the writes, for writes that are journaled another way
+	 */
+	static void dropTriggers(SQLiteDatabase db) {
+		for (String trigger : TRIGGER_NAMES) {
+			db.execSQL("drop trigger if exists " + trigger);
+		}
+	}
+
+	/**
+	 * Empties the journal for entries that are all about to be replaced, raising the floor past
+	 * every token handed out so far
+	 */
+	static void reset(SQLiteDatabase db) {
+		db.execSQL("update " + FLOOR_TABLE + " set seq = 1 + ifnull((select seq from sqlite_sequence where name = '"
+				+ TABLE + "'), seq)");
+		db.execSQL("delete from " + TABLE);
+	}
+
+	/**
+	 * @return the token below which changes may be missing
+	 */
+	static long floor(SQLiteDatabase db) {
+		return DatabaseUtils.longForQuery(db, "select seq from " + FLOOR_TABLE, null);
+	}
+
+	/**
+	 * Journals a change applied from a replica in place of the row the triggers wrote for it
+	 *
+	 * @param changedAt time of the change at the replica
+	 */
+	static void recordRemote(SQLiteDatabase db, String entryUid, long changedAt) {
+		db.execSQL("delete from " + TABLE + " where entry_uid = ?", new Object[] {entryUid});
+		db.execSQL("insert into " + TABLE + " (entry_uid, changed_at, remote) values (?, ?, 1)",
+				new Object[] {entryUid, changedAt});
+	}
+
+	/**
+	 * Checks up to limit rows after the seq checked before, in one transaction, deleting the
+	 * changes of entries that no longer exist made before the given time and raising the floor
+	 * to the last of them. The checked seq moves past the rows of the entries that are still
+	 * there and the rows deleted. It stops at the row of a deleted entry that is not purged yet,
+	 * or of a purged entry still to be kept, as that row has to be checked again.
+	 *
+	 * @param purgedBefore the changes of purged entries are kept at least until this time
+	 * @return number of rows checked, less than limit once there are none left to check
+	 */
+	static int compact(SQLiteDatabase db, long purgedBefore, int limit) {
+		int checkedRows = 0;
+		db.beginTransaction();
+		try {
+			long checked = DatabaseUtils.longForQuery(db, "select checked from " + FLOOR_TABLE, null);
+			Cursor c = db.rawQuery(AFTER_CHECKED, new String[] {Long.toString(checked), Integer.toString(limit)});
+			try {
+				while (c.moveToNext()) {
+					long seq = c.getLong(0);
+					boolean purged = c.isNull(2);
+					if (purged ? c.getLong(1) >= purgedBefore : c.getLong(3) != 0) {
+						break;
+					}
+					if (purged) {
+						db.execSQL("delete from " + TABLE + " where seq = ?", new Object[] {seq});
+						db.execSQL("update " + FLOOR_TABLE + " set seq = max(seq, ?)", new Object[] {seq});
+					}
+					checked = seq;
+					checkedRows++;
+				}
+			} finally {
+				c.close();
+			}
+			db.execSQL("update " + FLOOR_TABLE + " set checked = ?", new Object[] {checked});
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		return checkedRows;
+	}
+
+	/**
+	 * Adds the checked seq of the compaction to a journal that kept the rows a later change
+	 * superseded, and deletes those rows
+	 */
+	static void addChecked(SQLiteDatabase db) {
+		db.execSQL("alter table " + FLOOR_TABLE + " add column checked integer not null default 0");
+		db.execSQL("delete from " + TABLE + " where exists (select 1 from " + TABLE + " k "
+				+ "where k.entry_uid = " + TABLE + ".entry_uid and k.seq > " + TABLE + ".seq)");
+	}
+}
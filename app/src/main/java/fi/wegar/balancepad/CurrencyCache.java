@@ -0,0 +1,198 @@
+package fi.wegar.balancepad;
+
+import java.util.Currency;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Schema of the currency table and an in-process copy of it indexed by currency id. The balance
+ * table references currencies by their small integer id, and the list, the editor and the
+ * exports turn those ids back into codes through this cache without touching the database.
+ *
+ * The table only ever grows, so a cached id never changes its meaning. The copy is replaced as
+ * a whole when a currency is added, readers never need to lock.
+ */
+final class CurrencyCache {
+
+	static final String TABLE = "currency";
+
+	static final String KEY_CODE = "code";
+	static final String KEY_FRACTION_DIGITS = "fraction_digits";
+	static final String KEY_SYMBOL = "symbol";
+
+	static final String TABLE_CREATE = "create table " + TABLE + " (_id integer primary key, "
+		+ "code text not null unique, fraction_digits integer not null, symbol text not null);";
+
+	/**
+	 * The currencies by id. Ids start at 1, so index 0 is always empty.
+	 */
+	private static final class Table {
+		final String[] codes;
+		final Currency[] currencies;
+		final int[] fractionDigits;
+		final String[] symbols;
+
+		Table(int size) {
+			codes = new String[size];
+			currencies = new Currency[size];
+			fractionDigits = new int[size];
+			symbols = new String[size];
+		}
+	}
+
+	private static volatile Table sTable = new Table(1);
+
+	// the database the cache was loaded from, read again when an unknown id turns up
+	private static SQLiteDatabase sDb;
+
+	private CurrencyCache() {
+	}
+
+	/**
+	 * Adds a currency to the table, with its fraction digits and symbol taken from
+	 * java.util.Currency. Codes that are not ISO 4217 get 2 fraction digits and the code as symbol.
+	 *
+	 * @return the id of the new currency
+	 */
+	static long insert(SQLiteDatabase db, String code) {
+		ContentValues values = new ContentValues();
+		values.put(KEY_CODE, code);
+		values.put(KEY_FRACTION_DIGITS, Amounts.fractionDigits(code));
+		Currency currency = toCurrency(code);
+		values.put(KEY_SYMBOL, currency != null ? currency.getSymbol() : code);
+		return db.insertOrThrow(TABLE, null, values);
+	}
+
+	/**
+	 * Reads the whole currency table into the cache
+	 */
+	static synchronized void load(SQLiteDatabase db) {
+		sDb = db;
+		Cursor c = db.query(TABLE, new String[] {"_id", KEY_CODE, KEY_FRACTION_DIGITS, KEY_SYMBOL},
+				null, null, null, null, null);
+		try {
+			int size = 1;
+			while (c.moveToNext()) {
+				size = Math.max(size, c.getInt(0) + 1);
+			}
+
+			Table table = new Table(size);
+			c.moveToPosition(-1);
+			while (c.moveToNext()) {
+				int id = c.getInt(0);
+				table.codes[id] = c.getString(1);
+				table.currencies[id] = toCurrency(table.codes[id]);
+				table.fractionDigits[id] = c.getInt(2);
+				table.symbols[id] = c.getString(3);
+			}
+			sTable = table;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Returns the id of a currency, adding the currency to the table if it is not there yet.
+	 * A currency added inside a transaction is not cached, as the transaction may still be
+	 * rolled back; the caller keeps such ids for the length of the transaction.
+	 *
+	 * @param db the database to add the currency to
+	 * @param code the currency code
+	 * @return the currency id
+	 */
+	static synchronized int idOf(SQLiteDatabase db, String code) {
+		int id = cachedId(code);
+		if (id > 0) {
+			return id;
+		}
+
+		Cursor c = db.query(TABLE, new String[] {"_id"}, KEY_CODE + " = ?", new String[] {code},
+				null, null, null);
+		try {
+			id = c.moveToFirst() ? c.getInt(0) : (int) insert(db, code);
+		} finally {
+			c.close();
+		}
+
+		if (!db.inTransaction()) {
+			load(db);
+		}
+		return id;
+	}
+
+	/**
+	 * @param code a currency code
+	 * @return the id of the currency, or -1 if it is not in the cache
+	 */
+	static int cachedId(String code) {
+		String[] codes = sTable.codes;
+		for (int id = 1; id < codes.length; id++) {
+			if (code.equals(codes[id])) {
+				return id;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param id a currency id read from the balance table
+	 * @return the currency code
+	 */
+	static String code(int id) {
+		return table(id).codes[id];
+	}
+
+	/**
+	 * @param id a currency id read from the balance table
+	 * @return the currency, or null if the code is not an ISO 4217 code
+	 */
+	static Currency currency(int id) {
+		return table(id).currencies[id];
+	}
+
+	/**
+	 * @param id a currency id read from the balance table
+	 * @return the number of fraction digits of the amounts in the currency
+	 */
+	static int fractionDigits(int id) {
+		return table(id).fractionDigits[id];
+	}
+
+	/**
+	 * @param id a currency id read from the balance table
+	 * @return the currency symbol
+	 */
+	static String symbol(int id) {
+		return table(id).symbols[id];
+	}
+
+	/**
+	 * @return the cached table, read again if it does not have the id yet because the currency
+	 *         was added in a transaction
+	 */
+	private static Table table(int id) {
+		Table table = sTable;
+		if (id >= table.codes.length || table.codes[id] == null) {
+			synchronized (CurrencyCache.class) {
+				if (sDb != null) {
+					load(sDb);
+				}
+				table = sTable;
+			}
+			if (id >= table.codes.length || table.codes[id] == null) {
+				throw new IllegalArgumentException("Unknown currency id " + id);
+			}
+		}
+		return table;
+	}
+
+	private static Currency toCurrency(String code) {
+		try {
+			return Currency.getInstance(code);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+}
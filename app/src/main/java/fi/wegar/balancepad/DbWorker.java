@@ -0,0 +1,104 @@
+package fi.wegar.balancepad;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * Runs database work on a single background thread and delivers the results on the main
+ * thread. All tasks run one at a time in submission order, so a query submitted after a write
+ * always sees that write.
+ */
+final class DbWorker {
+
+	/**
+	 * A unit of database work. doInBackground runs on the worker thread, then onComplete with
+	 * its result or onFailed with what it threw on the main thread.
+	 *
+	 * @param <T> type of the result
+	 */
+	abstract static class Task<T> implements Runnable {
+
+		/**
+		 * Runs on the worker thread
+		 */
+		protected abstract T doInBackground();
+
+		/**
+		 * Runs on the main thread with the result of doInBackground
+		 */
+		protected void onComplete(T result) {
+		}
+
+		/**
+		 * Runs on the main thread instead of onComplete if doInBackground threw, so state set
+		 * for the task can be reset. Rethrows by default, failing as the work would have on the
+		 * main thread.
+		 */
+		protected void onFailed(RuntimeException e) {
+			throw e;
+		}
+
+		@Override
+		public final void run() {
+			T result = null;
+			RuntimeException failure = null;
+			try {
+				result = doInBackground();
+			} catch (RuntimeException e) {
+				failure = e;
+			}
+			final T finalResult = result;
+			final RuntimeException finalFailure = failure;
+			sMainHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (finalFailure != null) {
+						onFailed(finalFailure);
+					} else {
+						onComplete(finalResult);
+					}
+				}
+			});
+		}
+	}
+
+	private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+	private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable r) {
+			return new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					r.run();
+				}
+			}, "BalancePad-db");
+		}
+	});
+
+	private DbWorker() {
+	}
+
+	/**
+	 * Queues a task to run after all previously queued tasks
+	 */
+	static <T> void execute(Task<T> task) {
+		sExecutor.execute(task);
+	}
+
+	/**
+	 * Queues work whose result is taken from a future rather than delivered on the main thread.
+	 * Tasks queued later run after it and can get the result without waiting.
+	 */
+	static <T> Future<T> submit(Callable<T> work) {
+		return sExecutor.submit(work);
+	}
+}
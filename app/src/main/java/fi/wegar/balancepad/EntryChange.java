@@ -0,0 +1,77 @@
+package fi.wegar.balancepad;
+
+import android.database.Cursor;
+
+/**
+ * One change of an entry as replicated: the values of the entry after the change, or only its
+ * global id for a delete, with the time of the change that decides between conflicting changes
+ */
+class EntryChange {
+
+	/**
+	 * Sequence number of the change in the journal it was read from, the token to continue after
+	 */
+	final long seq;
+	// the global id of the entry, the same on every replica unlike its rowId
+	final String uid;
+	// time of the change in milliseconds, the later of two changes of an entry wins
+	final long changedAt;
+	final boolean deleted;
+	// the values of the entry, null or 0 for a delete; the category is also null for none
+	final String description;
+	final long amount;
+	final String currency;
+	final long eventDate;
+	final String category;
+	// name of the ledger of the entry
+	final String ledger;
+
+	EntryChange(long seq, String uid, long changedAt, String description, long amount, String currency,
+			long eventDate, String category, String ledger) {
+		this.seq = seq;
+		this.uid = uid;
+		this.changedAt = changedAt;
+		this.deleted = false;
+		this.description = description;
+		this.amount = amount;
+		this.currency = currency;
+		this.eventDate = eventDate;
+		this.category = category;
+		this.ledger = ledger;
+	}
+
+	private EntryChange(long seq, String uid, long changedAt) {
+		this.seq = seq;
+		this.uid = uid;
+		this.changedAt = changedAt;
+		this.deleted = true;
+		this.description = null;
+		this.amount = 0;
+		this.currency = null;
+		this.eventDate = 0;
+		this.category = null;
+		this.ledger = null;
+	}
+
+	/**
+	 * @return the change that deletes an entry
+	 */
+	static EntryChange delete(long seq, String uid, long changedAt) {
+		return new EntryChange(seq, uid, changedAt);
+	}
+
+	/**
+	 * Reads the change at the current position of a cursor returned by
+	 * {@link BalanceDbAdapter#fetchChanges(long, int)}
+	 */
+	static EntryChange fromCursor(Cursor c) {
+		long seq = c.getLong(0);
+		String uid = c.getString(1);
+		long changedAt = c.getLong(2);
+		if (c.getInt(9) != 0) {
+			return delete(seq, uid, changedAt);
+		}
+		return new EntryChange(seq, uid, changedAt, c.getString(3), c.getLong(4), c.getString(5),
+				c.getLong(6), c.getString(7), c.getString(8));
+	}
+}
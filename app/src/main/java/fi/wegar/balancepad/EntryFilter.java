@@ -0,0 +1,144 @@
+package fi.wegar.balancepad;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Selects entries by any combination of category, currency and date range for the filtered
+ * queries of {@link BalanceDbAdapter}. A filter on the category or the currency is answered
+ * from the (category_id, event_date) or (currency_id, event_date) index, a date range alone
+ * from the event_date index, so every combination reads only the entries it returns and the
+ * pages come out in index order.
+ */
+final class EntryFilter {
+
+	/**
+	 * Category of a filter that does not filter on the category
+	 */
+	static final long ANY_CATEGORY = 0;
+
+	private long mCategoryId = ANY_CATEGORY;
+	private String mCurrency;
+	private long mFromDate = Long.MIN_VALUE;
+	private long mToDate = Long.MAX_VALUE;
+
+	/**
+	 * @param categoryId the category of the entries, or {@link #ANY_CATEGORY}
+	 * @return this filter
+	 */
+	EntryFilter setCategory(long categoryId) {
+		mCategoryId = categoryId;
+		return this;
+	}
+
+	/**
+	 * @param currency the currency code of the entries, or null for any currency
+	 * @return this filter
+	 */
+	EntryFilter setCurrency(String currency) {
+		mCurrency = currency;
+		return this;
+	}
+
+	/**
+	 * Limits the entries to fromDate <= event_date < toDate
+	 *
+	 * @return this filter
+	 */
+	EntryFilter setDateRange(long fromDate, long toDate) {
+		mFromDate = fromDate;
+		mToDate = toDate;
+		return this;
+	}
+
+	long getCategory() {
+		return mCategoryId;
+	}
+
+	String getCurrency() {
+		return mCurrency;
+	}
+
+	long getFromDate() {
+		return mFromDate;
+	}
+
+	long getToDate() {
+		return mToDate;
+	}
+
+	boolean hasDateRange() {
+		return mFromDate != Long.MIN_VALUE || mToDate != Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return true if the filter selects every entry
+	 */
+	boolean isEmpty() {
+		return mCategoryId == ANY_CATEGORY && mCurrency == null && !hasDateRange();
+	}
+
+	/**
+	 * Appends the terms of the filter to a selection, each preceded by " AND ", and their
+	 * arguments to the list. The terms hold for the balance table and the archive alike.
+	 */
+	private void appendSelection(StringBuilder selection, List<String> args) {
+		if (mCategoryId != ANY_CATEGORY) {
+			selection.append(" AND ").append(BalanceDbAdapter.KEY_CATEGORY_ID).append(" = ?");
+			args.add(Long.toString(mCategoryId));
+		}
+		if (mCurrency != null) {
+			// a currency that is not in the table has no entries, and no id matches -1
+			selection.append(" AND ").append(BalanceDbAdapter.KEY_CURRENCY_ID).append(" = ?");
+			args.add(Integer.toString(CurrencyCache.cachedId(mCurrency)));
+		}
+		if (mFromDate != Long.MIN_VALUE) {
+			selection.append(" AND ").append(BalanceDbAdapter.KEY_EVENT_DATE).append(" >= ?");
+			args.add(Long.toString(mFromDate));
+		}
+		if (mToDate != Long.MAX_VALUE) {
+			selection.append(" AND ").append(BalanceDbAdapter.KEY_EVENT_DATE).append(" < ?");
+			args.add(Long.toString(mToDate));
+		}
+	}
+
+	/**
+	 * Builds the selection of the filter followed by the given terms
+	 *
+	 * @param terms more terms, or null
+	 * @param termArgs arguments of the terms, or null
+	 * @param args receives the arguments of the whole selection
+	 * @return the selection, "1" if there are no terms at all
+	 */
+	String selection(String terms, String[] termArgs, List<String> args) {
+		StringBuilder selection = new StringBuilder(128);
+		appendSelection(selection, args);
+		if (terms != null) {
+			selection.append(" AND ").append(terms);
+			if (termArgs != null) {
+				Collections.addAll(args, termArgs);
+			}
+		}
+		// drop the leading " AND "
+		return selection.length() > 0 ? selection.substring(5) : "1";
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof EntryFilter)) {
+			return false;
+		}
+		EntryFilter other = (EntryFilter) o;
+		return mCategoryId == other.mCategoryId
+				&& (mCurrency == null ? other.mCurrency == null : mCurrency.equals(other.mCurrency))
+				&& mFromDate == other.mFromDate && mToDate == other.mToDate;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = (int) (mCategoryId ^ (mCategoryId >>> 32));
+		hash = 31 * hash + (mCurrency == null ? 0 : mCurrency.hashCode());
+		hash = 31 * hash + (int) (mFromDate ^ (mFromDate >>> 32));
+		return 31 * hash + (int) (mToDate ^ (mToDate >>> 32));
+	}
+}
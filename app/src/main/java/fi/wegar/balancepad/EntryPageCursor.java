@@ -0,0 +1,347 @@
+package fi.wegar.balancepad;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.MergeCursor;
+
+/**
+ * Cursor over the pages of balance entries loaded so far. Each page is the result of its
+ * own keyset query, so appending a page never re-runs the queries for the earlier ones.
+ *
+ * Once the number of entries in the list is known from the month counts, the cursor has a row
+ * for every entry, and the rows that are not loaded yet are placeholders. Pages are then loaded
+ * where the list is looked at: after the loaded rows before them, or from the start of their
+ * month when the fast scroller jumped past the loaded rows, so the rows in between are never
+ * read.
+ */
+class EntryPageCursor extends MergeCursor {
+
+	/**
+	 * The rowId read from a placeholder row, which no entry has
+	 */
+	static final long PLACEHOLDER_ID = 0;
+
+	/**
+	 * Consecutive loaded pages starting at a known position of the list
+	 */
+	private static class Run {
+		final int start;
+		final Cursor[] pages;
+		final int count;
+		final long lastEventDate;
+		final long lastRowId;
+
+		Run(int start, Cursor[] pages) {
+			this.start = start;
+			this.pages = pages;
+
+			int count = 0;
+			for (Cursor page : pages) {
+				count += page.getCount();
+			}
+			this.count = count;
+
+			Cursor lastPage = pages[pages.length - 1];
+			if (lastPage.moveToLast()) {
+				lastEventDate = lastPage.getLong( lastPage.getColumnIndexOrThrow(BalanceDbAdapter.KEY_EVENT_DATE) );
+				lastRowId = lastPage.getLong( lastPage.getColumnIndexOrThrow(BalanceDbAdapter.KEY_ROWID) );
+			} else {
+				lastEventDate = Long.MIN_VALUE;
+				lastRowId = Long.MIN_VALUE;
+			}
+		}
+
+		int end() {
+			return start + count;
+		}
+
+		/**
+		 * @return this run followed by the pages of the run after it
+		 */
+		Run join(Cursor[] next) {
+			Cursor[] joined = new Cursor[pages.length + next.length];
+			System.arraycopy(pages, 0, joined, 0, pages.length);
+			System.arraycopy(next, 0, joined, pages.length, next.length);
+			return new Run(start, joined);
+		}
+	}
+
+	/**
+	 * Rows of entries that are not loaded yet, every column null
+	 */
+	private static class Placeholders extends AbstractCursor {
+		private final String[] mColumnNames;
+		private final int mCount;
+
+		Placeholders(String[] columnNames, int count) {
+			mColumnNames = columnNames;
+			mCount = count;
+		}
+
+		@Override
+		public int getCount() {
+			return mCount;
+		}
+
+		@Override
+		public String[] getColumnNames() {
+			return mColumnNames;
+		}
+
+		@Override
+		public String getString(int column) {
+			return null;
+		}
+
+		@Override
+		public short getShort(int column) {
+			return 0;
+		}
+
+		@Override
+		public int getInt(int column) {
+			return 0;
+		}
+
+		@Override
+		public long getLong(int column) {
+			return PLACEHOLDER_ID;
+		}
+
+		@Override
+		public float getFloat(int column) {
+			return 0;
+		}
+
+		@Override
+		public double getDouble(int column) {
+			return 0;
+		}
+
+		@Override
+		public boolean isNull(int column) {
+			return true;
+		}
+	}
+
+	/**
+	 * Where to load the rows at a position that is not loaded: the position of the first row
+	 * the query returns, and either the row to continue after or the end of the month to seek to
+	 */
+	static final class Seek {
+		final int position;
+		final boolean month;
+		// the end of the month for a month seek, else the date of the row to continue after
+		final long eventDate;
+		final long rowId;
+		final int limit;
+
+		private Seek(int position, boolean month, long eventDate, long rowId, int limit) {
+			this.position = position;
+			this.month = month;
+			this.eventDate = eventDate;
+			this.rowId = rowId;
+			this.limit = limit;
+		}
+	}
+
+	private final Run[] mRuns;
+	// number of rows of the list, -1 while it is not known
+	private final int mTotal;
+	private final boolean mHasMore;
+
+	// set when the pages have been handed over to a newer cursor
+	private boolean mDetached;
+
+	/**
+	 * Creates a cursor over a single first page
+	 *
+	 * @param firstPage the first page of entries
+	 * @param pageSize the page size used for the query
+	 * @param total number of entries in the list, or -1 if not known
+	 */
+	EntryPageCursor(Cursor firstPage, int pageSize, int total) {
+		this(new Run[] {new Run(0, new Cursor[] {firstPage})}, total, firstPage.getCount() >= pageSize);
+	}
+
+	private EntryPageCursor(Run[] runs, int total, boolean hasMore) {
+		super(withPlaceholders(runs, total));
+		mRuns = runs;
+		mTotal = total;
+		mHasMore = hasMore;
+	}
+
+	/**
+	 * @return the pages of the runs with placeholders in the gaps between them and after the last
+	 */
+	private static Cursor[] withPlaceholders(Run[] runs, int total) {
+		String[] columnNames = runs[0].pages[0].getColumnNames();
+		List<Cursor> cursors = new ArrayList<Cursor>();
+		int position = 0;
+		for (Run run : runs) {
+			if (run.start > position) {
+				cursors.add(new Placeholders(columnNames, run.start - position));
+			}
+			for (Cursor page : run.pages) {
+				cursors.add(page);
+			}
+			position = run.end();
+		}
+		if (total > position) {
+			cursors.add(new Placeholders(columnNames, total - position));
+		}
+		return cursors.toArray(new Cursor[cursors.size()]);
+	}
+
+	/**
+	 * Returns a new cursor over the same pages with a row for each of the given number of entries
+	 *
+	 * @param total number of entries in the list
+	 */
+	EntryPageCursor withTotal(int total) {
+		mDetached = true;
+		return new EntryPageCursor(mRuns, Math.max(total, mRuns[mRuns.length - 1].end()), mHasMore);
+	}
+
+	/**
+	 * Returns a new cursor containing the pages of this cursor followed by nextPage.
+	 * The page cursors are shared, so closing this cursor afterwards leaves them open.
+	 *
+	 * @param nextPage the page to append
+	 * @param pageSize the page size used for the query
+	 * @return a cursor over all pages
+	 */
+	EntryPageCursor append(Cursor nextPage, int pageSize) {
+		mDetached = true;
+		return new EntryPageCursor(insert(mRuns, mRuns[mRuns.length - 1].end(), nextPage), mTotal,
+				nextPage.getCount() >= pageSize);
+	}
+
+	/**
+	 * Returns a new cursor containing the pages of this cursor and a page of the rows starting
+	 * at a position that is not loaded. The page cursors are shared as with append.
+	 *
+	 * @param position position of the first row of the page, as given by {@link #seekFor}
+	 * @param page the rows, as many as the limit of the seek
+	 */
+	EntryPageCursor insert(int position, Cursor page) {
+		mDetached = true;
+		return new EntryPageCursor(insert(mRuns, position, page), mTotal, mHasMore);
+	}
+
+	private static Run[] insert(Run[] loaded, int position, Cursor page) {
+		List<Run> runs = new ArrayList<Run>(loaded.length + 1);
+		Run inserted = null;
+		for (Run run : loaded) {
+			if (inserted == null && run.end() == position) {
+				inserted = run.join(new Cursor[] {page});
+				runs.add(inserted);
+			} else if (inserted == null && run.start > position) {
+				inserted = new Run(position, new Cursor[] {page});
+				runs.add(inserted);
+				runs.add(run);
+			} else {
+				runs.add(run);
+			}
+		}
+		if (inserted == null) {
+			runs.add(new Run(position, new Cursor[] {page}));
+		}
+
+		// runs that meet are joined, so the next seek continues after both
+		for (int i = runs.size() - 1; i > 0; i--) {
+			Run before = runs.get(i - 1);
+			if (before.end() == runs.get(i).start) {
+				runs.set(i - 1, before.join(runs.remove(i).pages));
+			}
+		}
+		return runs.toArray(new Run[runs.size()]);
+	}
+
+	/**
+	 * @return true if the number of entries is known, so that every entry has a row
+	 */
+	boolean hasTotal() {
+		return mTotal >= 0;
+	}
+
+	/**
+	 * @param from first position to look at
+	 * @param to position after the last one to look at
+	 * @return the first position in the range whose row is a placeholder, -1 if there is none
+	 */
+	int firstMissing(int from, int to) {
+		int end = Math.min(to, mTotal);
+		int position = Math.max(from, 0);
+		for (Run run : mRuns) {
+			if (position >= end || position < run.start) {
+				break;
+			}
+			position = Math.max(position, run.end());
+		}
+		return position < end ? position : -1;
+	}
+
+	/**
+	 * Decides how to load the row at a position that is not loaded. If the loaded rows before it
+	 * reach into its month, the page continues after them; otherwise it starts at the first
+	 * entry of the month, found by its date. Either way the rows loaded before the position
+	 * are at most those of its month.
+	 *
+	 * @param position the position of a placeholder, see {@link #firstMissing(int, int)}
+	 * @param sections the months of the list
+	 * @param pageSize number of rows to load past the position
+	 */
+	Seek seekFor(int position, MonthSections sections, int pageSize) {
+		Run before = null;
+		int next = mTotal;
+		for (Run run : mRuns) {
+			if (run.start > position) {
+				next = run.start;
+				break;
+			}
+			before = run;
+		}
+
+		int section = sections.sectionOf(position);
+		int monthStart = sections.positionOf(section);
+		if (before != null && before.end() >= monthStart) {
+			int start = before.end();
+			return new Seek(start, false, before.lastEventDate, before.lastRowId,
+					Math.min(position - start + pageSize, next - start));
+		}
+		return new Seek(monthStart, true, sections.endOf(section), 0,
+				Math.min(position - monthStart + pageSize, next - monthStart));
+	}
+
+	/**
+	 * @return true if the last query returned a full page, so there may be more entries
+	 */
+	boolean hasMore() {
+		return mHasMore;
+	}
+
+	/**
+	 * @return the event date of the last loaded entry, used to seek to the next page
+	 */
+	long getLastEventDate() {
+		return mRuns[mRuns.length - 1].lastEventDate;
+	}
+
+	/**
+	 * @return the rowId of the last loaded entry, used to seek to the next page
+	 */
+	long getLastRowId() {
+		return mRuns[mRuns.length - 1].lastRowId;
+	}
+
+	@Override
+	public void close() {
+		if (!mDetached) {
+			super.close();
+		}
+	}
+}
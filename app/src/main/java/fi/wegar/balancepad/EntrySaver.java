@@ -0,0 +1,129 @@
+package fi.wegar.balancepad;
+
+import java.util.Date;
+import java.util.concurrent.Future;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.widget.Toast;
+
+/**
+ * Saves the changes made to one entry in the editor. Saves that do not change anything are
+ * skipped, and saves requested while an earlier one is still waiting for the database thread
+ * are merged into a single write of the latest values. Only the columns that differ from the
+ * last written version are updated.
+ *
+ * The saver outlives configuration changes of the editor, so an entry created in the
+ * background is not created a second time by the recreated activity.
+ */
+class EntrySaver {
+
+	private final Context mAppContext;
+	private final Future<BalanceDbAdapter> mDatabase;
+	private final BalanceEntry mLoaded;
+
+	// the values last handed to save(), only used on the main thread
+	private BalanceEntry mSubmitted;
+
+	// values waiting for the database thread, guarded by this
+	private BalanceEntry mPending;
+
+	// only used on the database thread
+	private BalanceEntry mWritten;
+
+	private volatile long mRowId;
+
+	/**
+	 * @param context any context, only its application context is kept
+	 * @param database the shared database the writes go to, see {@link SharedDatabase}
+	 * @param loaded the entry as loaded from the database, or null for a new entry
+	 */
+	EntrySaver(Context context, Future<BalanceDbAdapter> database, BalanceEntry loaded) {
+		mAppContext = context.getApplicationContext();
+		mDatabase = database;
+		mLoaded = loaded;
+		mSubmitted = loaded;
+		mWritten = loaded;
+		mRowId = (loaded == null) ? -1 : loaded.rowId;
+	}
+
+	/**
+	 * @return the entry as it was loaded, null for a new entry
+	 */
+	BalanceEntry getLoaded() {
+		return mLoaded;
+	}
+
+	/**
+	 * @return the rowId of the entry, or -1 while a new entry has not been written yet
+	 */
+	long getRowId() {
+		return mRowId;
+	}
+
+	/**
+	 * Queues a write of the given values unless they equal the values last saved
+	 *
+	 * @return true if a write was queued or merged into a queued write
+	 */
+	boolean save(String description, long amount, String currency, long eventDate, String category) {
+		BalanceEntry values = new BalanceEntry(mRowId, description, amount, currency, eventDate, category);
+		if (values.changedValues(mSubmitted).size() == 0) {
+			return false;
+		}
+		mSubmitted = values;
+
+		synchronized (this) {
+			boolean queued = mPending != null;
+			mPending = values;
+			if (queued) {
+				return true;
+			}
+		}
+
+		DbWorker.execute(new DbWorker.Task<Boolean>() {
+			@Override
+			protected Boolean doInBackground() {
+				return write();
+			}
+
+			@Override
+			protected void onComplete(Boolean saved) {
+				if (saved) {
+					Toast.makeText(mAppContext, R.string.entry_saved, Toast.LENGTH_SHORT).show();
+				}
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Writes the latest pending values, runs on the database thread
+	 */
+	private boolean write() {
+		BalanceEntry values;
+		synchronized (this) {
+			values = mPending;
+			mPending = null;
+		}
+
+		BalanceDbAdapter dbHelper = SharedDatabase.await(mDatabase);
+		boolean saved;
+		if (mRowId < 0) {
+			long id = dbHelper.createEntry(values.description, values.amount, values.currency,
+					new Date(values.eventDate), values.category);
+			saved = id > 0;
+			if (saved) {
+				mRowId = id;
+			}
+		} else {
+			ContentValues changed = values.changedValues(mWritten);
+			saved = changed.size() > 0 && dbHelper.updateEntry(mRowId, changed);
+		}
+
+		if (saved) {
+			mWritten = values;
+		}
+		return saved;
+	}
+}
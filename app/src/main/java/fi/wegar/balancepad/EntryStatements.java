@@ -0,0 +1,131 @@
+package fi.wegar.balancepad;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+
+/**
+ * The statements of the single entry operations of {@link BalanceDbAdapter}, compiled once per
+ * connection when the database is opened and run with bound arguments. Their SQL text is the
+ * same for every entry, so SQLite parses and plans each of them once instead of on every call,
+ * and the writes bind longs and strings directly rather than going through ContentValues.
+ *
+ * Like the adapter, the statements are used from one thread at a time.
+ */
+final class EntryStatements {
+
+	private static final String INSERT = "insert into " + BalanceDbAdapter.DATABASE_TABLE + " ("
+		+ BalanceDbAdapter.KEY_DESCRIPTION + ", " + BalanceDbAdapter.KEY_AMOUNT + ", "
+		+ BalanceDbAdapter.KEY_CURRENCY_ID + ", " + BalanceDbAdapter.KEY_EVENT_DATE + ", "
+		+ BalanceDbAdapter.KEY_CATEGORY_ID + ", " + BalanceDbAdapter.KEY_LEDGER_ID + ") values (?, ?, ?, ?, ?, ?)";
+
+	private static final String UPDATE = "update " + BalanceDbAdapter.DATABASE_TABLE + " set "
+		+ BalanceDbAdapter.KEY_DESCRIPTION + " = ?, " + BalanceDbAdapter.KEY_AMOUNT + " = ?, "
+		+ BalanceDbAdapter.KEY_CURRENCY_ID + " = ?, " + BalanceDbAdapter.KEY_EVENT_DATE + " = ? where "
+		+ BalanceDbAdapter.KEY_ROWID + " = ?";
+
+	private static final String MARK_DELETED = "update " + BalanceDbAdapter.DATABASE_TABLE + " set "
+		+ BalanceDbAdapter.KEY_DELETED + " = ? where " + BalanceDbAdapter.KEY_ROWID + " = ? and "
+		+ BalanceDbAdapter.NOT_DELETED;
+
+	/**
+	 * Selection of one entry by rowId, taking the rowId as its argument
+	 */
+	static final String BY_ROWID = BalanceDbAdapter.KEY_ROWID + " = ?";
+
+	private final SQLiteDatabase mDb;
+	private final String mFetch;
+	private final SQLiteStatement mInsert;
+	private final SQLiteStatement mUpdate;
+	private final SQLiteStatement mMarkDeleted;
+
+	// counts the rows changed by an update where SQLiteStatement cannot, before Android 3.0
+	private final SQLiteStatement mChanges;
+
+	/**
+	 * @param fetchColumns columns of the entries returned by {@link #fetch(long)}, present in the
+	 *        balance table and the archive
+	 */
+	EntryStatements(SQLiteDatabase db, String[] fetchColumns) {
+		mDb = db;
+		mFetch = BalanceArchive.unionQuery(fetchColumns, BY_ROWID + " AND " + BalanceDbAdapter.NOT_DELETED,
+				BY_ROWID, null, null);
+		mInsert = db.compileStatement(INSERT);
+		mUpdate = db.compileStatement(UPDATE);
+		mMarkDeleted = db.compileStatement(MARK_DELETED);
+		mChanges = Build.VERSION.SDK_INT < 11 ? db.compileStatement("select changes()") : null;
+	}
+
+	/**
+	 * @param categoryId the category, 0 for none
+	 * @param ledgerId the ledger of the entry
+	 * @return rowId of the new entry or -1 if failed
+	 */
+	long insert(String description, long amount, long currencyId, long eventDate, long categoryId, long ledgerId) {
+		mInsert.bindString(1, description);
+		mInsert.bindLong(2, amount);
+		mInsert.bindLong(3, currencyId);
+		mInsert.bindLong(4, eventDate);
+		if (categoryId > 0) {
+			mInsert.bindLong(5, categoryId);
+		} else {
+			mInsert.bindNull(5);
+		}
+		mInsert.bindLong(6, ledgerId);
+		return mInsert.executeInsert();
+	}
+
+	/**
+	 * Writes every column of an entry in the balance table but its category
+	 *
+	 * @return number of entries changed, 0 or 1
+	 */
+	int update(long rowId, String description, long amount, long currencyId, long eventDate) {
+		mUpdate.bindString(1, description);
+		mUpdate.bindLong(2, amount);
+		mUpdate.bindLong(3, currencyId);
+		mUpdate.bindLong(4, eventDate);
+		mUpdate.bindLong(5, rowId);
+		return executeUpdateDelete(mUpdate);
+	}
+
+	/**
+	 * Marks an entry of the balance table deleted unless it already is
+	 *
+	 * @param deletedAt time of the delete in milliseconds
+	 * @return number of entries changed, 0 or 1
+	 */
+	int markDeleted(long rowId, long deletedAt) {
+		mMarkDeleted.bindLong(1, deletedAt);
+		mMarkDeleted.bindLong(2, rowId);
+		return executeUpdateDelete(mMarkDeleted);
+	}
+
+	/**
+	 * Queries an entry, from the balance table unless it is deleted, or else from the archive.
+	 * The query is a cursor rather than a compiled statement, but its text is the same for every
+	 * rowId, so the connection finds it in its statement cache.
+	 */
+	Cursor fetch(long rowId) {
+		String id = Long.toString(rowId);
+		return mDb.rawQuery(mFetch, new String[] {id, id});
+	}
+
+	void close() {
+		mInsert.close();
+		mUpdate.close();
+		mMarkDeleted.close();
+		if (mChanges != null) {
+			mChanges.close();
+		}
+	}
+
+	private int executeUpdateDelete(SQLiteStatement statement) {
+		if (mChanges == null) {
+			return statement.executeUpdateDelete();
+		}
+		statement.execute();
+		return (int) mChanges.simpleQueryForLong();
+	}
+}
@@ -0,0 +1,373 @@
+package fi.wegar.balancepad;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TimeZone;
+
+import android.os.Environment;
+import android.util.Log;
+
+/**
+ * Dated exchange rates, loaded from a local CSV file so that no network access is needed.
+ *
+ * The file holds one rate per record: the date (yyyy-MM-dd), a currency code and the value of
+ * one unit of that currency in the base currency. The base currency is set by a record of the
+ * form "base,EUR" and defaults to EUR. Lines starting with # are ignored.
+ *
+ * For every currency the rates are kept as two parallel primitive arrays sorted by day, so
+ * looking up the rate of a date is a binary search. Rates between two currencies that are not
+ * the base are crossed through the base currency. On days without a rate the latest earlier
+ * rate is used, and before the first rate the first one.
+ */
+class ExchangeRates {
+
+	private static final String TAG = "ExchangeRates";
+
+	/**
+	 * Location of the rate file on the external storage
+	 */
+	static final String RATES_FILE = "BalancePad/exchange_rates.csv";
+
+	private static final String DEFAULT_BASE = "EUR";
+
+	/**
+	 * Rates of one currency against the base currency
+	 */
+	private static class RateTable {
+		final int[] days;
+		final double[] rates;
+
+		RateTable(int[] days, double[] rates) {
+			this.days = days;
+			this.rates = rates;
+		}
+
+		/**
+		 * @return index of the rate in effect on day
+		 */
+		int indexOf(int day) {
+			int i = Arrays.binarySearch(days, day);
+			if (i >= 0) {
+				return i;
+			}
+			// the day before the insertion point, or the first rate for days before all rates
+			return Math.max(-i - 2, 0);
+		}
+	}
+
+	private static ExchangeRates sLoaded;
+	private static long sLoadedModified;
+
+	private final String mBase;
+	private final HashMap<String, RateTable> mTables;
+	private final TimeZone mTimeZone = TimeZone.getDefault();
+
+	private ExchangeRates(String base, HashMap<String, RateTable> tables) {
+		mBase = base;
+		mTables = tables;
+	}
+
+	/**
+	 * Returns the rates of the rate file on the external storage, reading the file again only
+	 * if it changed since the last call. Call from a background thread.
+	 *
+	 * @return the rates, or null if there is no rate file or it cannot be read
+	 */
+	static synchronized ExchangeRates getInstance() {
+		File file = new File(Environment.getExternalStorageDirectory(), RATES_FILE);
+		if (!file.exists()) {
+			sLoaded = null;
+			return null;
+		}
+
+		if (sLoaded == null || file.lastModified() != sLoadedModified) {
+			try {
+				Reader in = new InputStreamReader(new FileInputStream(file), "UTF-8");
+				try {
+					sLoaded = read(in);
+					sLoadedModified = file.lastModified();
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				Log.e(TAG, "Reading " + file + " failed", e);
+				sLoaded = null;
+			}
+		}
+		return sLoaded;
+	}
+
+	/**
+	 * Reads rates in the format described above. Invalid records are logged and skipped.
+	 *
+	 * @param in the CSV source
+	 * @return the rates
+	 * @throws IOException if reading fails
+	 */
+	static ExchangeRates read(Reader in) throws IOException {
+		CsvReader reader = new CsvReader(in, ',');
+		List<String> fields = new ArrayList<String>(3);
+		Calendar calendar = Calendar.getInstance();
+		TimeZone timeZone = calendar.getTimeZone();
+
+		String base = DEFAULT_BASE;
+		HashMap<String, RateTableBuilder> builders = new HashMap<String, RateTableBuilder>();
+
+		while (reader.readRecord(fields)) {
+			String first = fields.get(0).trim();
+			if (first.length() == 0 || first.startsWith("#")) {
+				continue;
+			}
+			if (fields.size() == 2 && first.equals("base")) {
+				base = fields.get(1).trim();
+				continue;
+			}
+
+			long date = fields.size() == 3 ? IsoDates.parse(first, calendar) : IsoDates.INVALID;
+			double rate;
+			try {
+				rate = date == IsoDates.INVALID ? Double.NaN : Double.parseDouble(fields.get(2).trim());
+			} catch (NumberFormatException e) {
+				rate = Double.NaN;
+			}
+			if (Double.isNaN(rate) || rate <= 0) {
+				Log.w(TAG, "Skipping invalid rate on line " + reader.getRecordLineNumber());
+				continue;
+			}
+
+			String code = fields.get(1).trim();
+			RateTableBuilder builder = builders.get(code);
+			if (builder == null) {
+				builder = new RateTableBuilder();
+				builders.put(code, builder);
+			}
+			builder.add(IsoDates.epochDay(date, timeZone), rate);
+		}
+
+		HashMap<String, RateTable> tables = new HashMap<String, RateTable>();
+		for (String code : builders.keySet()) {
+			tables.put(code, builders.get(code).build());
+		}
+		return new ExchangeRates(base, tables);
+	}
+
+	/**
+	 * @return the currency that all rates are stored against
+	 */
+	String getBaseCurrency() {
+		return mBase;
+	}
+
+	/**
+	 * @param currency a currency code
+	 * @return true if amounts in the currency can be converted
+	 */
+	boolean hasRates(String currency) {
+		return currency.equals(mBase) || mTables.containsKey(currency);
+	}
+
+	/**
+	 * @param from currency to convert from
+	 * @param to currency to convert to
+	 * @param millis the date of the rate, in milliseconds
+	 * @return the value of one unit of from in to, or NaN if either currency has no rates
+	 */
+	double rate(String from, String to, long millis) {
+		int day = IsoDates.epochDay(millis, mTimeZone);
+		return toBase(from, day) / toBase(to, day);
+	}
+
+	/**
+	 * Converts an amount at the rate of the given date
+	 *
+	 * @param amount amount in minor units of from
+	 * @param from currency of the amount
+	 * @param to currency to convert to
+	 * @param millis the date of the rate, in milliseconds
+	 * @return the amount in minor units of to, rounded to the nearest unit
+	 * @throws IllegalArgumentException if either currency has no rates
+	 */
+	long convert(long amount, String from, String to, long millis) {
+		if (from.equals(to)) {
+			return amount;
+		}
+		double rate = rate(from, to, millis);
+		if (Double.isNaN(rate)) {
+			throw new IllegalArgumentException("No rates for " + from + " to " + to);
+		}
+		return Math.round(amount * rate * unitRatio(from, to));
+	}
+
+	/**
+	 * Converts a whole column of amounts in one pass. The currencies are given dictionary
+	 * encoded: currencyIds[i] is an index into currencies. When the dates are in ascending order,
+	 * as in a ledger sorted by date, each currency's rate table is walked forward once instead of
+	 * being searched for every amount.
+	 *
+	 * @param amounts amounts in minor units of their currency
+	 * @param eventDates date of each amount, in milliseconds
+	 * @param currencyIds currency of each amount, as an index into currencies
+	 * @param count number of amounts to convert, from the start of the arrays
+	 * @param currencies the currency codes
+	 * @param to currency to convert to
+	 * @param out receives the converted amounts in minor units of to, may be amounts itself.
+	 *        Amounts in currencies without rates are set to 0.
+	 * @return number of amounts that could not be converted
+	 */
+	int convertAll(long[] amounts, long[] eventDates, int[] currencyIds, int count,
+			String[] currencies, String to, long[] out) {
+		int dictionarySize = currencies.length;
+
+		// per currency: its table (null for the base), the position reached and the unit ratio
+		RateTable[] tables = new RateTable[dictionarySize];
+		boolean[] known = new boolean[dictionarySize];
+		int[] positions = new int[dictionarySize];
+		double[] unitRatios = new double[dictionarySize];
+		for (int c = 0; c < dictionarySize; c++) {
+			tables[c] = mTables.get(currencies[c]);
+			known[c] = tables[c] != null || currencies[c].equals(mBase);
+			unitRatios[c] = unitRatio(currencies[c], to);
+		}
+
+		RateTable target = mTables.get(to);
+		boolean targetKnown = target != null || to.equals(mBase);
+		int targetPosition = 0;
+		int previousDay = Integer.MIN_VALUE;
+		int failed = 0;
+
+		for (int i = 0; i < count; i++) {
+			int c = currencyIds[i];
+			if (!known[c] || !targetKnown) {
+				out[i] = 0;
+				failed++;
+				continue;
+			}
+
+			int day = IsoDates.epochDay(eventDates[i], mTimeZone);
+			if (day < previousDay) {
+				// out of order, start the forward walks again from the beginning
+				Arrays.fill(positions, 0);
+				targetPosition = 0;
+			}
+			previousDay = day;
+
+			double fromRate = 1;
+			RateTable table = tables[c];
+			if (table != null) {
+				int p = positions[c];
+				while (p + 1 < table.days.length && table.days[p + 1] <= day) {
+					p++;
+				}
+				positions[c] = p;
+				fromRate = table.rates[p];
+			}
+
+			double toRate = 1;
+			if (target != null) {
+				while (targetPosition + 1 < target.days.length && target.days[targetPosition + 1] <= day) {
+					targetPosition++;
+				}
+				toRate = target.rates[targetPosition];
+			}
+
+			out[i] = Math.round(amounts[i] * (fromRate / toRate) * unitRatios[c]);
+		}
+		return failed;
+	}
+
+	/**
+	 * @return value of one unit of currency in the base currency on day, NaN if unknown
+	 */
+	private double toBase(String currency, int day) {
+		if (currency.equals(mBase)) {
+			return 1;
+		}
+		RateTable table = mTables.get(currency);
+		return table == null ? Double.NaN : table.rates[table.indexOf(day)];
+	}
+
+	/**
+	 * @return the factor between minor units of from and minor units of to
+	 */
+	private static double unitRatio(String from, String to) {
+		return (double) Amounts.scale(Amounts.fractionDigits(to)) / Amounts.scale(Amounts.fractionDigits(from));
+	}
+
+	/**
+	 * Collects the rates of one currency while the file is read
+	 */
+	private static class RateTableBuilder {
+		private int[] mDays = new int[16];
+		private double[] mRates = new double[16];
+		private int mSize;
+		private boolean mSorted = true;
+
+		void add(int day, double rate) {
+			if (mSize == mDays.length) {
+				int[] days = new int[mSize * 2];
+				double[] rates = new double[mSize * 2];
+				System.arraycopy(mDays, 0, days, 0, mSize);
+				System.arraycopy(mRates, 0, rates, 0, mSize);
+				mDays = days;
+				mRates = rates;
+			}
+			if (mSize > 0 && day <= mDays[mSize - 1]) {
+				mSorted = false;
+			}
+			mDays[mSize] = day;
+			mRates[mSize] = rate;
+			mSize++;
+		}
+
+		RateTable build() {
+			if (!mSorted) {
+				sort();
+			}
+
+			// keep the last rate given for a day
+			int size = 0;
+			for (int i = 0; i < mSize; i++) {
+				if (size > 0 && mDays[size - 1] == mDays[i]) {
+					size--;
+				}
+				mDays[size] = mDays[i];
+				mRates[size] = mRates[i];
+				size++;
+			}
+			int[] days = new int[size];
+			double[] rates = new double[size];
+			System.arraycopy(mDays, 0, days, 0, size);
+			System.arraycopy(mRates, 0, rates, 0, size);
+			return new RateTable(days, rates);
+		}
+
+		/**
+		 * Sorts by day, keeping records of the same day in file order
+		 */
+		private void sort() {
+			long[] keys = new long[mSize];
+			for (int i = 0; i < mSize; i++) {
+				keys[i] = ((long) mDays[i] << 32) | i;
+			}
+			Arrays.sort(keys);
+
+			int[] days = new int[mSize];
+			double[] rates = new double[mSize];
+			for (int i = 0; i < mSize; i++) {
+				int from = (int) keys[i];
+				days[i] = mDays[from];
+				rates[i] = mRates[from];
+			}
+			mDays = days;
+			mRates = rates;
+		}
+	}
+}
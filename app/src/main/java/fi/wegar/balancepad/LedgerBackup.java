@@ -0,0 +1,354 @@
+package fi.wegar.balancepad;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Backs the ledgers up to the binary format of {@link BackupWriter} and restores them from there.
+ * A backup holds every entry that is not deleted, archived or not, with its category and its
+ * ledger, one ledger after the other; the recurrences are not part of it. The entries keep their
+ * rowIds, and go back to the ledgers of the same name, which are added if need be.
+ *
+ * A restore checks the whole file before it changes anything, then replaces the entries a block
+ * at a time. Each block is written in one transaction with the triggers of the balance table
+ * dropped: the block indexes its descriptions and adds its amounts to the totals itself, once per
+ * currency and month rather than once per entry, and creates the triggers again before it
+ * commits. Every committed state is therefore consistent, and a restore that fails part way
+ * leaves the entries of the blocks restored so far, ready to be restored again. Restored entries
+ * all go to the balance table, the archive task moves the old ones out again.
+ */
+public class LedgerBackup {
+
+	/**
+	 * Number of rows read per query while backing up
+	 */
+	private static final int CHUNK_SIZE = 1000;
+
+	private static final String[] BACKUP_COLUMNS = new String[] {BalanceDbAdapter.KEY_ROWID,
+			BalanceDbAdapter.KEY_DESCRIPTION, BalanceDbAdapter.KEY_AMOUNT,
+			BalanceDbAdapter.KEY_CURRENCY_ID, BalanceDbAdapter.KEY_EVENT_DATE,
+			BalanceDbAdapter.KEY_CATEGORY_ID};
+
+	private static final String BACKUP_ORDER = BalanceDbAdapter.KEY_EVENT_DATE + " ASC, "
+			+ BalanceDbAdapter.KEY_ROWID + " ASC";
+
+	// continues after the last row of the previous chunk, see BalanceDbAdapter.PAGE_SEEK
+	private static final String ARCHIVE_SEEK = BalanceDbAdapter.KEY_LEDGER_ID + " = ? AND "
+			+ BalanceDbAdapter.KEY_EVENT_DATE + " >= ? AND (" + BalanceDbAdapter.KEY_EVENT_DATE + " > ? OR "
+			+ BalanceDbAdapter.KEY_ROWID + " > ?)";
+	private static final String SEEK = ARCHIVE_SEEK + " AND " + BalanceDbAdapter.NOT_DELETED;
+
+	private static final String INSERT = "insert into " + BalanceDbAdapter.DATABASE_TABLE + " ("
+			+ BalanceDbAdapter.KEY_ROWID + ", " + BalanceDbAdapter.KEY_DESCRIPTION + ", "
+			+ BalanceDbAdapter.KEY_AMOUNT + ", " + BalanceDbAdapter.KEY_CURRENCY_ID + ", "
+			+ BalanceDbAdapter.KEY_EVENT_DATE + ", " + BalanceDbAdapter.KEY_CATEGORY_ID + ", "
+			+ BalanceDbAdapter.KEY_LEDGER_ID + ") values (?, ?, ?, ?, ?, ?, ?)";
+
+	private final BalanceDbAdapter mDbHelper;
+	private final Calendar mCalendar = Calendar.getInstance();
+
+	// ids of the currencies and categories named in the backup being restored
+	private final HashMap<String, Integer> mCurrencyIds = new HashMap<String, Integer>();
+	private final HashMap<String, Long> mCategoryIds = new HashMap<String, Long>();
+	private final long[] mCurrencyIdsOfBlock = new long[BackupBlock.CAPACITY];
+	private final long[] mCategoryIdsOfBlock = new long[BackupBlock.CAPACITY];
+	private long mLedgerIdOfBlock;
+
+	// totals of the block being restored by currency and month, and the month of the last entry
+	private final HashMap<String, MonthTotal> mTotals = new HashMap<String, MonthTotal>();
+	private final ArrayList<MonthTotal> mTotalList = new ArrayList<MonthTotal>();
+	private String mMonth;
+	private long mMonthStart;
+	private long mMonthEnd;
+
+	/**
+	 * @param dbHelper an opened database adapter to back up or restore
+	 */
+	public LedgerBackup(BalanceDbAdapter dbHelper) {
+		mDbHelper = dbHelper;
+	}
+
+	/**
+	 * Writes a backup of the entries of every ledger, oldest first. Each ledger is read from its
+	 * range of the ledger and date index in chunks of a bounded number of rows and written a
+	 * block at a time. The stream is flushed but not closed.
+	 *
+	 * @param out the stream to write to, it need not be buffered
+	 * @return number of entries written
+	 * @throws IOException if writing fails
+	 */
+	public long backup(OutputStream out) throws IOException {
+		SQLiteDatabase db = mDbHelper.getDatabase();
+		HashMap<Long, String> categories = categoryNames(db);
+		BackupWriter writer = new BackupWriter(out);
+
+		// in the order of their ids, so a restore adds missing ledgers in the same order
+		Cursor ledgers = db.query(Ledgers.TABLE, new String[] {"_id", Ledgers.KEY_NAME}, null, null, null,
+				null, "_id");
+		try {
+			while (ledgers.moveToNext()) {
+				long ledgerId = ledgers.getLong(0);
+				// the default ledger is restored to the default ledger, whatever its name there
+				writer.setLedger(ledgerId == Ledgers.DEFAULT_LEDGER ? null : ledgers.getString(1));
+				backupLedger(db, ledgerId, categories, writer);
+			}
+		} finally {
+			ledgers.close();
+		}
+
+		writer.finish();
+		return writer.count();
+	}
+
+	/**
+	 * Adds the entries of one ledger to a backup
+	 */
+	private static void backupLedger(SQLiteDatabase db, long ledgerId, HashMap<Long, String> categories,
+			BackupWriter writer) throws IOException {
+		String ledger = Long.toString(ledgerId);
+		boolean archived = BalanceArchive.newestDate(db, ledgerId) != BalanceArchive.EMPTY;
+		String limit = Integer.toString(CHUNK_SIZE);
+
+		long lastEventDate = Long.MIN_VALUE;
+		long lastRowId = Long.MIN_VALUE;
+		boolean more = true;
+
+		while (more) {
+			String date = Long.toString(lastEventDate);
+			String[] args = new String[] {ledger, date, date, Long.toString(lastRowId)};
+			Cursor chunk;
+			if (archived) {
+				chunk = db.rawQuery(BalanceArchive.unionQuery(BACKUP_COLUMNS, SEEK, ARCHIVE_SEEK,
+						BACKUP_ORDER, limit), BalanceArchive.unionArgs(args));
+			} else {
+				chunk = db.query(BalanceDbAdapter.DATABASE_TABLE, BACKUP_COLUMNS, SEEK, args, null, null,
+						BACKUP_ORDER, limit);
+			}
+
+			try {
+				while (chunk.moveToNext()) {
+					lastRowId = chunk.getLong(0);
+					lastEventDate = chunk.getLong(4);
+					String category = chunk.isNull(5) ? null : categories.get(chunk.getLong(5));
+					writer.add(lastRowId, lastEventDate, chunk.getLong(2),
+							CurrencyCache.code(chunk.getInt(3)), chunk.getString(1), category);
+				}
+				more = chunk.getCount() >= CHUNK_SIZE;
+			} finally {
+				chunk.close();
+			}
+		}
+	}
+
+	/**
+	 * Replaces every entry of every ledger with those of a backup. The file is memory mapped and
+	 * checked in full first; if it is damaged or cut short the entries are left as they are.
+	 * Ledgers without entries in the backup are left empty.
+	 *
+	 * @param backup a file written by {@link #backup(OutputStream)}
+	 * @return number of entries restored
+	 * @throws IOException if the file cannot be read or is not a complete backup
+	 */
+	public long restore(File backup) throws IOException {
+		SQLiteDatabase db = mDbHelper.getDatabase();
+		RandomAccessFile file = new RandomAccessFile(backup, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			BackupReader reader = new BackupReader(buffer);
+			long count = reader.verify();
+
+			clear(db);
+
+			mCurrencyIds.clear();
+			mCategoryIds.clear();
+			BackupBlock block = new BackupBlock();
+			SQLiteStatement insert = db.compileStatement(INSERT);
+			SQLiteStatement index = db.compileStatement(BalanceSearch.INDEX_INSERT);
+			try {
+				while (reader.next(block)) {
+					resolveIds(block);
+					restoreBlock(db, block, insert, index);
+				}
+			} finally {
+				insert.close();
+				index.close();
+			}
+			return count;
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Deletes every entry, archived or not, and the totals, search index and change journal that
+	 * cover them
+	 */
+	private static void clear(SQLiteDatabase db) {
+		db.beginTransaction();
+		try {
+			BalanceTotals.dropTriggers(db);
+			BalanceSearch.dropTriggers(db);
+			BalanceArchive.dropTriggers(db);
+			db.execSQL("delete from " + BalanceDbAdapter.DATABASE_TABLE);
+			db.execSQL("delete from " + BalanceArchive.TABLE);
+			db.execSQL("delete from " + BalanceSearch.FTS_TABLE);
+			db.execSQL("delete from " + BalanceTotals.TOTAL_TABLE);
+			db.execSQL("delete from " + BalanceTotals.MONTH_TOTAL_TABLE);
+			// the restored entries are journaled as they are inserted
+			ChangeJournal.reset(db);
+			BalanceTotals.createTriggers(db);
+			BalanceSearch.createTriggers(db);
+			BalanceArchive.createTriggers(db);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Looks up the ids of the ledger, currencies and categories of a block outside of any
+	 * transaction, so that the ids of those added are cached, see {@link CurrencyCache#idOf}
+	 */
+	private void resolveIds(BackupBlock block) {
+		SQLiteDatabase db = mDbHelper.getDatabase();
+		mLedgerIdOfBlock = block.ledger == null ? Ledgers.DEFAULT_LEDGER : Ledgers.idOf(db, block.ledger);
+		for (int i = 0; i < block.size; i++) {
+			Integer currencyId = mCurrencyIds.get(block.currencies[i]);
+			if (currencyId == null) {
+				currencyId = mDbHelper.currencyId(block.currencies[i]);
+				mCurrencyIds.put(block.currencies[i], currencyId);
+			}
+			mCurrencyIdsOfBlock[i] = currencyId;
+
+			String category = block.categories[i];
+			if (category == null) {
+				mCategoryIdsOfBlock[i] = 0;
+				continue;
+			}
+			Long categoryId = mCategoryIds.get(category);
+			if (categoryId == null) {
+				categoryId = Categories.idOf(db, category);
+				mCategoryIds.put(category, categoryId);
+			}
+			mCategoryIdsOfBlock[i] = categoryId;
+		}
+	}
+
+	/**
+	 * Inserts the entries of a block in one transaction, indexing and counting them in place of
+	 * the triggers
+	 */
+	private void restoreBlock(SQLiteDatabase db, BackupBlock block, SQLiteStatement insert,
+			SQLiteStatement index) {
+		mTotals.clear();
+		mTotalList.clear();
+
+		db.beginTransaction();
+		try {
+			BalanceTotals.dropTriggers(db);
+			BalanceSearch.dropTriggers(db);
+
+			for (int i = 0; i < block.size; i++) {
+				long rowId = block.rowIds[i];
+				long eventDate = block.eventDates[i];
+				insert.bindLong(1, rowId);
+				insert.bindString(2, block.descriptions[i]);
+				insert.bindLong(3, block.amounts[i]);
+				insert.bindLong(4, mCurrencyIdsOfBlock[i]);
+				insert.bindLong(5, eventDate);
+				if (mCategoryIdsOfBlock[i] > 0) {
+					insert.bindLong(6, mCategoryIdsOfBlock[i]);
+				} else {
+					insert.bindNull(6);
+				}
+				insert.bindLong(7, mLedgerIdOfBlock);
+				insert.executeInsert();
+
+				index.bindLong(1, rowId);
+				index.bindString(2, block.descriptions[i]);
+				index.bindString(3, BalanceSearch.ledgerToken(mLedgerIdOfBlock));
+				index.executeInsert();
+
+				count(mCurrencyIdsOfBlock[i], eventDate, block.amounts[i]);
+			}
+
+			for (MonthTotal total : mTotalList) {
+				BalanceTotals.add(db, mLedgerIdOfBlock, total.currencyId, total.month, total.total, total.count);
+			}
+
+			BalanceTotals.createTriggers(db);
+			BalanceSearch.createTriggers(db);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Adds an entry to the totals of the block
+	 */
+	private void count(long currencyId, long eventDate, long amount) {
+		// entries come in date order, so the month is worked out again only when it changes
+		if (mMonth == null || eventDate < mMonthStart || eventDate >= mMonthEnd) {
+			Calendar calendar = mCalendar;
+			calendar.setTimeInMillis(eventDate);
+			mMonth = BalanceTotals.monthKey(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1);
+			calendar.set(Calendar.DAY_OF_MONTH, 1);
+			calendar.set(Calendar.HOUR_OF_DAY, 0);
+			calendar.set(Calendar.MINUTE, 0);
+			calendar.set(Calendar.SECOND, 0);
+			calendar.set(Calendar.MILLISECOND, 0);
+			mMonthStart = calendar.getTimeInMillis();
+			calendar.add(Calendar.MONTH, 1);
+			mMonthEnd = calendar.getTimeInMillis();
+		}
+
+		String key = mMonth + '/' + currencyId;
+		MonthTotal total = mTotals.get(key);
+		if (total == null) {
+			total = new MonthTotal(currencyId, mMonth);
+			mTotals.put(key, total);
+			mTotalList.add(total);
+		}
+		total.total += amount;
+		total.count++;
+	}
+
+	private static HashMap<Long, String> categoryNames(SQLiteDatabase db) {
+		HashMap<Long, String> names = new HashMap<Long, String>();
+		Cursor c = db.query(Categories.TABLE, new String[] {"_id", Categories.KEY_NAME}, null, null,
+				null, null, null);
+		try {
+			while (c.moveToNext()) {
+				names.put(c.getLong(0), c.getString(1));
+			}
+		} finally {
+			c.close();
+		}
+		return names;
+	}
+
+	private static final class MonthTotal {
+		final long currencyId;
+		final String month;
+		long total;
+		long count;
+
+		MonthTotal(long currencyId, String month) {
+			this.currencyId = currencyId;
+			this.month = month;
+		}
+	}
+}
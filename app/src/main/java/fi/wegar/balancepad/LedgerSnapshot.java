@@ -0,0 +1,146 @@
+package fi.wegar.balancepad;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Read-only copy of the ledger the adapter is on for reports, see {@link Ledger} for the queries.
+ *
+ * A snapshot never changes. {@link #refresh(BalanceDbAdapter)} returns a new snapshot with the
+ * entries created since this one merged in, and only reads the whole table again if entries
+ * were changed or deleted in the meantime.
+ */
+final class LedgerSnapshot extends Ledger {
+
+	private static final String[] SNAPSHOT_COLUMNS = new String[] {BalanceDbAdapter.KEY_ROWID,
+			BalanceDbAdapter.KEY_EVENT_DATE, BalanceDbAdapter.KEY_AMOUNT, BalanceDbAdapter.KEY_CURRENCY_ID};
+
+	private static final String SNAPSHOT_ORDER = BalanceDbAdapter.KEY_EVENT_DATE + " ASC, "
+			+ BalanceDbAdapter.KEY_ROWID + " ASC";
+
+	private static final String IN_LEDGER = BalanceDbAdapter.KEY_LEDGER_ID + " = ?";
+
+	private static final String ENTRIES = IN_LEDGER + " AND " + BalanceDbAdapter.NOT_DELETED;
+
+	private static final String AFTER_ROW = ENTRIES + " AND " + BalanceDbAdapter.KEY_ROWID + " > ?";
+
+	// the ledger of the entries, and the highest rowId seen when the snapshot was read
+	private final long mLedgerId;
+	private final long mHighWaterId;
+
+	private LedgerSnapshot(long ledgerId, Builder rows) {
+		super(rows);
+		mLedgerId = ledgerId;
+		mHighWaterId = rows.getMaxRowId();
+	}
+
+	private LedgerSnapshot(LedgerSnapshot older, Builder added) {
+		super(older, added);
+		mLedgerId = older.mLedgerId;
+		mHighWaterId = Math.max(older.mHighWaterId, added.getMaxRowId());
+	}
+
+	/**
+	 * Reads all entries of the ledger that are not deleted in one pass over its range of the
+	 * ledger and date index, and over that of the archive if anything of the ledger has been
+	 * archived. Call from a background thread.
+	 *
+	 * @param dbHelper an opened database adapter
+	 * @return the snapshot
+	 */
+	static LedgerSnapshot load(BalanceDbAdapter dbHelper) {
+		Builder rows = new Builder();
+		SQLiteDatabase db = dbHelper.getDatabase();
+		long ledgerId = dbHelper.getLedger();
+		String[] ledger = new String[] {Long.toString(ledgerId)};
+		if (BalanceArchive.newestDate(db, ledgerId) == BalanceArchive.EMPTY) {
+			read(query(db, ENTRIES, ledger), rows);
+		} else {
+			read(db.rawQuery(BalanceArchive.unionQuery(SNAPSHOT_COLUMNS, ENTRIES, IN_LEDGER,
+					SNAPSHOT_ORDER, null), BalanceArchive.unionArgs(ledger)), rows);
+		}
+		return new LedgerSnapshot(ledgerId, rows);
+	}
+
+	/**
+	 * Brings the snapshot up to date. Entries created since the snapshot was read are merged in
+	 * without reading the older ones again. If the result does not add up to the currency totals
+	 * of the database, older entries were changed or deleted and the whole table is read again.
+	 * Changes that keep every currency total the same, such as a new date within the same
+	 * month, are not noticed; use {@link #load(BalanceDbAdapter)} after such edits. After a switch
+	 * to another ledger that ledger is read in full. Call from a background thread.
+	 *
+	 * @param dbHelper an opened database adapter
+	 * @return the new snapshot, or this one if nothing changed
+	 */
+	LedgerSnapshot refresh(BalanceDbAdapter dbHelper) {
+		SQLiteDatabase db = dbHelper.getDatabase();
+		if (dbHelper.getLedger() != mLedgerId) {
+			return load(dbHelper);
+		}
+
+		Builder added = new Builder(getCurrencies());
+		read(query(db, AFTER_ROW, new String[] {Long.toString(mLedgerId), Long.toString(mHighWaterId)}), added);
+
+		LedgerSnapshot merged = added.size() == 0 ? this : new LedgerSnapshot(this, added);
+		return merged.matchesTotals(db) ? merged : load(dbHelper);
+	}
+
+	private static Cursor query(SQLiteDatabase db, String selection, String[] args) {
+		return db.query(BalanceDbAdapter.DATABASE_TABLE, SNAPSHOT_COLUMNS, selection, args,
+				null, null, SNAPSHOT_ORDER);
+	}
+
+	/**
+	 * Adds the rows of a cursor with the snapshot columns and closes it
+	 */
+	private static void read(Cursor c, Builder rows) {
+		try {
+			int lastId = -1;
+			int lastCurrency = -1;
+			while (c.moveToNext()) {
+				// consecutive rows are often in the same currency
+				int currency = c.getInt(3);
+				if (currency != lastCurrency) {
+					lastCurrency = currency;
+					lastId = rows.currencyId(CurrencyCache.code(currency));
+				}
+				rows.add(c.getInt(0), c.getLong(1), c.getLong(2), lastId);
+			}
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * @return true if the totals per currency equal those maintained in the database for the ledger
+	 */
+	private boolean matchesTotals(SQLiteDatabase db) {
+		Groups own = groupByCurrency(Long.MIN_VALUE, Long.MAX_VALUE, null);
+		int matched = 0;
+
+		Cursor totals = db.query(BalanceTotals.TOTAL_TABLE, new String[] {BalanceDbAdapter.KEY_CURRENCY_ID,
+				BalanceTotals.KEY_TOTAL, BalanceTotals.KEY_ENTRY_COUNT}, IN_LEDGER,
+				new String[] {Long.toString(mLedgerId)}, null, null, null);
+		try {
+			while (totals.moveToNext()) {
+				int c = currencyId(CurrencyCache.code(totals.getInt(0)));
+				if (c < 0 || own.totals[c] != totals.getLong(1) || own.counts[c] != totals.getInt(2)) {
+					return false;
+				}
+				matched++;
+			}
+		} finally {
+			totals.close();
+		}
+
+		// currencies left without entries have no row in the totals table
+		int withEntries = 0;
+		for (int c = 0; c < own.size; c++) {
+			if (own.counts[c] > 0) {
+				withEntries++;
+			}
+		}
+		return matched == withEntries;
+	}
+}
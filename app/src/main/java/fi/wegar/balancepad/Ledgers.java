@@ -0,0 +1,74 @@
+package fi.wegar.balancepad;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Schema of the ledger table. Every entry, archived entry, recurrence and total belongs to one
+ * ledger, such as an account or the budget of a trip, and the queries of the list read one ledger
+ * at a time. The indexes of the entries all start with the ledger, so a query of one ledger reads
+ * only its own range of them however large the other ledgers grow. Names are compared without
+ * regard to case, as those of the categories.
+ */
+final class Ledgers {
+
+	static final String TABLE = "ledger";
+
+	static final String KEY_NAME = "name";
+
+	/**
+	 * The ledger created with the database, which holds the entries written before there were
+	 * ledgers
+	 */
+	static final long DEFAULT_LEDGER = 1;
+
+	private static final String TABLE_CREATE = "create table " + TABLE + " (_id integer primary key, "
+		+ "name text not null unique collate nocase);";
+
+	private Ledgers() {
+	}
+
+	/**
+	 * Creates the table with the default ledger in it
+	 *
+	 * @param defaultName name of the default ledger
+	 */
+	static void create(SQLiteDatabase db, String defaultName) {
+		db.execSQL(TABLE_CREATE);
+		db.execSQL("insert into " + TABLE + " (_id, name) values (?, ?)",
+				new Object[] {DEFAULT_LEDGER, defaultName});
+	}
+
+	/**
+	 * Returns the id of the ledger with the given name, adding the ledger if there is none
+	 *
+	 * @param name the ledger name, not blank
+	 * @return the ledger id
+	 */
+	static long idOf(SQLiteDatabase db, String name) {
+		name = name.trim();
+		Cursor c = db.query(TABLE, new String[] {"_id"}, KEY_NAME + " = ?", new String[] {name},
+				null, null, null);
+		try {
+			if (c.moveToFirst()) {
+				return c.getLong(0);
+			}
+		} finally {
+			c.close();
+		}
+
+		ContentValues values = new ContentValues();
+		values.put(KEY_NAME, name);
+		return db.insertOrThrow(TABLE, null, values);
+	}
+
+	/**
+	 * @return true if there is a ledger with the given id
+	 */
+	static boolean exists(SQLiteDatabase db, long ledgerId) {
+		return DatabaseUtils.longForQuery(db, "select count(*) from " + TABLE + " where _id = ?",
+				new String[] {Long.toString(ledgerId)}) > 0;
+	}
+}
@@ -0,0 +1,125 @@
+package fi.wegar.balancepad;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Date;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.View;
+import android.widget.TextView;
+import android.widget.Toast;
+
+/**
+ * Debug screen showing the timings recorded by {@link Metrics}, with actions to clear them and
+ * to write a snapshot of them to a file or to the log. Reached from the settings.
+ */
+public class MetricsActivity extends Activity {
+
+	private static final String TAG = "BalancePadMetrics";
+
+	/**
+	 * File in the private files of the application that snapshots are appended to
+	 */
+	static final String METRICS_FILE = "metrics.txt";
+
+	private TextView mText;
+
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		setContentView(R.layout.metrics);
+		setTitle(R.string.metrics_title);
+
+		mText = (TextView) findViewById(R.id.metrics_text);
+
+		findViewById(R.id.metrics_reset).setOnClickListener(new View.OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				Metrics.reset();
+				showMetrics();
+			}
+		});
+		findViewById(R.id.metrics_write_file).setOnClickListener(new View.OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				try {
+					File file = dumpToFile(MetricsActivity.this);
+					Toast.makeText(MetricsActivity.this, getString(R.string.metrics_written, file.getPath()),
+							Toast.LENGTH_LONG).show();
+				} catch (IOException e) {
+					Log.e(TAG, "Writing the metrics failed", e);
+					Toast.makeText(MetricsActivity.this, e.toString(), Toast.LENGTH_LONG).show();
+				}
+			}
+		});
+		findViewById(R.id.metrics_write_log).setOnClickListener(new View.OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				dumpToLog();
+				Toast.makeText(MetricsActivity.this, R.string.metrics_logged, Toast.LENGTH_SHORT).show();
+			}
+		});
+	}
+
+	@Override
+	protected void onResume() {
+		super.onResume();
+		showMetrics();
+	}
+
+	private void showMetrics() {
+		StringWriter text = new StringWriter();
+		if (!Metrics.isEnabled()) {
+			text.write(getString(R.string.metrics_disabled));
+			text.write("\n\n");
+		}
+		try {
+			Metrics.dump(text);
+		} catch (IOException e) {
+			// not thrown by StringWriter
+		}
+		mText.setText(text.toString());
+	}
+
+	/**
+	 * Appends a snapshot of the timings, headed by the current time, to {@link #METRICS_FILE}
+	 *
+	 * @return the file written to
+	 * @throws IOException if writing fails
+	 */
+	static File dumpToFile(Context context) throws IOException {
+		Writer out = new OutputStreamWriter(context.openFileOutput(METRICS_FILE, Context.MODE_APPEND), "UTF-8");
+		try {
+			out.write("# " + new Date() + "\n");
+			Metrics.dump(out);
+			out.write("\n");
+		} finally {
+			out.close();
+		}
+		return context.getFileStreamPath(METRICS_FILE);
+	}
+
+	/**
+	 * Writes a snapshot of the timings to the log, one line per operation
+	 */
+	static void dumpToLog() {
+		StringWriter text = new StringWriter();
+		try {
+			Metrics.dump(text);
+			BufferedReader lines = new BufferedReader(new StringReader(text.toString()));
+			for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+				Log.i(TAG, line);
+			}
+		} catch (IOException e) {
+			// not thrown by StringWriter and StringReader
+		}
+	}
+}
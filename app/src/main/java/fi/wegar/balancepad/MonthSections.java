@@ -0,0 +1,110 @@
+package fi.wegar.balancepad;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+
+import android.database.Cursor;
+
+/**
+ * The months of the entry list as sections for the fast scroller, newest first. The position of
+ * the first entry of every month is summed up once from the entry count of each month, so the
+ * position of a month is an array lookup and the month of a position a binary search, whether or
+ * not the entries have been loaded.
+ */
+final class MonthSections {
+
+	/**
+	 * No sections, for lists that are not in date order
+	 */
+	static final MonthSections NONE = new MonthSections(new String[0], new int[0], new long[0], 0);
+
+	private final String[] mLabels;
+	private final int[] mStarts;
+	// the first moment after each month, in milliseconds
+	private final long[] mEnds;
+	private final int mCount;
+
+	private MonthSections(String[] labels, int[] starts, long[] ends, int count) {
+		mLabels = labels;
+		mStarts = starts;
+		mEnds = ends;
+		mCount = count;
+	}
+
+	/**
+	 * Reads the sections from the result of {@link BalanceDbAdapter#fetchMonthCounts(EntryFilter)}
+	 * and closes it
+	 *
+	 * @param counts the month (yyyy-MM) and entry_count of every month, newest first
+	 */
+	static MonthSections read(Cursor counts) {
+		try {
+			int months = counts.getCount();
+			String[] labels = new String[months];
+			int[] starts = new int[months];
+			long[] ends = new long[months];
+			SimpleDateFormat format = new SimpleDateFormat("MMM yyyy");
+			Calendar calendar = Calendar.getInstance();
+			calendar.clear();
+
+			int position = 0;
+			for (int i = 0; counts.moveToNext(); i++) {
+				String month = counts.getString(0);
+				calendar.set(Integer.parseInt(month.substring(0, 4)), Integer.parseInt(month.substring(5, 7)) - 1, 1);
+				labels[i] = format.format(calendar.getTime());
+				starts[i] = position;
+				position += counts.getInt(1);
+				calendar.add(Calendar.MONTH, 1);
+				ends[i] = calendar.getTimeInMillis();
+			}
+			return new MonthSections(labels, starts, ends, position);
+		} finally {
+			counts.close();
+		}
+	}
+
+	/**
+	 * @return the month labels, such as "Mar 2024"
+	 */
+	Object[] labels() {
+		return mLabels;
+	}
+
+	/**
+	 * @return number of entries in all months
+	 */
+	int count() {
+		return mCount;
+	}
+
+	/**
+	 * @param section index of a month, values out of range are taken as the nearest month
+	 * @return position of the first entry of the month in the list, 0 if there are no sections
+	 */
+	int positionOf(int section) {
+		if (mStarts.length == 0) {
+			return 0;
+		}
+		return mStarts[Math.max(0, Math.min(section, mStarts.length - 1))];
+	}
+
+	/**
+	 * @param section index of a month
+	 * @return the first moment after the month in local time, in milliseconds; the entries of
+	 *         the month and the older ones are those dated before it
+	 */
+	long endOf(int section) {
+		return mEnds[section];
+	}
+
+	/**
+	 * @param position a position in the list
+	 * @return index of the month of the entry at the position, 0 if there are no sections
+	 */
+	int sectionOf(int position) {
+		int found = Arrays.binarySearch(mStarts, position);
+		// between two starts the month is the one starting before the position
+		return Math.max(0, found >= 0 ? found : -found - 2);
+	}
+}
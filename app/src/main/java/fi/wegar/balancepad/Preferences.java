@@ -1,16 +1,25 @@
 package fi.wegar.balancepad;
 
+import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.os.Bundle;
 import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceActivity;
+import android.preference.PreferenceManager;
 import android.preference.Preference.OnPreferenceChangeListener;
 
 public class Preferences extends PreferenceActivity implements OnSharedPreferenceChangeListener{
 
 	public static final String KEY_DEFAULT_CURRENCY_PREFERENCE = "default_currency";
+	public static final String KEY_METRICS_PREFERENCE = "metrics_enabled";
+	public static final String KEY_ARCHIVE_PREFERENCE = "archive_after_months";
+	// not shown in the settings, the ledger is chosen above the list of entries
+	public static final String KEY_LEDGER_PREFERENCE = "ledger";
+	
+	// months after which entries are archived unless the user has chosen otherwise
+	private static final String DEFAULT_ARCHIVE_AFTER_MONTHS = "24";
 	
 	private ListPreference mDefaultCurrency;
 	
@@ -27,6 +36,37 @@ public class Preferences extends PreferenceActivity implements OnSharedPreferenc
 	    
     }
     
+    /**
+     * @return true if the user has turned on recording the timings shown by {@link MetricsActivity}
+     */
+    static boolean isMetricsEnabled(Context context) {
+    	return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(KEY_METRICS_PREFERENCE, false);
+    }
+
+    /**
+     * @return the age in months after which entries are moved to the archive, 0 to never archive
+     */
+    static int getArchiveAfterMonths(Context context) {
+    	return Integer.parseInt(PreferenceManager.getDefaultSharedPreferences(context)
+    			.getString(KEY_ARCHIVE_PREFERENCE, DEFAULT_ARCHIVE_AFTER_MONTHS));
+    }
+
+    /**
+     * @return id of the ledger chosen last, see {@link BalanceDbAdapter#setLedger(long)}
+     */
+    static long getLedger(Context context) {
+    	return PreferenceManager.getDefaultSharedPreferences(context).getLong(KEY_LEDGER_PREFERENCE,
+    			Ledgers.DEFAULT_LEDGER);
+    }
+
+    /**
+     * Remembers the chosen ledger, so the database is opened on it next time
+     */
+    static void setLedger(Context context, long ledgerId) {
+    	PreferenceManager.getDefaultSharedPreferences(context).edit().putLong(KEY_LEDGER_PREFERENCE, ledgerId)
+    			.commit();
+    }
+
     /**
      * Set initial values for summaries and register a listener to the preferences so the values will be updated.
      */
@@ -65,6 +105,9 @@ public class Preferences extends PreferenceActivity implements OnSharedPreferenc
 		else if (key.equals(KEY_DEFAULT_CURRENCY_PREFERENCE)) {
 			mDefaultCurrency.setSummary( getString(R.string.current_value_is)+" " + sharedPreferences.getString(key, "") ); 
 		}
+		else if (key.equals(KEY_METRICS_PREFERENCE)) {
+			Metrics.setEnabled(sharedPreferences.getBoolean(key, false));
+		}
 		
 	}
     
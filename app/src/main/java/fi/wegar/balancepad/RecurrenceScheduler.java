@@ -0,0 +1,158 @@
+package fi.wegar.balancepad;
+
+import java.util.Calendar;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Schema of the recurring entries and the scheduler that turns their occurrences into entries.
+ * A rule keeps how many occurrences have been written and the date of the next one. Occurrences
+ * are only written once their date has come, a batch at a time: each batch inserts the entries
+ * and advances the rules in one transaction, so a batch that fails or is interrupted is written
+ * again in full by the next run and never twice. The entries of a rule go to the ledger the rule
+ * was made in, whichever ledger is shown when they come due.
+ */
+final class RecurrenceScheduler {
+
+	static final String TABLE = "recurrence";
+
+	static final String KEY_FREQUENCY = "frequency";
+	static final String KEY_START_DATE = "start_date";
+	static final String KEY_END_DATE = "end_date";
+	static final String KEY_GENERATED_COUNT = "generated_count";
+	static final String KEY_LAST_DATE = "last_date";
+	static final String KEY_NEXT_DATE = "next_date";
+
+	/**
+	 * end_date is 0 for rules without an end, next_date is {@link Recurrence#NO_NEXT} once the
+	 * rule has ended
+	 */
+	private static final String TABLE_CREATE =
+		"create table " + TABLE + " (_id integer primary key autoincrement, "
+		+ "description text not null, amount integer not null, "
+		+ "currency_id integer not null references " + CurrencyCache.TABLE + " (_id), "
+		+ "frequency integer not null, start_date integer not null, end_date integer not null default 0, "
+		+ "generated_count integer not null default 0, last_date integer not null default 0, "
+		+ "next_date integer not null, ledger_id integer not null default " + Ledgers.DEFAULT_LEDGER
+		+ " references " + Ledgers.TABLE + " (_id));";
+
+	/**
+	 * Finds the due rules without reading the ones that are not
+	 */
+	private static final String NEXT_DATE_INDEX_CREATE =
+		"create index recurrence_next_date_idx on " + TABLE + " (next_date);";
+
+	private static final String[] RULE_COLUMNS = new String[] {BalanceDbAdapter.KEY_ROWID,
+		BalanceDbAdapter.KEY_DESCRIPTION, BalanceDbAdapter.KEY_AMOUNT, BalanceDbAdapter.KEY_CURRENCY_ID,
+		KEY_FREQUENCY, KEY_START_DATE, KEY_END_DATE, KEY_GENERATED_COUNT, KEY_NEXT_DATE,
+		BalanceDbAdapter.KEY_LEDGER_ID};
+
+	private static final String INSERT_ENTRY_SQL = "insert into " + BalanceDbAdapter.DATABASE_TABLE
+		+ " (" + BalanceDbAdapter.KEY_DESCRIPTION + ", " + BalanceDbAdapter.KEY_AMOUNT + ", "
+		+ BalanceDbAdapter.KEY_CURRENCY_ID + ", " + BalanceDbAdapter.KEY_EVENT_DATE + ", "
+		+ BalanceDbAdapter.KEY_LEDGER_ID + ") values (?, ?, ?, ?, ?)";
+
+	private static final String ADVANCE_SQL = "update " + TABLE + " set " + KEY_GENERATED_COUNT + " = ?, "
+		+ KEY_LAST_DATE + " = ?, " + KEY_NEXT_DATE + " = ? where _id = ?";
+
+	private RecurrenceScheduler() {
+	}
+
+	static void create(SQLiteDatabase db) {
+		db.execSQL(TABLE_CREATE);
+		db.execSQL(NEXT_DATE_INDEX_CREATE);
+	}
+
+	/**
+	 * Adds the ledger column to a table created before there were ledgers, the rules then
+	 * belong to the default ledger
+	 */
+	static void addLedgers(SQLiteDatabase db) {
+		db.execSQL("alter table " + TABLE + " add column ledger_id integer not null default "
+				+ Ledgers.DEFAULT_LEDGER + " references " + Ledgers.TABLE + " (_id)");
+	}
+
+	/**
+	 * Adds a rule whose first occurrence has already been written as an entry
+	 *
+	 * @param frequency one of the frequencies of {@link Recurrence}
+	 * @param startDate date of the first occurrence
+	 * @param endDate date of the last possible occurrence, 0 for none
+	 * @param ledgerId the ledger the occurrences are written to
+	 * @return rowId of the rule, or -1 if it could not be added
+	 */
+	static long insert(SQLiteDatabase db, String description, long amount, int currencyId, int frequency,
+			long startDate, long endDate, long ledgerId) {
+		ContentValues values = new ContentValues();
+		values.put(BalanceDbAdapter.KEY_DESCRIPTION, description);
+		values.put(BalanceDbAdapter.KEY_AMOUNT, amount);
+		values.put(BalanceDbAdapter.KEY_CURRENCY_ID, currencyId);
+		values.put(KEY_FREQUENCY, frequency);
+		values.put(KEY_START_DATE, startDate);
+		values.put(KEY_END_DATE, endDate);
+		values.put(KEY_GENERATED_COUNT, 1);
+		values.put(KEY_LAST_DATE, startDate);
+		values.put(KEY_NEXT_DATE, Recurrence.occurrenceBefore(startDate, frequency, 1, endDate, Calendar.getInstance()));
+		values.put(BalanceDbAdapter.KEY_LEDGER_ID, ledgerId);
+		return db.insert(TABLE, null, values);
+	}
+
+	/**
+	 * Writes the occurrences dated up to now of every rule as entries, at most limit of them.
+	 * Rules are served in the order of their next occurrence, so a rule that has not run for a
+	 * long time cannot keep the others waiting past one batch.
+	 *
+	 * @param now occurrences dated after this are left for later runs
+	 * @param limit maximum number of entries to write
+	 * @return number of entries written, if it is limit more may be due
+	 */
+	static int materialise(SQLiteDatabase db, long now, int limit) {
+		Calendar calendar = Calendar.getInstance();
+		int written = 0;
+
+		db.beginTransaction();
+		SQLiteStatement insert = db.compileStatement(INSERT_ENTRY_SQL);
+		SQLiteStatement advance = db.compileStatement(ADVANCE_SQL);
+		Cursor rules = db.query(TABLE, RULE_COLUMNS, KEY_NEXT_DATE + " <= ?", new String[] {Long.toString(now)},
+				null, null, KEY_NEXT_DATE, Integer.toString(limit));
+		try {
+			while (written < limit && rules.moveToNext()) {
+				long startDate = rules.getLong(5);
+				int frequency = rules.getInt(4);
+				long endDate = rules.getLong(6);
+				int count = rules.getInt(7);
+				long date = rules.getLong(8);
+				long last = 0;
+
+				insert.bindString(1, rules.getString(1));
+				insert.bindLong(2, rules.getLong(2));
+				insert.bindLong(3, rules.getInt(3));
+				insert.bindLong(5, rules.getLong(9));
+				while (date <= now && written < limit) {
+					insert.bindLong(4, date);
+					insert.executeInsert();
+					written++;
+					last = date;
+					count++;
+					date = Recurrence.occurrenceBefore(startDate, frequency, count, endDate, calendar);
+				}
+
+				advance.bindLong(1, count);
+				advance.bindLong(2, last);
+				advance.bindLong(3, date);
+				advance.bindLong(4, rules.getLong(0));
+				advance.execute();
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			rules.close();
+			insert.close();
+			advance.close();
+			db.endTransaction();
+		}
+		return written;
+	}
+}
@@ -0,0 +1,134 @@
+package fi.wegar.balancepad;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * The one open {@link BalanceDbAdapter} of the process, shared by the activities and counted by
+ * reference. The database is opened, and upgraded if need be, on the database thread of
+ * {@link DbWorker}, so an activity can show its views at once and hand its queries to the same
+ * thread, where they run after the open. It is closed on that thread too, once nothing has held
+ * it for {@link #CLOSE_DELAY_MILLIS}, so going from one activity to another or turning the
+ * screen does not close and reopen it.
+ */
+final class SharedDatabase {
+
+	/**
+	 * Time the database is kept open after the last reference is released
+	 */
+	static final long CLOSE_DELAY_MILLIS = 10000;
+
+	private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+	private static final Runnable sCloseRunnable = new Runnable() {
+		@Override
+		public void run() {
+			closeIfUnused();
+		}
+	};
+
+	// the open that the current references share, null while the database is closed; guarded by the class
+	private static Future<BalanceDbAdapter> sOpen;
+	private static int sReferences;
+
+	private SharedDatabase() {
+	}
+
+	/**
+	 * Starts opening the database in the background without holding it, for the start of the
+	 * application
+	 */
+	static synchronized void prepare(Context context) {
+		open(context);
+	}
+
+	/**
+	 * Holds the database until {@link #release()} is called, opening it unless it is open
+	 *
+	 * @return the open adapter, available to tasks queued with {@link DbWorker} without waiting
+	 */
+	static synchronized Future<BalanceDbAdapter> acquire(Context context) {
+		sReferences++;
+		sMainHandler.removeCallbacks(sCloseRunnable);
+		return open(context);
+	}
+
+	/**
+	 * Releases a reference taken with {@link #acquire(Context)}. The database is closed a while
+	 * after the last one, after the work queued until then.
+	 */
+	static synchronized void release() {
+		if (sReferences <= 0) {
+			throw new IllegalStateException("Database released more often than acquired");
+		}
+		if (--sReferences == 0) {
+			sMainHandler.postDelayed(sCloseRunnable, CLOSE_DELAY_MILLIS);
+		}
+	}
+
+	/**
+	 * Queues a close of the database behind the work already queued. The database stays open if
+	 * it has been acquired again by the time the close runs.
+	 *
+	 * @return the queued close
+	 */
+	static Future<Boolean> closeIfUnused() {
+		return DbWorker.submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				Future<BalanceDbAdapter> open;
+				synchronized (SharedDatabase.class) {
+					if (sReferences > 0 || sOpen == null) {
+						return false;
+					}
+					open = sOpen;
+					sOpen = null;
+				}
+				// runs after the open, so this does not wait
+				await(open).close();
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * Gets the adapter of an open started by {@link #acquire(Context)}, waiting for the open
+	 * unless called on the database thread after it
+	 *
+	 * @throws IllegalStateException if the database could not be opened
+	 */
+	static BalanceDbAdapter await(Future<BalanceDbAdapter> open) {
+		try {
+			return open.get();
+		} catch (ExecutionException e) {
+			synchronized (SharedDatabase.class) {
+				// the next acquire tries again
+				if (sOpen == open) {
+					sOpen = null;
+				}
+			}
+			throw new IllegalStateException("Cannot open the database", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while opening the database", e);
+		}
+	}
+
+	private static Future<BalanceDbAdapter> open(Context context) {
+		if (sOpen == null) {
+			final Context appContext = context.getApplicationContext();
+			sOpen = DbWorker.submit(new Callable<BalanceDbAdapter>() {
+				@Override
+				public BalanceDbAdapter call() {
+					return new BalanceDbAdapter(appContext).open();
+				}
+			});
+		}
+		return sOpen;
+	}
+}
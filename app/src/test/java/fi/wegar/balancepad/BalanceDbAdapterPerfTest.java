@@ -0,0 +1,615 @@
+package fi.wegar.balancepad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.SQLiteMode;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Latency budgets of the database operations, measured against a generated ledger with the
+ * real SQLite library. The size of the ledger is set with the balancepad.perf.rows system
+ * property, the results are written by {@link PerfReport}.
+ *
+ * The budgets are for the 95th percentile on a development machine and are meant to catch
+ * regressions such as a lost index or a query that starts scanning, not to predict the
+ * latency on a device. A page of the list takes a fraction of a millisecond, so its tail is
+ * all pauses of the test JVM and the page is held to a budget for the median instead.
+ */
+@RunWith(RobolectricTestRunner.class)
+@SQLiteMode(SQLiteMode.Mode.NATIVE)
+public class BalanceDbAdapterPerfTest {
+
+	private static final String[] CURRENCIES = new String[] {"EUR", "EUR", "EUR", "USD", "SEK", "JPY"};
+	private static final String[] WORDS = new String[] {"groceries", "rent", "salary", "coffee",
+			"train", "books", "dentist", "insurance", "gift", "lunch", "fuel", "phone"};
+
+	private static final int SAMPLES = 500;
+	private static final int PAGE_SIZE = BalanceDbAdapter.DEFAULT_PAGE_SIZE;
+
+	private static final double CREATE_BUDGET_MS = 20;
+	private static final double UPDATE_BUDGET_MS = 20;
+	private static final double DELETE_BUDGET_MS = 20;
+	private static final double FETCH_BUDGET_MS = 5;
+	private static final double PAGE_BUDGET_MS = 1;
+	private static final double UPGRADE_BUDGET_MS_PER_1000_ROWS = 250;
+	private static final double MATERIALISE_BUDGET_MS = 250;
+	private static final double ARCHIVE_BUDGET_MS = 250;
+	private static final double OPEN_BUDGET_MS = 250;
+	private static final double ACQUIRE_BUDGET_MS = 1;
+	private static final double BACKUP_BUDGET_MS_PER_1000_ROWS = 100;
+	private static final double RESTORE_BUDGET_MS_PER_1000_ROWS = 250;
+	// entering the ledger one entry at a time, the baseline of the restore
+	private static final double REPLAY_BUDGET_MS_PER_1000_ROWS = 5000;
+	private static final double BACKUP_BYTES_PER_ROW = 16;
+	private static final double SECTIONS_BUDGET_MS = 25;
+	private static final double FILTERED_SECTIONS_BUDGET_MS = 250;
+	private static final double JUMP_BUDGET_MS = 5;
+
+	private static final int RECURRENCE_DAYS = 180;
+	private static final int RECURRENCE_BATCH_SIZE = 500;
+	private static final int ARCHIVE_BATCH_SIZE = 500;
+	private static final int OPEN_SAMPLES = 20;
+
+	// operations of the mixed benchmark per entry of the ledger, 100k at the default size
+	private static final int MIXED_OPERATIONS_PER_ROW = 10;
+
+	private static final PerfReport sReport = new PerfReport("BalanceDbAdapterPerfTest", PerfReport.rows());
+
+	private final Random mRandom = new Random(42);
+	private Context mContext;
+	private BalanceDbAdapter mDbHelper;
+	private int mRows;
+	private long mFirstRowId;
+
+	@Before
+	public void setUp() {
+		mContext = RuntimeEnvironment.getApplication();
+		mRows = PerfReport.rows();
+	}
+
+	@After
+	public void tearDown() {
+		if (mDbHelper != null) {
+			mDbHelper.close();
+		}
+	}
+
+	@Test
+	public void createEntry() throws IOException {
+		generateLedger();
+
+		Latencies latencies = new Latencies();
+		for (int i = 0; i < SAMPLES; i++) {
+			String currency = randomCurrency();
+			long amount = randomAmount();
+			Date date = randomDate();
+			latencies.start();
+			long rowId = mDbHelper.createEntry("New entry " + i, amount, currency, date);
+			latencies.stop();
+			assertTrue(rowId > 0);
+		}
+
+		sReport.check("createEntry", latencies, 95, CREATE_BUDGET_MS);
+		assertTrue(mDbHelper.verifyTotals());
+	}
+
+	@Test
+	public void updateEntry() throws IOException {
+		generateLedger();
+
+		Latencies latencies = new Latencies();
+		for (int i = 0; i < SAMPLES; i++) {
+			long rowId = randomRowId();
+			String currency = randomCurrency();
+			long amount = randomAmount();
+			Date date = randomDate();
+			latencies.start();
+			boolean updated = mDbHelper.updateEntry(rowId, "Updated entry " + i, amount, currency, date);
+			latencies.stop();
+			assertTrue(updated);
+		}
+
+		sReport.check("updateEntry", latencies, 95, UPDATE_BUDGET_MS);
+		assertTrue(mDbHelper.verifyTotals());
+	}
+
+	@Test
+	public void deleteEntry() throws IOException {
+		generateLedger();
+
+		Latencies latencies = new Latencies();
+		int samples = Math.min(SAMPLES, mRows);
+		int step = mRows / samples;
+		for (int i = 0; i < samples; i++) {
+			long rowId = mFirstRowId + i * step;
+			latencies.start();
+			boolean deleted = mDbHelper.deleteEntry(rowId);
+			latencies.stop();
+			assertTrue(deleted);
+		}
+
+		sReport.check("deleteEntry", latencies, 95, DELETE_BUDGET_MS);
+		assertTrue(mDbHelper.verifyTotals());
+	}
+
+	@Test
+	public void fetchEntry() throws IOException {
+		generateLedger();
+
+		Latencies latencies = new Latencies();
+		for (int i = 0; i < SAMPLES * 2; i++) {
+			long rowId = randomRowId();
+			latencies.start();
+			BalanceEntry entry = mDbHelper.readEntry(rowId);
+			latencies.stop();
+			assertEquals(rowId, entry.rowId);
+		}
+
+		sReport.check("fetchEntry", latencies, 95, FETCH_BUDGET_MS);
+	}
+
+	@Test
+	public void fullList() throws IOException {
+		generateLedger();
+
+		// the first pass warms up the page cache and the JIT
+		assertEquals(mRows, readList(new Latencies()));
+
+		Latencies latencies = new Latencies();
+		assertEquals(mRows, readList(latencies));
+		sReport.check("fullListPage", latencies, 50, PAGE_BUDGET_MS);
+	}
+
+	@Test
+	public void monthSections() throws IOException {
+		generateLedger();
+		Calendar yearAgo = Calendar.getInstance();
+		yearAgo.add(Calendar.YEAR, -1);
+		EntryFilter filter = new EntryFilter().setCurrency("USD").setDateRange(yearAgo.getTimeInMillis(), Long.MAX_VALUE);
+
+		Latencies all = new Latencies();
+		Latencies filtered = new Latencies();
+		MonthSections sections = null;
+		for (int i = 0; i < OPEN_SAMPLES; i++) {
+			all.start();
+			sections = MonthSections.read(mDbHelper.fetchMonthCounts(null));
+			all.stop();
+
+			filtered.start();
+			MonthSections.read(mDbHelper.fetchMonthCounts(filter));
+			filtered.stop();
+		}
+		assertEquals(mRows, sections.count());
+		sReport.check("monthSections", all, 50, SECTIONS_BUDGET_MS);
+		sReport.check("filteredMonthSections", filtered, 50, FILTERED_SECTIONS_BUDGET_MS);
+
+		// the fast scroller jumping from the first page to a month seeks to the month, whichever it is
+		Latencies jump = new Latencies();
+		int months = sections.labels().length;
+		for (int i = 0; i < OPEN_SAMPLES; i++) {
+			int section = i % 2 == 0 ? months - 1 : mRandom.nextInt(months);
+			jump.start();
+			Cursor month = mDbHelper.fetchEntriesPageBefore(null, sections.endOf(section), PAGE_SIZE);
+			try {
+				assertEquals(Math.min(PAGE_SIZE, mRows - sections.positionOf(section)), month.getCount());
+				jump.stop();
+			} finally {
+				month.close();
+			}
+		}
+		sReport.check("jumpToMonth", jump, 50, JUMP_BUDGET_MS);
+	}
+
+	@Test
+	public void upgradeFromVersion1() throws IOException {
+		createVersion1Database();
+
+		Latencies latencies = new Latencies();
+		latencies.start();
+		mDbHelper = new BalanceDbAdapter(mContext).open();
+		latencies.stop();
+
+		sReport.check("upgradeFromVersion1", latencies, 95, UPGRADE_BUDGET_MS_PER_1000_ROWS * mRows / 1000);
+
+		Cursor totals = mDbHelper.fetchCurrencyTotals();
+		try {
+			assertEquals(1, totals.getCount());
+			totals.moveToFirst();
+			assertEquals("EUR", totals.getString(totals.getColumnIndexOrThrow(BalanceDbAdapter.KEY_CURRENCY)));
+			assertEquals(mRows, totals.getInt(totals.getColumnIndexOrThrow(BalanceTotals.KEY_ENTRY_COUNT)));
+		} finally {
+			totals.close();
+		}
+		assertTrue(mDbHelper.verifyTotals());
+
+		// the first row was written as 12.34 and is now in cents
+		BalanceEntry first = mDbHelper.readEntry(1);
+		assertEquals(1234, first.amount);
+		assertEquals("EUR", first.currency);
+	}
+
+	@Test
+	public void materialiseRecurrences() throws IOException {
+		mDbHelper = new BalanceDbAdapter(mContext).open();
+
+		// daily rules that started half a year ago and were never caught up, about mRows entries
+		int rules = Math.max(1, mRows / (RECURRENCE_DAYS - 1));
+		Calendar calendar = Calendar.getInstance();
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		calendar.add(Calendar.DAY_OF_YEAR, -(RECURRENCE_DAYS - 1));
+		for (int i = 0; i < rules; i++) {
+			assertTrue(mDbHelper.createRecurrence(randomDescription(), randomAmount(), randomCurrency(),
+					Recurrence.DAILY, calendar.getTimeInMillis(), 0) > 0);
+		}
+
+		long now = System.currentTimeMillis();
+		Latencies latencies = new Latencies();
+		int created = 0;
+		int batch;
+		do {
+			latencies.start();
+			batch = mDbHelper.materialiseRecurrences(now, RECURRENCE_BATCH_SIZE);
+			latencies.stop();
+			created += batch;
+		} while (batch == RECURRENCE_BATCH_SIZE);
+
+		sReport.check("materialiseRecurrencesBatch", latencies, 95, MATERIALISE_BUDGET_MS);
+
+		// the first occurrence is the entry the rule was made from, so it is not created again
+		assertEquals(rules * (RECURRENCE_DAYS - 1), created);
+		assertEquals(0, mDbHelper.materialiseRecurrences(now, RECURRENCE_BATCH_SIZE));
+		assertTrue(mDbHelper.verifyTotals());
+	}
+
+	@Test
+	public void archiveEntries() throws IOException {
+		generateLedger();
+		Calendar cutoff = Calendar.getInstance();
+		cutoff.add(Calendar.YEAR, -2);
+
+		Latencies latencies = new Latencies();
+		int archived = 0;
+		int batch;
+		do {
+			latencies.start();
+			batch = mDbHelper.archiveEntries(cutoff.getTimeInMillis(), ARCHIVE_BATCH_SIZE);
+			latencies.stop();
+			archived += batch;
+		} while (batch == ARCHIVE_BATCH_SIZE);
+
+		sReport.check("archiveEntriesBatch", latencies, 95, ARCHIVE_BUDGET_MS);
+		assertTrue(archived > 0);
+		assertEquals(0, mDbHelper.archiveEntries(cutoff.getTimeInMillis(), ARCHIVE_BATCH_SIZE));
+		assertTrue(mDbHelper.verifyTotals());
+
+		// the list runs on into the archive in order, and the recent pages stay within budget
+		assertEquals(mRows, readList(new Latencies()));
+		latencies = new Latencies();
+		assertEquals(mRows, readList(latencies));
+		sReport.check("archivedListPage", latencies, 50, PAGE_BUDGET_MS);
+
+		// the oldest entry is archived, yet it is found, and changing or deleting it moves it back
+		BalanceEntry entry = findOldestEntry();
+		assertTrue(entry.eventDate < cutoff.getTimeInMillis());
+		assertEquals(entry.rowId, mDbHelper.readEntry(entry.rowId).rowId);
+		assertTrue(mDbHelper.updateEntry(entry.rowId, "archived " + entry.description, entry.amount + 1,
+				entry.currency, new Date(entry.eventDate)));
+		assertEquals(entry.amount + 1, mDbHelper.readEntry(entry.rowId).amount);
+		Cursor found = mDbHelper.searchEntries("archived", 10);
+		assertEquals(1, found.getCount());
+		found.close();
+		assertTrue(mDbHelper.verifyTotals());
+
+		assertTrue(mDbHelper.deleteEntry(entry.rowId));
+		assertEquals(null, mDbHelper.readEntry(entry.rowId));
+		assertTrue(mDbHelper.verifyTotals());
+	}
+
+	/**
+	 * The single entry operations of the editor and the list in a random mix, 40% reads, 25%
+	 * updates, 20% creates and 15% deletes, each timed on its own
+	 */
+	@Test
+	public void mixedOperations() throws IOException {
+		generateLedger();
+
+		long[] live = new long[mRows * 2];
+		int liveCount = mRows;
+		for (int i = 0; i < mRows; i++) {
+			live[i] = mFirstRowId + i;
+		}
+
+		Latencies creates = new Latencies();
+		Latencies fetches = new Latencies();
+		Latencies updates = new Latencies();
+		Latencies deletes = new Latencies();
+		int operations = mRows * MIXED_OPERATIONS_PER_ROW;
+		for (int i = 0; i < operations; i++) {
+			int kind = mRandom.nextInt(100);
+			int index = mRandom.nextInt(liveCount);
+			long rowId = live[index];
+			if (kind < 40) {
+				fetches.start();
+				BalanceEntry entry = mDbHelper.readEntry(rowId);
+				fetches.stop();
+				assertEquals(rowId, entry.rowId);
+			} else if (kind < 65) {
+				String currency = randomCurrency();
+				long amount = randomAmount();
+				Date date = randomDate();
+				updates.start();
+				boolean updated = mDbHelper.updateEntry(rowId, "Updated entry " + i, amount, currency, date);
+				updates.stop();
+				assertTrue(updated);
+			} else if (kind < 85 || liveCount == 1) {
+				String currency = randomCurrency();
+				long amount = randomAmount();
+				Date date = randomDate();
+				creates.start();
+				long created = mDbHelper.createEntry("New entry " + i, amount, currency, date);
+				creates.stop();
+				assertTrue(created > 0);
+				if (liveCount == live.length) {
+					long[] grown = new long[live.length * 2];
+					System.arraycopy(live, 0, grown, 0, liveCount);
+					live = grown;
+				}
+				live[liveCount++] = created;
+			} else {
+				deletes.start();
+				boolean deleted = mDbHelper.deleteEntry(rowId);
+				deletes.stop();
+				assertTrue(deleted);
+				live[index] = live[--liveCount];
+			}
+		}
+
+		sReport.check("mixedFetchEntry", fetches, 95, FETCH_BUDGET_MS);
+		sReport.check("mixedUpdateEntry", updates, 95, UPDATE_BUDGET_MS);
+		sReport.check("mixedCreateEntry", creates, 95, CREATE_BUDGET_MS);
+		sReport.check("mixedDeleteEntry", deletes, 95, DELETE_BUDGET_MS);
+		assertTrue(mDbHelper.verifyTotals());
+	}
+
+	@Test
+	public void openAtStartup() throws Exception {
+		generateLedger();
+		mDbHelper.close();
+		mDbHelper = null;
+
+		// what the activities did before the database was shared: open it on the main thread
+		Latencies blocking = new Latencies();
+		for (int i = 0; i < OPEN_SAMPLES; i++) {
+			blocking.start();
+			BalanceDbAdapter dbHelper = new BalanceDbAdapter(mContext).open();
+			blocking.stop();
+			dbHelper.close();
+		}
+		sReport.check("openOnMainThread", blocking, 95, OPEN_BUDGET_MS);
+
+		// the shared database keeps the main thread free while the open runs in the background
+		Latencies acquire = new Latencies();
+		Latencies open = new Latencies();
+		for (int i = 0; i < OPEN_SAMPLES; i++) {
+			open.start();
+			acquire.start();
+			Future<BalanceDbAdapter> database = SharedDatabase.acquire(mContext);
+			acquire.stop();
+			BalanceDbAdapter dbHelper = SharedDatabase.await(database);
+			open.stop();
+			assertTrue(dbHelper.isOpen());
+
+			SharedDatabase.release();
+			assertTrue(SharedDatabase.closeIfUnused().get());
+			assertTrue(!dbHelper.isOpen());
+		}
+		// as for a page, the tail is pauses of the test JVM
+		sReport.check("acquireOnMainThread", acquire, 50, ACQUIRE_BUDGET_MS);
+		sReport.check("sharedOpenInBackground", open, 95, OPEN_BUDGET_MS);
+	}
+
+	@Test
+	public void backupAndRestore() throws IOException {
+		Latencies replay = new Latencies();
+		replay.start();
+		generateLedger();
+		replay.stop();
+		String before = ledgerSums();
+
+		LedgerBackup ledgerBackup = new LedgerBackup(mDbHelper);
+		File file = File.createTempFile("ledger", ".backup");
+		try {
+			Latencies backup = new Latencies();
+			OutputStream out = new FileOutputStream(file);
+			try {
+				backup.start();
+				assertEquals(mRows, ledgerBackup.backup(out));
+				backup.stop();
+			} finally {
+				out.close();
+			}
+
+			Latencies restore = new Latencies();
+			restore.start();
+			assertEquals(mRows, ledgerBackup.restore(file));
+			restore.stop();
+
+			double scale = mRows / 1000.0;
+			sReport.check("replayLedger", replay, 100, REPLAY_BUDGET_MS_PER_1000_ROWS * scale);
+			sReport.check("backupLedger", backup, 100, BACKUP_BUDGET_MS_PER_1000_ROWS * scale);
+			sReport.check("restoreLedger", restore, 100, RESTORE_BUDGET_MS_PER_1000_ROWS * scale);
+			sReport.checkSize("backupSize", file.length(), BACKUP_BYTES_PER_ROW);
+			assertTrue(restore.totalMillis() < replay.totalMillis());
+		} finally {
+			file.delete();
+		}
+
+		assertEquals(before, ledgerSums());
+		assertTrue(mDbHelper.verifyTotals());
+	}
+
+	/**
+	 * Opens a new database and fills it with mRows entries spread over ten years
+	 */
+	private void generateLedger() {
+		mDbHelper = new BalanceDbAdapter(mContext).open();
+		SQLiteDatabase db = mDbHelper.getDatabase();
+		db.beginTransaction();
+		try {
+			for (int i = 0; i < mRows; i++) {
+				long rowId = mDbHelper.createEntry(randomDescription(), randomAmount(), randomCurrency(), randomDate());
+				if (i == 0) {
+					mFirstRowId = rowId;
+				}
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Reads every entry a page at a time the way the list does, checking the order
+	 *
+	 * @param latencies receives the time taken by each page
+	 * @return number of entries read
+	 */
+	private int readList(Latencies latencies) {
+		int read = 0;
+		long lastEventDate = Long.MAX_VALUE;
+		long lastRowId = Long.MAX_VALUE;
+		boolean more = true;
+		while (more) {
+			latencies.start();
+			Cursor page = read == 0 ? mDbHelper.fetchEntriesPage(PAGE_SIZE)
+					: mDbHelper.fetchEntriesPageAfter(lastEventDate, lastRowId, PAGE_SIZE);
+			try {
+				int dateColumn = page.getColumnIndexOrThrow(BalanceDbAdapter.KEY_EVENT_DATE);
+				int idColumn = page.getColumnIndexOrThrow(BalanceDbAdapter.KEY_ROWID);
+				while (page.moveToNext()) {
+					long eventDate = page.getLong(dateColumn);
+					long rowId = page.getLong(idColumn);
+					assertTrue(eventDate < lastEventDate || (eventDate == lastEventDate && rowId < lastRowId));
+					lastEventDate = eventDate;
+					lastRowId = rowId;
+					read++;
+				}
+				more = page.getCount() == PAGE_SIZE;
+			} finally {
+				page.close();
+			}
+			latencies.stop();
+		}
+		return read;
+	}
+
+	/**
+	 * @return a summary of every column of the entries, to compare a ledger before and after a change
+	 */
+	private String ledgerSums() {
+		Cursor c = mDbHelper.getDatabase().rawQuery("select count(*), sum(_id), sum(amount), sum(currency_id), "
+				+ "sum(event_date), sum(length(description)), sum(unicode(description)) from "
+				+ BalanceDbAdapter.DATABASE_TABLE + " where " + BalanceDbAdapter.NOT_DELETED, null);
+		try {
+			assertTrue(c.moveToFirst());
+			StringBuilder sums = new StringBuilder();
+			for (int i = 0; i < c.getColumnCount(); i++) {
+				sums.append(c.getLong(i)).append(' ');
+			}
+			return sums.toString();
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Reads the last entry of the list, the oldest one
+	 */
+	private BalanceEntry findOldestEntry() {
+		String[] columns = new String[] {BalanceDbAdapter.KEY_ROWID, BalanceDbAdapter.KEY_EVENT_DATE};
+		Cursor c = mDbHelper.getDatabase().rawQuery(BalanceArchive.unionQuery(columns, BalanceDbAdapter.NOT_DELETED,
+				null, BalanceDbAdapter.KEY_EVENT_DATE + " ASC", "1"), null);
+		try {
+			assertTrue(c.moveToFirst());
+			return mDbHelper.readEntry(c.getLong(0));
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Writes a database in the schema of the first release, with float amounts and no
+	 * currency column, for {@link BalanceDbAdapter} to upgrade when it is opened
+	 */
+	private void createVersion1Database() {
+		SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+				mContext.getDatabasePath(BalanceDbAdapter.DATABASE_NAME).getPath(), null);
+		try {
+			db.execSQL("create table balance (_id integer primary key autoincrement, "
+					+ "description text not null, amount float not null, event_date long not null);");
+			SQLiteStatement insert = db.compileStatement(
+					"insert into balance (description, amount, event_date) values (?, ?, ?)");
+			db.beginTransaction();
+			try {
+				for (int i = 0; i < mRows; i++) {
+					insert.bindString(1, randomDescription());
+					insert.bindDouble(2, i == 0 ? 12.34 : randomAmount() / 100.0);
+					insert.bindLong(3, randomDate().getTime());
+					insert.executeInsert();
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+				insert.close();
+			}
+			db.setVersion(1);
+		} finally {
+			db.close();
+		}
+	}
+
+	private String randomDescription() {
+		return WORDS[mRandom.nextInt(WORDS.length)] + " " + WORDS[mRandom.nextInt(WORDS.length)];
+	}
+
+	private String randomCurrency() {
+		return CURRENCIES[mRandom.nextInt(CURRENCIES.length)];
+	}
+
+	private long randomAmount() {
+		return mRandom.nextInt(200000) - 100000;
+	}
+
+	private Date randomDate() {
+		Calendar calendar = Calendar.getInstance();
+		calendar.add(Calendar.DAY_OF_YEAR, -mRandom.nextInt(10 * 365));
+		return calendar.getTime();
+	}
+
+	private long randomRowId() {
+		return mFirstRowId + mRandom.nextInt(mRows);
+	}
+}
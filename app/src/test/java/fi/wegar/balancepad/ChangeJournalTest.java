@@ -0,0 +1,377 @@
+package fi.wegar.balancepad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.SQLiteMode;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+
+/**
+ * Replication of the entries through the change journal to a {@link StandInServer} and back:
+ * the writes that are journaled, batches and tokens, last writer wins, compaction and the floor.
+ */
+@RunWith(RobolectricTestRunner.class)
+@SQLiteMode(SQLiteMode.Mode.NATIVE)
+public class ChangeJournalTest {
+
+	private static final int ENTRIES = 100;
+	// small batches, so that every sync takes several
+	private static final int BATCH = 7;
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+
+	private BalanceDbAdapter mDbHelper;
+	private StandInServer mServer;
+	private long[] mRowIds = new long[ENTRIES];
+	// the global ids of the same entries, which the server knows them by
+	private String[] mUids = new String[ENTRIES];
+	// what the app has sent to the server and read from it
+	private long mPushToken;
+	private long mPullToken;
+
+	@Before
+	public void setUp() {
+		mDbHelper = new BalanceDbAdapter(RuntimeEnvironment.getApplication()).open();
+		mServer = new StandInServer();
+		long tripId = mDbHelper.createLedger("Trip");
+
+		Calendar day = Calendar.getInstance();
+		day.add(Calendar.YEAR, -1);
+		for (int i = 0; i < ENTRIES; i++) {
+			mDbHelper.setLedger(i % 4 == 0 ? tripId : Ledgers.DEFAULT_LEDGER);
+			mRowIds[i] = mDbHelper.createEntry("entry " + i, i * 100L, i % 3 == 0 ? "USD" : "EUR",
+					day.getTimeInMillis(), i % 2 == 0 ? "Food" : null);
+			mUids[i] = uidOf(mRowIds[i]);
+			day.add(Calendar.DAY_OF_YEAR, 3);
+		}
+		mDbHelper.setLedger(Ledgers.DEFAULT_LEDGER);
+	}
+
+	@After
+	public void tearDown() {
+		mDbHelper.close();
+	}
+
+	@Test
+	public void everyWriteIsJournaled() {
+		push();
+		Calendar start = Calendar.getInstance();
+		start.add(Calendar.DAY_OF_YEAR, -2);
+		mDbHelper.createRecurrence("daily", 100, "EUR", Recurrence.DAILY, start.getTimeInMillis(), 0);
+		mDbHelper.materialiseRecurrences(System.currentTimeMillis(), 10);
+		assertTrue(mDbHelper.updateEntry(mRowIds[1], "updated", 1, "EUR", System.currentTimeMillis()));
+		ContentValues values = new ContentValues();
+		values.put(BalanceDbAdapter.KEY_CATEGORY, "Rent");
+		assertTrue(mDbHelper.updateEntry(mRowIds[2], values));
+		assertTrue(mDbHelper.deleteEntry(mRowIds[3]));
+		assertEquals(2, mDbHelper.deleteEntries(new long[] {mRowIds[4], mRowIds[5]}));
+		assertEquals(1, mDbHelper.restoreEntries(new long[] {mRowIds[5]}));
+		long created = mDbHelper.createEntry("created", 5, "SEK", System.currentTimeMillis(), null);
+
+		// the two recurring entries, five changed entries and the new one
+		List<EntryChange> changes = readChanges(mPushToken);
+		assertEquals(8, changes.size());
+		EntryChange last = changes.get(changes.size() - 1);
+		assertEquals(uidOf(created), last.uid);
+		assertEquals("SEK", last.currency);
+		for (EntryChange change : changes) {
+			assertEquals(change.uid.equals(mUids[3]) || change.uid.equals(mUids[4]), change.deleted);
+			if (change.uid.equals(mUids[2])) {
+				assertEquals("Rent", change.category);
+			}
+		}
+
+		push();
+		assertEquals(entries(), mServer.entries());
+	}
+
+	@Test
+	public void incrementalSyncSendsOnlyTheChanges() {
+		assertEquals(ENTRIES, push());
+		assertEquals(entries(), mServer.entries());
+		assertEquals(0, push());
+
+		// an entry changed twice is sent once, with its latest values
+		assertTrue(mDbHelper.updateEntry(mRowIds[10], "first", 1, "EUR", System.currentTimeMillis()));
+		assertTrue(mDbHelper.updateEntry(mRowIds[10], "second", 2, "EUR", System.currentTimeMillis()));
+		assertTrue(mDbHelper.deleteEntry(mRowIds[11]));
+		assertEquals(2, push());
+		assertEquals(entries(), mServer.entries());
+		assertFalse(mServer.entries().containsKey(mUids[11]));
+	}
+
+	@Test
+	public void archivedEntriesAreReplicated() {
+		Calendar cutoff = Calendar.getInstance();
+		cutoff.add(Calendar.MONTH, -6);
+		assertTrue(mDbHelper.archiveEntries(cutoff.getTimeInMillis(), ENTRIES) > 0);
+
+		// archiving changes nothing that is replicated
+		assertEquals(ENTRIES, push());
+		assertEquals(0, push());
+		assertTrue(mDbHelper.updateEntry(mRowIds[0], "archived", 1, "EUR", cutoff.getTimeInMillis() - DAY));
+		assertEquals(1, push());
+		assertEquals(entries(), mServer.entries());
+	}
+
+	@Test
+	public void laterWriterWins() {
+		push();
+		long now = System.currentTimeMillis();
+		assertTrue(mDbHelper.updateEntry(mRowIds[20], "here", 1, "EUR", now));
+		assertTrue(mDbHelper.updateEntry(mRowIds[22], "here", 2, "EUR", now));
+
+		// changes made on the server after those here win, those made before lose
+		mServer.edit(mUids[20], "there", 3, now + DAY);
+		mServer.edit(mUids[21], "there", 4, now + DAY);
+		mServer.edit(mUids[22], "stale", 5, now - DAY);
+		mServer.delete(mUids[23], now + DAY);
+		assertEquals(3, pull());
+		assertEquals("there", mDbHelper.readEntry(mRowIds[20]).description);
+		assertEquals("there", mDbHelper.readEntry(mRowIds[21]).description);
+		assertEquals("here", mDbHelper.readEntry(mRowIds[22]).description);
+		assertEquals(null, mDbHelper.readEntry(mRowIds[23]));
+		assertTrue(mDbHelper.verifyTotals());
+
+		// the applied changes are not sent back, the entry that lost is
+		List<EntryChange> changes = readChanges(mPushToken);
+		assertEquals(1, changes.size());
+		assertEquals(mUids[22], changes.get(0).uid);
+		push();
+		assertEquals(entries(), mServer.entries());
+		assertEquals(0, pull());
+	}
+
+	@Test
+	public void serverEntriesAreAddedAndRestored() {
+		push();
+		long now = System.currentTimeMillis();
+		assertTrue(mDbHelper.deleteEntry(mRowIds[30]));
+		mDbHelper.purgeDeletedEntries(now + DAY, ENTRIES);
+
+		// the server brings back the purged entry and adds one of its own in a new ledger
+		mServer.edit(mUids[30], "back", 30, now + DAY);
+		String uid = UUID.randomUUID().toString();
+		List<EntryChange> added = new ArrayList<EntryChange>();
+		added.add(new EntryChange(0, uid, now + DAY, "from the server", 7, "GBP", now, "Gifts", "Holiday"));
+		mServer.push(added);
+		assertEquals(2, pull());
+		assertEquals("back", mDbHelper.readEntry(rowIdOf(mUids[30])).description);
+		BalanceEntry entry = mDbHelper.readEntry(rowIdOf(uid));
+		assertEquals("GBP", entry.currency);
+		assertEquals("Gifts", entry.category);
+		assertTrue(mDbHelper.verifyTotals());
+
+		// the entries from the server have rowIds of their own here, a new entry a global id of its own
+		String next = uidOf(mDbHelper.createEntry("next", 1, "EUR", now, null));
+		assertFalse(next.equals(uid) || next.equals(mUids[30]));
+		assertEquals(1, push());
+		assertEquals(ENTRIES + 2, mServer.entries().size());
+		assertEquals(entries(), mServer.entries());
+	}
+
+	@Test
+	public void changesInUnknownCurrenciesAreSkipped() {
+		push();
+		long now = System.currentTimeMillis();
+		List<EntryChange> changes = new ArrayList<EntryChange>();
+		changes.add(new EntryChange(0, mUids[60], now + DAY, "in bitcoin", 150, "BTC", now, null, null));
+		changes.add(new EntryChange(0, UUID.randomUUID().toString(), now + DAY, "no currency", 1, null, now,
+				null, null));
+		mServer.push(changes);
+		mServer.edit(mUids[61], "still applied", 61, now + DAY);
+
+		// the rest of the batch is applied, the entry keeps its currency and none is added
+		assertEquals(1, pull());
+		assertEquals("entry 60", mDbHelper.readEntry(mRowIds[60]).description);
+		assertEquals("still applied", mDbHelper.readEntry(mRowIds[61]).description);
+		assertEquals(ENTRIES, entries().size());
+		assertEquals(0, DatabaseUtils.queryNumEntries(mDbHelper.getDatabase(), CurrencyCache.TABLE,
+				CurrencyCache.KEY_CODE + " = 'BTC'"));
+		assertTrue(mDbHelper.verifyTotals());
+
+		// a code that is not ISO 4217 is still shown
+		assertTrue(new EntryFormatter().formatAmount(150, "BTC").endsWith(" BTC"));
+	}
+
+	@Test
+	public void compactionKeepsTheJournalBounded() {
+		push();
+		long token = mPushToken;
+		for (int i = 0; i < 50; i++) {
+			assertTrue(mDbHelper.updateEntry(mRowIds[40], "edit " + i, i, "EUR", System.currentTimeMillis()));
+		}
+		// the row an edit supersedes is removed as the edit is journaled
+		assertEquals(ENTRIES, journalSize());
+		List<EntryChange> changes = readChanges(token);
+		assertEquals(1, changes.size());
+		assertEquals("edit 49", changes.get(0).description);
+		push();
+
+		// compaction checks every row once, and then only the rows written since
+		int checked = 0;
+		int batch;
+		do {
+			batch = mDbHelper.compactJournal(0, BATCH);
+			checked += batch;
+		} while (batch == BATCH);
+		assertEquals(ENTRIES, checked);
+		assertEquals(0, mDbHelper.compactJournal(0, BATCH));
+		assertTrue(mDbHelper.updateEntry(mRowIds[40], "edit 50", 50, "EUR", System.currentTimeMillis()));
+		assertEquals(1, mDbHelper.compactJournal(0, BATCH));
+		assertEquals(ENTRIES, journalSize());
+		assertEquals(0, mDbHelper.getJournalFloor());
+		push();
+
+		// the deletes of purged entries are kept until they expire, which raises the floor
+		assertTrue(mDbHelper.deleteEntry(mRowIds[41]));
+		mDbHelper.purgeDeletedEntries(System.currentTimeMillis() + DAY, ENTRIES);
+		assertEquals(0, mDbHelper.compactJournal(System.currentTimeMillis() - DAY, BATCH));
+		assertEquals(ENTRIES, journalSize());
+		assertEquals(0, mDbHelper.getJournalFloor());
+		assertEquals(1, mDbHelper.compactJournal(System.currentTimeMillis() + DAY, BATCH));
+		assertEquals(ENTRIES - 1, journalSize());
+		assertTrue(mDbHelper.getJournalFloor() > mPushToken);
+
+		// a replica that missed the delete starts over and drops the entry
+		push();
+		assertEquals(entries(), mServer.entries());
+		assertFalse(mServer.entries().containsKey(mUids[41]));
+	}
+
+	@Test
+	public void restoreStartsOver() throws IOException {
+		push();
+		File file = File.createTempFile("ledger", ".backup");
+		try {
+			LedgerBackup backup = new LedgerBackup(mDbHelper);
+			OutputStream out = new FileOutputStream(file);
+			try {
+				backup.backup(out);
+			} finally {
+				out.close();
+			}
+			assertTrue(mDbHelper.deleteEntry(mRowIds[50]));
+			push();
+			assertEquals(ENTRIES, backup.restore(file));
+		} finally {
+			file.delete();
+		}
+
+		// the backup holds no global ids, so the restored entries are new ones to the server
+		assertTrue(mPushToken < mDbHelper.getJournalFloor());
+		push();
+		assertEquals(entries(), mServer.entries());
+		assertEquals(ENTRIES, mServer.entries().size());
+	}
+
+	/**
+	 * Sends the changes after the push token to the server a batch at a time, starting over if
+	 * the token is below the floor
+	 *
+	 * @return number of changes the server applied
+	 */
+	private int push() {
+		if (mPushToken != 0 && mPushToken < mDbHelper.getJournalFloor()) {
+			mServer.clear();
+			mPushToken = 0;
+		}
+		int applied = 0;
+		List<EntryChange> changes;
+		do {
+			changes = readChanges(mPushToken, BATCH);
+			applied += mServer.push(changes);
+			if (!changes.isEmpty()) {
+				mPushToken = changes.get(changes.size() - 1).seq;
+			}
+		} while (changes.size() == BATCH);
+		return applied;
+	}
+
+	/**
+	 * Applies the changes of the server after the pull token a batch at a time
+	 *
+	 * @return number of changes applied
+	 */
+	private int pull() {
+		int applied = 0;
+		List<EntryChange> changes;
+		do {
+			changes = mServer.changesAfter(mPullToken, BATCH);
+			applied += mDbHelper.applyChanges(changes);
+			if (!changes.isEmpty()) {
+				mPullToken = changes.get(changes.size() - 1).seq;
+			}
+		} while (changes.size() == BATCH);
+		return applied;
+	}
+
+	private List<EntryChange> readChanges(long token) {
+		return readChanges(token, Integer.MAX_VALUE);
+	}
+
+	private List<EntryChange> readChanges(long token, int limit) {
+		Cursor c = mDbHelper.fetchChanges(token, limit);
+		try {
+			List<EntryChange> changes = new ArrayList<EntryChange>(c.getCount());
+			while (c.moveToNext()) {
+				changes.add(EntryChange.fromCursor(c));
+			}
+			return changes;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * @return the entries here that are not deleted, in the form of {@link StandInServer#entries()}
+	 */
+	private Map<String, String> entries() {
+		Map<String, String> entries = new TreeMap<String, String>();
+		for (EntryChange change : readChanges(0)) {
+			if (!change.deleted) {
+				entries.put(change.uid, StandInServer.describe(change));
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * @return the global id of an entry, archived or not
+	 */
+	private String uidOf(long rowId) {
+		String id = Long.toString(rowId);
+		return DatabaseUtils.stringForQuery(mDbHelper.getDatabase(), "select uid from "
+				+ BalanceDbAdapter.DATABASE_TABLE + " where _id = ? union all select uid from " + BalanceArchive.TABLE
+				+ " where _id = ?", new String[] {id, id});
+	}
+
+	private long rowIdOf(String uid) {
+		return DatabaseUtils.longForQuery(mDbHelper.getDatabase(), "select _id from "
+				+ BalanceDbAdapter.DATABASE_TABLE + " where uid = ?", new String[] {uid});
+	}
+
+	private long journalSize() {
+		return DatabaseUtils.queryNumEntries(mDbHelper.getDatabase(), ChangeJournal.TABLE);
+	}
+}
@@ -0,0 +1,354 @@
+package fi.wegar.balancepad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.SQLiteMode;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Checks the filtered queries of {@link BalanceDbAdapter}: their results, and with EXPLAIN
+ * QUERY PLAN that every combination of category, currency and date range reads the balance
+ * table and the archive through an index of the ledger, in the order of the list, without a scan
+ * or a sort.
+ */
+@RunWith(RobolectricTestRunner.class)
+@SQLiteMode(SQLiteMode.Mode.NATIVE)
+public class EntryFilterTest {
+
+	private static final int DAYS = 400;
+	private static final String[] CATEGORIES = new String[] {"Groceries", "Rent", null};
+	private static final String[] CURRENCIES = new String[] {"EUR", "USD"};
+
+	// the first page, the page after a row and the page of a month
+	private static final String[] SEEKS = new String[] {null, BalanceDbAdapter.PAGE_SEEK, BalanceDbAdapter.MONTH_SEEK};
+	private static final String[][] SEEK_ARGS = new String[][] {null, {"0", "0", "0"}, {"0"}};
+
+	private BalanceDbAdapter mDbHelper;
+	private SQLiteDatabase mDb;
+	private long mGroceriesId;
+
+	@Before
+	public void setUp() {
+		mDbHelper = new BalanceDbAdapter(RuntimeEnvironment.getApplication()).open();
+		mDb = mDbHelper.getDatabase();
+
+		// one entry a day, cycling through the categories and currencies, amounts of 1.00
+		Calendar day = noonToday();
+		for (int i = 0; i < DAYS; i++) {
+			mDbHelper.createEntry("entry " + i, 100, CURRENCIES[i % CURRENCIES.length], day.getTime(),
+					CATEGORIES[i % CATEGORIES.length]);
+			day.add(Calendar.DAY_OF_YEAR, -1);
+		}
+		mGroceriesId = Categories.idOf(mDb, "groceries");
+	}
+
+	@After
+	public void tearDown() {
+		mDbHelper.close();
+	}
+
+	@Test
+	public void categoriesAreCreatedOnce() {
+		Cursor c = mDbHelper.fetchCategories();
+		try {
+			assertEquals(2, c.getCount());
+			c.moveToFirst();
+			assertEquals("Groceries", c.getString(1));
+			assertEquals(mGroceriesId, c.getLong(0));
+		} finally {
+			c.close();
+		}
+	}
+
+	@Test
+	public void filteredPagesAndTotals() {
+		EntryFilter filter = new EntryFilter().setCategory(mGroceriesId).setCurrency("EUR");
+		// every sixth day is groceries in euros
+		assertEquals((DAYS + 5) / 6, readAll(filter));
+		assertTotal(filter, "EUR", (DAYS + 5) / 6);
+
+		Calendar today = noonToday();
+		long to = today.getTimeInMillis() + 1;
+		today.add(Calendar.DAY_OF_YEAR, -29);
+		filter = new EntryFilter().setDateRange(today.getTimeInMillis(), to);
+		assertEquals(30, readAll(filter));
+		assertTotal(filter, "EUR", 15);
+		assertTotal(filter, "USD", 15);
+
+		// the archived half of the entries is still found by the same filters
+		Calendar cutoff = noonToday();
+		cutoff.add(Calendar.DAY_OF_YEAR, -DAYS / 2);
+		while (mDbHelper.archiveEntries(cutoff.getTimeInMillis(), 50) > 0) {
+		}
+		filter = new EntryFilter().setCategory(mGroceriesId).setCurrency("EUR");
+		assertEquals((DAYS + 5) / 6, readAll(filter));
+		assertTotal(filter, "EUR", (DAYS + 5) / 6);
+		assertTotal(new EntryFilter().setCurrency("USD"), "USD", DAYS / 2);
+		assertEquals(DAYS, readAll(null));
+	}
+
+	@Test
+	public void monthSections() {
+		Calendar from = noonToday();
+		from.add(Calendar.MONTH, -5);
+		EntryFilter[] filters = new EntryFilter[] {null, new EntryFilter().setCurrency("USD"),
+				new EntryFilter().setCategory(mGroceriesId),
+				new EntryFilter().setCurrency("EUR").setDateRange(from.getTimeInMillis(), Long.MAX_VALUE)};
+		SimpleDateFormat format = new SimpleDateFormat("MMM yyyy");
+
+		for (EntryFilter filter : filters) {
+			MonthSections sections = MonthSections.read(mDbHelper.fetchMonthCounts(filter));
+			List<Long> dates = readDates(filter);
+			assertEquals(dates.size(), sections.count());
+
+			// every position is in the month of its entry, and every month starts where the list enters it
+			Object[] labels = sections.labels();
+			for (int position = 0; position < dates.size(); position++) {
+				int section = sections.sectionOf(position);
+				assertEquals(format.format(new Date(dates.get(position))), labels[section]);
+				if (position == 0 || section != sections.sectionOf(position - 1)) {
+					assertEquals(position, sections.positionOf(section));
+					// the seek to the month finds the same entry
+					Cursor month = mDbHelper.fetchEntriesPageBefore(filter, sections.endOf(section), 1);
+					try {
+						assertTrue(month.moveToFirst());
+						assertEquals(dates.get(position).longValue(), month.getLong(
+								month.getColumnIndexOrThrow(BalanceDbAdapter.KEY_EVENT_DATE)));
+					} finally {
+						month.close();
+					}
+				}
+			}
+			assertEquals(labels.length - 1, sections.sectionOf(dates.size() - 1));
+		}
+	}
+
+	@Test
+	public void jumpingToAMonthLoadsOnlyItsRows() {
+		final int pageSize = 10;
+		MonthSections sections = MonthSections.read(mDbHelper.fetchMonthCounts(null));
+		List<Long> dates = readDates(null);
+		EntryPageCursor entries = new EntryPageCursor(mDbHelper.fetchEntriesPage(null, pageSize), pageSize,
+				sections.count());
+		try {
+			assertEquals(dates.size(), entries.getCount());
+
+			// the fast scroller jumps into the second oldest month
+			int section = sections.labels().length - 2;
+			int position = sections.positionOf(section) + 5;
+			int loaded = pageSize;
+			for (int missing; (missing = entries.firstMissing(position, position + 1)) >= 0; ) {
+				EntryPageCursor.Seek seek = entries.seekFor(missing, sections, pageSize);
+				loaded += seek.limit;
+				entries = entries.insert(seek.position, load(seek));
+			}
+			assertTrue(loaded <= pageSize + 5 + pageSize);
+			assertEntries(entries, dates);
+
+			// scrolling down from the first page fills the rows in between
+			for (int missing; (missing = entries.firstMissing(0, dates.size())) >= 0; ) {
+				EntryPageCursor.Seek seek = entries.seekFor(missing, sections, pageSize);
+				assertFalse(seek.month);
+				entries = entries.insert(seek.position, load(seek));
+			}
+			assertEntries(entries, dates);
+		} finally {
+			entries.close();
+		}
+	}
+
+	@Test
+	public void everyFilterUsesAnIndex() {
+		Calendar from = noonToday();
+		from.add(Calendar.MONTH, -3);
+		long ledgerId = mDbHelper.getLedger();
+
+		for (int combination = 0; combination < 16; combination++) {
+			EntryFilter filter = new EntryFilter();
+			if ((combination & 1) != 0) {
+				filter.setCategory(mGroceriesId);
+			}
+			if ((combination & 2) != 0) {
+				filter.setCurrency("USD");
+			}
+			if ((combination & 4) != 0) {
+				filter.setDateRange(from.getTimeInMillis(), filter.getToDate());
+			}
+			if ((combination & 8) != 0) {
+				filter.setDateRange(filter.getFromDate(), System.currentTimeMillis());
+			}
+
+			for (int archived = 0; archived < 2; archived++) {
+				for (int seek = 0; seek < SEEKS.length; seek++) {
+					List<String> args = new ArrayList<String>();
+					String query = BalanceDbAdapter.pageQuery(ledgerId, filter, SEEKS[seek], SEEK_ARGS[seek],
+							archived == 1, BalanceDbAdapter.DEFAULT_PAGE_SIZE, args);
+					assertIndexed(query, args, false);
+				}
+
+				if (!filter.isEmpty()) {
+					List<String> args = new ArrayList<String>();
+					assertIndexed(BalanceDbAdapter.filterTotalsQuery(ledgerId, filter, archived == 1, args), args, true);
+					args.clear();
+					assertIndexed(BalanceDbAdapter.monthCountsQuery(ledgerId, filter, archived == 1, args), args, true);
+					args.clear();
+					assertIndexed(BalanceDbAdapter.monthCurrencyTotalsQuery(ledgerId, filter, archived == 1, args),
+							args, true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fails unless every access to the balance table and the archive in the plan of the query is
+	 * a search of an index led by the ledger, and the rows of a page come out of the indexes
+	 * without a sort
+	 *
+	 * @param grouped true for a query that groups the rows, which may be sorted for that
+	 */
+	private void assertIndexed(String query, List<String> args, boolean grouped) {
+		Cursor plan = mDb.rawQuery("explain query plan " + query, args.toArray(new String[args.size()]));
+		StringBuilder details = new StringBuilder();
+		try {
+			int detailColumn = plan.getColumnIndexOrThrow("detail");
+			while (plan.moveToNext()) {
+				details.append(plan.getString(detailColumn)).append('\n');
+			}
+		} finally {
+			plan.close();
+		}
+
+		for (String detail : details.toString().split("\n")) {
+			String line = detail.replace("TABLE ", "");
+			String message = query + "\n" + details;
+			if (line.startsWith("SCAN balance") || line.startsWith("SEARCH balance")) {
+				assertTrue(message, line.startsWith("SEARCH") && line.contains("ledger_id=?"));
+			}
+			if (!grouped) {
+				assertFalse(message, line.contains("TEMP B-TREE"));
+			}
+		}
+	}
+
+	/**
+	 * Runs the query of a seek of the unfiltered list and checks that it returned the rows asked for
+	 */
+	private Cursor load(EntryPageCursor.Seek seek) {
+		Cursor page = seek.month ? mDbHelper.fetchEntriesPageBefore(null, seek.eventDate, seek.limit)
+				: mDbHelper.fetchEntriesPageAfter(null, seek.eventDate, seek.rowId, seek.limit);
+		assertEquals(seek.limit, page.getCount());
+		return page;
+	}
+
+	/**
+	 * Checks that every loaded row of the list is at the position of its entry
+	 */
+	private static void assertEntries(EntryPageCursor entries, List<Long> dates) {
+		int idColumn = entries.getColumnIndexOrThrow(BalanceDbAdapter.KEY_ROWID);
+		int dateColumn = entries.getColumnIndexOrThrow(BalanceDbAdapter.KEY_EVENT_DATE);
+		for (int position = 0; position < dates.size(); position++) {
+			assertTrue(entries.moveToPosition(position));
+			if (!entries.isNull(idColumn)) {
+				assertEquals(dates.get(position).longValue(), entries.getLong(dateColumn));
+			}
+		}
+	}
+
+	/**
+	 * @return number of entries matching a filter, see {@link #readDates(EntryFilter)}
+	 */
+	private int readAll(EntryFilter filter) {
+		return readDates(filter).size();
+	}
+
+	/**
+	 * Reads every page of the entries matching a filter, checking their order
+	 *
+	 * @return the event dates of the entries in the order of the list
+	 */
+	private List<Long> readDates(EntryFilter filter) {
+		List<Long> dates = new ArrayList<Long>();
+		long lastEventDate = Long.MAX_VALUE;
+		long lastRowId = Long.MAX_VALUE;
+		boolean more = true;
+		while (more) {
+			Cursor page = dates.isEmpty() ? mDbHelper.fetchEntriesPage(filter, 10)
+					: mDbHelper.fetchEntriesPageAfter(filter, lastEventDate, lastRowId, 10);
+			try {
+				while (page.moveToNext()) {
+					long eventDate = page.getLong(page.getColumnIndexOrThrow(BalanceDbAdapter.KEY_EVENT_DATE));
+					long rowId = page.getLong(page.getColumnIndexOrThrow(BalanceDbAdapter.KEY_ROWID));
+					assertTrue(eventDate < lastEventDate || (eventDate == lastEventDate && rowId < lastRowId));
+					lastEventDate = eventDate;
+					lastRowId = rowId;
+					dates.add(eventDate);
+				}
+				more = page.getCount() == 10;
+			} finally {
+				page.close();
+			}
+		}
+		return dates;
+	}
+
+	private void assertTotal(EntryFilter filter, String currency, int count) {
+		Cursor totals = mDbHelper.fetchFilterTotals(filter);
+		try {
+			while (totals.moveToNext()) {
+				if (totals.getString(0).equals(currency)) {
+					assertEquals(count, totals.getInt(2));
+					assertEquals(count * 100L, totals.getLong(1));
+					assertEquals(count * 100L, sumOfMonths(filter, currency));
+					return;
+				}
+			}
+			fail("no total for " + currency);
+		} finally {
+			totals.close();
+		}
+	}
+
+	/**
+	 * @return sum of the month totals of the entries matching a filter in a currency
+	 */
+	private long sumOfMonths(EntryFilter filter, String currency) {
+		Cursor months = mDbHelper.fetchMonthCurrencyTotals(filter);
+		long sum = 0;
+		try {
+			while (months.moveToNext()) {
+				if (months.getString(1).equals(currency)) {
+					sum += months.getLong(2);
+				}
+			}
+		} finally {
+			months.close();
+		}
+		return sum;
+	}
+
+	private static Calendar noonToday() {
+		Calendar calendar = Calendar.getInstance();
+		calendar.set(Calendar.HOUR_OF_DAY, 12);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		return calendar;
+	}
+}
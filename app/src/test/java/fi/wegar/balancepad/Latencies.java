@@ -0,0 +1,63 @@
+package fi.wegar.balancepad;
+
+import java.util.Arrays;
+
+/**
+ * Durations of repeated runs of one operation
+ */
+final class Latencies {
+
+	private long[] mNanos = new long[64];
+	private int mCount;
+	private long mStart;
+
+	/**
+	 * Starts timing one run
+	 */
+	void start() {
+		mStart = System.nanoTime();
+	}
+
+	/**
+	 * Ends the run started by {@link #start()} and records its duration
+	 */
+	void stop() {
+		add(System.nanoTime() - mStart);
+	}
+
+	void add(long nanos) {
+		if (mCount == mNanos.length) {
+			long[] grown = new long[mCount * 2];
+			System.arraycopy(mNanos, 0, grown, 0, mCount);
+			mNanos = grown;
+		}
+		mNanos[mCount++] = nanos;
+	}
+
+	int count() {
+		return mCount;
+	}
+
+	/**
+	 * @param percent a percentage between 0 and 100
+	 * @return the duration in milliseconds that the given percentage of the runs did not exceed
+	 */
+	double percentileMillis(int percent) {
+		if (mCount == 0) {
+			return 0;
+		}
+		long[] sorted = new long[mCount];
+		System.arraycopy(mNanos, 0, sorted, 0, mCount);
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percent / 100.0 * mCount) - 1;
+		return sorted[Math.max(index, 0)] / 1e6;
+	}
+
+	double totalMillis() {
+		long total = 0;
+		for (int i = 0; i < mCount; i++) {
+			total += mNanos[i];
+		}
+		return total / 1e6;
+	}
+}
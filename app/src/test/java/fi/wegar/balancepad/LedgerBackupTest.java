@@ -0,0 +1,216 @@
+package fi.wegar.balancepad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.SQLiteMode;
+
+import android.database.Cursor;
+
+/**
+ * Round trips of {@link LedgerBackup} over two ledgers with categories, archived and deleted
+ * entries and more than one block, and restores of damaged backups.
+ */
+@RunWith(RobolectricTestRunner.class)
+@SQLiteMode(SQLiteMode.Mode.NATIVE)
+public class LedgerBackupTest {
+
+	// enough entries for two blocks and part of a third
+	private static final int ENTRIES = BackupBlock.CAPACITY * 2 + 100;
+	private static final String[] CATEGORIES = new String[] {"Groceries", null, "Rent", "Caf\u00e9"};
+	private static final String[] CURRENCIES = new String[] {"EUR", "USD", "JPY"};
+	// every how many entries one goes to the second ledger
+	private static final int TRIP_EVERY = 4;
+
+	private static final String[] COLUMNS = new String[] {BalanceDbAdapter.KEY_ROWID,
+			BalanceDbAdapter.KEY_DESCRIPTION, BalanceDbAdapter.KEY_AMOUNT, BalanceDbAdapter.KEY_CURRENCY_ID,
+			BalanceDbAdapter.KEY_EVENT_DATE, Categories.NAME_OF_ENTRY,
+			BalanceDbAdapter.KEY_LEDGER_ID};
+
+	private BalanceDbAdapter mDbHelper;
+	private LedgerBackup mBackup;
+	private File mFile;
+
+	@Before
+	public void setUp() throws IOException {
+		mDbHelper = new BalanceDbAdapter(RuntimeEnvironment.getApplication()).open();
+		mBackup = new LedgerBackup(mDbHelper);
+		mFile = File.createTempFile("ledger", ".backup");
+		long personalId = mDbHelper.getLedger();
+		long tripId = mDbHelper.createLedger("Trip");
+
+		Calendar day = Calendar.getInstance();
+		day.add(Calendar.YEAR, -3);
+		for (int i = 0; i < ENTRIES; i++) {
+			// entries seven hours apart, every fifth at the same moment as the one before
+			day.add(Calendar.HOUR_OF_DAY, i % 5 == 0 ? 0 : 7);
+			mDbHelper.setLedger(i % TRIP_EVERY == 0 ? tripId : personalId);
+			long rowId = mDbHelper.createEntry("entry " + (i % 300) + (i % 7 == 0 ? " w\u00f6chentlich" : ""),
+					(i % 11 - 5) * 1234L, CURRENCIES[i % CURRENCIES.length], day.getTimeInMillis(),
+					CATEGORIES[i % CATEGORIES.length]);
+			if (i % 13 == 0) {
+				assertTrue(mDbHelper.deleteEntry(rowId));
+			}
+		}
+		mDbHelper.setLedger(personalId);
+		Calendar cutoff = Calendar.getInstance();
+		cutoff.add(Calendar.YEAR, -2);
+		assertTrue(mDbHelper.archiveEntries(cutoff.getTimeInMillis(), ENTRIES) > 0);
+	}
+
+	@After
+	public void tearDown() {
+		mDbHelper.close();
+		mFile.delete();
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		List<String> before = entries();
+		int found = count(mDbHelper.searchEntries("w\u00f6chentlich", ENTRIES));
+		assertTrue(found > 0);
+		assertEquals(before.size(), writeBackup());
+
+		// changes made after the backup are undone by the restore
+		mDbHelper.createEntry("after the backup", 100, "SEK", System.currentTimeMillis(), "New");
+		mDbHelper.deleteEntry(firstRowId());
+
+		assertEquals(before.size(), mBackup.restore(mFile));
+		assertEquals(before, entries());
+		assertTrue(mDbHelper.verifyTotals());
+		assertEquals(found, count(mDbHelper.searchEntries("w\u00f6chentlich", ENTRIES)));
+		assertEquals(0, count(mDbHelper.searchEntries("after", ENTRIES)));
+		mDbHelper.setLedger(mDbHelper.createLedger("Trip"));
+		assertTrue(count(mDbHelper.searchEntries("w\u00f6chentlich", ENTRIES)) > 0);
+
+		// the restored ledger backs up to the same file
+		long length = mFile.length();
+		assertEquals(before.size(), writeBackup());
+		assertEquals(length, mFile.length());
+	}
+
+	@Test
+	public void emptyLedger() throws IOException {
+		mDbHelper.getDatabase().execSQL("delete from " + BalanceArchive.TABLE);
+		mDbHelper.getDatabase().execSQL("delete from " + BalanceDbAdapter.DATABASE_TABLE);
+		assertEquals(0, writeBackup());
+
+		mDbHelper.createEntry("entry", 100, "EUR", System.currentTimeMillis(), null);
+		mDbHelper.setLedger(mDbHelper.createLedger("Trip"));
+		mDbHelper.createEntry("entry", 100, "EUR", System.currentTimeMillis(), null);
+		assertEquals(0, mBackup.restore(mFile));
+		assertEquals(0, entries().size());
+		assertTrue(mDbHelper.verifyTotals());
+	}
+
+	@Test
+	public void damagedBackupIsRejected() throws IOException {
+		writeBackup();
+		List<String> before = entries();
+
+		// a flipped bit in the middle of the second block
+		RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+		try {
+			long offset = mFile.length() / 2;
+			file.seek(offset);
+			int b = file.read();
+			file.seek(offset);
+			file.write(b ^ 0x10);
+		} finally {
+			file.close();
+		}
+		assertRejected();
+		assertEquals(before, entries());
+	}
+
+	@Test
+	public void truncatedBackupIsRejected() throws IOException {
+		writeBackup();
+		List<String> before = entries();
+
+		RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+		try {
+			// without the trailer, then in the middle of a block
+			file.setLength(file.length() - 10);
+			assertRejected();
+			file.setLength(file.length() / 2);
+			assertRejected();
+			file.setLength(2);
+			assertRejected();
+		} finally {
+			file.close();
+		}
+		assertEquals(before, entries());
+		assertTrue(mDbHelper.verifyTotals());
+	}
+
+	private long writeBackup() throws IOException {
+		OutputStream out = new FileOutputStream(mFile);
+		try {
+			return mBackup.backup(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	private void assertRejected() {
+		try {
+			mBackup.restore(mFile);
+			fail("Restored a damaged backup");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * @return every entry that is not deleted, archived or not, one string per entry in rowId order
+	 */
+	private List<String> entries() {
+		Cursor c = mDbHelper.getDatabase().rawQuery(BalanceArchive.unionQuery(COLUMNS, BalanceDbAdapter.NOT_DELETED,
+				null, BalanceDbAdapter.KEY_ROWID, null), null);
+		try {
+			List<String> entries = new ArrayList<String>(c.getCount());
+			while (c.moveToNext()) {
+				entries.add(c.getLong(0) + "|" + c.getString(1) + "|" + c.getLong(2) + "|"
+						+ CurrencyCache.code(c.getInt(3)) + "|" + c.getLong(4) + "|" + c.getString(5) + "|" + c.getLong(6));
+			}
+			return entries;
+		} finally {
+			c.close();
+		}
+	}
+
+	private long firstRowId() {
+		Cursor c = mDbHelper.fetchEntriesPage(1);
+		try {
+			assertTrue(c.moveToFirst());
+			return c.getLong(c.getColumnIndexOrThrow(BalanceDbAdapter.KEY_ROWID));
+		} finally {
+			c.close();
+		}
+	}
+
+	private static int count(Cursor c) {
+		try {
+			return c.getCount();
+		} finally {
+			c.close();
+		}
+	}
+}
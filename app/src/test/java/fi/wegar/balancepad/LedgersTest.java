@@ -0,0 +1,237 @@
+package fi.wegar.balancepad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.SQLiteMode;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+
+/**
+ * Checks that the entries, totals, months, searches, recurrences and archive of one ledger are
+ * kept apart from those of another, and that switching between them needs nothing rebuilt.
+ */
+@RunWith(RobolectricTestRunner.class)
+@SQLiteMode(SQLiteMode.Mode.NATIVE)
+public class LedgersTest {
+
+	private static final int DAYS = 120;
+
+	private BalanceDbAdapter mDbHelper;
+	private long mPersonalId;
+	private long mTripId;
+
+	@Before
+	public void setUp() {
+		mDbHelper = new BalanceDbAdapter(RuntimeEnvironment.getApplication()).open();
+		mPersonalId = mDbHelper.getLedger();
+		mTripId = mDbHelper.createLedger("Trip");
+
+		// one entry a day in the default ledger, one every third day in the trip ledger
+		Calendar day = noonToday();
+		for (int i = 0; i < DAYS; i++) {
+			mDbHelper.setLedger(mPersonalId);
+			mDbHelper.createEntry("groceries " + i, 100, "EUR", day.getTimeInMillis(), "Food");
+			if (i % 3 == 0) {
+				mDbHelper.setLedger(mTripId);
+				mDbHelper.createEntry("hotel " + i, 5000, "USD", day.getTimeInMillis(), "Food");
+			}
+			day.add(Calendar.DAY_OF_YEAR, -1);
+		}
+		mDbHelper.setLedger(mPersonalId);
+	}
+
+	@After
+	public void tearDown() {
+		mDbHelper.close();
+	}
+
+	@Test
+	public void ledgersAreCreatedOnce() {
+		assertEquals(mTripId, mDbHelper.createLedger(" trip "));
+		assertEquals(Ledgers.DEFAULT_LEDGER, mPersonalId);
+		assertEquals(2, count(mDbHelper.fetchLedgers()));
+	}
+
+	@Test
+	public void entriesAreListedPerLedger() {
+		EntryFilter all = new EntryFilter();
+		assertEquals(DAYS, count(mDbHelper.fetchEntriesPage(all, DAYS * 2)));
+		assertEquals(DAYS, monthCount(mDbHelper.fetchMonthCounts(all)));
+		assertEquals(DAYS, count(mDbHelper.searchEntries("groceries", DAYS * 2)));
+		assertEquals(0, count(mDbHelper.searchEntries("hotel", DAYS * 2)));
+
+		mDbHelper.setLedger(mTripId);
+		assertEquals(DAYS / 3, count(mDbHelper.fetchEntriesPage(all, DAYS * 2)));
+		assertEquals(DAYS / 3, monthCount(mDbHelper.fetchMonthCounts(all)));
+		assertEquals(DAYS / 3, count(mDbHelper.searchEntries("hotel", DAYS * 2)));
+		assertEquals(0, count(mDbHelper.searchEntries("groceries", DAYS * 2)));
+
+		// the category is shared, its entries are not
+		EntryFilter food = new EntryFilter().setCategory(Categories.idOf(mDbHelper.getDatabase(), "Food"));
+		assertEquals(DAYS / 3, count(mDbHelper.fetchEntriesPage(food, DAYS * 2)));
+	}
+
+	@Test
+	public void searchMatchesWithinTheLedger() {
+		long now = System.currentTimeMillis();
+		long rowId = mDbHelper.createEntry("groceries abroad", 3000, "USD", now, "Food");
+		mDbHelper.setLedger(mTripId);
+		assertEquals(0, count(mDbHelper.searchEntries("groceries", DAYS * 2)));
+		// the token of the ledger is not a word of the descriptions
+		assertEquals(0, count(mDbHelper.searchEntries(BalanceSearch.ledgerToken(mTripId), DAYS * 2)));
+
+		// an entry moved to another ledger is found there
+		String uid = DatabaseUtils.stringForQuery(mDbHelper.getDatabase(), "select uid from "
+				+ BalanceDbAdapter.DATABASE_TABLE + " where _id = ?", new String[] {Long.toString(rowId)});
+		assertEquals(1, mDbHelper.applyChanges(Collections.singletonList(new EntryChange(0, uid, now + 1000,
+				"groceries abroad", 3000, "USD", now, "Food", "Trip"))));
+		assertEquals(1, count(mDbHelper.searchEntries("groceries", DAYS * 2)));
+		mDbHelper.setLedger(mPersonalId);
+		assertEquals(DAYS, count(mDbHelper.searchEntries("groceries", DAYS * 2)));
+	}
+
+	@Test
+	public void totalsArePerLedger() {
+		assertTotals("EUR", DAYS * 100L, DAYS);
+		mDbHelper.setLedger(mTripId);
+		assertTotals("USD", DAYS / 3 * 5000L, DAYS / 3);
+
+		Calendar today = noonToday();
+		int year = today.get(Calendar.YEAR);
+		int month = today.get(Calendar.MONTH) + 1;
+		assertEquals(0, mDbHelper.getMonthTotal("EUR", year, month));
+		assertTrue(mDbHelper.getMonthTotal("USD", year, month) > 0);
+		assertTrue(mDbHelper.verifyTotals());
+	}
+
+	@Test
+	public void recurrencesStayInTheirLedger() {
+		Calendar start = noonToday();
+		start.add(Calendar.MONTH, -2);
+		start.set(Calendar.HOUR_OF_DAY, 0);
+		mDbHelper.setLedger(mTripId);
+		mDbHelper.createRecurrence("rent", 70000, "USD", Recurrence.MONTHLY, start.getTimeInMillis(), 0);
+
+		// due while another ledger is listed, the first occurrence being the entry of the rule
+		mDbHelper.setLedger(mPersonalId);
+		assertEquals(2, mDbHelper.materialiseRecurrences(System.currentTimeMillis(), 10));
+		assertEquals(0, count(mDbHelper.searchEntries("rent", 10)));
+		mDbHelper.setLedger(mTripId);
+		assertEquals(2, count(mDbHelper.searchEntries("rent", 10)));
+		assertTrue(mDbHelper.verifyTotals());
+	}
+
+	@Test
+	public void archiveKeepsTheLedgers() {
+		Calendar cutoff = noonToday();
+		cutoff.add(Calendar.DAY_OF_YEAR, -DAYS / 2);
+		while (mDbHelper.archiveEntries(cutoff.getTimeInMillis(), 7) == 7) {
+			// until every ledger is done
+		}
+
+		EntryFilter all = new EntryFilter();
+		assertEquals(DAYS, count(mDbHelper.fetchEntriesPage(all, DAYS * 2)));
+		assertEquals(DAYS, count(mDbHelper.searchEntries("groceries", DAYS * 2)));
+		assertEquals(DAYS, searchAll("groceries", 7));
+		assertTotals("EUR", DAYS * 100L, DAYS);
+		mDbHelper.setLedger(mTripId);
+		assertEquals(DAYS / 3, count(mDbHelper.fetchEntriesPage(all, DAYS * 2)));
+		assertEquals(0, count(mDbHelper.searchEntries("groceries", DAYS * 2)));
+		assertTrue(mDbHelper.verifyTotals());
+
+		mDbHelper.rebuildTotals();
+		assertTotals("USD", DAYS / 3 * 5000L, DAYS / 3);
+	}
+
+	@Test
+	public void switchingIsRemembered() {
+		mDbHelper.close();
+		Preferences.setLedger(RuntimeEnvironment.getApplication(), mTripId);
+		mDbHelper = new BalanceDbAdapter(RuntimeEnvironment.getApplication()).open();
+		assertEquals(mTripId, mDbHelper.getLedger());
+		mDbHelper.close();
+
+		// a ledger that no longer exists falls back to the default one
+		Preferences.setLedger(RuntimeEnvironment.getApplication(), mTripId + 1);
+		mDbHelper = new BalanceDbAdapter(RuntimeEnvironment.getApplication()).open();
+		assertEquals(Ledgers.DEFAULT_LEDGER, mDbHelper.getLedger());
+	}
+
+	private void assertTotals(String currency, long total, int entries) {
+		Cursor c = mDbHelper.fetchCurrencyTotals();
+		try {
+			assertEquals(1, c.getCount());
+			assertTrue(c.moveToFirst());
+			assertEquals(currency, c.getString(0));
+			assertEquals(total, c.getLong(1));
+			assertEquals(entries, c.getInt(2));
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Reads every page of a search, checking that the pages follow each other newest first
+	 *
+	 * @return number of entries found
+	 */
+	private int searchAll(String query, int pageSize) {
+		int found = 0;
+		long lastEventDate = Long.MAX_VALUE;
+		long lastRowId = Long.MAX_VALUE;
+		boolean more = true;
+		while (more) {
+			Cursor page = found == 0 ? mDbHelper.searchEntries(query, pageSize)
+					: mDbHelper.searchEntriesAfter(query, lastEventDate, lastRowId, pageSize);
+			try {
+				while (page.moveToNext()) {
+					long eventDate = page.getLong(page.getColumnIndexOrThrow(BalanceDbAdapter.KEY_EVENT_DATE));
+					long rowId = page.getLong(page.getColumnIndexOrThrow(BalanceDbAdapter.KEY_ROWID));
+					assertTrue(eventDate < lastEventDate || (eventDate == lastEventDate && rowId < lastRowId));
+					lastEventDate = eventDate;
+					lastRowId = rowId;
+					found++;
+				}
+				more = page.getCount() == pageSize;
+			} finally {
+				page.close();
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return sum of the entry counts of the months, closing the cursor
+	 */
+	private static int monthCount(Cursor months) {
+		return MonthSections.read(months).count();
+	}
+
+	private static int count(Cursor c) {
+		try {
+			return c.getCount();
+		} finally {
+			c.close();
+		}
+	}
+
+	private static Calendar noonToday() {
+		Calendar calendar = Calendar.getInstance();
+		calendar.set(Calendar.HOUR_OF_DAY, 12);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		return calendar;
+	}
+}
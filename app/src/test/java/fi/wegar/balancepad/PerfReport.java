@@ -0,0 +1,110 @@
+package fi.wegar.balancepad;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Collects the latencies measured by a performance test class, checks them against their
+ * budgets and writes them to a JSON file that can be compared between builds:
+ *
+ * <pre>
+ * {"suite": "BalanceDbAdapterPerfTest", "rows": 10000, "timestamp": 1700000000000,
+ *  "results": [{"operation": "createEntry", "samples": 500, "p50Ms": 0.21, "p95Ms": 0.48,
+ *               "maxMs": 3.1, "totalMs": 130.5, "budgetPercentile": 95, "budgetMs": 20.0,
+ *               "passed": true}, ...]}
+ * </pre>
+ *
+ * The file is written to the directory in the balancepad.perf.output system property, or
+ * build/perf, and rewritten after every result so a failed budget does not lose the others.
+ * Budgets can be scaled for slow machines with the balancepad.perf.budgetScale property.
+ */
+final class PerfReport {
+
+	private final String mSuite;
+	private final int mRows;
+	private final double mBudgetScale;
+	private final StringBuilder mResults = new StringBuilder();
+
+	PerfReport(String suite, int rows) {
+		mSuite = suite;
+		mRows = rows;
+		mBudgetScale = Double.parseDouble(System.getProperty("balancepad.perf.budgetScale", "1"));
+	}
+
+	/**
+	 * Number of entries in the generated ledgers, from the balancepad.perf.rows system property
+	 */
+	static int rows() {
+		return Integer.getInteger("balancepad.perf.rows", 10000);
+	}
+
+	/**
+	 * Records the latencies of an operation and fails if the given percentile is over budget
+	 *
+	 * @param operation name of the measured operation
+	 * @param percentile the percentile held to the budget
+	 * @param budgetMillis the budget before scaling
+	 */
+	void check(String operation, Latencies latencies, int percentile, double budgetMillis) throws IOException {
+		double budget = budgetMillis * mBudgetScale;
+		double measured = latencies.percentileMillis(percentile);
+		boolean passed = measured <= budget;
+
+		if (mResults.length() > 0) {
+			mResults.append(",\n");
+		}
+		mResults.append(String.format(Locale.US, "  {\"operation\": \"%s\", \"samples\": %d, \"p50Ms\": %.3f, "
+				+ "\"p95Ms\": %.3f, \"maxMs\": %.3f, \"totalMs\": %.3f, \"budgetPercentile\": %d, \"budgetMs\": %.3f, "
+				+ "\"passed\": %b}", operation, latencies.count(), latencies.percentileMillis(50),
+				latencies.percentileMillis(95), latencies.percentileMillis(100), latencies.totalMillis(), percentile,
+				budget, passed));
+		write();
+
+		assertTrue(String.format(Locale.US, "%s p%d %.3f ms is over the budget of %.3f ms", operation, percentile,
+				measured, budget), passed);
+	}
+
+	/**
+	 * Records the size of something written for the generated ledger, such as a backup, and
+	 * fails if it takes more than the budget per entry
+	 *
+	 * @param name name of what was measured
+	 * @param bytes its size
+	 * @param budgetBytesPerRow the budget per entry of the ledger, not scaled
+	 */
+	void checkSize(String name, long bytes, double budgetBytesPerRow) throws IOException {
+		double perRow = (double) bytes / mRows;
+		boolean passed = perRow <= budgetBytesPerRow;
+
+		if (mResults.length() > 0) {
+			mResults.append(",\n");
+		}
+		mResults.append(String.format(Locale.US, "  {\"operation\": \"%s\", \"bytes\": %d, \"bytesPerRow\": %.2f, "
+				+ "\"budgetBytesPerRow\": %.2f, \"passed\": %b}", name, bytes, perRow, budgetBytesPerRow, passed));
+		write();
+
+		assertTrue(String.format(Locale.US, "%s %.2f bytes per entry is over the budget of %.2f", name, perRow,
+				budgetBytesPerRow), passed);
+	}
+
+	private void write() throws IOException {
+		File dir = new File(System.getProperty("balancepad.perf.output", "build/perf"));
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create " + dir);
+		}
+
+		Writer out = new OutputStreamWriter(new FileOutputStream(new File(dir, mSuite + ".json")), "UTF-8");
+		try {
+			out.write("{\"suite\": \"" + mSuite + "\", \"rows\": " + mRows + ", \"timestamp\": "
+					+ System.currentTimeMillis() + ",\n \"results\": [\n" + mResults + "\n]}\n");
+		} finally {
+			out.close();
+		}
+	}
+}
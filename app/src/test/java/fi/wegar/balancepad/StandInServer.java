@@ -0,0 +1,106 @@
+package fi.wegar.balancepad;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Stands in for the home server in the replication tests: it keeps the latest change of every
+ * entry under its own sequence numbers, applies pushed changes last writer wins as the app does,
+ * and hands out its changes after a token in batches.
+ */
+class StandInServer {
+
+	private long mSeq;
+	// the latest change of every entry by global id, deletes included
+	private final Map<String, EntryChange> mEntries = new HashMap<String, EntryChange>();
+	// the same changes by their sequence number here
+	private final TreeMap<Long, EntryChange> mJournal = new TreeMap<Long, EntryChange>();
+
+	/**
+	 * Applies changes pushed by the app, keeping the entry here on a tie
+	 *
+	 * @return number of changes applied
+	 */
+	int push(List<EntryChange> changes) {
+		int applied = 0;
+		for (EntryChange change : changes) {
+			EntryChange current = mEntries.get(change.uid);
+			if (current == null || change.changedAt > current.changedAt) {
+				put(change);
+				applied++;
+			}
+		}
+		return applied;
+	}
+
+	/**
+	 * @param token 0 or the seq of the last change read before
+	 * @return up to limit changes after the token, oldest first
+	 */
+	List<EntryChange> changesAfter(long token, int limit) {
+		List<EntryChange> changes = new ArrayList<EntryChange>();
+		for (EntryChange change : mJournal.tailMap(token, false).values()) {
+			if (changes.size() == limit) {
+				break;
+			}
+			changes.add(change);
+		}
+		return changes;
+	}
+
+	/**
+	 * Changes an entry here, as another replica would
+	 */
+	void edit(String uid, String description, long amount, long changedAt) {
+		EntryChange current = mEntries.get(uid);
+		put(new EntryChange(0, uid, changedAt, description, amount, current.currency, current.eventDate,
+				current.category, current.ledger));
+	}
+
+	void delete(String uid, long changedAt) {
+		put(EntryChange.delete(0, uid, changedAt));
+	}
+
+	/**
+	 * Forgets every entry, for an app that has to start over
+	 */
+	void clear() {
+		mEntries.clear();
+		mJournal.clear();
+	}
+
+	/**
+	 * @return the entries that are not deleted by global id, as description|amount|currency|event
+	 *         date|category|ledger
+	 */
+	Map<String, String> entries() {
+		Map<String, String> entries = new TreeMap<String, String>();
+		for (EntryChange change : mEntries.values()) {
+			if (!change.deleted) {
+				entries.put(change.uid, describe(change));
+			}
+		}
+		return entries;
+	}
+
+	static String describe(EntryChange change) {
+		return change.description + "|" + change.amount + "|" + change.currency + "|" + change.eventDate
+				+ "|" + change.category + "|" + change.ledger;
+	}
+
+	private void put(EntryChange change) {
+		EntryChange previous = mEntries.get(change.uid);
+		if (previous != null) {
+			mJournal.remove(previous.seq);
+		}
+		mSeq++;
+		EntryChange journaled = change.deleted ? EntryChange.delete(mSeq, change.uid, change.changedAt)
+				: new EntryChange(mSeq, change.uid, change.changedAt, change.description, change.amount,
+						change.currency, change.eventDate, change.category, change.ledger);
+		mEntries.put(change.uid, journaled);
+		mJournal.put(mSeq, journaled);
+	}
+}
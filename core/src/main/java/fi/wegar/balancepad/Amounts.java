@@ -0,0 +1,75 @@
+package fi.wegar.balancepad;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Currency;
+
+/**
+ * Conversion between entry amounts and their decimal form. Amounts are stored as a whole number
+ * of minor units of the entry currency (cents for EUR, yen for JPY), so sums are exact.
+ */
+final class Amounts {
+
+	private static final long[] POWERS_OF_TEN = new long[] {1L, 10L, 100L, 1000L, 10000L};
+
+	private Amounts() {
+	}
+
+	/**
+	 * @param currencyCode ISO 4217 currency code
+	 * @return the number of fraction digits used by the currency, 2 if the code is not known
+	 */
+	static int fractionDigits(String currencyCode) {
+		try {
+			int digits = Currency.getInstance(currencyCode).getDefaultFractionDigits();
+			return digits < 0 ? 0 : digits;
+		} catch (IllegalArgumentException e) {
+			return 2;
+		}
+	}
+
+	/**
+	 * @param fractionDigits number of fraction digits of a currency
+	 * @return the number of minor units in one major unit
+	 */
+	static long scale(int fractionDigits) {
+		return fractionDigits < POWERS_OF_TEN.length ? POWERS_OF_TEN[fractionDigits]
+				: BigDecimal.ONE.movePointRight(fractionDigits).longValue();
+	}
+
+	/**
+	 * Parses a decimal amount such as "12.50" into minor units, rounding half up if the text has
+	 * more fraction digits than the currency
+	 *
+	 * @param text the decimal amount
+	 * @param currencyCode ISO 4217 currency code of the amount
+	 * @return the amount in minor units
+	 * @throws NumberFormatException if the text is not a number or does not fit in a long
+	 */
+	static long parse(String text, String currencyCode) {
+		try {
+			return new BigDecimal(text.trim()).movePointRight(fractionDigits(currencyCode))
+					.setScale(0, RoundingMode.HALF_UP).longValueExact();
+		} catch (ArithmeticException e) {
+			throw new NumberFormatException("Amount out of range: " + text);
+		}
+	}
+
+	/**
+	 * @param minorUnits amount in minor units
+	 * @param currencyCode ISO 4217 currency code of the amount
+	 * @return the exact decimal value of the amount
+	 */
+	static BigDecimal toDecimal(long minorUnits, String currencyCode) {
+		return BigDecimal.valueOf(minorUnits, fractionDigits(currencyCode));
+	}
+
+	/**
+	 * @param minorUnits amount in minor units
+	 * @param currencyCode ISO 4217 currency code of the amount
+	 * @return the amount as plain decimal text, for example "12.50"
+	 */
+	static String toPlainString(long minorUnits, String currencyCode) {
+		return toDecimal(minorUnits, currencyCode).toPlainString();
+	}
+}
@@ -0,0 +1,53 @@
+package fi.wegar.balancepad;
+
+/**
+ * Up to {@link #CAPACITY} entries held as parallel arrays, the unit in which a backup is written,
+ * checksummed and restored, see {@link BackupWriter}. A block is reused for block after block.
+ */
+final class BackupBlock {
+
+	/**
+	 * Most entries in one block
+	 */
+	static final int CAPACITY = 4096;
+
+	final long[] rowIds = new long[CAPACITY];
+	final long[] eventDates = new long[CAPACITY];
+	final long[] amounts = new long[CAPACITY];
+	final String[] currencies = new String[CAPACITY];
+	final String[] descriptions = new String[CAPACITY];
+	// null for an entry without a category
+	final String[] categories = new String[CAPACITY];
+
+	/**
+	 * Name of the ledger of every entry of the block, null for the default ledger
+	 */
+	String ledger;
+
+	int size;
+
+	/**
+	 * @param amount in minor units of the currency
+	 * @param category the category name, or null
+	 */
+	void add(long rowId, long eventDate, long amount, String currency, String description, String category) {
+		rowIds[size] = rowId;
+		eventDates[size] = eventDate;
+		amounts[size] = amount;
+		currencies[size] = currency;
+		descriptions[size] = description;
+		categories[size] = category;
+		size++;
+	}
+
+	boolean isFull() {
+		return size == CAPACITY;
+	}
+
+	/**
+	 * Empties the block, which stays in its ledger
+	 */
+	void clear() {
+		size = 0;
+	}
+}
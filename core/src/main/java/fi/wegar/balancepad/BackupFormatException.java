@@ -0,0 +1,16 @@
+package fi.wegar.balancepad;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a backup is not in the format of {@link BackupWriter}, fails a checksum or ends
+ * early
+ */
+class BackupFormatException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	BackupFormatException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,211 @@
+package fi.wegar.balancepad;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Reads a backup written by {@link BackupWriter} a block at a time. The buffer is usually a
+ * memory mapped file, so a block is read straight from the page cache into one reused array and
+ * decoded from there without further copies or stream calls.
+ */
+final class BackupReader {
+
+	private final ByteBuffer mBuffer;
+	private final int mStart;
+	private final int mVersion;
+	private final CRC32 mCrc = new CRC32();
+	private byte[] mPayload = new byte[64 * 1024];
+	private int mLength;
+	private int mPos;
+	private String[] mStrings = new String[256];
+	// entries in the blocks read so far, and in the backup as its trailer says
+	private long mRead;
+	private long mCount;
+	private boolean mFinished;
+
+	/**
+	 * Checks the header, leaving the buffer at the first block
+	 *
+	 * @param buffer the backup from its current position to its limit
+	 * @throws BackupFormatException if the buffer does not start with a backup header
+	 */
+	BackupReader(ByteBuffer buffer) throws BackupFormatException {
+		mBuffer = buffer;
+		if (buffer.remaining() < BackupWriter.MAGIC.length + 1) {
+			throw new BackupFormatException("Not a backup");
+		}
+		for (byte b : BackupWriter.MAGIC) {
+			if (buffer.get() != b) {
+				throw new BackupFormatException("Not a backup");
+			}
+		}
+		int version = buffer.get();
+		// version 1 differs only in having no ledgers
+		if (version != BackupWriter.VERSION && version != 1) {
+			throw new BackupFormatException("Unsupported backup version " + version);
+		}
+		mVersion = version;
+		mStart = buffer.position();
+	}
+
+	/**
+	 * Checks the checksums of every block and that the backup ends in its trailer without
+	 * decoding the entries, then rewinds to the first block
+	 *
+	 * @return number of entries in the backup
+	 * @throws BackupFormatException if the backup is damaged or cut short
+	 */
+	long verify() throws BackupFormatException {
+		while (readPayload()) {
+			mRead += readVarint();
+		}
+		long count = mCount;
+		mBuffer.position(mStart);
+		mRead = 0;
+		mFinished = false;
+		return count;
+	}
+
+	/**
+	 * Decodes the next block into block, replacing its content and its ledger
+	 *
+	 * @return false after the last block
+	 * @throws BackupFormatException if the block is damaged or the backup is cut short
+	 */
+	boolean next(BackupBlock block) throws BackupFormatException {
+		block.clear();
+		if (!readPayload()) {
+			return false;
+		}
+		int size = readSize(BackupBlock.CAPACITY);
+		long unit = readVarint();
+
+		int stringCount = readSize(Integer.MAX_VALUE);
+		if (stringCount > mStrings.length) {
+			mStrings = new String[Math.max(stringCount, mStrings.length * 2)];
+		}
+		String[] strings = mStrings;
+		for (int i = 0; i < stringCount; i++) {
+			int length = readSize(mLength - mPos);
+			strings[i] = new String(mPayload, mPos, length, BackupWriter.UTF_8);
+			mPos += length;
+		}
+		block.ledger = null;
+		if (mVersion > 1) {
+			int ledger = readSize(stringCount);
+			block.ledger = ledger == 0 ? null : strings[ledger - 1];
+		}
+
+		long rowId = 0;
+		for (int i = 0; i < size; i++) {
+			rowId += readZigzag();
+			block.rowIds[i] = rowId;
+		}
+		if (size > 0) {
+			long date = readZigzag();
+			block.eventDates[0] = date;
+			for (int i = 1; i < size; i++) {
+				date += readZigzag() * unit;
+				block.eventDates[i] = date;
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			block.amounts[i] = readZigzag();
+		}
+		for (int i = 0; i < size; i++) {
+			block.currencies[i] = strings[readSize(stringCount - 1)];
+		}
+		for (int i = 0; i < size; i++) {
+			block.descriptions[i] = strings[readSize(stringCount - 1)];
+		}
+		for (int i = 0; i < size; i++) {
+			int category = readSize(stringCount);
+			block.categories[i] = category == 0 ? null : strings[category - 1];
+		}
+		if (mPos != mLength) {
+			throw new BackupFormatException("Block has " + (mLength - mPos) + " extra bytes");
+		}
+		block.size = size;
+		mRead += size;
+		return true;
+	}
+
+	/**
+	 * Reads the next block into the payload array and checks its checksum
+	 *
+	 * @return false at the trailer, after checking its entry count against the blocks read
+	 */
+	private boolean readPayload() throws BackupFormatException {
+		if (mFinished) {
+			return false;
+		}
+		int length;
+		int crc;
+		try {
+			length = mBuffer.getInt();
+			crc = mBuffer.getInt();
+		} catch (BufferUnderflowException e) {
+			throw new BackupFormatException("Backup ends without its trailer");
+		}
+		if (length < 0 || length > mBuffer.remaining()) {
+			throw new BackupFormatException("Backup ends in the middle of a block");
+		}
+		if (length > mPayload.length) {
+			mPayload = new byte[length];
+		}
+		mBuffer.get(mPayload, 0, length);
+		mLength = length;
+		mPos = 0;
+		mCrc.reset();
+		mCrc.update(mPayload, 0, length);
+		if ((int) mCrc.getValue() != crc) {
+			throw new BackupFormatException("Checksum mismatch in block at " + (mBuffer.position() - length));
+		}
+
+		if (length == 0) {
+			throw new BackupFormatException("Empty block");
+		}
+		if (mPayload[0] != 0) {
+			return true;
+		}
+		mPos = 1;
+		mCount = readVarint();
+		mFinished = true;
+		if (mCount != mRead) {
+			throw new BackupFormatException("Backup has " + mRead + " entries, its trailer " + mCount);
+		}
+		if (mBuffer.hasRemaining()) {
+			throw new BackupFormatException("Data after the end of the backup");
+		}
+		return false;
+	}
+
+	private int readSize(int max) throws BackupFormatException {
+		long value = readVarint();
+		if (value < 0 || value > max) {
+			throw new BackupFormatException("Value " + value + " out of range in block");
+		}
+		return (int) value;
+	}
+
+	private long readZigzag() throws BackupFormatException {
+		long value = readVarint();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private long readVarint() throws BackupFormatException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (mPos >= mLength) {
+				throw new BackupFormatException("Block ends in the middle of a value");
+			}
+			byte b = mPayload[mPos++];
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new BackupFormatException("Malformed value in block");
+	}
+}
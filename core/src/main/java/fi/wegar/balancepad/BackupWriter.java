@@ -0,0 +1,250 @@
+package fi.wegar.balancepad;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Writes entries in the compact binary backup format read by {@link BackupReader}:
+ *
+ * <pre>
+ * file    = "BPBK" version:byte block* trailer
+ * block   = length:int32 crc32:int32 payload[length]
+ * payload = rows dateUnit stringCount (byteCount utf8)* ledger rowIds eventDates amounts
+ *           currencies descriptions categories
+ * trailer = a block with 0 rows whose payload goes on with the number of entries in the file
+ * </pre>
+ *
+ * The ints are big-endian, everything in a payload is a varint, signed values zigzag encoded.
+ * Each block holds up to {@link BackupBlock#CAPACITY} entries a column at a time and is
+ * checksummed and decoded on its own. The currencies, descriptions and categories of a block are
+ * indexes into the strings of the block, where each distinct string is stored once; a category
+ * is 0 for none or the index plus one, and so is the ledger, which all entries of a block share;
+ * version 1 had no ledger and holds the entries of the default ledger. Row ids are stored as the difference from the previous
+ * entry, event dates as the difference in units of the largest common divisor of the differences
+ * in the block, so entries written in date order take a byte or two for their dates.
+ */
+final class BackupWriter {
+
+	static final byte[] MAGIC = new byte[] {'B', 'P', 'B', 'K'};
+	static final int VERSION = 2;
+
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final OutputStream mOut;
+	private final BackupBlock mBlock = new BackupBlock();
+	private final HashMap<String, Integer> mStrings = new HashMap<String, Integer>();
+	private final CRC32 mCrc = new CRC32();
+	private final Sink mHeader = new Sink(64);
+	private final Sink mPayload = new Sink(64 * 1024);
+	private long mCount;
+	private long mBytes;
+
+	/**
+	 * Writes the header of the file. The stream is written a block at a time, it need not be
+	 * buffered.
+	 */
+	BackupWriter(OutputStream out) throws IOException {
+		mOut = out;
+		out.write(MAGIC);
+		out.write(VERSION);
+		mBytes = MAGIC.length + 1;
+	}
+
+	/**
+	 * Adds an entry, writing the block when it is full
+	 *
+	 * @param amount in minor units of the currency
+	 * @param category the category name, or null
+	 */
+	void add(long rowId, long eventDate, long amount, String currency, String description, String category)
+			throws IOException {
+		mBlock.add(rowId, eventDate, amount, currency, description, category);
+		mCount++;
+		if (mBlock.isFull()) {
+			writeBlock();
+		}
+	}
+
+	/**
+	 * Starts the entries of a ledger, writing the block of the previous ledger. The entries of a
+	 * ledger are meant to be added together, every change of ledger starts a block.
+	 *
+	 * @param ledger the ledger name, null for the default ledger
+	 */
+	void setLedger(String ledger) throws IOException {
+		if (mBlock.size > 0) {
+			writeBlock();
+		}
+		mBlock.ledger = ledger;
+	}
+
+	/**
+	 * Writes the last block and the trailer and flushes the stream, which is not closed
+	 *
+	 * @return number of bytes written
+	 */
+	long finish() throws IOException {
+		if (mBlock.size > 0) {
+			writeBlock();
+		}
+		mPayload.clear();
+		mPayload.writeVarint(0);
+		mPayload.writeVarint(mCount);
+		writePayload();
+		mOut.flush();
+		return mBytes;
+	}
+
+	/**
+	 * @return number of entries added
+	 */
+	long count() {
+		return mCount;
+	}
+
+	private void writeBlock() throws IOException {
+		BackupBlock block = mBlock;
+		int size = block.size;
+		Sink out = mPayload;
+		out.clear();
+		out.writeVarint(size);
+
+		long unit = 0;
+		for (int i = 1; i < size; i++) {
+			unit = gcd(unit, Math.abs(block.eventDates[i] - block.eventDates[i - 1]));
+		}
+		if (unit == 0) {
+			unit = 1;
+		}
+		out.writeVarint(unit);
+
+		// the strings in order of their first use, so the reader can index them as it reads them
+		mStrings.clear();
+		Sink strings = mHeader;
+		strings.clear();
+		if (block.ledger != null) {
+			index(strings, block.ledger);
+		}
+		for (int i = 0; i < size; i++) {
+			index(strings, block.currencies[i]);
+			index(strings, block.descriptions[i]);
+			if (block.categories[i] != null) {
+				index(strings, block.categories[i]);
+			}
+		}
+		out.writeVarint(mStrings.size());
+		out.write(strings.mBytes, 0, strings.mLength);
+		out.writeVarint(block.ledger == null ? 0 : mStrings.get(block.ledger) + 1);
+
+		long previous = 0;
+		for (int i = 0; i < size; i++) {
+			out.writeZigzag(block.rowIds[i] - previous);
+			previous = block.rowIds[i];
+		}
+		out.writeZigzag(block.eventDates[0]);
+		for (int i = 1; i < size; i++) {
+			out.writeZigzag((block.eventDates[i] - block.eventDates[i - 1]) / unit);
+		}
+		for (int i = 0; i < size; i++) {
+			out.writeZigzag(block.amounts[i]);
+		}
+		for (int i = 0; i < size; i++) {
+			out.writeVarint(mStrings.get(block.currencies[i]));
+		}
+		for (int i = 0; i < size; i++) {
+			out.writeVarint(mStrings.get(block.descriptions[i]));
+		}
+		for (int i = 0; i < size; i++) {
+			String category = block.categories[i];
+			out.writeVarint(category == null ? 0 : mStrings.get(category) + 1);
+		}
+
+		writePayload();
+		block.clear();
+	}
+
+	/**
+	 * Adds a string to the strings of the block unless it is there already
+	 */
+	private void index(Sink strings, String value) {
+		if (!mStrings.containsKey(value)) {
+			mStrings.put(value, mStrings.size());
+			byte[] bytes = value.getBytes(UTF_8);
+			strings.writeVarint(bytes.length);
+			strings.write(bytes, 0, bytes.length);
+		}
+	}
+
+	private void writePayload() throws IOException {
+		mCrc.reset();
+		mCrc.update(mPayload.mBytes, 0, mPayload.mLength);
+		byte[] header = new byte[8];
+		putInt(header, 0, mPayload.mLength);
+		putInt(header, 4, (int) mCrc.getValue());
+		mOut.write(header);
+		mOut.write(mPayload.mBytes, 0, mPayload.mLength);
+		mBytes += header.length + mPayload.mLength;
+	}
+
+	private static void putInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) (value >>> 24);
+		bytes[offset + 1] = (byte) (value >>> 16);
+		bytes[offset + 2] = (byte) (value >>> 8);
+		bytes[offset + 3] = (byte) value;
+	}
+
+	private static long gcd(long a, long b) {
+		while (b != 0) {
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	/**
+	 * A growing byte array with varint writes
+	 */
+	private static final class Sink {
+		byte[] mBytes;
+		int mLength;
+
+		Sink(int capacity) {
+			mBytes = new byte[capacity];
+		}
+
+		void clear() {
+			mLength = 0;
+		}
+
+		void writeZigzag(long value) {
+			writeVarint((value << 1) ^ (value >> 63));
+		}
+
+		void writeVarint(long value) {
+			ensure(10);
+			while ((value & ~0x7FL) != 0) {
+				mBytes[mLength++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			mBytes[mLength++] = (byte) value;
+		}
+
+		void write(byte[] bytes, int offset, int length) {
+			ensure(length);
+			System.arraycopy(bytes, offset, mBytes, mLength, length);
+			mLength += length;
+		}
+
+		private void ensure(int more) {
+			if (mLength + more > mBytes.length) {
+				byte[] grown = new byte[Math.max(mBytes.length * 2, mLength + more)];
+				System.arraycopy(mBytes, 0, grown, 0, mLength);
+				mBytes = grown;
+			}
+		}
+	}
+}
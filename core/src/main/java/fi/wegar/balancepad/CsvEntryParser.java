@@ -0,0 +1,68 @@
+package fi.wegar.balancepad;
+
+import java.util.Calendar;
+import java.util.Currency;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Validates the fields of one imported CSV record, holding the description, amount, currency
+ * code and event date (yyyy-MM-dd) of an entry, and converts them to the stored form. The
+ * values of the last parsed record are kept in the fields of the parser, so parsing does not
+ * allocate per record.
+ *
+ * Not thread safe, each import uses its own instance.
+ */
+final class CsvEntryParser {
+
+	static final int FIELD_COUNT = 4;
+
+	String description;
+	long amount;
+	String currency;
+	long eventDate;
+
+	private final Calendar mCalendar = Calendar.getInstance();
+	private final Set<String> mKnownCurrencies = new HashSet<String>();
+
+	/**
+	 * Parses the fields of a record into the fields of this parser
+	 *
+	 * @param fields the fields of the record
+	 * @return null if the record is valid, otherwise the reason it was rejected
+	 */
+	String parse(List<String> fields) {
+		if (fields.size() != FIELD_COUNT) {
+			return "Expected " + FIELD_COUNT + " fields but found " + fields.size();
+		}
+
+		String code = fields.get(2).trim();
+		if (!mKnownCurrencies.contains(code)) {
+			try {
+				Currency.getInstance(code);
+			} catch (IllegalArgumentException e) {
+				return "Unknown currency: " + code;
+			}
+			mKnownCurrencies.add(code);
+		}
+
+		long parsedAmount;
+		try {
+			parsedAmount = Amounts.parse(fields.get(1), code);
+		} catch (NumberFormatException e) {
+			return "Invalid amount: " + fields.get(1);
+		}
+
+		long parsedDate = IsoDates.parse(fields.get(3).trim(), mCalendar);
+		if (parsedDate == IsoDates.INVALID) {
+			return "Invalid date: " + fields.get(3);
+		}
+
+		description = fields.get(0);
+		amount = parsedAmount;
+		currency = code;
+		eventDate = parsedDate;
+		return null;
+	}
+}
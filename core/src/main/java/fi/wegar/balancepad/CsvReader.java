@@ -0,0 +1,117 @@
+package fi.wegar.balancepad;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Minimal streaming CSV reader. Reads one record at a time, supports fields quoted with
+ * double quotes (including embedded separators, line breaks and doubled quotes) and keeps
+ * no more than the current record in memory.
+ */
+class CsvReader {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Reader mReader;
+	private final char mSeparator;
+	private final char[] mBuffer = new char[BUFFER_SIZE];
+	private final StringBuilder mField = new StringBuilder();
+
+	private int mPos;
+	private int mLimit;
+	private int mLineNumber = 1;
+	private int mRecordLineNumber;
+
+	/**
+	 * @param reader the source to read from, it is not buffered any further
+	 * @param separator the field separator, usually ','
+	 */
+	CsvReader(Reader reader, char separator) {
+		mReader = reader;
+		mSeparator = separator;
+	}
+
+	/**
+	 * Reads the next record into fields, replacing its previous content.
+	 *
+	 * @param fields list that receives the field values
+	 * @return false if the end of input was reached before any data
+	 * @throws IOException if reading fails
+	 */
+	boolean readRecord(List<String> fields) throws IOException {
+		fields.clear();
+		mField.setLength(0);
+		mRecordLineNumber = mLineNumber;
+
+		int c = read();
+		if (c == -1) {
+			return false;
+		}
+
+		boolean quoted = false;
+		boolean fieldStart = true;
+
+		while (c != -1) {
+			if (quoted) {
+				if (c == '"') {
+					int next = read();
+					if (next == '"') {
+						mField.append('"');
+					} else {
+						quoted = false;
+						c = next;
+						continue;
+					}
+				} else {
+					if (c == '\n') {
+						mLineNumber++;
+					}
+					mField.append((char) c);
+				}
+			} else if (c == '"' && fieldStart) {
+				quoted = true;
+				fieldStart = false;
+			} else if (c == mSeparator) {
+				fields.add(mField.toString());
+				mField.setLength(0);
+				fieldStart = true;
+			} else if (c == '\n' || c == '\r') {
+				if (c == '\r') {
+					int next = read();
+					if (next != '\n' && next != -1) {
+						mPos--;
+					}
+				}
+				mLineNumber++;
+				break;
+			} else {
+				mField.append((char) c);
+				fieldStart = false;
+			}
+			c = read();
+		}
+
+		fields.add(mField.toString());
+		return true;
+	}
+
+	/**
+	 * @return the line number on which the last record read started, counting from 1
+	 */
+	int getRecordLineNumber() {
+		return mRecordLineNumber;
+	}
+
+	private int read() throws IOException {
+		if (mPos >= mLimit) {
+			mLimit = mReader.read(mBuffer, 0, BUFFER_SIZE);
+			mPos = 0;
+			if (mLimit <= 0) {
+				mLimit = 0;
+				return -1;
+			}
+		}
+		return mBuffer[mPos++];
+	}
+}
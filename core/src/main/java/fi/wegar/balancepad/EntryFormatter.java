@@ -0,0 +1,117 @@
+package fi.wegar.balancepad;
+
+import java.text.DateFormat;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.Currency;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.TimeZone;
+
+/**
+ * Formats the amounts and dates shown for balance entries. The currency formats are created
+ * once per currency code and the formatted dates of recently shown days are cached, so
+ * formatting a row that has been seen before does not allocate.
+ *
+ * Not thread safe, each list adapter keeps its own instance.
+ */
+class EntryFormatter {
+
+	/**
+	 * Number of formatted dates kept, enough for a few screens of entries
+	 */
+	static final int DATE_CACHE_SIZE = 32;
+
+	private static class CurrencyFormat {
+		final NumberFormat format;
+		final double scale;
+
+		CurrencyFormat(NumberFormat format, double scale) {
+			this.format = format;
+			this.scale = scale;
+		}
+	}
+
+	private final HashMap<String, CurrencyFormat> mCurrencyFormats = new HashMap<String, CurrencyFormat>();
+
+	private final DateFormat mDateFormat;
+	private final Date mDate = new Date();
+	private final TimeZone mTimeZone;
+
+	// least recently used cache of formatted dates keyed by local epoch day
+	private final int[] mDateKeys = new int[DATE_CACHE_SIZE];
+	private final String[] mDateValues = new String[DATE_CACHE_SIZE];
+	private final long[] mDateLastUse = new long[DATE_CACHE_SIZE];
+	private long mUseCounter;
+
+	EntryFormatter() {
+		this(DateFormat.getDateInstance(), TimeZone.getDefault());
+	}
+
+	EntryFormatter(DateFormat dateFormat, TimeZone timeZone) {
+		mDateFormat = dateFormat;
+		mDateFormat.setTimeZone(timeZone);
+		mTimeZone = timeZone;
+	}
+
+	/**
+	 * @param amount amount in minor units of the currency
+	 * @param currencyCode ISO 4217 currency code of the amount
+	 * @return the amount formatted with the currency symbol, or as a number followed by the code
+	 *         if the code is not one of ISO 4217
+	 */
+	String formatAmount(long amount, String currencyCode) {
+		CurrencyFormat cf = mCurrencyFormats.get(currencyCode);
+		if (cf == null) {
+			int digits = Amounts.fractionDigits(currencyCode);
+			cf = new CurrencyFormat(currencyFormat(currencyCode, digits), Amounts.scale(digits));
+			mCurrencyFormats.put(currencyCode, cf);
+		}
+		return cf.format.format(amount / cf.scale);
+	}
+
+	private static NumberFormat currencyFormat(String currencyCode, int fractionDigits) {
+		try {
+			NumberFormat nf = NumberFormat.getCurrencyInstance();
+			nf.setCurrency(Currency.getInstance(currencyCode));
+			return nf;
+		} catch (IllegalArgumentException e) {
+			// an entry from a replica may have any code, it is shown rather than the list failing
+			NumberFormat nf = NumberFormat.getNumberInstance();
+			nf.setMinimumFractionDigits(fractionDigits);
+			nf.setMaximumFractionDigits(fractionDigits);
+			if (nf instanceof DecimalFormat) {
+				((DecimalFormat) nf).setPositiveSuffix(" " + currencyCode);
+				((DecimalFormat) nf).setNegativeSuffix(" " + currencyCode);
+			}
+			return nf;
+		}
+	}
+
+	/**
+	 * @param millis the time in milliseconds
+	 * @return the local date of millis in the default date format
+	 */
+	String formatDate(long millis) {
+		int day = IsoDates.epochDay(millis, mTimeZone);
+		long tick = ++mUseCounter;
+
+		int victim = 0;
+		for (int i = 0; i < DATE_CACHE_SIZE; i++) {
+			if (mDateValues[i] != null && mDateKeys[i] == day) {
+				mDateLastUse[i] = tick;
+				return mDateValues[i];
+			}
+			if (mDateLastUse[i] < mDateLastUse[victim]) {
+				victim = i;
+			}
+		}
+
+		mDate.setTime(millis);
+		String formatted = mDateFormat.format(mDate);
+		mDateKeys[victim] = day;
+		mDateValues[victim] = formatted;
+		mDateLastUse[victim] = tick;
+		return formatted;
+	}
+}
@@ -0,0 +1,102 @@
+package fi.wegar.balancepad;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Conversion between event dates and their yyyy-MM-dd text form, as used by the import and
+ * export files. The callers pass in a Calendar that they reuse, so converting a large number
+ * of dates does not create a formatter or Calendar per row.
+ */
+final class IsoDates {
+
+	/**
+	 * Returned by {@link #parse(String, Calendar)} for text that is not a valid date
+	 */
+	static final long INVALID = Long.MIN_VALUE;
+
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	private IsoDates() {
+	}
+
+	/**
+	 * Parses a yyyy-MM-dd date to local midnight
+	 *
+	 * @param text the date text
+	 * @param calendar calendar in the local time zone, overwritten by the call
+	 * @return the time in milliseconds, or {@link #INVALID} if the text is not a valid date
+	 */
+	static long parse(String text, Calendar calendar) {
+		if (text.length() != 10 || text.charAt(4) != '-' || text.charAt(7) != '-') {
+			return INVALID;
+		}
+
+		int year = parseDigits(text, 0, 4);
+		int month = parseDigits(text, 5, 7);
+		int day = parseDigits(text, 8, 10);
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31) {
+			return INVALID;
+		}
+
+		calendar.clear();
+		calendar.set(year, month - 1, 1);
+		if (day > calendar.getActualMaximum(Calendar.DAY_OF_MONTH)) {
+			return INVALID;
+		}
+		calendar.set(Calendar.DAY_OF_MONTH, day);
+		return calendar.getTimeInMillis();
+	}
+
+	/**
+	 * Writes the local date of millis as yyyy-MM-dd
+	 *
+	 * @param out the writer to append to
+	 * @param millis the time in milliseconds
+	 * @param calendar calendar in the local time zone, overwritten by the call
+	 * @throws IOException if writing fails
+	 */
+	static void write(Writer out, long millis, Calendar calendar) throws IOException {
+		calendar.setTimeInMillis(millis);
+		writeDigits(out, calendar.get(Calendar.YEAR), 4);
+		out.write('-');
+		writeDigits(out, calendar.get(Calendar.MONTH) + 1, 2);
+		out.write('-');
+		writeDigits(out, calendar.get(Calendar.DAY_OF_MONTH), 2);
+	}
+
+	/**
+	 * @param millis the time in milliseconds
+	 * @param timeZone the time zone whose calendar days are counted
+	 * @return the number of days from 1970-01-01 to the local date of millis
+	 */
+	static int epochDay(long millis, TimeZone timeZone) {
+		long local = millis + timeZone.getOffset(millis);
+		long day = local / MILLIS_PER_DAY;
+		return (int) ((local % MILLIS_PER_DAY < 0) ? day - 1 : day);
+	}
+
+	private static int parseDigits(String text, int start, int end) {
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static void writeDigits(Writer out, int value, int width) throws IOException {
+		int divisor = 1;
+		for (int i = 1; i < width; i++) {
+			divisor *= 10;
+		}
+		for (; divisor > 0; divisor /= 10) {
+			out.write('0' + (value / divisor) % 10);
+		}
+	}
+}
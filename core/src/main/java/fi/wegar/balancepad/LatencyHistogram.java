@@ -0,0 +1,112 @@
+package fi.wegar.balancepad;
+
+/**
+ * Histogram of durations in fixed buckets, in the style of HdrHistogram: every power of two of
+ * microseconds is split into eight buckets, so a recorded value is known to within 12.5% and
+ * recording only increments counters in an array allocated up front.
+ *
+ * Thread safe.
+ */
+final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Durations of 2^36 microseconds, about 19 hours, or more share the last bucket
+	 */
+	private static final int MAX_EXPONENT = 35;
+
+	static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	private final long[] mCounts = new long[BUCKETS];
+	private long mCount;
+	private long mTotalMicros;
+	private long mMaxMicros;
+	private long mRows;
+
+	/**
+	 * Records one duration
+	 *
+	 * @param nanos the duration in nanoseconds
+	 * @param rows number of rows read or written, added to {@link #getRows()}
+	 */
+	synchronized void record(long nanos, int rows) {
+		long micros = Math.max(nanos / 1000, 0);
+		mCounts[bucketOf(micros)]++;
+		mCount++;
+		mTotalMicros += micros;
+		mMaxMicros = Math.max(mMaxMicros, micros);
+		mRows += rows;
+	}
+
+	synchronized void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			mCounts[i] = 0;
+		}
+		mCount = 0;
+		mTotalMicros = 0;
+		mMaxMicros = 0;
+		mRows = 0;
+	}
+
+	synchronized long getCount() {
+		return mCount;
+	}
+
+	synchronized long getRows() {
+		return mRows;
+	}
+
+	synchronized long getTotalMicros() {
+		return mTotalMicros;
+	}
+
+	synchronized long getMaxMicros() {
+		return mMaxMicros;
+	}
+
+	/**
+	 * @param percent a percentage between 0 and 100
+	 * @return the upper bound of the bucket holding the given percentile, in microseconds, or 0
+	 *         if nothing was recorded
+	 */
+	synchronized long percentileMicros(double percent) {
+		if (mCount == 0) {
+			return 0;
+		}
+		long rank = Math.max((long) Math.ceil(percent / 100 * mCount), 1);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += mCounts[i];
+			if (seen >= rank) {
+				return Math.min(upperBound(i), mMaxMicros);
+			}
+		}
+		return mMaxMicros;
+	}
+
+	static int bucketOf(long micros) {
+		if (micros < SUB_BUCKETS) {
+			return (int) micros;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int shift = exponent - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((micros >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * @return the largest value in microseconds that falls into the bucket
+	 */
+	static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lower + (1L << shift) - 1;
+	}
+}
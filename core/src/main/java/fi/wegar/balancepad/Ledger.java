@@ -0,0 +1,511 @@
+package fi.wegar.balancepad;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Entries held as parallel primitive arrays sorted by event date and rowId, for reports. The
+ * currencies are dictionary encoded: each row holds an index into {@link #getCurrencies()}, and
+ * every query that adds up amounts works per currency.
+ *
+ * All queries run over the arrays without boxing. Date ranges are located by binary search,
+ * so their cost depends on the size of the range, not of the ledger. The totals by currency can
+ * be split over several threads for large ranges.
+ *
+ * A ledger never changes once built; adding entries creates a new ledger that merges them in.
+ */
+class Ledger {
+
+	/**
+	 * Ranges with fewer rows than this are not split over threads
+	 */
+	static final int PARALLEL_THRESHOLD = 100000;
+
+	/**
+	 * Totals and entry counts per group. For currency groups the keys are currency ids, for
+	 * month groups the month as yyyyMM, for example 202503.
+	 */
+	static final class Groups {
+		final int[] keys;
+		final long[] totals;
+		final int[] counts;
+		final int size;
+
+		Groups(int[] keys, long[] totals, int[] counts, int size) {
+			this.keys = keys;
+			this.totals = totals;
+			this.counts = counts;
+			this.size = size;
+		}
+	}
+
+	private final long[] mEventDates;
+	private final long[] mAmounts;
+	private final int[] mCurrencyIds;
+	private final int[] mRowIds;
+	private final int mSize;
+	private final String[] mCurrencies;
+
+	/**
+	 * @param rows the entries, added in event date and rowId order
+	 */
+	Ledger(Builder rows) {
+		mEventDates = rows.mEventDates;
+		mAmounts = rows.mAmounts;
+		mCurrencyIds = rows.mCurrencyIds;
+		mRowIds = rows.mRowIds;
+		mSize = rows.mSize;
+		mCurrencies = rows.dictionary();
+	}
+
+	/**
+	 * Merges new entries with the entries of an older ledger
+	 *
+	 * @param older the ledger to extend
+	 * @param added the new entries in event date and rowId order, built on the currencies of older
+	 */
+	Ledger(Ledger older, Builder added) {
+		int size = older.mSize + added.mSize;
+		long[] eventDates = new long[size];
+		long[] amounts = new long[size];
+		int[] currencyIds = new int[size];
+		int[] rowIds = new int[size];
+
+		int i = 0;
+		int j = 0;
+		for (int k = 0; k < size; k++) {
+			boolean takeOld = j == added.mSize || (i < older.mSize && (older.mEventDates[i] < added.mEventDates[j]
+					|| (older.mEventDates[i] == added.mEventDates[j] && older.mRowIds[i] < added.mRowIds[j])));
+			if (takeOld) {
+				eventDates[k] = older.mEventDates[i];
+				amounts[k] = older.mAmounts[i];
+				currencyIds[k] = older.mCurrencyIds[i];
+				rowIds[k] = older.mRowIds[i];
+				i++;
+			} else {
+				eventDates[k] = added.mEventDates[j];
+				amounts[k] = added.mAmounts[j];
+				currencyIds[k] = added.mCurrencyIds[j];
+				rowIds[k] = added.mRowIds[j];
+				j++;
+			}
+		}
+
+		mEventDates = eventDates;
+		mAmounts = amounts;
+		mCurrencyIds = currencyIds;
+		mRowIds = rowIds;
+		mSize = size;
+		mCurrencies = added.dictionary();
+	}
+
+	/**
+	 * @return number of entries in the ledger
+	 */
+	int size() {
+		return mSize;
+	}
+
+	/**
+	 * @return the currency codes, indexed by currency id
+	 */
+	String[] getCurrencies() {
+		return mCurrencies.clone();
+	}
+
+	/**
+	 * @param currency a currency code
+	 * @return the id of the currency, or -1 if the ledger has no entries in it
+	 */
+	int currencyId(String currency) {
+		for (int c = 0; c < mCurrencies.length; c++) {
+			if (mCurrencies[c].equals(currency)) {
+				return c;
+			}
+		}
+		return -1;
+	}
+
+	long getEventDate(int index) {
+		return mEventDates[index];
+	}
+
+	long getAmount(int index) {
+		return mAmounts[index];
+	}
+
+	int getCurrencyId(int index) {
+		return mCurrencyIds[index];
+	}
+
+	int getRowId(int index) {
+		return mRowIds[index];
+	}
+
+	/**
+	 * @param millis a time in milliseconds
+	 * @return index of the first entry with an event date at or after millis
+	 */
+	int indexOfDate(long millis) {
+		int low = 0;
+		int high = mSize;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (mEventDates[mid] < millis) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Adds up the amounts of one currency with fromDate <= event_date < toDate
+	 *
+	 * @param currencyId id of the currency
+	 * @param executor threads to split large ranges over, or null to add up on this thread
+	 * @return the total in minor units of the currency
+	 */
+	long sum(int currencyId, long fromDate, long toDate, ExecutorService executor) {
+		return groupByCurrency(fromDate, toDate, executor).totals[currencyId];
+	}
+
+	/**
+	 * Totals and entry counts per currency of the entries with fromDate <= event_date < toDate.
+	 * The groups are indexed by currency id and include currencies without entries in the range.
+	 *
+	 * @param executor threads to split large ranges over, or null to add up on this thread
+	 * @return the totals per currency
+	 */
+	Groups groupByCurrency(long fromDate, long toDate, ExecutorService executor) {
+		final int start = indexOfDate(fromDate);
+		final int end = indexOfDate(toDate);
+		int currencies = mCurrencies.length;
+
+		int[] keys = new int[currencies];
+		for (int c = 0; c < currencies; c++) {
+			keys[c] = c;
+		}
+		long[] totals = new long[currencies];
+		int[] counts = new int[currencies];
+
+		int parts = Runtime.getRuntime().availableProcessors();
+		if (executor == null || parts < 2 || end - start < PARALLEL_THRESHOLD) {
+			addByCurrency(start, end, totals, counts);
+			return new Groups(keys, totals, counts, currencies);
+		}
+
+		List<Callable<Groups>> tasks = new ArrayList<Callable<Groups>>(parts);
+		int partSize = (end - start + parts - 1) / parts;
+		for (int partStart = start; partStart < end; partStart += partSize) {
+			final int from = partStart;
+			final int to = Math.min(partStart + partSize, end);
+			tasks.add(new Callable<Groups>() {
+				@Override
+				public Groups call() {
+					long[] partTotals = new long[mCurrencies.length];
+					int[] partCounts = new int[mCurrencies.length];
+					addByCurrency(from, to, partTotals, partCounts);
+					return new Groups(null, partTotals, partCounts, mCurrencies.length);
+				}
+			});
+		}
+
+		try {
+			for (Future<Groups> part : executor.invokeAll(tasks)) {
+				Groups groups = part.get();
+				for (int c = 0; c < currencies; c++) {
+					totals[c] += groups.totals[c];
+					counts[c] += groups.counts[c];
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while adding up the ledger", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Adding up the ledger failed", e.getCause());
+		}
+		return new Groups(keys, totals, counts, currencies);
+	}
+
+	private void addByCurrency(int start, int end, long[] totals, int[] counts) {
+		for (int i = start; i < end; i++) {
+			int c = mCurrencyIds[i];
+			totals[c] += mAmounts[i];
+			counts[c]++;
+		}
+	}
+
+	/**
+	 * Totals and entry counts per local calendar month of the entries in one currency with
+	 * fromDate <= event_date < toDate, oldest month first. Months without entries are left out.
+	 *
+	 * @param currencyId id of the currency
+	 * @return the totals per month, keyed by the month as yyyyMM
+	 */
+	Groups groupByMonth(int currencyId, long fromDate, long toDate) {
+		int start = indexOfDate(fromDate);
+		int end = indexOfDate(toDate);
+
+		int capacity = 16;
+		int[] keys = new int[capacity];
+		long[] totals = new long[capacity];
+		int[] counts = new int[capacity];
+		int size = 0;
+
+		// the dates are sorted, so the month only has to be worked out when a row passes the end
+		// of the current one
+		Calendar calendar = Calendar.getInstance();
+		long monthEnd = Long.MIN_VALUE;
+		int month = 0;
+
+		for (int i = start; i < end; i++) {
+			if (mCurrencyIds[i] != currencyId) {
+				continue;
+			}
+			long date = mEventDates[i];
+			if (date >= monthEnd) {
+				calendar.setTimeInMillis(date);
+				month = calendar.get(Calendar.YEAR) * 100 + calendar.get(Calendar.MONTH) + 1;
+				calendar.set(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH), 1, 0, 0, 0);
+				calendar.set(Calendar.MILLISECOND, 0);
+				calendar.add(Calendar.MONTH, 1);
+				monthEnd = calendar.getTimeInMillis();
+			}
+
+			if (size == 0 || keys[size - 1] != month) {
+				if (size == capacity) {
+					capacity *= 2;
+					keys = grow(keys, size, capacity);
+					totals = grow(totals, size, capacity);
+					counts = grow(counts, size, capacity);
+				}
+				keys[size] = month;
+				size++;
+			}
+			totals[size - 1] += mAmounts[i];
+			counts[size - 1]++;
+		}
+		return new Groups(keys, totals, counts, size);
+	}
+
+	/**
+	 * @param currencyId id of the currency
+	 * @return index of the entry with the smallest amount in the currency with
+	 *         fromDate <= event_date < toDate, or -1 if there is none
+	 */
+	int indexOfMin(int currencyId, long fromDate, long toDate) {
+		return indexOfExtreme(currencyId, fromDate, toDate, false);
+	}
+
+	/**
+	 * @param currencyId id of the currency
+	 * @return index of the entry with the largest amount in the currency with
+	 *         fromDate <= event_date < toDate, or -1 if there is none
+	 */
+	int indexOfMax(int currencyId, long fromDate, long toDate) {
+		return indexOfExtreme(currencyId, fromDate, toDate, true);
+	}
+
+	private int indexOfExtreme(int currencyId, long fromDate, long toDate, boolean largest) {
+		int end = indexOfDate(toDate);
+		int found = -1;
+		for (int i = indexOfDate(fromDate); i < end; i++) {
+			if (mCurrencyIds[i] == currencyId && (found < 0 || (largest
+					? mAmounts[i] > mAmounts[found] : mAmounts[i] < mAmounts[found]))) {
+				found = i;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Finds the n entries with the largest, or smallest, amounts in one currency with
+	 * fromDate <= event_date < toDate. Keeps a heap of n indices, so the cost is
+	 * O(range * log n) whatever the size of the range.
+	 *
+	 * @param n maximum number of entries to return
+	 * @param currencyId id of the currency
+	 * @param largest true for the largest amounts, false for the smallest
+	 * @return the indices of the entries, the most extreme amount first
+	 */
+	int[] top(int n, int currencyId, long fromDate, long toDate, boolean largest) {
+		int end = indexOfDate(toDate);
+		// heap ordered so that its root is the least extreme of the amounts kept
+		int[] heap = new int[n];
+		int size = 0;
+
+		for (int i = indexOfDate(fromDate); i < end; i++) {
+			if (mCurrencyIds[i] != currencyId) {
+				continue;
+			}
+			if (size < n) {
+				heap[size] = i;
+				siftUp(heap, size, largest);
+				size++;
+			} else if (n > 0 && moreExtreme(i, heap[0], largest)) {
+				heap[0] = i;
+				siftDown(heap, size, largest);
+			}
+		}
+
+		// take the roots off one by one, least extreme first
+		int[] result = new int[size];
+		for (int k = size - 1; k >= 0; k--) {
+			result[k] = heap[0];
+			heap[0] = heap[k];
+			siftDown(heap, k, largest);
+		}
+		return result;
+	}
+
+	/**
+	 * @return true if the amount at a is more extreme than the one at b, ties going to the older entry
+	 */
+	private boolean moreExtreme(int a, int b, boolean largest) {
+		if (mAmounts[a] != mAmounts[b]) {
+			return largest ? mAmounts[a] > mAmounts[b] : mAmounts[a] < mAmounts[b];
+		}
+		return a < b;
+	}
+
+	private void siftUp(int[] heap, int k, boolean largest) {
+		int value = heap[k];
+		while (k > 0) {
+			int parent = (k - 1) >>> 1;
+			if (!moreExtreme(heap[parent], value, largest)) {
+				break;
+			}
+			heap[k] = heap[parent];
+			k = parent;
+		}
+		heap[k] = value;
+	}
+
+	private void siftDown(int[] heap, int size, boolean largest) {
+		if (size == 0) {
+			return;
+		}
+		int value = heap[0];
+		int k = 0;
+		int half = size >>> 1;
+		while (k < half) {
+			int child = 2 * k + 1;
+			if (child + 1 < size && moreExtreme(heap[child], heap[child + 1], largest)) {
+				child++;
+			}
+			if (!moreExtreme(value, heap[child], largest)) {
+				break;
+			}
+			heap[k] = heap[child];
+			k = child;
+		}
+		heap[k] = value;
+	}
+
+	private static int[] grow(int[] array, int size, int capacity) {
+		int[] grown = new int[capacity];
+		System.arraycopy(array, 0, grown, 0, size);
+		return grown;
+	}
+
+	private static long[] grow(long[] array, int size, int capacity) {
+		long[] grown = new long[capacity];
+		System.arraycopy(array, 0, grown, 0, size);
+		return grown;
+	}
+
+	/**
+	 * Collects the entries of a new ledger, extending a currency dictionary as new codes appear
+	 */
+	static class Builder {
+		private long[] mEventDates = new long[256];
+		private long[] mAmounts = new long[256];
+		private int[] mCurrencyIds = new int[256];
+		private int[] mRowIds = new int[256];
+		private int mSize;
+		private long mMaxRowId;
+
+		private String[] mDictionary;
+		private int mDictionarySize;
+
+		Builder() {
+			this(new String[0]);
+		}
+
+		/**
+		 * @param dictionary the currencies of the ledger that the entries will be merged into
+		 */
+		Builder(String[] dictionary) {
+			mDictionary = new String[Math.max(dictionary.length, 8)];
+			System.arraycopy(dictionary, 0, mDictionary, 0, dictionary.length);
+			mDictionarySize = dictionary.length;
+		}
+
+		/**
+		 * Adds an entry. Entries must be added in event date and rowId order.
+		 *
+		 * @param currencyId the currency as returned by {@link #currencyId(String)}
+		 */
+		void add(int rowId, long eventDate, long amount, int currencyId) {
+			if (mSize == mRowIds.length) {
+				int capacity = mSize * 2;
+				mEventDates = grow(mEventDates, mSize, capacity);
+				mAmounts = grow(mAmounts, mSize, capacity);
+				mCurrencyIds = grow(mCurrencyIds, mSize, capacity);
+				mRowIds = grow(mRowIds, mSize, capacity);
+			}
+			mRowIds[mSize] = rowId;
+			mEventDates[mSize] = eventDate;
+			mAmounts[mSize] = amount;
+			mCurrencyIds[mSize] = currencyId;
+			mMaxRowId = Math.max(mMaxRowId, rowId);
+			mSize++;
+		}
+
+		/**
+		 * @param code a currency code
+		 * @return the id of the currency in the ledger being built, added if it is new
+		 */
+		int currencyId(String code) {
+			for (int i = 0; i < mDictionarySize; i++) {
+				if (mDictionary[i].equals(code)) {
+					return i;
+				}
+			}
+			if (mDictionarySize == mDictionary.length) {
+				String[] grown = new String[mDictionarySize * 2];
+				System.arraycopy(mDictionary, 0, grown, 0, mDictionarySize);
+				mDictionary = grown;
+			}
+			mDictionary[mDictionarySize] = code;
+			return mDictionarySize++;
+		}
+
+		/**
+		 * @return number of entries added
+		 */
+		int size() {
+			return mSize;
+		}
+
+		/**
+		 * @return the highest rowId added, 0 if none
+		 */
+		long getMaxRowId() {
+			return mMaxRowId;
+		}
+
+		private String[] dictionary() {
+			String[] dictionary = new String[mDictionarySize];
+			System.arraycopy(mDictionary, 0, dictionary, 0, mDictionarySize);
+			return dictionary;
+		}
+	}
+}
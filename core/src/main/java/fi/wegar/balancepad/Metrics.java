@@ -0,0 +1,121 @@
+package fi.wegar.balancepad;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Timings of the operations of the application, kept per operation in a
+ * {@link LatencyHistogram}. Recording is off until enabled; while it is off timing an operation
+ * costs a read of one volatile field.
+ *
+ * <pre>
+ * private static final Metrics.Timer FETCH_TIMER = Metrics.timer("fetchEntry");
+ * ...
+ * long start = Metrics.start();
+ * Cursor c = ...;
+ * FETCH_TIMER.stop(start, c.getCount());
+ * </pre>
+ */
+final class Metrics {
+
+	private static volatile boolean sEnabled;
+
+	private static final ArrayList<Timer> sTimers = new ArrayList<Timer>();
+
+	private Metrics() {
+	}
+
+	/**
+	 * Times one operation
+	 */
+	static final class Timer {
+		final String name;
+		final LatencyHistogram histogram = new LatencyHistogram();
+
+		private Timer(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Records the time since start
+		 *
+		 * @param start the value returned by {@link Metrics#start()}, nothing is recorded if it is 0
+		 */
+		void stop(long start) {
+			stop(start, 0);
+		}
+
+		/**
+		 * Records the time since start and the rows handled by the operation
+		 *
+		 * @param start the value returned by {@link Metrics#start()}, nothing is recorded if it is 0
+		 */
+		void stop(long start, int rows) {
+			if (start != 0) {
+				histogram.record(System.nanoTime() - start, rows);
+			}
+		}
+	}
+
+	/**
+	 * @param name name of the operation in the dumps
+	 * @return a new timer, usually kept in a static field of the class that times the operation
+	 */
+	static Timer timer(String name) {
+		Timer timer = new Timer(name);
+		synchronized (sTimers) {
+			sTimers.add(timer);
+		}
+		return timer;
+	}
+
+	static void setEnabled(boolean enabled) {
+		sEnabled = enabled;
+	}
+
+	static boolean isEnabled() {
+		return sEnabled;
+	}
+
+	/**
+	 * @return the start time to pass to {@link Timer#stop(long, int)}, 0 if recording is off
+	 */
+	static long start() {
+		return sEnabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Clears the timings of every operation
+	 */
+	static void reset() {
+		synchronized (sTimers) {
+			for (Timer timer : sTimers) {
+				timer.histogram.reset();
+			}
+		}
+	}
+
+	/**
+	 * Writes the timings of the operations that have been recorded as a table with one line per
+	 * operation. Times are in milliseconds.
+	 */
+	static void dump(Writer out) throws IOException {
+		out.write(String.format(Locale.US, "%-24s %8s %10s %9s %9s %9s %9s %9s%n",
+				"operation", "count", "rows", "mean", "p50", "p90", "p99", "max"));
+		synchronized (sTimers) {
+			for (Timer timer : sTimers) {
+				LatencyHistogram h = timer.histogram;
+				long count = h.getCount();
+				if (count == 0) {
+					continue;
+				}
+				out.write(String.format(Locale.US, "%-24s %8d %10d %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+						timer.name, count, h.getRows(), h.getTotalMicros() / 1000.0 / count,
+						h.percentileMicros(50) / 1000.0, h.percentileMicros(90) / 1000.0,
+						h.percentileMicros(99) / 1000.0, h.getMaxMicros() / 1000.0));
+			}
+		}
+	}
+}
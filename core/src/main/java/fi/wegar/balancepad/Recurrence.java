@@ -0,0 +1,62 @@
+package fi.wegar.balancepad;
+
+import java.util.Calendar;
+
+/**
+ * Dates of the occurrences of a recurring entry. Occurrence n is computed from the start date
+ * rather than from occurrence n - 1, so monthly entries starting on the 31st fall on the last
+ * day of shorter months without drifting to the 28th afterwards.
+ */
+final class Recurrence {
+
+	static final int NONE = 0;
+	static final int DAILY = 1;
+	static final int WEEKLY = 2;
+	static final int MONTHLY = 3;
+	static final int YEARLY = 4;
+
+	/**
+	 * Value of the next occurrence of a rule that has no more occurrences
+	 */
+	static final long NO_NEXT = Long.MAX_VALUE;
+
+	private Recurrence() {
+	}
+
+	/**
+	 * @param startDate date of the first occurrence, in milliseconds
+	 * @param frequency one of {@link #DAILY}, {@link #WEEKLY}, {@link #MONTHLY} or {@link #YEARLY}
+	 * @param index number of the occurrence, 0 for the first one
+	 * @param calendar calendar in the time zone of the dates, overwritten
+	 * @return date of the occurrence
+	 */
+	static long occurrence(long startDate, int frequency, int index, Calendar calendar) {
+		calendar.setTimeInMillis(startDate);
+		switch (frequency) {
+		case DAILY:
+			calendar.add(Calendar.DAY_OF_MONTH, index);
+			break;
+		case WEEKLY:
+			calendar.add(Calendar.DAY_OF_MONTH, index * 7);
+			break;
+		case MONTHLY:
+			calendar.add(Calendar.MONTH, index);
+			break;
+		case YEARLY:
+			calendar.add(Calendar.YEAR, index);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown frequency " + frequency);
+		}
+		return calendar.getTimeInMillis();
+	}
+
+	/**
+	 * @param endDate date of the last possible occurrence, 0 if there is none
+	 * @return date of the occurrence, or {@link #NO_NEXT} if it falls after the end date
+	 */
+	static long occurrenceBefore(long startDate, int frequency, int index, long endDate, Calendar calendar) {
+		long date = occurrence(startDate, frequency, index, calendar);
+		return (endDate != 0 && date > endDate) ? NO_NEXT : date;
+	}
+}
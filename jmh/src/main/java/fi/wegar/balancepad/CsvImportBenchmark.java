@@ -0,0 +1,82 @@
+package fi.wegar.balancepad;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading and validating an import file the way BalanceCsvImporter does, without the database
+ * inserts. Every tenth description is quoted and contains a separator.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CsvImportBenchmark {
+
+	private static final String[] CURRENCIES = new String[] {"EUR", "USD", "SEK", "JPY"};
+
+	@Param({"10000", "100000"})
+	public int rows;
+
+	private String mCsv;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		StringBuilder csv = new StringBuilder(rows * 40);
+		for (int i = 0; i < rows; i++) {
+			if (i % 10 == 0) {
+				csv.append("\"Groceries, week ").append(i).append('"');
+			} else {
+				csv.append("Entry ").append(i);
+			}
+			String currency = CURRENCIES[random.nextInt(CURRENCIES.length)];
+			int amount = random.nextInt(200000) - 100000;
+			csv.append(',');
+			if ("JPY".equals(currency)) {
+				csv.append(amount);
+			} else {
+				csv.append(amount / 100).append('.').append(Math.abs(amount % 100) / 10).append(Math.abs(amount % 10));
+			}
+			csv.append(',').append(currency);
+			csv.append(',').append(2000 + random.nextInt(25));
+			csv.append('-').append(String.format("%02d", 1 + random.nextInt(12)));
+			csv.append('-').append(String.format("%02d", 1 + random.nextInt(28)));
+			csv.append('\n');
+		}
+		mCsv = csv.toString();
+	}
+
+	@Benchmark
+	public long readAndParse() throws IOException {
+		CsvReader reader = new CsvReader(new StringReader(mCsv), ',');
+		CsvEntryParser parser = new CsvEntryParser();
+		List<String> fields = new ArrayList<String>(CsvEntryParser.FIELD_COUNT);
+		long checksum = 0;
+		while (reader.readRecord(fields)) {
+			if (parser.parse(fields) != null) {
+				throw new IllegalStateException("Rejected generated record " + fields);
+			}
+			checksum += parser.amount + parser.eventDate;
+		}
+		return checksum;
+	}
+}
@@ -0,0 +1,91 @@
+package fi.wegar.balancepad;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The report queries of LedgerSnapshot over ledgers of different sizes, with entries spread
+ * over ten years in three currencies.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LedgerAggregationBenchmark {
+
+	private static final long DAY = 24L * 60 * 60 * 1000;
+	private static final long START = 946684800000L; // 2000-01-01
+	private static final long END = START + 10 * 365 * DAY;
+
+	@Param({"10000", "100000", "1000000"})
+	public int rows;
+
+	private Ledger mLedger;
+	private ExecutorService mExecutor;
+	private int mEur;
+	private long mLastYear;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		Ledger.Builder builder = new Ledger.Builder();
+		int[] currencies = new int[] {
+				builder.currencyId("EUR"), builder.currencyId("EUR"), builder.currencyId("USD"), builder.currencyId("SEK")};
+		long step = (END - START) / rows;
+		for (int i = 0; i < rows; i++) {
+			builder.add(i + 1, START + i * step, random.nextInt(200000) - 100000,
+					currencies[random.nextInt(currencies.length)]);
+		}
+		mLedger = new Ledger(builder);
+		mEur = mLedger.currencyId("EUR");
+		mLastYear = END - 365 * DAY;
+		mExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+	}
+
+	@TearDown
+	public void tearDown() {
+		mExecutor.shutdown();
+	}
+
+	@Benchmark
+	public Ledger.Groups groupByCurrency() {
+		return mLedger.groupByCurrency(Long.MIN_VALUE, Long.MAX_VALUE, null);
+	}
+
+	@Benchmark
+	public Ledger.Groups groupByCurrencyParallel() {
+		return mLedger.groupByCurrency(Long.MIN_VALUE, Long.MAX_VALUE, mExecutor);
+	}
+
+	@Benchmark
+	public long sumLastYear() {
+		return mLedger.sum(mEur, mLastYear, END, null);
+	}
+
+	@Benchmark
+	public Ledger.Groups groupByMonth() {
+		return mLedger.groupByMonth(mEur, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	@Benchmark
+	public int[] topTen() {
+		return mLedger.top(10, mEur, Long.MIN_VALUE, Long.MAX_VALUE, true);
+	}
+}
@@ -0,0 +1,44 @@
+package fi.wegar.balancepad;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of timing one operation with {@link Metrics}, with recording turned on and off
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+	private static final Metrics.Timer TIMER = Metrics.timer("benchmark");
+
+	@Param({"false", "true"})
+	public boolean enabled;
+
+	@Setup
+	public void setUp() {
+		Metrics.setEnabled(enabled);
+		Metrics.reset();
+	}
+
+	@Benchmark
+	public void timeOperation() {
+		long start = Metrics.start();
+		TIMER.stop(start, 1);
+	}
+}
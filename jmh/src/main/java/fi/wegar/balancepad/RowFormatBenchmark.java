@@ -0,0 +1,80 @@
+package fi.wegar.balancepad;
+
+import java.text.DateFormat;
+import java.text.NumberFormat;
+import java.util.Currency;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The formatting done for every row in BalanceListCursorAdapter.bindView, over rows like those
+ * of a list being scrolled: a few currencies and dates falling on a limited number of days.
+ * The uncached variant formats the way the adapter did before EntryFormatter, as a baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowFormatBenchmark {
+
+	private static final int ROWS = 1000;
+
+	private static final String[] CURRENCIES = new String[] {"EUR", "EUR", "EUR", "USD", "SEK"};
+
+	private final long[] mAmounts = new long[ROWS];
+	private final String[] mCurrencies = new String[ROWS];
+	private final long[] mEventDates = new long[ROWS];
+
+	private EntryFormatter mFormatter;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		long date = System.currentTimeMillis();
+		for (int i = 0; i < ROWS; i++) {
+			mAmounts[i] = random.nextInt(200000) - 100000;
+			mCurrencies[i] = CURRENCIES[random.nextInt(CURRENCIES.length)];
+			// newest first, a few entries per day
+			date -= random.nextInt(8 * 60 * 60 * 1000);
+			mEventDates[i] = date;
+		}
+		mFormatter = new EntryFormatter();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void bindRows(Blackhole blackhole) {
+		for (int i = 0; i < ROWS; i++) {
+			blackhole.consume(mFormatter.formatDate(mEventDates[i]));
+			blackhole.consume(mFormatter.formatAmount(mAmounts[i], mCurrencies[i]));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void bindRowsUncached(Blackhole blackhole) {
+		for (int i = 0; i < ROWS; i++) {
+			blackhole.consume(DateFormat.getDateInstance().format(new Date(mEventDates[i])));
+
+			NumberFormat format = NumberFormat.getCurrencyInstance();
+			format.setCurrency(Currency.getInstance(mCurrencies[i]));
+			blackhole.consume(format.format(Amounts.toDecimal(mAmounts[i], mCurrencies[i])));
+		}
+	}
+}